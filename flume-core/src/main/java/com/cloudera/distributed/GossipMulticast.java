@@ -28,6 +28,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +37,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -83,18 +86,32 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
   final ConcurrentLinkedQueue<GossipMessage> msgQueue = 
     new ConcurrentLinkedQueue<GossipMessage>();
   
-  // For the time being, we keep digests of all the messages we have ever seen
-  // so that we never re-enqueue messages that we already saw but expired.
-  // We might *receive* these messages more than once, but it would require
-  // an extra step in the protocol to send a list of requested digests to
-  // ensure we only get messages we've never seen. Instead, we just drop
-  // those messages upon consultation with this set. 
-  
-  // We could also age these messages out after, say, 5*MAX_AGE_MS which 'should'
-  // be the last time anyone sends the message. This would be easier with 
-  // synchronized global clocks.
-  final Set<String> seenMsgs = new HashSet<String>();
-  
+  // We keep digests of the messages we have seen so that we never re-enqueue
+  // messages that we already saw but expired. We might *receive* these
+  // messages more than once, but it would require an extra step in the
+  // protocol to send a list of requested digests to ensure we only get
+  // messages we've never seen. Instead, we just drop those messages upon
+  // consultation with this map.
+
+  // Digests are aged out after SEEN_AGE_FACTOR * maxAgeMillis, which 'should'
+  // be the last time anyone sends the message, and at most MAX_SEEN are kept
+  // so that a burst of messages can't grow the map without bound.
+  static final int SEEN_AGE_FACTOR = 5;
+  static final int MAX_SEEN = 100000;
+  final SeenDigests seenMsgs = new SeenDigests();
+
+  /**
+   * Digests of seen messages mapped to the time they were first seen, in the
+   * order they were seen. Access is synchronized on the map itself.
+   */
+  @SuppressWarnings("serial")
+  static class SeenDigests extends LinkedHashMap<String, Long> {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      return size() > MAX_SEEN;
+    }
+  }
+
   /**
    * Starts both server and client threads 
    */
@@ -175,7 +192,14 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
         algorithm = MessageDigest.getInstance("MD5");
         algorithm.reset();
         algorithm.update(contents);
-        digest = new String(algorithm.digest());        
+        // hex encode, decoding the raw bytes as a string is lossy and makes
+        // distinct messages collide.
+        StringBuilder sb = new StringBuilder();
+        for (byte b : algorithm.digest()) {
+          sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+          sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        digest = sb.toString();
       } catch (NoSuchAlgorithmException e) {       
         e.printStackTrace();
         this.digest = "";
@@ -256,11 +280,22 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
   }
       
   
-  void enqueue(GossipMessage gMsg) {    
-    gMsg.timestamp = System.currentTimeMillis();
+  /**
+   * Queues a message for gossip unless a message with the same digest has been
+   * seen already. Returns true if the message was queued.
+   */
+  boolean enqueue(GossipMessage gMsg) {
+    long now = System.currentTimeMillis();
+    synchronized (seenMsgs) {
+      if (seenMsgs.containsKey(gMsg.getDigest())) {
+        return false;
+      }
+      seenMsgs.put(gMsg.getDigest(), now);
+    }
+    gMsg.timestamp = now;
     digestMap.put(gMsg.getDigest(), gMsg);
-    seenMsgs.add(gMsg.getDigest());
     msgQueue.add(gMsg);
+    return true;
   }
   
   @Override
@@ -297,6 +332,7 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
       try {        
         while (running) {
           Thread.sleep(period);
+          runRoundHooks();
           if (msgQueue.size() > 0 && nodes.size() > 0) {
             TCPNodeId n = nodes.get(rand.nextInt(nodes.size()));
             if (!node.toString().equals(n.toString())) {
@@ -327,6 +363,27 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
     }
   }
   
+  final List<Runnable> roundHooks = new CopyOnWriteArrayList<Runnable>();
+
+  /**
+   * Registers a hook that is run by the gossip thread at the start of every
+   * round, before a peer is picked. Senders use this to batch up messages and
+   * send them once per round.
+   */
+  public void registerRoundHook(Runnable hook) {
+    roundHooks.add(hook);
+  }
+
+  void runRoundHooks() {
+    for (Runnable r : roundHooks) {
+      try {
+        r.run();
+      } catch (RuntimeException e) {
+        LOG.warn("Gossip round hook failed", e);
+      }
+    }
+  }
+
   /**
    * Calls all attached message receivers to inform them of the new message
    */
@@ -414,9 +471,11 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
   }
 
   /**
-   * Remove messages from the queue that are too old
+   * Remove messages from the queue that are too old, and forget the digests of
+   * messages that nobody should be sending any more.
    */
   protected void ageMessages(long time) {
+    ageSeen(time);
     while (!msgQueue.isEmpty()) {
       GossipMessage msg = msgQueue.peek();
       // Note: we are the only consumers of this queue (other threads add
@@ -436,6 +495,16 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
     }
   }
 
+  void ageSeen(long time) {
+    long maxSeenAge = SEEN_AGE_FACTOR * maxAgeMillis;
+    synchronized (seenMsgs) {
+      Iterator<Long> it = seenMsgs.values().iterator();
+      while (it.hasNext() && time - it.next() > maxSeenAge) {
+        it.remove();
+      }
+    }
+  }
+
   /**
    * Play the part of the server in a gossip protocol. 
    */
@@ -455,8 +524,7 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
       // and then release the lock, so that we don't hold the lock for a lot of IO
       for (int i=0;i<dMsg.getMsgsOut().size();++i) {
         GossipMessage gMsg = new GossipMessage(in);
-        if (!seenMsgs.contains(gMsg.getDigest())) {
-          enqueue(gMsg);
+        if (enqueue(gMsg)) {
           receiveMessage(gMsg);
         }
       }
@@ -482,11 +550,10 @@ public class GossipMulticast implements Multicast<GossipMulticast.GossipMessage>
     }
     for (int i=0;i<dMsg.getMsgsOut().size();++i) {
       GossipMessage gMsg = new GossipMessage(in);
-      if (!seenMsgs.contains(gMsg.getDigest())) {
+      if (enqueue(gMsg)) {
         ++count;
-        enqueue(gMsg);           
         receiveMessage(gMsg);
-      }          
+      }
     }    
     return count;
   } 
@@ -121,6 +121,10 @@ public class AgentFailChainSink extends EventSink.Base {
     snk.getReports(namePrefix + getName() + ".", reports);
   }
 
+  public EventSink getSink() {
+    return snk;
+  }
+
   /**
    * Generates a best effort chain (will drop on failures)
    * 
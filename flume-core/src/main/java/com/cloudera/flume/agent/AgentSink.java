@@ -31,6 +31,7 @@ import com.cloudera.flume.conf.FlumeSpecException;
 import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.handlers.batch.BlockCodec;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.Reportable;
 import com.google.common.base.Preconditions;
@@ -64,9 +65,36 @@ public class AgentSink extends EventSink.Base {
 
   public static final String BATCH_COUNT = "batchCount";
   public static final String BATCH_MILLIS = "batchMillis";
+  public static final String COMPRESSION = "compression";
+  public static final String COMPRESSION_LEVEL = "compressionLevel";
 
   final EventSink sink;
 
+  /**
+   * Returns the decorator for a compression setting. "true" and "gzip" select
+   * gzip, which all collectors can read, "lz" selects the faster lz codec, and
+   * "false" or "none" turn compression off.
+   */
+  static String compressionDeco(String compression, String level)
+      throws FlumeSpecException {
+    String codec = compression.trim().toLowerCase();
+    if (codec.equals("false") || codec.equals("none")) {
+      return "";
+    }
+    if (codec.equals("true")) {
+      codec = BlockCodec.GZIP;
+    }
+    if (!codec.equals(BlockCodec.GZIP) && !codec.equals(BlockCodec.LZ)) {
+      throw new FlumeSpecException("Unknown compression '" + compression
+          + "', expected true, false, " + BlockCodec.GZIP + " or "
+          + BlockCodec.LZ);
+    }
+    if (level == null) {
+      return " compress(\"" + codec + "\") ";
+    }
+    return " compress(\"" + codec + "\", " + Integer.parseInt(level) + ") ";
+  }
+
   public AgentSink(Context ctx, String dsthost, int port, ReliabilityMode mode)
       throws FlumeSpecException {
     Preconditions.checkNotNull(dsthost);
@@ -89,9 +117,10 @@ public class AgentSink extends EventSink.Base {
       batchGzDeco += " batch(" + n + "," + ms + ") ";
     }
 
-    if (ctx.getValue("compression") != null) {
-      // currently ignore all values, just use gzip
-      batchGzDeco += " gzip ";
+    String compression = ctx.getValue(COMPRESSION);
+    if (compression != null) {
+      batchGzDeco += compressionDeco(compression, ctx
+          .getValue(COMPRESSION_LEVEL));
     }
 
     switch (mode) {
@@ -166,7 +195,8 @@ public class AgentSink extends EventSink.Base {
       public EventSink build(Context context, String... argv) {
         Preconditions.checkArgument(argv.length <= 2,
             "usage: agentE2ESink(collectorhost[, port]{, " + BATCH_COUNT
-                + "=1}{, " + BATCH_MILLIS + "=0}{,compression=false})");
+                + "=1}{, " + BATCH_MILLIS + "=0}{, " + COMPRESSION
+                + "=false}{, " + COMPRESSION_LEVEL + "=-1})");
         FlumeConfiguration conf = FlumeConfiguration.get();
         String collector = conf.getCollectorHost();
         int port = conf.getCollectorPort();
@@ -208,7 +238,8 @@ public class AgentSink extends EventSink.Base {
       public EventSink build(Context context, String... argv) {
         Preconditions.checkArgument(argv.length <= 2,
             "usage: agentDFOSink(collectorhost[, port]{, " + BATCH_COUNT
-                + "=1}{, " + BATCH_MILLIS + "=0}{,compression=false})");
+                + "=1}{, " + BATCH_MILLIS + "=0}{, " + COMPRESSION
+                + "=false}{, " + COMPRESSION_LEVEL + "=-1})");
         FlumeConfiguration conf = FlumeConfiguration.get();
         String collector = conf.getCollectorHost();
         int port = conf.getCollectorPort();
@@ -246,7 +277,8 @@ public class AgentSink extends EventSink.Base {
       public EventSink build(Context context, String... argv) {
         Preconditions.checkArgument(argv.length <= 2,
             "usage: agentBESink(collectorhost[, port]{, " + BATCH_COUNT
-                + "=1}{, " + BATCH_MILLIS + "=0}{,compression=false})");
+                + "=1}{, " + BATCH_MILLIS + "=0}{, " + COMPRESSION
+                + "=false}{, " + COMPRESSION_LEVEL + "=-1})");
         FlumeConfiguration conf = FlumeConfiguration.get();
         String collector = conf.getCollectorHost();
         int port = conf.getCollectorPort();
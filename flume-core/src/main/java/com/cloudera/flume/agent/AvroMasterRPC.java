@@ -21,12 +21,14 @@ package com.cloudera.flume.agent;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.avro.AvroRemoteException;
+import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.ipc.HttpTransceiver;
 import org.apache.avro.ipc.specific.SpecificRequestor;
 
@@ -35,11 +37,13 @@ import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.avro.AvroFlumeConfigData;
+import com.cloudera.flume.conf.avro.AvroLogicalNodeStatus;
 import com.cloudera.flume.reporter.server.avro.AvroFlumeReport;
 import com.cloudera.flume.conf.avro.AvroFlumeClientServer;
 import com.cloudera.flume.handlers.endtoend.CollectorAckListener;
 import com.cloudera.flume.handlers.endtoend.AckListener;
 import com.cloudera.flume.master.MasterClientServerAvro;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.master.StatusManager.NodeStatus;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.server.AvroReportServer;
@@ -173,6 +177,26 @@ public class AvroMasterRPC implements MasterRPC {
     }
   }
 
+  @Override
+  public synchronized List<String> checkAcks(List<String> ackids)
+      throws IOException {
+    try {
+      ensureInitialized();
+      List<CharSequence> res = masterClient
+          .checkAcks(new ArrayList<CharSequence>(ackids));
+      List<String> out = new ArrayList<String>(res.size());
+      for (CharSequence r : res) {
+        out.add(r.toString());
+      }
+      return out;
+    } catch (AvroRemoteException e) {
+      LOG.debug("Avro error on " + toString(), e);
+      throw new IOException(e.getMessage());
+    } catch (AvroRuntimeException e) {
+      throw unknownMessage("checkAcks", e);
+    }
+  }
+
   @Override
   public synchronized boolean heartbeat(LogicalNode n) throws IOException {
     try {
@@ -187,6 +211,43 @@ public class AvroMasterRPC implements MasterRPC {
     }
   }
 
+  @Override
+  public synchronized MultiHeartbeat.Reply heartbeatAll(String physicalNode,
+      String host, Collection<LogicalNode> nodes, int chokeMapHash)
+      throws IOException {
+    try {
+      ensureInitialized();
+      List<AvroLogicalNodeStatus> ns = new ArrayList<AvroLogicalNodeStatus>(
+          nodes.size());
+      for (LogicalNode n : nodes) {
+        ns.add(MasterClientServerAvro.nodeToAvro(new MultiHeartbeat.Node(n
+            .getName(), n.getStatus().state, n.getConfigVersion())));
+      }
+      return MasterClientServerAvro.replyFromAvro(masterClient.heartbeatAll(
+          physicalNode, host, ns, chokeMapHash));
+    } catch (AvroRemoteException e) {
+      LOG.debug("Avro error on " + toString(), e);
+      throw new IOException(e.getMessage());
+    } catch (AvroRuntimeException e) {
+      throw unknownMessage("heartbeatAll", e);
+    }
+  }
+
+  /**
+   * An older master answers a message it does not have with a system error,
+   * which the requestor rethrows as an AvroRuntimeException. This converts
+   * that case into an UnsupportedRPCException and anything else into a plain
+   * IOException.
+   */
+  IOException unknownMessage(String rpc, AvroRuntimeException e) {
+    String msg = e.getMessage();
+    if (msg != null && msg.contains("No message named " + rpc)) {
+      return new UnsupportedRPCException(rpc, e);
+    }
+    LOG.debug("Avro error on " + toString(), e);
+    return new IOException(msg);
+  }
+
   @Override
   public synchronized void acknowledge(String group) throws IOException {
     try {
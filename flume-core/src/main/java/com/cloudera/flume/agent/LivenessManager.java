@@ -20,6 +20,7 @@ package com.cloudera.flume.agent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
@@ -33,7 +34,9 @@ import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
 import com.cloudera.flume.handlers.endtoend.AckListener.Empty;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.util.Clock;
+import com.cloudera.util.NetUtils;
 import com.cloudera.util.Pair;
 import com.google.common.base.Preconditions;
 
@@ -52,6 +55,12 @@ public class LivenessManager {
   private HeartbeatThread t;
   private CheckConfigThread cct;
 
+  // hashCode of the last choke map received from the master
+  private int chokeMapHash = 0;
+
+  // cleared once the master turns out to be too old for heartbeatAll
+  private volatile boolean heartbeatAllSupported = true;
+
   private final WALAckManager ackcheck;
   private final WALCompletionNotifier walman;
 
@@ -114,11 +123,11 @@ public class LivenessManager {
    * 
    * Invariant: There is always at least logical per physical node. When there
    * is one, it has the same name as the physical node.
+   * 
+   * This makes an rpc call per missing logical node; the heartbeat uses
+   * checkAllLogicalNodes instead unless the master does not support it.
    */
   public void checkLogicalNodes() throws IOException, InterruptedException {
-    // TODO (jon) Make this a single batched rpc call instead of
-    // multiple calls
-
     String physNode = nodesman.getPhysicalNodeName();
     // get logical nodes list for this node.
     List<String> lns = master.getLogicalNodes(physNode);
@@ -130,17 +139,7 @@ public class LivenessManager {
     for (String ln : lns) {
       // a logical node is not present? spawn it.
       if (nodesman.get(ln) == null) {
-        try {
-          final FlumeConfigData data = master.getConfig(ln);
-          if (data == null) {
-            LOG.debug("Logical Node '" + ln + "' not configured on master");
-            nodesman.spawn(ln, "null", "null");
-          } else {
-            nodesman.spawn(ln, data.getSourceConfig(), data.getSinkConfig());
-          }
-        } catch (FlumeSpecException e) {
-          LOG.error("This should never happen", e);
-        }
+        spawn(ln, master.getConfig(ln));
       }
     }
     // Update the Chokeinformation for the ChokeManager
@@ -151,13 +150,69 @@ public class LivenessManager {
     nodesman.decommissionAllBut(lns);
   }
 
+  /**
+   * Spawns logical node ln with configuration data, which is null if the
+   * master has none for it.
+   */
+  void spawn(String ln, FlumeConfigData data) throws IOException,
+      InterruptedException {
+    try {
+      if (data == null) {
+        LOG.debug("Logical Node '" + ln + "' not configured on master");
+        nodesman.spawn(ln, "null", "null");
+      } else {
+        nodesman.spawn(ln, data.getSourceConfig(), data.getSinkConfig());
+      }
+    } catch (FlumeSpecException e) {
+      LOG.error("This should never happen", e);
+    }
+  }
+
+  /**
+   * Does the work of checkLogicalNodes and checkLogicalNodeConfigs with a
+   * single heartbeat rpc for all the logical nodes. The master answers with
+   * the logical node list, only the configurations that changed and the choke
+   * map only if it is not the one this node already has.
+   */
+  public void checkAllLogicalNodes() throws IOException, InterruptedException {
+    String physNode = nodesman.getPhysicalNodeName();
+    Collection<LogicalNode> nodes = nodesman.getNodes();
+    MultiHeartbeat.Reply reply = master.heartbeatAll(physNode, NetUtils
+        .localhost(), nodes, chokeMapHash);
+
+    List<String> lns = reply.logicalNodes;
+    if (!lns.contains(physNode)) {
+      // physical node node present? make sure it stays around.
+      lns = new ArrayList<String>(lns);
+      lns.add(physNode);
+    }
+    for (String ln : lns) {
+      // a logical node is not present? spawn it.
+      if (nodesman.get(ln) == null) {
+        spawn(ln, reply.configs.get(ln));
+      }
+    }
+
+    if (reply.chokeMap != null) {
+      FlumeNode.getInstance().getChokeManager().updateChokeLimitMap(
+          reply.chokeMap);
+      chokeMapHash = reply.chokeMap.hashCode();
+    }
+
+    nodesman.decommissionAllBut(lns);
+
+    for (LogicalNode nd : nodes) {
+      FlumeConfigData data = reply.configs.get(nd.getName());
+      if (data != null && lns.contains(nd.getName())) {
+        enqueueCheckConfig(nd, data);
+      }
+    }
+  }
+
   /**
    * Checks registered nodes to see if they need a new configuraiton.
    */
   public void checkLogicalNodeConfigs() throws IOException {
-    // TODO (jon) batch all these rpc requests into one multi-part rpc
-    // request.
-
     for (LogicalNode nd : nodesman.getNodes()) {
       boolean needsCfg = master.heartbeat(nd);
       if (needsCfg) {
@@ -178,9 +233,19 @@ public class LivenessManager {
    */
   public void heartbeatChecks() throws IOException, InterruptedException {
     // these will call ensure open on the master
-    checkLogicalNodes();
-
-    checkLogicalNodeConfigs();
+    if (heartbeatAllSupported) {
+      try {
+        checkAllLogicalNodes();
+      } catch (UnsupportedRPCException e) {
+        LOG.warn("Master does not support heartbeatAll, falling back to "
+            + "per logical node heartbeats", e);
+        heartbeatAllSupported = false;
+      }
+    }
+    if (!heartbeatAllSupported) {
+      checkLogicalNodes();
+      checkLogicalNodeConfigs();
+    }
 
     // check for end to end acks.
     ackcheck.checkAcks(); // check for acks on master
@@ -27,6 +27,9 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,9 +40,14 @@ import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
 import com.cloudera.flume.core.Driver;
 import com.cloudera.flume.core.Driver.DriverState;
+import com.cloudera.flume.core.CompositeSink;
+import com.cloudera.flume.core.DurableSink;
 import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.EventSinkDecorator;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.core.connector.DirectDriver;
+import com.cloudera.flume.core.connector.PipelinedDriver;
+import com.cloudera.flume.master.availability.FailoverChainSink;
 import com.cloudera.flume.master.StatusManager.NodeState;
 import com.cloudera.flume.master.StatusManager.NodeStatus;
 import com.cloudera.flume.reporter.ReportEvent;
@@ -64,6 +72,18 @@ import com.cloudera.util.NetUtils;
  * instantiated and then instantiated into a new Driver. Any
  * parsing/instantiation failures exit by throwing exceptions.
  * 
+ * If the driver is running and only one of the source or the sink spec
+ * changed, the other is kept open: a new sink is opened and swapped in while
+ * the driver keeps pumping, and a new source gets a new driver that reuses the
+ * open sink. When the old and new sink specs start with the same decorators,
+ * those stay open and only the sink below them is swapped. The diff stops at
+ * the outer decorator chain: a change inside a fan out, failover or other
+ * composite sink replaces the whole composite. A new config whose specs parse
+ * the same as the current ones leaves the driver alone. Sinks that write ahead
+ * to the node's WAL or DFO logs ({@link DurableSink}s) are never swapped; a
+ * change to one restarts the driver so the old sink drains and closes before
+ * the new one opens.
+ * 
  * Currently a separate thread is used to reconfigure a node. A previous patch
  * made the logicalNode lazily open the source and sinks. This defers real open
  * errors into the main driver thread. This actually differs any open exceptions
@@ -83,6 +103,10 @@ public class LogicalNode implements Reportable {
   private Driver driver; // the connector that pumps data from src to snk
   private EventSink snk; // current sink and source instances.
   private EventSource src;
+  private SwappableSink swapSnk; // what the driver appends to, wraps snk
+  // config the running source and sink were built from, null if they were
+  // handed in directly
+  private FlumeConfigData driverCfg;
   private NodeStatus state;
   private String nodeName;
   private String nodeMsg;
@@ -94,8 +118,10 @@ public class LogicalNode implements Reportable {
 
   // metrics
   private AtomicLong reconfigures = new AtomicLong(0);
+  private AtomicLong hotReconfigures = new AtomicLong(0);
 
   public static final String A_RECONFIGURES = "reconfigures";
+  public static final String A_HOT_RECONFIGURES = "hotReconfigures";
 
   /**
    * For JAXB
@@ -140,6 +166,7 @@ public class LogicalNode implements Reportable {
   synchronized void loadNodeDriver(EventSource newSrc, EventSink newSnk)
       throws IOException, InterruptedException {
     ensureClosedSourceSink(newSrc, newSnk);
+    driverCfg = null;
     startNodeDriver();
   }
 
@@ -156,6 +183,7 @@ public class LogicalNode implements Reportable {
   synchronized void startNodeDriver(EventSource newSrc, EventSink newSink,
       long ms) throws IOException, InterruptedException {
     ensureClosedSourceSink(newSrc, newSink);
+    driverCfg = null;
     startNodeDriver();
     getDriver().waitForState(DriverState.ACTIVE, ms);
   }
@@ -165,30 +193,279 @@ public class LogicalNode implements Reportable {
    * a new one with the specified *already opened* source and sink arguments.
    */
   private void startNodeDriver() throws IOException {
+    stopNodeDriver();
+    addSwapPoints(snk);
+    swapSnk = SwappableSink.wrap(snk);
+    startDriver();
+  }
 
-    if (driver != null) {
-      // stop the existing connector.
-      driver.stop();
-      try {
-        // default is 30s.
-        long timeout = FlumeConfiguration.get().getNodeCloseTimeout();
-        if (!driver.join(timeout)) {
-          LOG.error("Forcing driver to exit uncleanly");
-          driver.cancel(); // taking too long, cancel the thread
-        }
-      } catch (InterruptedException e) {
-        LOG.error("Previous driver took too long to close!", e);
+  /**
+   * Stops the existing connector, if any. Returns false if it did not exit in
+   * time and had to be cancelled.
+   */
+  private boolean stopNodeDriver() throws IOException {
+    if (driver == null) {
+      return true;
+    }
+    driver.stop();
+    try {
+      // default is 30s.
+      long timeout = FlumeConfiguration.get().getNodeCloseTimeout();
+      if (!driver.join(timeout)) {
+        LOG.error("Forcing driver to exit uncleanly");
+        driver.cancel(); // taking too long, cancel the thread
+        return false;
       }
+    } catch (InterruptedException e) {
+      LOG.error("Previous driver took too long to close!", e);
+      return false;
     }
+    return true;
+  }
 
-    // this will be replaceable with multi-threaded queueing versions or other
-    // mechanisms
-    driver = new DirectDriver("logicalNode " + nodeName, src, snk);
+  private void startDriver() throws IOException {
+    driver = createDriver();
     this.state.state = NodeState.ACTIVE;
     driver.start();
     reconfigures.incrementAndGet();
   }
 
+  /**
+   * Returns true if two source or sink specs parse to the same tree, so
+   * formatting differences alone don't rebuild anything.
+   */
+  static boolean sameSpec(String a, String b, boolean sink) {
+    if (a == null || b == null) {
+      return false;
+    }
+    if (a.equals(b)) {
+      return true;
+    }
+    try {
+      CommonTree ta = sink ? FlumeBuilder.parseSink(a) : FlumeBuilder
+          .parseSource(a);
+      CommonTree tb = sink ? FlumeBuilder.parseSink(b) : FlumeBuilder
+          .parseSource(b);
+      return ta.toStringTree().equals(tb.toStringTree());
+    } catch (RecognitionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns true if the built sink has a DurableSink anywhere in it. Sinks are
+   * found through their sub metrics, looking through the sinks that stand in
+   * for the one they wrap.
+   */
+  static boolean hasDurableSink(Reportable r) {
+    if (r instanceof DurableSink) {
+      return true;
+    }
+    if (r instanceof SwappableSink) {
+      return hasDurableSink(((SwappableSink) r).current());
+    }
+    if (r instanceof CompositeSink) {
+      return hasDurableSink(((CompositeSink) r).getSink());
+    }
+    if (r instanceof AgentFailChainSink) {
+      return hasDurableSink(((AgentFailChainSink) r).getSink());
+    }
+    if (r instanceof FailoverChainSink) {
+      return hasDurableSink(((FailoverChainSink) r).getSink());
+    }
+    Map<String, Reportable> subs = r.getSubMetrics();
+    if (subs == null) {
+      return false;
+    }
+    for (Reportable sub : subs.values()) {
+      if (sub != null && hasDurableSink(sub)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Puts a SwappableSink under each decorator of the chain that s starts
+   * with, so that a later config which keeps those decorators can swap what is
+   * below them. Stops at a DurableSink, which is never swapped.
+   */
+  @SuppressWarnings("unchecked")
+  static void addSwapPoints(EventSink s) {
+    while (s instanceof EventSinkDecorator && !(s instanceof DurableSink)) {
+      EventSinkDecorator<EventSink> deco = (EventSinkDecorator<EventSink>) s;
+      EventSink child = deco.getSink();
+      if (child == null) {
+        return;
+      }
+      if (child instanceof SwappableSink) {
+        s = ((SwappableSink) child).current();
+        continue;
+      }
+      deco.setSink(SwappableSink.wrap(child));
+      s = child;
+    }
+  }
+
+  /**
+   * Returns the sink under a DECO node of a parsed sink spec, skipping over
+   * undecorated DECO nodes.
+   */
+  static Tree undecorated(Tree t) {
+    while ("DECO".equals(t.getText()) && t.getChildCount() == 1) {
+      t = t.getChild(0);
+    }
+    return t;
+  }
+
+  /**
+   * Swaps newSnk in for the running sink. Where the old and new specs start
+   * with the same decorators, the running decorators are kept and only the
+   * part of newSnk below them is opened and swapped in; the rest of newSnk is
+   * dropped unopened. Returns false if the driver has to be restarted
+   * instead.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean swapSink(String oldSpec, String newSpec, EventSink newSnk)
+      throws InterruptedException {
+    SwappableSink point = swapSnk;
+    EventSink oldSub = snk;
+    EventSink newSub = newSnk;
+    try {
+      Tree ot = undecorated(FlumeBuilder.parseSink(oldSpec));
+      Tree nt = undecorated(FlumeBuilder.parseSink(newSpec));
+      while ("DECO".equals(ot.getText()) && "DECO".equals(nt.getText())
+          && ot.getChild(0).toStringTree().equals(
+              nt.getChild(0).toStringTree())
+          && oldSub instanceof EventSinkDecorator
+          && newSub instanceof EventSinkDecorator) {
+        EventSink child = ((EventSinkDecorator<EventSink>) oldSub).getSink();
+        if (!(child instanceof SwappableSink)) {
+          break;
+        }
+        point = (SwappableSink) child;
+        oldSub = point.current();
+        newSub = ((EventSinkDecorator<EventSink>) newSub).getSink();
+        ot = undecorated(ot.getChild(1));
+        nt = undecorated(nt.getChild(1));
+      }
+    } catch (RecognitionException e) {
+      // both were built from these specs, but swap the whole sink if not
+      LOG.debug("Could not parse sink spec", e);
+    }
+
+    if (hasDurableSink(oldSub) || hasDurableSink(newSub)) {
+      // both sinks would be open on the node's WAL or DFO logs at once, so
+      // close the old one (which drains them) before opening the new one
+      LOG.info(nodeName + " sink writes ahead to disk, restarting driver");
+      return false;
+    }
+    addSwapPoints(newSub);
+    // open the new sink while events still go to the old one
+    try {
+      newSub.open();
+    } catch (IOException e) {
+      // sinks can be reopened, the driver will try again and report errors
+      LOG.warn(nodeName + " could not open new sink, restarting driver", e);
+      closeQuietly(newSub);
+      return false;
+    }
+    EventSink old = point.swap(newSub, FlumeConfiguration.get()
+        .getNodeCloseTimeout());
+    if (old == null) {
+      // the driver closed down meanwhile, an append is stuck, or the new sink
+      // can't be appended to by all of the writers above it
+      closeQuietly(newSub);
+      return false;
+    }
+    if (point == swapSnk) {
+      snk = newSnk;
+    }
+    closeQuietly(old);
+    LOG.info(nodeName + " swapped in new sink " + newSub.getName());
+    return true;
+  }
+
+  /**
+   * Applies cfg without tearing down whatever part of the running driver it
+   * leaves unchanged. Returns false if the driver isn't running or both the
+   * source and sink changed, in which case the caller does a full restart.
+   */
+  synchronized boolean hotReconfigure(FlumeConfigData cfg, EventSource newSrc,
+      EventSink newSnk) throws IOException, InterruptedException {
+    if (driver == null || swapSnk == null || driverCfg == null
+        || driver.getState() != DriverState.ACTIVE) {
+      return false;
+    }
+    boolean sameSrc = sameSpec(driverCfg.sourceConfig, cfg.sourceConfig, false);
+    boolean sameSnk = sameSpec(driverCfg.sinkConfig, cfg.sinkConfig, true);
+
+    if (sameSrc && sameSnk) {
+      LOG.info(nodeName + " source and sink unchanged, keeping driver");
+    } else if (sameSrc) {
+      if (!swapSink(driverCfg.sinkConfig, cfg.sinkConfig, newSnk)) {
+        return false;
+      }
+    } else if (sameSnk) {
+      // restart the driver on the new source, keeping the open sink
+      swapSnk.setKeepOpen(true);
+      boolean clean;
+      try {
+        clean = stopNodeDriver();
+      } finally {
+        swapSnk.setKeepOpen(false);
+      }
+      src = newSrc;
+      if (!clean) {
+        // a cancelled driver may have left the sink in any state, so start
+        // over with the new one
+        closeQuietly(swapSnk);
+        snk = newSnk;
+        swapSnk = SwappableSink.wrap(snk);
+        startDriver();
+        return true;
+      }
+      startDriver();
+      LOG.info(nodeName + " restarted driver on new source, kept sink open");
+    } else {
+      return false;
+    }
+    hotReconfigures.incrementAndGet();
+    return true;
+  }
+
+  static void closeQuietly(EventSink s) {
+    try {
+      s.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close sink " + s.getName(), e);
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted closing sink " + s.getName(), e);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Creates the connector for the current source and sink, either a single
+   * threaded direct driver or a pipelined driver with separate reader and
+   * writer threads.
+   */
+  private Driver createDriver() {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    String type = conf.getNodeDriverType(nodeName);
+    int batchSize = conf.getNodeDriverBatchSize();
+    String thdName = "logicalNode " + nodeName;
+    if ("pipelined".equalsIgnoreCase(type)) {
+      return new PipelinedDriver(thdName, src, swapSnk, batchSize,
+          conf.getNodeDriverQueueSize(), conf.getNodeDriverWriters());
+    }
+    if (!"direct".equalsIgnoreCase(type)) {
+      LOG.warn("Unknown driver type '" + type + "' for " + nodeName
+          + ", using direct driver");
+    }
+    return new DirectDriver(thdName, src, swapSnk, batchSize);
+  }
+
   public void loadConfig(FlumeConfigData cfg) throws IOException,
       RuntimeException, FlumeSpecException {
 
@@ -246,7 +523,12 @@ public class LogicalNode implements Reportable {
     }
 
     try {
-      loadNodeDriver(newSrc, newSnk);
+      synchronized (this) {
+        if (!hotReconfigure(cfg, newSrc, newSnk)) {
+          loadNodeDriver(newSrc, newSnk);
+        }
+        driverCfg = cfg;
+      }
 
       // We have successfully opened the source and sinks for the config. We can
       // mark this as the last good / successful config. It does not mean that
@@ -344,6 +626,7 @@ public class LogicalNode implements Reportable {
         : lastGoodCfg.sinkConfig);
     rpt.setStringMetric("message", nodeMsg);
     rpt.setLongMetric(A_RECONFIGURES, reconfigures.get());
+    rpt.setLongMetric(A_HOT_RECONFIGURES, hotReconfigures.get());
     rpt.setStringMetric("physicalnode", state.physicalNode);
 
     return rpt;
@@ -358,6 +641,10 @@ public class LogicalNode implements Reportable {
     if (snk != null) {
       map.put("sink." + snk.getName(), snk);
     }
+    if (driver instanceof Reportable) {
+      Reportable r = (Reportable) driver;
+      map.put("driver." + r.getName(), r);
+    }
     return map;
   }
 
@@ -19,11 +19,13 @@
 package com.cloudera.flume.agent;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.handlers.endtoend.AckListener;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.reporter.ReportEvent;
 
 /**
@@ -52,8 +54,22 @@ public interface MasterRPC {
    */
   public boolean checkAck(String ackid) throws IOException;
 
+  /**
+   * This checks for a batch of acks at the master, and returns the ones that
+   * are complete.
+   */
+  public List<String> checkAcks(List<String> ackids) throws IOException;
+
   public boolean heartbeat(LogicalNode n) throws IOException;
 
+  /**
+   * Heartbeats all the logical nodes of a physical node in one call.
+   * chokeMapHash is the hashCode of the choke map the node currently has, the
+   * reply only carries a choke map if the master's is different.
+   */
+  public MultiHeartbeat.Reply heartbeatAll(String physicalNode, String host,
+      Collection<LogicalNode> nodes, int chokeMapHash) throws IOException;
+
   public void acknowledge(String group) throws IOException;
 
   public List<String> getLogicalNodes(String physNode) throws IOException;
@@ -19,6 +19,7 @@ package com.cloudera.flume.agent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.handlers.endtoend.AckListener;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.util.FixedPeriodBackoff;
 import com.cloudera.util.Pair;
@@ -171,6 +173,23 @@ public class MultiMasterRPC implements MasterRPC {
      */
     abstract public T doRPC() throws IOException;
 
+    /**
+     * Set when the master does not know the rpc. Failing over or retrying
+     * will not help in that case, so it is handed back to the caller.
+     */
+    UnsupportedRPCException unsupported = null;
+
+    /**
+     * Returns the result of a successful attempt, or rethrows the
+     * UnsupportedRPCException that ended the attempts.
+     */
+    T getSupportedResult() throws UnsupportedRPCException {
+      if (unsupported != null) {
+        throw unsupported;
+      }
+      return getResult();
+    }
+
     public boolean doTry() {
       /**
        * Getting the locking efficient here is difficult because of subtle race
@@ -181,6 +200,9 @@ public class MultiMasterRPC implements MasterRPC {
         try {
           result = doRPC();
           return true;
+        } catch (UnsupportedRPCException e) {
+          unsupported = e;
+          return true;
         } catch (Exception e) {
           /**
            * A subtle race condition - if two RPC calls have failed and fallen
@@ -238,6 +260,26 @@ public class MultiMasterRPC implements MasterRPC {
     }
   }
 
+  /**
+   * This checks for a batch of acks at the master
+   */
+  public List<String> checkAcks(final List<String> ackids) throws IOException {
+    RPCRetryable<List<String>> retry = new RPCRetryable<List<String>>() {
+      public List<String> doRPC() throws IOException {
+        return masterRPC.checkAcks(ackids);
+      }
+    };
+
+    RetryHarness harness = new RetryHarness(retry, new FixedPeriodBackoff(
+        RETRY_PAUSE_MS, MAX_RETRIES), true);
+    try {
+      harness.attempt();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return retry.getSupportedResult();
+  }
+
   public List<String> getLogicalNodes(final String physicalNode)
       throws IOException {
     RPCRetryable<List<String>> retry = new RPCRetryable<List<String>>() {
@@ -299,6 +341,25 @@ public class MultiMasterRPC implements MasterRPC {
     }
   }
 
+  public MultiHeartbeat.Reply heartbeatAll(final String physicalNode,
+      final String host, final Collection<LogicalNode> nodes,
+      final int chokeMapHash) throws IOException {
+    RPCRetryable<MultiHeartbeat.Reply> retry = new RPCRetryable<MultiHeartbeat.Reply>() {
+      public MultiHeartbeat.Reply doRPC() throws IOException {
+        return masterRPC.heartbeatAll(physicalNode, host, nodes, chokeMapHash);
+      }
+    };
+
+    RetryHarness harness = new RetryHarness(retry, new FixedPeriodBackoff(
+        RETRY_PAUSE_MS, MAX_RETRIES), true);
+    try {
+      harness.attempt();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return retry.getSupportedResult();
+  }
+
   public void acknowledge(final String group) throws IOException {
     RPCRetryable<Void> retry = new RPCRetryable<Void>() {
       public Void doRPC() throws IOException {
@@ -0,0 +1,198 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.agent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.ThreadSafeSink;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.Reportable;
+import com.google.common.base.Preconditions;
+
+/**
+ * The sink a logical node's driver appends to. It forwards to the node's
+ * current sink, which can be replaced by an already opened sink while the
+ * driver keeps running, and it can be told to stay open when the driver
+ * closes it so that the same sink survives a driver restart.
+ * 
+ * The node also puts one under each of the outer decorators of its sink, so
+ * that what is below them can be replaced the same way. It reports as the
+ * sink it forwards to, so it doesn't show up in the node's reports.
+ */
+class SwappableSink extends EventSink.Base {
+  // appends hold the read lock, swapping the sink takes the write lock
+  final ReadWriteLock lock = new ReentrantReadWriteLock();
+  EventSink sink; // guarded by lock
+  boolean open = false; // guarded by this
+  boolean keepOpen = false; // guarded by this
+
+  SwappableSink(EventSink sink) {
+    Preconditions.checkNotNull(sink);
+    this.sink = sink;
+  }
+
+  /**
+   * Wraps sink, keeping its ThreadSafeSink marker so that a pipelined driver
+   * can still run several writers over it.
+   */
+  static SwappableSink wrap(EventSink sink) {
+    if (sink instanceof ThreadSafeSink) {
+      return new ThreadSafe(sink);
+    }
+    return new SwappableSink(sink);
+  }
+
+  /**
+   * A SwappableSink over a thread safe sink, which only swaps in thread safe
+   * sinks since its driver may be appending from several threads.
+   */
+  static class ThreadSafe extends SwappableSink implements ThreadSafeSink {
+    ThreadSafe(EventSink sink) {
+      super(sink);
+    }
+
+    @Override
+    synchronized EventSink swap(EventSink newSink, long timeoutMs)
+        throws InterruptedException {
+      if (!(newSink instanceof ThreadSafeSink)) {
+        return null;
+      }
+      return super.swap(newSink, timeoutMs);
+    }
+  }
+
+  EventSink current() {
+    lock.readLock().lock();
+    try {
+      return sink;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void append(Event e) throws IOException, InterruptedException {
+    lock.readLock().lock();
+    try {
+      sink.append(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    lock.readLock().lock();
+    try {
+      sink.appendBatch(events);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Opens the current sink, unless it is still open from a previous driver.
+   */
+  @Override
+  synchronized public void open() throws IOException, InterruptedException {
+    if (open) {
+      return;
+    }
+    current().open();
+    open = true;
+  }
+
+  /**
+   * Closes the current sink, unless we have been told to keep it open.
+   */
+  @Override
+  synchronized public void close() throws IOException, InterruptedException {
+    if (keepOpen) {
+      return;
+    }
+    open = false;
+    current().close();
+  }
+
+  /**
+   * While set, close calls leave the sink open.
+   */
+  synchronized void setKeepOpen(boolean keepOpen) {
+    this.keepOpen = keepOpen;
+  }
+
+  /**
+   * Replaces the current sink with newSink, which must already be open, once
+   * in flight appends are done. Returns the replaced sink for the caller to
+   * close, or null if nothing was swapped: either this sink has been closed in
+   * the meantime, the in flight appends did not finish within timeoutMs, or
+   * newSink can't take the place of the current sink.
+   */
+  synchronized EventSink swap(EventSink newSink, long timeoutMs)
+      throws InterruptedException {
+    Preconditions.checkNotNull(newSink);
+    if (!open) {
+      return null;
+    }
+    // an append stuck on a dead downstream must not hang reconfiguration
+    if (!lock.writeLock().tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+      return null;
+    }
+    try {
+      EventSink old = sink;
+      sink = newSink;
+      return old;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return current().getName();
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    return current().getMetrics();
+  }
+
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    return current().getSubMetrics();
+  }
+
+  @Override
+  public ReportEvent getReport() {
+    return current().getReport();
+  }
+
+  @Deprecated
+  @Override
+  public void getReports(String namePrefix, Map<String, ReportEvent> reports) {
+    current().getReports(namePrefix, reports);
+  }
+}
@@ -19,6 +19,8 @@
 package com.cloudera.flume.agent;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,9 +40,11 @@ import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer.Client;
+import com.cloudera.flume.conf.thrift.ThriftLogicalNodeStatus;
 import com.cloudera.flume.handlers.endtoend.AckListener;
 import com.cloudera.flume.handlers.endtoend.CollectorAckListener;
 import com.cloudera.flume.master.MasterClientServerThrift;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.master.StatusManager.NodeStatus;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.server.thrift.ThriftFlumeReport;
@@ -160,6 +164,24 @@ public class ThriftMasterRPC implements MasterRPC {
 
   }
 
+  @Override
+  public synchronized List<String> checkAcks(List<String> ackids)
+      throws IOException {
+    try {
+      ensureConnected();
+      return masterClient.checkAcks(ackids);
+    } catch (TApplicationException e) {
+      if (e.getType() == TApplicationException.UNKNOWN_METHOD) {
+        throw new UnsupportedRPCException("checkAcks", e);
+      }
+      LOG.debug("Thrift error on " + toString(), e);
+      throw new IOException(e.getMessage());
+    } catch (TException e) {
+      LOG.debug("Thrift error on " + toString(), e);
+      throw new IOException(e.getMessage());
+    }
+  }
+
   public synchronized boolean heartbeat(LogicalNode n) throws IOException {
     try {
       ensureConnected();
@@ -175,6 +197,31 @@ public class ThriftMasterRPC implements MasterRPC {
 
   }
 
+  public synchronized MultiHeartbeat.Reply heartbeatAll(String physicalNode,
+      String host, Collection<LogicalNode> nodes, int chokeMapHash)
+      throws IOException {
+    try {
+      ensureConnected();
+      List<ThriftLogicalNodeStatus> ns = new ArrayList<ThriftLogicalNodeStatus>(
+          nodes.size());
+      for (LogicalNode n : nodes) {
+        ns.add(MasterClientServerThrift.nodeToThrift(new MultiHeartbeat.Node(n
+            .getName(), n.getStatus().state, n.getConfigVersion())));
+      }
+      return MasterClientServerThrift.replyFromThrift(masterClient
+          .heartbeatAll(physicalNode, host, ns, chokeMapHash));
+    } catch (TApplicationException e) {
+      if (e.getType() == TApplicationException.UNKNOWN_METHOD) {
+        throw new UnsupportedRPCException("heartbeatAll", e);
+      }
+      LOG.debug("Thrift error on " + toString(), e);
+      throw new IOException(e.getMessage());
+    } catch (TException e) {
+      LOG.debug("Thrift error on " + toString(), e);
+      throw new IOException(e.getMessage());
+    }
+  }
+
   @Override
   public synchronized void acknowledge(String group) throws IOException {
     try {
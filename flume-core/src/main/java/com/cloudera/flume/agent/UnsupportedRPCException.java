@@ -0,0 +1,36 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.agent;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a MasterRPC when the master does not know the called rpc, which
+ * happens when it runs an older version of flume. Unlike other IOExceptions
+ * this does not mean the master is down, so callers should fall back to the
+ * older rpcs instead of failing over or retrying.
+ */
+public class UnsupportedRPCException extends IOException {
+
+  private static final long serialVersionUID = 4460387233590624377L;
+
+  public UnsupportedRPCException(String rpc, Throwable cause) {
+    super("Master does not support rpc " + rpc, cause);
+  }
+
+}
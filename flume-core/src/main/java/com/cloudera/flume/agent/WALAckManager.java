@@ -56,6 +56,8 @@ import com.google.common.base.Preconditions;
  * groups. (latency is less important if we have alot of stale stuff, throughput
  * more important)
  * 
+ * The master does 2), see MasterAckManager.
+ * 
  * TODO (jon) Rename to SenderAckManager
  * 
  * TODO (jon) decouple acks from the WAL
@@ -66,12 +68,17 @@ public class WALAckManager implements Reportable {
 
   static final Logger LOG = LoggerFactory.getLogger(WALAckManager.class);
 
+  // max number of acks checked in one rpc
+  static final int ACK_BATCH = 1000;
+
   // a pending set of acks
   final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
   MasterRPC client;
   final AckListener queuer = new PendingAckQueuer();
   final AckListener listener;
   final long retransmitTime;
+  // cleared once the master turns out to be too old for checkAcks
+  volatile boolean checkAcksSupported = true;
 
   WALAckManager(MasterRPC c, AckListener listener, long ackRetransmit) {
     Preconditions.checkNotNull(c);
@@ -102,22 +109,23 @@ public class WALAckManager implements Reportable {
 
   /**
    * This contacts the master to find if any of the pending acks are completed,
+   * with one rpc per ACK_BATCH pending acks.
    */
   synchronized public void checkAcks() {
     LOG.debug("agent acks waiting for master: " + pending);
 
-    // TODO (make this a batch operation with only one RPC call)
+    List<String> keys = new ArrayList<String>(pending.keySet());
     List<String> done = new ArrayList<String>();
-    for (String k : pending.keySet()) {
+    for (int i = 0; i < keys.size(); i += ACK_BATCH) {
+      List<String> batch = keys.subList(i, Math.min(keys.size(), i
+          + ACK_BATCH));
       try {
-        boolean acked = client.checkAck(k);
-        if (acked) {
-          done.add(k);
-        }
+        done.addAll(checkBatch(batch));
       } catch (IOException e) {
         // TODO (jon) there is a potential inconsistency here if master comms
         // fail (but this is recovered when retry happens).
         LOG.error("Master connection exception", e);
+        break;
       } catch (RuntimeException re) {
         LOG.warn("check ack was in a illegal state", re);
       }
@@ -137,6 +145,30 @@ public class WALAckManager implements Reportable {
 
   }
 
+  /**
+   * Returns the acked tags of the batch. This is one checkAcks rpc unless the
+   * master is too old to support it, in which case each tag is checked with
+   * its own checkAck rpc.
+   */
+  List<String> checkBatch(List<String> batch) throws IOException {
+    if (checkAcksSupported) {
+      try {
+        return client.checkAcks(batch);
+      } catch (UnsupportedRPCException e) {
+        LOG.warn("Master does not support checkAcks, falling back to "
+            + "checking acks one at a time", e);
+        checkAcksSupported = false;
+      }
+    }
+    List<String> acked = new ArrayList<String>();
+    for (String k : batch) {
+      if (client.checkAck(k)) {
+        acked.add(k);
+      }
+    }
+    return acked;
+  }
+
   /**
    * This checks the pending table to see if any acks have been idle for too
    * long and need to be retried.
@@ -30,6 +30,7 @@ import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.LogicalNodeContext;
 import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
 import com.cloudera.flume.core.Driver.DriverState;
+import com.cloudera.flume.core.DurableSink;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
@@ -49,7 +50,8 @@ import com.google.common.base.Preconditions;
  * It has a subordinate thread that drains the events that have been written to
  * disk. Latches are used to maintain open and close semantics.
  */
-public class DiskFailoverDeco extends EventSinkDecorator<EventSink> {
+public class DiskFailoverDeco extends EventSinkDecorator<EventSink>
+    implements DurableSink {
   static final Logger LOG = LoggerFactory.getLogger(DiskFailoverDeco.class);
 
   private final DiskFailoverManager dfoMan;
@@ -31,6 +31,7 @@ import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.LogicalNodeContext;
 import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
 import com.cloudera.flume.core.Driver.DriverState;
+import com.cloudera.flume.core.DurableSink;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
@@ -50,7 +51,8 @@ import com.google.common.base.Preconditions;
  * has a subordinate thread that drains the events that have been written to
  * disk. Latches are used to maintain open and close semantics.
  */
-public class NaiveFileWALDeco extends EventSinkDecorator<EventSink> {
+public class NaiveFileWALDeco extends EventSinkDecorator<EventSink>
+    implements DurableSink {
   static final Logger LOG = LoggerFactory.getLogger(NaiveFileWALDeco.class);
 
   final WALManager walman;
@@ -19,12 +19,20 @@ package com.cloudera.flume.agent.durability;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -33,6 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.Context;
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSink;
@@ -40,10 +49,11 @@ import com.cloudera.flume.core.EventSinkDecorator;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.core.EventUtil;
 import com.cloudera.flume.core.MaskDecorator;
-import com.cloudera.flume.handlers.debug.MemorySinkSource;
+import com.cloudera.flume.handlers.debug.NullSink;
 import com.cloudera.flume.handlers.endtoend.AckChecksumChecker;
 import com.cloudera.flume.handlers.endtoend.AckChecksumInjector;
 import com.cloudera.flume.handlers.endtoend.AckListener;
+import com.cloudera.flume.handlers.hdfs.GroupCommitter;
 import com.cloudera.flume.handlers.hdfs.SeqfileEventSink;
 import com.cloudera.flume.handlers.hdfs.SeqfileEventSource;
 import com.cloudera.flume.handlers.rolling.RollSink;
@@ -101,6 +111,9 @@ public class NaiveFileWALManager implements WALManager {
 
   private volatile boolean shuttingDown = false;
 
+  // forces writing files to disk in groups, null if disabled.
+  private final GroupCommitter committer;
+
   /**
    * Simple record for keeping the state of tag.
    */
@@ -126,6 +139,14 @@ public class NaiveFileWALManager implements WALManager {
   File baseDir;
 
   public NaiveFileWALManager(File baseDir) {
+    this(baseDir, newGroupCommitter(FlumeConfiguration.get()));
+  }
+
+  /**
+   * If committer is not null, files in the writing state are group committed
+   * using it.
+   */
+  public NaiveFileWALManager(File baseDir, GroupCommitter committer) {
     File writingDir = new File(baseDir, WRITINGDIR);
     File loggedDir = new File(baseDir, LOGGEDDIR);
     File xmitableDir = new File(baseDir, SENDINGDIR);
@@ -146,6 +167,15 @@ public class NaiveFileWALManager implements WALManager {
     this.doneDir = doneDir;
     this.errorDir = errDir;
     this.baseDir = baseDir;
+    this.committer = committer;
+  }
+
+  static GroupCommitter newGroupCommitter(FlumeConfiguration conf) {
+    if (!conf.getWALGroupCommit()) {
+      return null;
+    }
+    return new GroupCommitter(conf.getWALGroupCommitBytes(),
+        conf.getWALGroupCommitMillis());
   }
 
   synchronized public void open() throws IOException {
@@ -272,29 +302,27 @@ public class NaiveFileWALManager implements WALManager {
    * corrupt or improperly framed (a properly framed file has an ack start and
    * an ack end events with proper checksum).
    * 
-   * If corrupt, the file is moved into the error bucket.
+   * Recovery streams the log in two passes so memory use does not depend on
+   * the size of the log. The first pass only checks the framing. A properly
+   * framed log is recovered with just a move.
    * 
-   * If improperly framed, it attempts to reframe logs. After a new,
-   * properly-framed log is generated, the original log is moved to the error
-   * bucket. Without this, these log files will get stuck forever in e2e mode's
-   * retry loop.
+   * If corrupt or improperly framed, the second pass strips the old ack tags
+   * and rewrites the events that can be read with new framing into the logged
+   * bucket. The original log is then moved to the error bucket. Without this,
+   * these log files will get stuck forever in e2e mode's retry loop.
    */
   void recoverLog(final File dir, final String f) throws IOException,
       InterruptedException {
     LOG.info("Attempting to recover " + dir.getAbsolutePath() + " / " + f);
-    MemorySinkSource strippedEvents = new MemorySinkSource();
+    boolean corrupt = false;
     AckFramingState state = null;
     try {
-      state = checkAndStripAckFraming(dir, f, strippedEvents);
+      state = checkAckFraming(dir, f);
     } catch (IOException e) {
-      // try to restore as many as made it through
-      restoreAckFramingToLoggedState(f, strippedEvents);
-      moveToErrorState(dir, f);
-      LOG.info("Recover moved {} from WRITING, rewritten to LOGGED"
-          + " and old version moved to ERROR", f, e);
-      return;
+      LOG.warn("Recovered log file {} was corrupt", f, e);
+      corrupt = true;
     }
-    if (state.isFramingValid()) {
+    if (!corrupt && state.isFramingValid()) {
       // good, this is recoverable with just a move.
       File old = new File(dir, f);
       if (!old.isFile() || !old.renameTo(new File(loggedDir, f))) {
@@ -304,9 +332,11 @@ public class NaiveFileWALManager implements WALManager {
       return;
     }
 
-    // oh no, this had no ack close, let's restore them.
-    LOG.info("Valid events in {} but does not have proper ack tags!", f);
-    restoreAckFramingToLoggedState(f, strippedEvents);
+    // oh no, this was corrupt or had no ack close, let's restore them.
+    if (!corrupt) {
+      LOG.info("Valid events in {} but does not have proper ack tags!", f);
+    }
+    restoreAckFramingToLoggedState(dir, f);
     moveToErrorState(dir, f);
     LOG.info("Recover moved {} from WRITING, rewritten to LOGGED "
         + "and old version moved to ERROR", f);
@@ -333,18 +363,43 @@ public class NaiveFileWALManager implements WALManager {
   }
 
   /**
-   * Takes stripped events and writes new log with proper framing to the LOGGED
-   * state. This assumes all events in mem are stripped of ack related
-   * attributes and events.
+   * Streams the events of log f in dir, stripped of ack related attributes and
+   * events, into a new log with proper framing in the LOGGED state. If f is
+   * corrupt, all the events before the corruption are restored.
    */
-  private void restoreAckFramingToLoggedState(final String f,
-      MemorySinkSource mem) throws IOException, InterruptedException {
+  private void restoreAckFramingToLoggedState(final File dir, final String f)
+      throws IOException, InterruptedException {
     EventSink ackfixed = new AckChecksumInjector<EventSink>(
         new SeqfileEventSink(new File(loggedDir, f).getAbsoluteFile()));
+    // strip previous ack tagged attributes out of events before reframing.
+    EventSink mask = new MaskDecorator<EventSink>(ackfixed,
+        AckChecksumInjector.ATTR_ACK_TYPE, AckChecksumInjector.ATTR_ACK_TAG,
+        AckChecksumInjector.ATTR_ACK_HASH);
+    // drop the old ack events.
+    EventSink check = new AckChecksumChecker<EventSink>(mask,
+        new AckFramingState());
+    EventSource src = new SeqfileEventSource(new File(dir, f).getAbsolutePath());
+    try {
+      check.open();
+    } catch (IOException e) {
+      LOG.error("problem when attempting to fix corrupted WAL log {}", f, e);
+      throw e;
+    }
     try {
-      ackfixed.open();
-      EventUtil.dumpAll(mem, ackfixed);
-      ackfixed.close();
+      src.open();
+      EventUtil.dumpAll(src, check);
+    } catch (IOException e) {
+      // keep the events that made it through
+      LOG.warn("Recovered log file {} was corrupt", f);
+    } finally {
+      try {
+        src.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close recovered log file {}", f, e);
+      }
+    }
+    try {
+      check.close();
     } catch (IOException e) {
       LOG.error("problem when attempting to fix corrupted WAL log {}", f, e);
       throw e;
@@ -352,39 +407,50 @@ public class NaiveFileWALManager implements WALManager {
   }
 
   /**
-   * Checks the framing of a the log file f, and strips all the ack related tags
-   * from a WAL log file. Returns a state that knows if the group has been
-   * properly ack framed, and all the stripped events are added to the memory
-   * buffer.
+   * Checks the framing of a the log file f without keeping any of its events.
+   * Returns a state that knows if the group has been properly ack framed.
+   * Throws an IOException if the log is corrupt.
    */
-  private AckFramingState checkAndStripAckFraming(final File dir,
-      final String f, MemorySinkSource mem) throws InterruptedException,
-      IOException {
+  private AckFramingState checkAckFraming(final File dir, final String f)
+      throws InterruptedException, IOException {
     EventSource src = new SeqfileEventSource(new File(dir, f).getAbsolutePath());
     AckFramingState state = new AckFramingState();
-    // strip previous ack tagged attributes out of events before putting raw
-    // events.
-    EventSink mask = new MaskDecorator<EventSink>(mem,
-        AckChecksumInjector.ATTR_ACK_TYPE, AckChecksumInjector.ATTR_ACK_TAG,
-        AckChecksumInjector.ATTR_ACK_HASH);
     // check for and extract the ack events.
     AckChecksumChecker<EventSink> check = new AckChecksumChecker<EventSink>(
-        mask, state);
+        new NullSink(), state);
 
     try {
-      // copy all raw events into mem buffer
       src.open();
       check.open();
       EventUtil.dumpAll(src, check);
-      src.close();
-      check.close();
-    } catch (IOException e) {
-      LOG.warn("Recovered log file {}  was corrupt", f);
-      throw e;
+    } finally {
+      try {
+        src.close();
+      } finally {
+        check.close();
+      }
     }
     return state;
   }
 
+  /**
+   * Recovers log f in dir when run.
+   */
+  private Callable<Void> recoverTask(final File dir, final String f) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        try {
+          recoverLog(dir, f);
+        } catch (InterruptedException e) {
+          LOG.error("Interupted when trying to recover WAL log {}", f, e);
+          throw new IOException("Unable to recover " + dir + f);
+        }
+        return null;
+      }
+    };
+  }
+
   /**
    * This looks at directory structure and recovers state based on where files
    * are in the file system.
@@ -394,35 +460,33 @@ public class NaiveFileWALManager implements WALManager {
    * performant.
    */
   synchronized public void recover() throws IOException {
-
-    // move all writing into the logged dir.
-    for (String f : writingDir.list()) {
-      try {
-        recoverLog(writingDir, f);
-      } catch (InterruptedException e) {
-        LOG.error("Interupted when trying to recover WAL log {}", f, e);
-        throw new IOException("Unable to recover " + writingDir + f);
-      }
-    }
-
-    // move all sending into the logged dir
-    for (String f : sendingDir.list()) {
-      try {
-        recoverLog(sendingDir, f);
-      } catch (InterruptedException e) {
-        LOG.error("Interupted when trying to recover WAL log {}", f, e);
-        throw new IOException("Unable to recover " + sendingDir + f);
+    // move all writing, sending and sent into the logged dir.
+    int threads = FlumeConfiguration.get().getWALRecoveryThreads();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> recovering = new ArrayList<Future<Void>>();
+      for (File dir : new File[] { writingDir, sendingDir, sentDir }) {
+        for (String f : dir.list()) {
+          recovering.add(pool.submit(recoverTask(dir, f)));
+        }
       }
-    }
 
-    // move all sent into the logged dir.
-    for (String f : sentDir.list()) {
-      try {
-        recoverLog(sentDir, f);
-      } catch (InterruptedException e) {
-        LOG.error("Interupted when trying to recover WAL log {}", f, e);
-        throw new IOException("Unable to recover " + sentDir + f);
+      for (Future<Void> fut : recovering) {
+        try {
+          fut.get();
+        } catch (InterruptedException e) {
+          LOG.error("Interupted when trying to recover WAL logs", e);
+          throw new IOException("Unable to recover WAL logs", e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw new IOException("Unable to recover WAL logs", cause);
+        }
       }
+    } finally {
+      pool.shutdownNow();
     }
 
     // add all logged to loggedQ and table
@@ -448,7 +512,7 @@ public class NaiveFileWALManager implements WALManager {
     final String tag = tagger.newTag();
 
     EventSink bareSink = new SeqfileEventSink(
-        new File(dir, tag).getAbsoluteFile());
+        new File(dir, tag).getAbsoluteFile(), committer);
     EventSink curSink = new AckChecksumInjector<EventSink>(bareSink,
         tag.getBytes(), al);
 
@@ -488,7 +552,7 @@ public class NaiveFileWALManager implements WALManager {
     File dir = getDir(State.WRITING);
     final String tag = tagger.newTag();
     EventSink curSink = new SeqfileEventSink(
-        new File(dir, tag).getAbsoluteFile());
+        new File(dir, tag).getAbsoluteFile(), committer);
     writingQ.add(tag);
     WALData data = new WALData(tag);
     table.put(tag, data);
@@ -850,7 +914,12 @@ public class NaiveFileWALManager implements WALManager {
 
   @Override
   public Map<String, Reportable> getSubMetrics() {
-    return ReportUtil.noChildren();
+    if (committer == null) {
+      return ReportUtil.noChildren();
+    }
+    Map<String, Reportable> map = new HashMap<String, Reportable>();
+    map.put(committer.getName(), committer);
+    return map;
   }
 
   @Override
@@ -40,7 +40,7 @@ import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
 import com.cloudera.flume.core.MaskDecorator;
-import com.cloudera.flume.handlers.batch.GunzipDecorator;
+import com.cloudera.flume.handlers.batch.DecompressDecorator;
 import com.cloudera.flume.handlers.batch.UnbatchingDecorator;
 import com.cloudera.flume.handlers.debug.InsistentAppendDecorator;
 import com.cloudera.flume.handlers.debug.InsistentOpenDecorator;
@@ -118,7 +118,7 @@ public class CollectorSink extends EventSink.Base {
     // needs an extra mask before rolling, writing to disk and forwarding acks
     // (roll detect).
 
-    // gunzip unbatch ackChecksumChecker insistentAppend stubbornAppend
+    // decompress unbatch ackChecksumChecker insistentAppend stubbornAppend
     // insistentOpen mask("rolltag") roll(xx) { rollDetect subsink }
 
     EventSink tmp = new MaskDecorator<EventSink>(roller, "rolltag");
@@ -127,7 +127,7 @@ public class CollectorSink extends EventSink.Base {
     tmp = new InsistentAppendDecorator<EventSink>(tmp, backoff2);
     tmp = new AckChecksumChecker<EventSink>(tmp, accum);
     tmp = new UnbatchingDecorator<EventSink>(tmp);
-    snk = new GunzipDecorator<EventSink>(tmp);
+    snk = new DecompressDecorator<EventSink>(tmp);
   }
 
   /**
@@ -161,6 +161,10 @@ public class FlumeConfiguration extends Configuration {
   public static final String AGENT_MULTIMASTER_MAXRETRIES = "flume.agent.multimaster.maxretries";
   public static final String AGENT_MULTIMASTER_RETRYBACKOFF = "flume.agent.multimaster.retrybackoff";
   public static final String WAL_OUTPUT_BUFFER = "flume.node.wal.output.buffered";
+  public static final String WAL_GROUP_COMMIT = "flume.node.wal.groupcommit";
+  public static final String WAL_GROUP_COMMIT_BYTES = "flume.node.wal.groupcommit.bytes";
+  public static final String WAL_GROUP_COMMIT_MILLIS = "flume.node.wal.groupcommit.millis";
+  public static final String WAL_RECOVERY_THREADS = "flume.node.wal.recovery.threads";
 
   // Flow options
   public static final String DEFAULT_FLOW_NAME = "flume.flow.default.name";
@@ -170,11 +174,26 @@ public class FlumeConfiguration extends Configuration {
   public static final String THRIFT_QUEUESIZE = "flume.thrift.queuesize";
   public static final String THRIFT_CLOSE_MAX_SLEEP = "flume.thrift.close.maxsleep";
   public static final String THRIFT_SOCKET_TIMEOUT_MS = "flume.thrift.socket.timeout.ms";
+  public static final String THRIFT_BATCH_WINDOW = "flume.thrift.batch.window";
+  public static final String THRIFT_SERVER = "flume.thrift.server";
+  public static final String INGEST_STRIPES = "flume.ingest.stripes";
+  public static final String INGEST_MAX_BYTES = "flume.ingest.maxbytes";
+  public static final String THRIFT_NIO_SELECTORS = "flume.thrift.nio.selectors";
+  public static final String THRIFT_NIO_WORKERS = "flume.thrift.nio.workers";
   public static final String INSISTENTOPEN_INIT_BACKOFF = "flume.inisistentOpen.init.backoff";
   public static final String HISTORY_DEFAULTPERIOD = "flume.countHistory.period";
   public static final String HISTORY_MAXLENGTH = "flume.history.maxlength";
   public static final String TAIL_POLLPERIOD = "flume.tail.pollperiod";
+  public static final String TAIL_CHECKPOINT = "flume.tail.checkpoint";
+  public static final String TAIL_CHECKPOINT_PERIOD = "flume.tail.checkpoint.period";
+  public static final String TAIL_IDLE_MAX = "flume.tail.idle.max";
+  public static final String TAIL_THREADS = "flume.tail.threads";
+  public static final String TAIL_BUFFER = "flume.tail.buffer";
+  public static final String WATCH_NOTIFY = "flume.watch.notify";
+  public static final String WATCH_RECHECK = "flume.watch.recheck";
   public static final String EVENT_RPC_TYPE = "flume.event.rpc";
+  public static final String EVENT_AVRO_TRANSPORT = "flume.event.avro.transport";
+  public static final String EVENT_AVRO_WINDOW = "flume.event.avro.window";
 
   // Collector parameters
   public final static String COLLECTOR_EVENT_HOST = "flume.collector.event.host";
@@ -183,6 +202,8 @@ public class FlumeConfiguration extends Configuration {
   public static final String COLLECTOR_ROLL_MILLIS = "flume.collector.roll.millis";
   public static final String COLLECTOR_OUTPUT_FORMAT = "flume.collector.output.format";
   public static final String COLLECTOR_DFS_COMPRESS_CODEC = "flume.collector.dfs.compress.codec";
+  public static final String COLLECTOR_DFS_MAX_OPEN_FILES = "flume.collector.dfs.max.open.files";
+  public static final String COLLECTOR_DFS_IDLE_TIMEOUT = "flume.collector.dfs.idle.timeout";
 
   // TODO(henry) move these to flume.master - they now tell the master which
   // interface / port to start up on
@@ -196,6 +217,10 @@ public class FlumeConfiguration extends Configuration {
   public static final String NODE_HEARTBEAT_BACKOFF_LIMIT = "flume.node.heartbeat.backoff.ceiling";
   public static final String NODE_HTTP_AUTOFINDPORT = "flume.node.http.autofindport";
   public static final String NODE_CLOSE_TIMEOUT = "flume.node.close.timeout";
+  public static final String NODE_DRIVER_BATCH_SIZE = "flume.node.driver.batchsize";
+  public static final String NODE_DRIVER_TYPE = "flume.node.driver.type";
+  public static final String NODE_DRIVER_QUEUE_SIZE = "flume.node.driver.queuesize";
+  public static final String NODE_DRIVER_WRITERS = "flume.node.driver.writers";
   public static final String CONFIG_ADMIN_PORT = "flume.config.admin.port";
   public static final String REPORT_SERVER_PORT = "flume.report.server.port";
   public static final String REPORT_SERVER_RPC_TYPE = "flume.report.server.rpc.type";
@@ -231,6 +256,7 @@ public class FlumeConfiguration extends Configuration {
   public static final String MASTER_GOSSIP_PERIOD_MS = "flume.master.gossip.period";
   public static final String MASTER_GOSSIP_MAXAGE_MS = "flume.master.gossip.maxage";
   public static final String MASTER_GOSSIP_PORT = "flume.master.gossip.port";
+  public static final String MASTER_ACK_MAXAGE_MS = "flume.master.ack.maxage";
 
   // ZooKeeper bits and pieces
   public static final String MASTER_ZK_LOGDIR = "flume.master.zk.logdir";
@@ -247,6 +273,7 @@ public class FlumeConfiguration extends Configuration {
   public static final String ZK_SYNC_LIMIT = "flume.zk.synclimit";
 
   public static final String EVENT_MAX_SIZE = "flume.event.max.size.bytes";
+  public static final String EVENT_COMPACT_FORMAT = "flume.event.format.compact";
 
   public static final String GANGLIA_SERVERS = "flume.ganglia.servers";
 
@@ -561,6 +588,70 @@ public class FlumeConfiguration extends Configuration {
     return getInt(THRIFT_SOCKET_TIMEOUT_MS, 10000);
   }
 
+  /**
+   * Number of independently locked stripes in the buffer of a network source.
+   * 0 uses one per processor, up to 8.
+   */
+  public int getIngestStripes() {
+    int stripes = getInt(INGEST_STRIPES, 0);
+    if (stripes > 0) {
+      return stripes;
+    }
+    return Math.min(8, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Max total size of the event bodies held in the buffer of a network
+   * source.
+   */
+  public long getIngestMaxBytes() {
+    return getLong(INGEST_MAX_BYTES, 64 * 1024 * 1024);
+  }
+
+  /**
+   * The max number of unacknowledged appendBatch calls a thrift event sink
+   * has outstanding on its connection. 0 sends batches as individual oneway
+   * appends, like sinks that predate appendBatch.
+   */
+  public int getThriftBatchWindow() {
+    return getInt(THRIFT_BATCH_WINDOW, 4);
+  }
+
+  public static final String THRIFT_SERVER_THREADPOOL = "threadpool";
+  public static final String THRIFT_SERVER_NIO = "nio";
+
+  /**
+   * This returns the server used by thrift and scribe event sources:
+   * "threadpool", which has a thread per connection, or "nio", which serves
+   * all connections from a few selector threads and a fixed worker pool.
+   */
+  public String getThriftServer() {
+    String entered = get(THRIFT_SERVER, THRIFT_SERVER_THREADPOOL)
+        .toLowerCase();
+    if (entered.equals(THRIFT_SERVER_THREADPOOL)
+        || entered.equals(THRIFT_SERVER_NIO)) {
+      return entered;
+    }
+    LOG.warn("flume.thrift.server = '{}' incorrectly defined, should be "
+        + "either \"threadpool\" or \"nio\".  Defaulting to \"threadpool\"",
+        entered);
+    return THRIFT_SERVER_THREADPOOL;
+  }
+
+  /**
+   * Number of selector threads doing the socket io of a nio thrift server.
+   */
+  public int getThriftNioSelectors() {
+    return getInt(THRIFT_NIO_SELECTORS, 2);
+  }
+
+  /**
+   * Number of worker threads processing the requests of a nio thrift server.
+   */
+  public int getThriftNioWorkers() {
+    return getInt(THRIFT_NIO_WORKERS, 16);
+  }
+
   /**
    * Initial backoff in mills after a failed open attempt in an insistentOpen
    * decorator
@@ -593,6 +684,64 @@ public class FlumeConfiguration extends Configuration {
     return getLong(TAIL_POLLPERIOD, 1000);
   }
 
+  /**
+   * If true, tail sources save how far they have read each file in the
+   * node's directory under flume.agent.logdir and resume from there after a
+   * restart.
+   */
+  public boolean getTailCheckpoint() {
+    return getBoolean(TAIL_CHECKPOINT, false);
+  }
+
+  /**
+   * Milliseconds between saves of the tail checkpoints.
+   */
+  public long getTailCheckpointPeriod() {
+    return getLong(TAIL_CHECKPOINT_PERIOD, 5000);
+  }
+
+  /**
+   * The longest time in millis a tail waits before rechecking a file that has
+   * not changed in a while. Idle files are checked less and less often up to
+   * this limit. 0 checks every file on every poll.
+   */
+  public long getTailIdleMax() {
+    return getLong(TAIL_IDLE_MAX, 0);
+  }
+
+  /**
+   * Number of threads a tail source reads its files with. Files are spread
+   * over the threads, each file is read by one of them.
+   */
+  public int getTailThreads() {
+    return getInt(TAIL_THREADS, 1);
+  }
+
+  /**
+   * Number of lines a tail source buffers between its reader threads and
+   * the node. 0 hands lines over one at a time.
+   */
+  public int getTailBuffer() {
+    return getInt(TAIL_BUFFER, 1000);
+  }
+
+  /**
+   * If true, dir watchers and tails ask the platform to notify them of changes
+   * to the directories they watch instead of relying on polling alone. This
+   * needs a Java 7 or later runtime, otherwise polling is used.
+   */
+  public boolean getWatchNotify() {
+    return getBoolean(WATCH_NOTIFY, false);
+  }
+
+  /**
+   * Millis between safety rechecks of directories and files that are watched
+   * through notifications.
+   */
+  public long getWatchRecheck() {
+    return getLong(WATCH_RECHECK, 5000);
+  }
+
   public String getCollectorHost() {
     return get(COLLECTOR_EVENT_HOST, "localhost");
   }
@@ -620,6 +769,34 @@ public class FlumeConfiguration extends Configuration {
     return RPC_TYPE_THRIFT;
   }
 
+  public static final String AVRO_TRANSPORT_HTTP = "http";
+  public static final String AVRO_TRANSPORT_NETTY = "netty";
+
+  /**
+   * This returns the transport used by avro event sinks and sources: "http",
+   * which makes an http request per call, or "netty", which keeps one socket
+   * open. Both ends have to use the same transport.
+   */
+  public String getEventAvroTransport() {
+    String entered = get(EVENT_AVRO_TRANSPORT, AVRO_TRANSPORT_HTTP)
+        .toLowerCase();
+    if (entered.equals(AVRO_TRANSPORT_HTTP)
+        || entered.equals(AVRO_TRANSPORT_NETTY)) {
+      return entered;
+    }
+    LOG.warn("flume.event.avro.transport = '{}' incorrectly defined, should "
+        + "be either \"http\" or \"netty\".  Defaulting to \"http\"", entered);
+    return AVRO_TRANSPORT_HTTP;
+  }
+
+  /**
+   * The max number of appendBatch calls an avro event sink has in flight at
+   * once on the netty transport.
+   */
+  public int getEventAvroWindow() {
+    return getInt(EVENT_AVRO_WINDOW, 4);
+  }
+
   public String getCollectorDfsDir() {
     return get(COLLECTOR_DFS_DIR, "file://tmp/flume-${user.name}/collected");
   }
@@ -628,6 +805,21 @@ public class FlumeConfiguration extends Configuration {
     return get(COLLECTOR_DFS_COMPRESS_CODEC, "None");
   }
 
+  /**
+   * Max number of files an escaping dfs sink keeps open at once.
+   */
+  public int getCollectorDfsMaxOpenFiles() {
+    return getInt(COLLECTOR_DFS_MAX_OPEN_FILES, 512);
+  }
+
+  /**
+   * Millis after which an escaping dfs sink closes a file that has not been
+   * written to. 0 disables idle closing.
+   */
+  public long getCollectorDfsIdleTimeout() {
+    return getLong(COLLECTOR_DFS_IDLE_TIMEOUT, 300000);
+  }
+
   public long getCollectorRollMillis() {
     return getLong(COLLECTOR_ROLL_MILLIS, 30000);
   }
@@ -777,6 +969,13 @@ public class FlumeConfiguration extends Configuration {
     return getLong(MASTER_GOSSIP_MAXAGE_MS, 300 * 1000);
   }
 
+  /**
+   * Max age of acks on the master that have not been checked by an agent.
+   */
+  public long getMasterAckMaxAge() {
+    return getLong(MASTER_ACK_MAXAGE_MS, 600 * 1000);
+  }
+
   public int getMasterGossipPort() {
     String port = get(MASTER_GOSSIP_PORT, null);
     if (port != null) {
@@ -949,6 +1148,16 @@ public class FlumeConfiguration extends Configuration {
     return getLong(EVENT_MAX_SIZE, 32 * 1024); // Default to 32k
   }
 
+  /**
+   * Whether events are serialized in the compact format in WAL, DFO and
+   * seqfile logs and in batched and compressed events. Both formats are always
+   * readable, but nodes older than this release can only read the original
+   * format, so only enable this when every node has been upgraded.
+   */
+  public boolean getEventCompactFormat() {
+    return getBoolean(EVENT_COMPACT_FORMAT, false);
+  }
+
   public String getPluginClasses() {
     return get(PLUGIN_CLASSES, "");
   }
@@ -1065,6 +1274,44 @@ public class FlumeConfiguration extends Configuration {
     return getLong(NODE_CLOSE_TIMEOUT, 30000);
   }
 
+  /**
+   * Maximum number of events a logical node's driver hands to its sink in one
+   * appendBatch call. The default of 1 appends events one at a time.
+   */
+  public int getNodeDriverBatchSize() {
+    return getInt(NODE_DRIVER_BATCH_SIZE, 1);
+  }
+
+  /**
+   * The kind of driver ("direct" or "pipelined") that pumps events from a
+   * logical node's source to its sink. A value set for
+   * flume.node.driver.type.<logicalnode> overrides the default for that
+   * logical node.
+   */
+  public String getNodeDriverType(String logicalNode) {
+    String type = get(NODE_DRIVER_TYPE + "." + logicalNode);
+    if (type != null) {
+      return type;
+    }
+    return get(NODE_DRIVER_TYPE, "direct");
+  }
+
+  /**
+   * Number of batches the pipelined driver buffers between its reader and
+   * writer stages.
+   */
+  public int getNodeDriverQueueSize() {
+    return getInt(NODE_DRIVER_QUEUE_SIZE, 16);
+  }
+
+  /**
+   * Number of writer threads used by the pipelined driver. Sinks that don't
+   * implement ThreadSafeSink always get a single writer.
+   */
+  public int getNodeDriverWriters() {
+    return getInt(NODE_DRIVER_WRITERS, 1);
+  }
+
   /**
    * Whether or not the WAL should buffer writes to disk. Defaults to true.
    */
@@ -1072,4 +1319,36 @@ public class FlumeConfiguration extends Configuration {
     return getBoolean(WAL_OUTPUT_BUFFER, true);
   }
 
+  /**
+   * Whether or not the WAL groups appends and forces them to disk together.
+   * When enabled this takes precedence over the WAL output buffering setting.
+   * Defaults to false.
+   */
+  public boolean getWALGroupCommit() {
+    return getBoolean(WAL_GROUP_COMMIT, false);
+  }
+
+  /**
+   * Max number of bytes the WAL buffers before forcing them to disk when group
+   * committing.
+   */
+  public long getWALGroupCommitBytes() {
+    return getLong(WAL_GROUP_COMMIT_BYTES, 4 * 1024 * 1024);
+  }
+
+  /**
+   * Max number of milliseconds an append waits in the WAL before being forced
+   * to disk when group committing.
+   */
+  public long getWALGroupCommitMillis() {
+    return getLong(WAL_GROUP_COMMIT_MILLIS, 10);
+  }
+
+  /**
+   * Number of WAL logs that are recovered in parallel when a node restarts.
+   */
+  public int getWALRecoveryThreads() {
+    return getInt(WAL_RECOVERY_THREADS, 4);
+  }
+
 }
@@ -44,6 +44,8 @@ import com.cloudera.flume.core.extractors.SplitExtractor;
 import com.cloudera.flume.core.extractors.DateExtractor;
 import com.cloudera.flume.handlers.avro.AvroEventSink;
 import com.cloudera.flume.handlers.batch.BatchingDecorator;
+import com.cloudera.flume.handlers.batch.CompressDecorator;
+import com.cloudera.flume.handlers.batch.DecompressDecorator;
 import com.cloudera.flume.handlers.batch.GunzipDecorator;
 import com.cloudera.flume.handlers.batch.GzipDecorator;
 import com.cloudera.flume.handlers.batch.UnbatchingDecorator;
@@ -192,6 +194,8 @@ public class SinkFactoryImpl extends SinkFactory {
       { "unbatch", UnbatchingDecorator.builder() },
       { "gzip", GzipDecorator.builder() },
       { "gunzip", GunzipDecorator.builder() },
+      { "compress", CompressDecorator.builder() },
+      { "decompress", DecompressDecorator.builder() },
 
       // sampling
       { "intervalSampler", IntervalSampler.builder() },
@@ -0,0 +1,265 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The attribute map used by events. Most events have only a handful of
+ * attributes, so they are kept in two parallel arrays and found by a linear
+ * scan, which is smaller and faster than a HashMap for a few entries. Maps
+ * that grow past MAX_ARRAY_SIZE entries switch to a HashMap.
+ * 
+ * Keys are canonicalized so that events read off the wire share their key
+ * strings, and so that lookups can usually match on reference equality.
+ * 
+ * share() returns a copy that shares the arrays with this map until either of
+ * them is modified (copy-on-write). This makes copying an event, as done by
+ * fan outs, cheap. Like HashMap, this class is not thread safe.
+ */
+public class AttributeMap extends AbstractMap<String, byte[]> {
+  /** Maps bigger than this are backed by a HashMap */
+  static final int MAX_ARRAY_SIZE = 16;
+  /** Bound on canonicalized keys so random keys can't grow it forever */
+  static final int MAX_CANONICAL_KEYS = 4096;
+  static final String[] NO_KEYS = new String[0];
+  static final byte[][] NO_VALUES = new byte[0][];
+
+  private static final ConcurrentHashMap<String, String> canonical = new ConcurrentHashMap<String, String>();
+
+  private String[] keys;
+  private byte[][] vals;
+  private int size;
+  private boolean shared; // arrays may be used by another map.
+  private HashMap<String, byte[]> big; // non null once too many entries.
+
+  public AttributeMap() {
+    keys = NO_KEYS;
+    vals = NO_VALUES;
+  }
+
+  public AttributeMap(Map<String, byte[]> m) {
+    this();
+    if (m.size() > MAX_ARRAY_SIZE) {
+      big = new HashMap<String, byte[]>(m);
+      return;
+    }
+    keys = new String[m.size()];
+    vals = new byte[m.size()][];
+    for (Entry<String, byte[]> e : m.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  /**
+   * Returns a map with the same entries that shares storage with this one
+   * until one of them is modified.
+   */
+  public AttributeMap share() {
+    AttributeMap m = new AttributeMap();
+    if (big != null) {
+      m.big = new HashMap<String, byte[]>(big);
+      return m;
+    }
+    m.keys = keys;
+    m.vals = vals;
+    m.size = size;
+    m.shared = true;
+    shared = true;
+    return m;
+  }
+
+  /**
+   * Returns the shared instance of key if there is one.
+   */
+  static String canonicalize(String key) {
+    String c = canonical.get(key);
+    if (c != null) {
+      return c;
+    }
+    if (canonical.size() >= MAX_CANONICAL_KEYS) {
+      return key;
+    }
+    c = canonical.putIfAbsent(key, key);
+    return (c == null) ? key : c;
+  }
+
+  private int indexOf(Object key) {
+    for (int i = 0; i < size; i++) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    // slow path for keys that aren't the canonical instance.
+    for (int i = 0; i < size; i++) {
+      if (keys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Makes sure the arrays are owned by this map and have room for n entries.
+   */
+  private void ensureWritable(int n) {
+    if (!shared && n <= keys.length) {
+      return;
+    }
+    int cap = Math.max(n, (n <= keys.length) ? keys.length : Math.min(
+        MAX_ARRAY_SIZE, Math.max(4, keys.length * 2)));
+    keys = Arrays.copyOf(keys, cap);
+    vals = Arrays.copyOf(vals, cap);
+    shared = false;
+  }
+
+  @Override
+  public int size() {
+    return (big != null) ? big.size() : size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return (big != null) ? big.containsKey(key) : indexOf(key) >= 0;
+  }
+
+  @Override
+  public byte[] get(Object key) {
+    if (big != null) {
+      return big.get(key);
+    }
+    int i = indexOf(key);
+    return (i < 0) ? null : vals[i];
+  }
+
+  @Override
+  public byte[] put(String key, byte[] value) {
+    Preconditions.checkNotNull(key, "Attribute names must not be null");
+    if (big != null) {
+      return big.put(key, value);
+    }
+    int i = indexOf(key);
+    if (i >= 0) {
+      ensureWritable(size);
+      byte[] old = vals[i];
+      vals[i] = value;
+      return old;
+    }
+    if (size == MAX_ARRAY_SIZE) {
+      big = new HashMap<String, byte[]>(this);
+      keys = NO_KEYS;
+      vals = NO_VALUES;
+      size = 0;
+      shared = false;
+      return big.put(key, value);
+    }
+    ensureWritable(size + 1);
+    keys[size] = canonicalize(key);
+    vals[size] = value;
+    size++;
+    return null;
+  }
+
+  @Override
+  public byte[] remove(Object key) {
+    if (big != null) {
+      return big.remove(key);
+    }
+    int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    ensureWritable(size);
+    return removeAt(i);
+  }
+
+  private byte[] removeAt(int i) {
+    byte[] old = vals[i];
+    size--;
+    System.arraycopy(keys, i + 1, keys, i, size - i);
+    System.arraycopy(vals, i + 1, vals, i, size - i);
+    keys[size] = null;
+    vals[size] = null;
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    big = null;
+    keys = NO_KEYS;
+    vals = NO_VALUES;
+    size = 0;
+    shared = false;
+  }
+
+  @Override
+  public Set<Entry<String, byte[]>> entrySet() {
+    if (big != null) {
+      return big.entrySet();
+    }
+    return new AbstractSet<Entry<String, byte[]>>() {
+      @Override
+      public Iterator<Entry<String, byte[]>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private class EntryIterator implements Iterator<Entry<String, byte[]>> {
+    int next = 0;
+    int last = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Entry<String, byte[]> next() {
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return new SimpleImmutableEntry<String, byte[]>(keys[last], vals[last]);
+    }
+
+    @Override
+    public void remove() {
+      Preconditions.checkState(last >= 0, "next() has not been called");
+      ensureWritable(size);
+      removeAt(last);
+      next = last;
+      last = -1;
+    }
+  }
+}
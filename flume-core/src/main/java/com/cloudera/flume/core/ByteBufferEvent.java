@@ -0,0 +1,194 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.util.Clock;
+import com.cloudera.util.NetUtils;
+import com.google.common.base.Preconditions;
+
+/**
+ * An event whose body is a view of a ByteBuffer instead of a standalone byte
+ * array. Sources use this to hand out slices of their read buffers (heap or
+ * direct) without copying every body into a new array.
+ * 
+ * A byte array is only built if getBody() is called, and only once. When the
+ * body covers its whole backing array, that array is returned without a copy.
+ * Consumers that can work with a buffer should use getBodyBuffer() or
+ * bodyBuffer(Event) to avoid the copy altogether.
+ * 
+ * The source that created the buffer must not modify or reuse the region of a
+ * slice it handed out. A slice keeps its whole backing buffer alive, so sinks
+ * that hold on to events past their append call should store retain(e), which
+ * copies the body out, instead of e.
+ */
+public class ByteBufferEvent extends EventBaseImpl {
+  final static long MAX_BODY_SIZE = FlumeConfiguration.get()
+      .getEventMaxSizeBytes();
+
+  private final ByteBuffer body; // position 0, limit is body length
+  private volatile byte[] bodyArray; // lazily built by getBody()
+  private final long timestamp;
+  private final Priority pri;
+  private final long nanos;
+  private final String host;
+
+  /**
+   * Constructs a new event viewing (not copying!) the remaining bytes of body.
+   */
+  public ByteBufferEvent(ByteBuffer body) {
+    this(body, Clock.unixTime(), Priority.INFO, Clock.nanos(), NetUtils
+        .localhost());
+  }
+
+  /**
+   * Constructs a new event viewing (not copying!) the remaining bytes of body.
+   */
+  public ByteBufferEvent(ByteBuffer body, long timestamp, Priority pri,
+      long nanos, String host) {
+    this(body, timestamp, pri, nanos, host, new AttributeMap());
+  }
+
+  /**
+   * Constructs a new event viewing (not copying!) the remaining bytes of body.
+   * Ownership of fields is transferred to this event.
+   */
+  public ByteBufferEvent(ByteBuffer body, long timestamp, Priority pri,
+      long nanos, String host, Map<String, byte[]> fields) {
+    super(fields);
+    Preconditions.checkNotNull(body,
+        "Failed when attempting to create event with null body");
+    Preconditions.checkArgument(body.remaining() <= MAX_BODY_SIZE, "Failed "
+        + "when attempting to create event with body with length ("
+        + body.remaining() + ") > max body size (" + MAX_BODY_SIZE + ").");
+    Preconditions.checkNotNull(pri, "Failed when atttempting to "
+        + "create event with null priority");
+    this.body = body.slice();
+    this.timestamp = timestamp;
+    this.pri = pri;
+    this.nanos = nanos;
+    this.host = host;
+  }
+
+  /**
+   * Returns a new view of the body, positioned at 0 with the body length as
+   * limit. NOTE: the contents of the returned buffer should not be modified.
+   */
+  public ByteBuffer getBodyBuffer() {
+    return body.duplicate();
+  }
+
+  /**
+   * Returns the body as an array. This copies the body out of the buffer the
+   * first time it is called, unless the body is exactly its backing array.
+   */
+  @Override
+  public byte[] getBody() {
+    byte[] arr = bodyArray;
+    if (arr == null) {
+      arr = toArray(body);
+      bodyArray = arr;
+    }
+    return arr;
+  }
+
+  /**
+   * True if getBody() returns the backing array instead of a copy.
+   */
+  static boolean isWholeArray(ByteBuffer buf) {
+    return buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0
+        && buf.remaining() == buf.array().length;
+  }
+
+  static byte[] toArray(ByteBuffer buf) {
+    if (isWholeArray(buf)) {
+      return buf.array();
+    }
+    byte[] arr = new byte[buf.remaining()];
+    buf.duplicate().get(arr);
+    return arr;
+  }
+
+  @Override
+  public Priority getPriority() {
+    return pri;
+  }
+
+  @Override
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @Override
+  public long getNanos() {
+    return nanos;
+  }
+
+  @Override
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * Returns the body length of any event, without copying the body.
+   */
+  public static int bodyLength(Event e) {
+    if (e instanceof ByteBufferEvent) {
+      return ((ByteBufferEvent) e).body.remaining();
+    }
+    return e.getBody().length;
+  }
+
+  /**
+   * True if getBody() has built a copy of the body.
+   */
+  boolean isBodyCopied() {
+    byte[] arr = bodyArray;
+    return arr != null && !isWholeArray(body);
+  }
+
+  /**
+   * Returns the body of any event as a buffer, without copying it.
+   */
+  public static ByteBuffer bodyBuffer(Event e) {
+    if (e instanceof ByteBufferEvent) {
+      return ((ByteBufferEvent) e).getBodyBuffer();
+    }
+    return ByteBuffer.wrap(e.getBody());
+  }
+
+  /**
+   * Returns an event that is safe to hold on to indefinitely. Events that view
+   * part of a larger buffer are copied so the buffer can be reclaimed, all
+   * other events are returned as is.
+   */
+  public static Event retain(Event e) {
+    if (!(e instanceof ByteBufferEvent)) {
+      return e;
+    }
+    ByteBufferEvent be = (ByteBufferEvent) e;
+    if (isWholeArray(be.body)) {
+      return e;
+    }
+    return new EventImpl(be.getBody(), be.getTimestamp(), be.getPriority(), be
+        .getNanos(), be.getHost(), copyAttrs(be));
+  }
+}
@@ -19,6 +19,11 @@ package com.cloudera.flume.core;
 
 import java.io.IOException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.util.Clock;
+
 /**
  * This is an edge that connects a source to a sink. This is an abstract class
  * because we can have many different properties for the connection between
@@ -31,6 +36,13 @@ import java.io.IOException;
  * allows for multiple threads of consumers.
  */
 abstract public class Driver {
+  static final Logger LOG = LoggerFactory.getLogger(Driver.class);
+
+  /**
+   * Implementations notifyAll on this after every change of the value returned
+   * by getState, and make those changes while holding it.
+   */
+  protected final Object stateSignal = new Object();
 
   abstract public EventSource getSource();
 
@@ -76,8 +88,31 @@ abstract public class Driver {
    * @return true if state transitioned to desired state, false if timeoed out.
    * @throws InterruptedException
    */
-  abstract public boolean waitForState(DriverState state, long millis)
-      throws InterruptedException;
+  public boolean waitForState(DriverState state, long millis)
+      throws InterruptedException {
+    long now = Clock.unixTime();
+    long deadline = now + millis;
+    synchronized (stateSignal) {
+      DriverState curState = getState();
+      while (deadline > now) {
+        curState = getState();
+        if (curState.equals(state)) {
+          return true;
+        }
+        // still wrong state? wait more.
+        now = Clock.unixTime();
+        long waitMs = Math.max(0, deadline - now); // guarentee non neg
+        if (waitMs == 0) {
+          LOG.warn("Expected " + state + " but timed out in state " + curState);
+          return false;
+        }
+        stateSignal.wait(waitMs);
+      }
+      // give up and return false
+      LOG.warn("Expected " + state + " but timed out in state " + curState);
+      return false;
+    }
+  }
 
   /**
    * Block until driver state to reaches at least the specified state where
@@ -89,8 +124,35 @@ abstract public class Driver {
    * @return true if state transitioned to desired state, false if timeoed out.
    * @throws InterruptedException
    */
-  abstract public boolean waitForAtLeastState(DriverState state, long millis)
-      throws InterruptedException;
+  public boolean waitForAtLeastState(DriverState state, long millis)
+      throws InterruptedException {
+    long now = Clock.unixTime();
+    long deadline = now + millis;
+    synchronized (stateSignal) {
+      DriverState curState = getState();
+      while (deadline > now) {
+        curState = getState();
+        if (state.ordinal() == curState.ordinal()) {
+          return true;
+        }
+        if (state.ordinal() <= curState.ordinal()) {
+          LOG.warn("Expected " + state + " but already in state " + curState);
+          return true;
+        }
+
+        // still wrong state? wait more.
+        now = Clock.unixTime();
+        long waitMs = Math.max(0, deadline - now); // guarentee non neg
+        if (waitMs == 0) {
+          continue;
+        }
+        stateSignal.wait(waitMs);
+      }
+      // give up and return false
+      LOG.error("Expected " + state + " but timed out in state " + curState);
+      return false;
+    }
+  }
 
   /**
    * Driver state
@@ -0,0 +1,28 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+/**
+ * Marks an EventSink that writes ahead to its logical node's WAL or DFO logs.
+ * Only one of these may be open on a node's logs at a time, so a logical node
+ * never opens a sink with one in it while its old sink is still open. Plugin
+ * sinks that use the node's WAL or DFO managers should implement it too.
+ */
+public interface DurableSink extends EventSink {
+
+}
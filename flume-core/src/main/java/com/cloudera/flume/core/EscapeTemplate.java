@@ -0,0 +1,417 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A string with %{tag} and %x escapes (see Event.escapeString) compiled once
+ * into a list of ops, so that expanding it for an event does not need regexes.
+ * 
+ * Date escapes are formatted once per time bucket (the hour for %H, the day for
+ * %d, ...) and the result is reused for every event that falls in the same
+ * bucket, instead of building a new SimpleDateFormat each time. The %x table
+ * here is also what Event.replaceShorthand and Event.expandShorthand use.
+ * 
+ * Templates are immutable and safe to share between threads.
+ */
+public class EscapeTemplate {
+  static final Logger LOG = LoggerFactory.getLogger(EscapeTemplate.class);
+
+  /** Bound on cached templates, in case templates are built per event */
+  static final int MAX_CACHED = 1024;
+  private static final ConcurrentHashMap<String, EscapeTemplate> cache = new ConcurrentHashMap<String, EscapeTemplate>();
+
+  private final String template;
+  private final Op[] ops;
+  private final boolean hasTags;
+  private final int sizeHint;
+
+  private EscapeTemplate(String template, List<Op> ops, boolean hasTags) {
+    this.template = template;
+    this.ops = ops.toArray(new Op[ops.size()]);
+    this.hasTags = hasTags;
+    this.sizeHint = template.length() + 16;
+  }
+
+  /**
+   * Compiles template. Sinks that expand the same template for every event
+   * should do this once and hold on to the result.
+   */
+  public static EscapeTemplate compile(String template) {
+    Preconditions.checkNotNull(template, "Template must not be null");
+    List<Op> ops = new ArrayList<Op>();
+    StringBuilder lit = new StringBuilder();
+    boolean hasTags = false;
+    int n = template.length();
+    int i = 0;
+    while (i < n) {
+      char c = template.charAt(i);
+      if (c == '%' && i + 1 < n) {
+        char d = template.charAt(i + 1);
+        if (d == '%') {
+          hasTags = true;
+          lit.append('%');
+          i += 2;
+          continue;
+        }
+        if (isWordChar(d)) {
+          hasTags = true;
+          flush(lit, ops);
+          ops.add(new ShorthandOp(d));
+          i += 2;
+          continue;
+        }
+        if (d == '{') {
+          int j = i + 2;
+          while (j < n && isTagChar(template.charAt(j))) {
+            j++;
+          }
+          if (j > i + 2 && j < n && template.charAt(j) == '}') {
+            hasTags = true;
+            flush(lit, ops);
+            ops.add(new TagOp(template.substring(i + 2, j)));
+            i = j + 1;
+            continue;
+          }
+        }
+      }
+      lit.append(c);
+      i++;
+    }
+    flush(lit, ops);
+    return new EscapeTemplate(template, ops, hasTags);
+  }
+
+  /**
+   * Returns a compiled template for s, from a bounded cache.
+   */
+  public static EscapeTemplate get(String template) {
+    EscapeTemplate t = cache.get(template);
+    if (t != null) {
+      return t;
+    }
+    t = compile(template);
+    if (cache.size() < MAX_CACHED) {
+      cache.put(template, t);
+    }
+    return t;
+  }
+
+  /**
+   * Same as Event.containsTag(template).
+   */
+  public boolean hasTags() {
+    return hasTags;
+  }
+
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * Replaces the escapes in this template with the values from e.
+   */
+  public String expand(Event e) {
+    if (!hasTags) {
+      return template;
+    }
+    StringBuilder sb = new StringBuilder(sizeHint);
+    for (Op op : ops) {
+      op.append(sb, e);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+
+  // java regex \w, as used by Event.TAG_REGEX
+  static boolean isWordChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  static boolean isTagChar(char c) {
+    return isWordChar(c) || c == '.' || c == '-';
+  }
+
+  private static void flush(StringBuilder lit, List<Op> ops) {
+    if (lit.length() > 0) {
+      ops.add(new LiteralOp(lit.toString()));
+      lit.setLength(0);
+    }
+  }
+
+  /**
+   * A %x shorthand: the name Event.getEscapeMapping reports it under and how it
+   * expands.
+   */
+  static class Shorthand {
+    final String name;
+    final Op op;
+
+    Shorthand(String name, Op op) {
+      this.name = name;
+      this.op = op;
+    }
+  }
+
+  /**
+   * The one table of %x shorthands, used by both Event.replaceShorthand and
+   * compiled templates. All shorthands are dates, currently. Add your own!
+   */
+  private static final Shorthand[] SHORTHANDS = new Shorthand[128];
+  static {
+    add('a', "weekday_short", new DateOp("EEE", Calendar.DAY_OF_MONTH));
+    add('A', "weekday_full", new DateOp("EEEE", Calendar.DAY_OF_MONTH));
+    add('b', "monthname_short", new DateOp("MMM", Calendar.MONTH));
+    add('B', "monthname_full", new DateOp("MMMM", Calendar.MONTH));
+    add('c', "datetime", new DateOp("EEE MMM d HH:mm:ss yyyy", Calendar.SECOND));
+    add('d', "day_of_month_xx", new DateOp("dd", Calendar.DAY_OF_MONTH));
+    add('D', "date_short", new DateOp("MM/dd/yy", Calendar.DAY_OF_MONTH));
+    add('H', "hour_24_xx", new DateOp("HH", Calendar.HOUR_OF_DAY));
+    add('I', "hour_12_xx", new DateOp("hh", Calendar.HOUR_OF_DAY));
+    add('j', "day_of_year_xxx", new DateOp("DDD", Calendar.DAY_OF_MONTH));
+    add('k', "hour_24", new DateOp("H", Calendar.HOUR_OF_DAY));
+    add('l', "hour_12", new DateOp("h", Calendar.HOUR_OF_DAY));
+    add('m', "month_xx", new DateOp("MM", Calendar.MONTH));
+    add('M', "minute_xx", new DateOp("mm", Calendar.MINUTE));
+    add('p', "am_pm", new DateOp("a", Calendar.HOUR_OF_DAY));
+    add('s', "unix_seconds", new SecondsOp());
+    add('S', "seconds_xx", new DateOp("ss", Calendar.SECOND));
+    // This is different from unix date (which would insert a tab character
+    // here)
+    add('t', "unix_millis", new MillisOp());
+    add('y', "year_xx", new DateOp("yy", Calendar.YEAR));
+    add('Y', "year_xxxx", new DateOp("yyyy", Calendar.YEAR));
+    // offsets change at daylight savings transitions, which are on minutes.
+    add('z', "timezone_delta", new DateOp("ZZZ", Calendar.MINUTE));
+  }
+
+  private static void add(char c, String name, Op op) {
+    SHORTHANDS[c] = new Shorthand(name, op);
+  }
+
+  static Shorthand shorthand(char c) {
+    return (c < SHORTHANDS.length) ? SHORTHANDS[c] : null;
+  }
+
+  /**
+   * The default expansion of %c for e, see Event.replaceShorthand. Returns the
+   * empty string if c is not recognized.
+   */
+  static String replaceShorthand(char c, Event e) {
+    if (c == '%') {
+      return "%";
+    }
+    Shorthand sh = shorthand(c);
+    if (sh == null) {
+      LOG.warn("Unrecognized escape in event format string: %" + c);
+      return "";
+    }
+    return sh.op.value(e);
+  }
+
+  /**
+   * The name of %c, see Event.expandShorthand. Returns c itself if it is not
+   * recognized.
+   */
+  static String shorthandName(char c) {
+    Shorthand sh = shorthand(c);
+    if (sh == null) {
+      LOG.warn("Unrecognized escape in event format string: %" + c);
+      return "" + c;
+    }
+    return sh.name;
+  }
+
+  /**
+   * One step of an expansion.
+   */
+  static abstract class Op {
+    abstract String value(Event e);
+
+    void append(StringBuilder sb, Event e) {
+      sb.append(value(e));
+    }
+  }
+
+  static class LiteralOp extends Op {
+    final String text;
+
+    LiteralOp(String text) {
+      this.text = text;
+    }
+
+    @Override
+    String value(Event e) {
+      return text;
+    }
+  }
+
+  /**
+   * A %x shorthand. This goes through Event.replaceShorthand so that events
+   * overriding it are honored; the default implementation uses the shared
+   * table above.
+   */
+  static class ShorthandOp extends Op {
+    final char c;
+
+    ShorthandOp(char c) {
+      this.c = c;
+    }
+
+    @Override
+    String value(Event e) {
+      return e.replaceShorthand(c);
+    }
+  }
+
+  static class TagOp extends Op {
+    final String tag;
+
+    TagOp(String tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    String value(Event e) {
+      String v = e.mapTagToString(tag);
+      if (v == null) {
+        LOG.warn("Tag " + tag + " not found");
+        return "";
+      }
+      return v;
+    }
+  }
+
+  static class SecondsOp extends Op {
+    @Override
+    String value(Event e) {
+      return Long.toString(e.getTimestamp() / 1000);
+    }
+  }
+
+  static class MillisOp extends Op {
+    @Override
+    String value(Event e) {
+      return Long.toString(e.getTimestamp());
+    }
+  }
+
+  /**
+   * A formatted date, valid for every timestamp in [start, end).
+   */
+  static class Bucket {
+    final long start;
+    final long end;
+    final String text;
+
+    Bucket(long start, long end, String text) {
+      this.start = start;
+      this.end = end;
+      this.text = text;
+    }
+  }
+
+  /**
+   * Formats the event timestamp with a date format whose output only changes
+   * when the given calendar field (or a larger one) does.
+   */
+  static class DateOp extends Op {
+    final String format;
+    final int unit; // Calendar field
+    volatile Bucket last;
+    // SimpleDateFormat and Calendar are not thread safe.
+    final ThreadLocal<SimpleDateFormat> formats = new ThreadLocal<SimpleDateFormat>() {
+      @Override
+      protected SimpleDateFormat initialValue() {
+        return new SimpleDateFormat(format);
+      }
+    };
+
+    DateOp(String format, int unit) {
+      this.format = format;
+      this.unit = unit;
+    }
+
+    @Override
+    String value(Event e) {
+      long ts = e.getTimestamp();
+      Bucket b = last;
+      if (b == null || ts < b.start || ts >= b.end) {
+        b = bucket(ts);
+        last = b;
+      }
+      return b.text;
+    }
+
+    /**
+     * Formats ts and works out the range of times that format the same way.
+     * This goes through a Calendar so that month lengths and daylight savings
+     * changes are handled.
+     */
+    Bucket bucket(long ts) {
+      SimpleDateFormat sdf = formats.get();
+      String text = sdf.format(new Date(ts));
+      // format() sets the calendar on every call, so it is free to use here.
+      Calendar cal = sdf.getCalendar();
+      cal.setTimeInMillis(ts);
+      switch (unit) {
+      case Calendar.YEAR:
+        cal.set(Calendar.MONTH, Calendar.JANUARY);
+        // fall through
+      case Calendar.MONTH:
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        // fall through
+      case Calendar.DAY_OF_MONTH:
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        // fall through
+      case Calendar.HOUR_OF_DAY:
+        cal.set(Calendar.MINUTE, 0);
+        // fall through
+      case Calendar.MINUTE:
+        cal.set(Calendar.SECOND, 0);
+        // fall through
+      default:
+        cal.set(Calendar.MILLISECOND, 0);
+      }
+      long start = cal.getTimeInMillis();
+      cal.add(unit, 1);
+      long end = cal.getTimeInMillis();
+      if (ts < start || ts >= end) {
+        // odd calendar corner, don't reuse this result.
+        return new Bucket(ts, ts + 1, text);
+      }
+      return new Bucket(start, end, text);
+    }
+  }
+}
@@ -17,8 +17,6 @@
  */
 package com.cloudera.flume.core;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -124,62 +122,16 @@ abstract public class Event {
     return tagPattern.matcher(in).find();
   }
 
+  /**
+   * The attribute name getEscapeMapping reports the %x shorthand c under.
+   */
   protected String expandShorthand(char c) {
-    // It's a date
-    switch (c) {
-    case 'a':
-      return "weekday_short";
-    case 'A':
-      return "weekday_full";
-    case 'b':
-      return "monthname_short";
-    case 'B':
-      return "monthname_full";
-    case 'c':
-      return "datetime";
-    case 'd':
-      return "day_of_month_xx"; // two digit
-    case 'D':
-      return "date_short"; // "MM/dd/yy";
-    case 'H':
-      return "hour_24_xx";
-    case 'I':
-      return "hour_12_xx";
-    case 'j':
-      return "day_of_year_xxx"; // three digits
-    case 'k':
-      return "hour_24"; // 1 or 2 digits
-    case 'l':
-      return "hour_12"; // 1 or 2 digits
-    case 'm':
-      return "month_xx";
-    case 'M':
-      return "minute_xx";
-    case 'p':
-      return "am_pm";
-    case 's':
-      return "unix_seconds";
-    case 'S':
-      return "seconds_xx";
-    case 't':
-      // This is different from unix date (which would insert a tab character
-      // here)
-      return "unix_millis";
-    case 'y':
-      return "year_xx";
-    case 'Y':
-      return "year_xxxx";
-    case 'z':
-      return "timezone_delta";
-    default:
-      LOG.warn("Unrecognized escape in event format string: %" + c);
-      return "" + c;
-    }
-
+    return EscapeTemplate.shorthandName(c);
   }
 
   /**
-   * Hardcoded lookups for %x style escape replacement. Add your own!
+   * Lookups for %x style escape replacement, from the table in EscapeTemplate.
+   * Subclasses may override this to add their own; escapeString honors it.
    * 
    * All shorthands are Date format strings, currently.
    * 
@@ -189,81 +141,7 @@ abstract public class Event {
    * 
    */
   protected String replaceShorthand(char c) {
-    // It's a date
-    String formatString = "";
-    switch (c) {
-    case '%':
-      return "%";
-    case 'a':
-      formatString = "EEE";
-      break;
-    case 'A':
-      formatString = "EEEE";
-      break;
-    case 'b':
-      formatString = "MMM";
-      break;
-    case 'B':
-      formatString = "MMMM";
-      break;
-    case 'c':
-      formatString = "EEE MMM d HH:mm:ss yyyy";
-      break;
-    case 'd':
-      formatString = "dd";
-      break;
-    case 'D':
-      formatString = "MM/dd/yy";
-      break;
-    case 'H':
-      formatString = "HH";
-      break;
-    case 'I':
-      formatString = "hh";
-      break;
-    case 'j':
-      formatString = "DDD";
-      break;
-    case 'k':
-      formatString = "H";
-      break;
-    case 'l':
-      formatString = "h";
-      break;
-    case 'm':
-      formatString = "MM";
-      break;
-    case 'M':
-      formatString = "mm";
-      break;
-    case 'p':
-      formatString = "a";
-      break;
-    case 's':
-      return "" + getTimestamp() / 1000;
-    case 'S':
-      formatString = "ss";
-      break;
-    case 't':
-      // This is different from unix date (which would insert a tab character
-      // here)
-      return Long.valueOf(getTimestamp()).toString();
-    case 'y':
-      formatString = "yy";
-      break;
-    case 'Y':
-      formatString = "yyyy";
-      break;
-    case 'z':
-      formatString = "ZZZ";
-      break;
-    default:
-      LOG.warn("Unrecognized escape in event format string: %" + c);
-      return "";
-    }
-    SimpleDateFormat format = new SimpleDateFormat(formatString);
-    Date date = new Date(getTimestamp());
-    return format.format(date);
+    return EscapeTemplate.replaceShorthand(c, this);
   }
 
   /**
@@ -297,49 +175,13 @@ abstract public class Event {
    * 
    * Any unrecognized / not found tags will be replaced with the empty string.
    * 
+   * Templates are compiled once and cached, see EscapeTemplate.
+   * 
    * TODO(henry): we may want to consider taking this out of Event and into a
    * more general class when we get more use cases for this pattern.
    */
   public String escapeString(String in) {
-    Matcher matcher = tagPattern.matcher(in);
-    StringBuffer sb = new StringBuffer();
-    while (matcher.find()) {
-      String replacement = "";
-      // Group 2 is the %{...} pattern
-      if (matcher.group(2) != null) {
-
-        replacement = mapTagToString(matcher.group(2));
-        if (replacement == null) {
-          replacement = "";
-          LOG.warn("Tag " + matcher.group(2) + " not found");
-        }
-      } else {
-        // The %x pattern.
-        // Since we know the match is a single character, we can
-        // switch on that rather than the string.
-        Preconditions.checkState(matcher.group(1) != null
-            && matcher.group(1).length() == 1,
-            "Expected to match single character tag in string " + in);
-        replacement = replaceShorthand(matcher.group(1).charAt(0));
-      }
-
-      // The replacement string must have '$' and '\' chars escaped. This
-      // replacement string is pretty arcane.
-      //
-      // replacee : '$' -> for java '\$' -> for regex "\\$"
-      // replacement: '\$' -> for regex '\\\$' -> for java "\\\\\\$"
-      //
-      // replacee : '\' -> for java "\\" -> for regex "\\\\"
-      // replacement: '\\' -> for regex "\\\\" -> for java "\\\\\\\\"
-
-      // note: order matters
-      replacement = replacement.replaceAll("\\\\", "\\\\\\\\");
-      replacement = replacement.replaceAll("\\$", "\\\\\\$");
-
-      matcher.appendReplacement(sb, replacement);
-    }
-    matcher.appendTail(sb);
-    return sb.toString();
+    return EscapeTemplate.get(in).expand(this);
   }
 
   /**
@@ -19,7 +19,6 @@ package com.cloudera.flume.core;
 
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -36,9 +35,10 @@ import com.google.common.base.Preconditions;
  */
 abstract public class EventBaseImpl extends Event {
   protected Map<String, byte[]> fields;
+  private Map<String, byte[]> fieldsView; // lazily built by getAttrs()
 
   protected EventBaseImpl() {
-    this.fields = new HashMap<String, byte[]>();
+    this.fields = new AttributeMap();
   }
 
   /**
@@ -70,7 +70,26 @@ abstract public class EventBaseImpl extends Event {
    * I don't want external methods to modify the internal map
    */
   public Map<String, byte[]> getAttrs() {
-    return Collections.unmodifiableMap(fields);
+    Map<String, byte[]> view = fieldsView;
+    if (view == null) {
+      view = Collections.unmodifiableMap(fields);
+      fieldsView = view;
+    }
+    return view;
+  }
+
+  /**
+   * Returns a modifiable copy of the attributes of e. If e keeps them in an
+   * AttributeMap, the copy shares storage with it until either is modified.
+   */
+  static Map<String, byte[]> copyAttrs(Event e) {
+    if (e instanceof EventBaseImpl) {
+      Map<String, byte[]> f = ((EventBaseImpl) e).fields;
+      if (f instanceof AttributeMap) {
+        return ((AttributeMap) f).share();
+      }
+    }
+    return new AttributeMap(e.getAttrs());
   }
 
   @Override
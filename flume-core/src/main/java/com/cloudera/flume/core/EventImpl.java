@@ -19,7 +19,6 @@ package com.cloudera.flume.core;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -61,7 +60,7 @@ public class EventImpl extends EventBaseImpl {
    */
   public EventImpl(Event e) {
     this(e.getBody(), e.getTimestamp(), e.getPriority(), e.getNanos(), e
-        .getHost(), new HashMap<String, byte[]>(e.getAttrs()));
+        .getHost(), copyAttrs(e));
   }
 
   /**
@@ -84,7 +83,7 @@ public class EventImpl extends EventBaseImpl {
    */
   public EventImpl(byte[] s, long timestamp, Priority pri, long nanoTime,
       String host) {
-    this(s, timestamp, pri, nanoTime, host, new HashMap<String, byte[]>());
+    this(s, timestamp, pri, nanoTime, host, new AttributeMap());
   }
 
   /**
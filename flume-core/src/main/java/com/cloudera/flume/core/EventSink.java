@@ -18,6 +18,7 @@
 package com.cloudera.flume.core;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import com.cloudera.flume.conf.Context;
@@ -41,6 +42,18 @@ public interface EventSink extends Reportable {
    */
   public void append(Event e) throws IOException, InterruptedException;
 
+  /**
+   * This appends a batch of events to the sink, in list order. It has the same
+   * exception semantics as append. If an exception is thrown some prefix of the
+   * batch may have already been appended.
+   * 
+   * Sinks that can amortize per-call costs (locking, syncs, rpc framing) across
+   * many events should override this. The default implementation in Base just
+   * calls append on each event.
+   */
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException;
+
   /**
    * This initializes a sink so that events can be appended. Events should only
    * be able to be opened once and will throw an IllegalStateException or
@@ -103,13 +116,36 @@ public interface EventSink extends Reportable {
       updateAppendStats(e);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void appendBatch(List<Event> events) throws IOException,
+        InterruptedException {
+      for (Event e : events) {
+        append(e);
+      }
+    }
+
     synchronized protected void updateAppendStats(Event e) {
       if (e == null)
         return;
-      numBytes += e.getBody().length;
+      numBytes += ByteBufferEvent.bodyLength(e);
       numEvents++;
     }
 
+    /**
+     * Updates the stats for a whole batch while only acquiring the lock once.
+     */
+    synchronized protected void updateAppendStats(List<Event> events) {
+      for (Event e : events) {
+        if (e == null)
+          continue;
+        numBytes += ByteBufferEvent.bodyLength(e);
+        numEvents++;
+      }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -20,6 +20,7 @@ package com.cloudera.flume.core;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -47,9 +48,31 @@ public class EventSinkDecorator<S extends EventSink> extends EventSink.Base {
   protected S sink;
   protected AtomicBoolean isOpen = new AtomicBoolean(false);
 
+  /**
+   * True if a subclass overrides append(Event) but not appendBatch. Such
+   * decorators must see every event so batches are unrolled through their
+   * append method instead of being forwarded wholesale.
+   */
+  private final boolean unrollBatches;
+
   public EventSinkDecorator(S s) {
     // we allow null here to make FlumeBuilder implementation simpler
     this.sink = s;
+    this.unrollBatches = overridesAppendOnly(getClass());
+  }
+
+  static boolean overridesAppendOnly(Class<?> cls) {
+    try {
+      Class<?> appendCls = cls.getMethod("append", Event.class)
+          .getDeclaringClass();
+      Class<?> batchCls = cls.getMethod("appendBatch", List.class)
+          .getDeclaringClass();
+      // append was overridden further down the hierarchy than appendBatch
+      return appendCls != batchCls && batchCls.isAssignableFrom(appendCls);
+    } catch (NoSuchMethodException e) {
+      // cannot happen, both methods are declared in this class.
+      throw new IllegalStateException(e);
+    }
   }
 
   @Override
@@ -61,6 +84,24 @@ public class EventSinkDecorator<S extends EventSink> extends EventSink.Base {
     super.append(e);
   }
 
+  /**
+   * Forwards the whole batch to the subordinate sink. Decorators that override
+   * append without overriding this get the default per-event behavior.
+   */
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    if (unrollBatches) {
+      super.appendBatch(events);
+      return;
+    }
+    Preconditions.checkNotNull(sink);
+    Preconditions.checkState(isOpen.get(), "EventSink " + this.getName()
+        + " not open");
+    sink.appendBatch(events);
+    updateAppendStats(events);
+  }
+
   @Override
   public void close() throws IOException, InterruptedException {
     Preconditions.checkNotNull(sink);
@@ -18,6 +18,7 @@
 package com.cloudera.flume.core;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import com.cloudera.flume.conf.Context;
@@ -42,6 +43,17 @@ public interface EventSource extends Reportable {
    */
   Event next() throws IOException, InterruptedException;
 
+  /**
+   * This is a blocking call that waits for at least one event and then adds up
+   * to max events to the end of the events list. Sources that buffer events
+   * should add every event that is immediately available (up to max) without
+   * blocking again.
+   * 
+   * @return number of events added, or 0 if the source is done/empty
+   */
+  int nextBatch(List<Event> events, int max) throws IOException,
+      InterruptedException;
+
   public void open() throws IOException, InterruptedException;
 
   public void close() throws IOException, InterruptedException;
@@ -70,6 +82,11 @@ public interface EventSource extends Reportable {
       throw new IOException("Attempting to next a Stub Source!");
     }
 
+    @Override
+    public int nextBatch(List<Event> events, int max) throws IOException {
+      throw new IOException("Attempting to next a Stub Source!");
+    }
+
     @Override
     public void open() throws IOException {
       throw new IOException("Attempting to open a Stub Source!");
@@ -145,6 +162,15 @@ public interface EventSource extends Reportable {
       return null;
     }
 
+    /**
+     * Default implementation that only hands out a single event per call.
+     */
+    @Override
+    public int nextBatch(List<Event> events, int max) throws IOException,
+        InterruptedException {
+      return EventUtil.nextSingle(this, events, max);
+    }
+
     /**
      * This method should be called from sources which wish to track event
      * statistics.
@@ -152,7 +178,7 @@ public interface EventSource extends Reportable {
     synchronized protected void updateEventProcessingStats(Event e) {
       if (e == null)
         return;
-      numBytes += e.getBody().length;
+      numBytes += ByteBufferEvent.bodyLength(e);
       numEvents++;
     }
 
@@ -18,6 +18,7 @@
 package com.cloudera.flume.core;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -27,6 +28,8 @@ import org.apache.commons.cli.PosixParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+
 /**
  * This class has some simple utilities for connecting sinks to sources.
  * 
@@ -77,6 +80,21 @@ public class EventUtil {
     dumpN(n, src, snk, false);
   }
 
+  /**
+   * nextBatch implementation for sources that cannot tell if more events are
+   * available without blocking. This hands out a single event per call.
+   */
+  public static int nextSingle(EventSource src, List<Event> events, int max)
+      throws IOException, InterruptedException {
+    Preconditions.checkArgument(max > 0, "batch max must be positive");
+    Event e = src.next();
+    if (e == null) {
+      return 0;
+    }
+    events.add(e);
+    return 1;
+  }
+
   /*
    * Create sinks based on various command line options.
    */
@@ -18,6 +18,8 @@
 package com.cloudera.flume.core.connector;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +28,6 @@ import com.cloudera.flume.core.Driver;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSource;
-import com.cloudera.util.Clock;
 import com.google.common.base.Preconditions;
 
 /**
@@ -40,12 +41,12 @@ public class DirectDriver extends Driver {
   static final Logger LOG = LoggerFactory.getLogger(DirectDriver.class);
 
   final PumperThread thd;
+  final int batchSize; // events handed to the sink per append call
   EventSink sink;// Guarded by object lock
   EventSource source; // Guarded by object lock
 
   Exception lastExn = null; // Guarded by statSignal
   DriverState state = DriverState.HELLO; // Guarded by stateSignal
-  Object stateSignal = new Object(); // object do lock/notify on.
 
   // metrics
   public long nextCount = 0;
@@ -56,12 +57,24 @@ public class DirectDriver extends Driver {
   }
 
   public DirectDriver(String threadName, EventSource src, EventSink snk) {
+    this(threadName, src, snk, 1);
+  }
 
+  /**
+   * If batchSize is greater than one, the driver drains up to batchSize events
+   * from the source at a time and hands them to the sink with a single
+   * appendBatch call.
+   */
+  public DirectDriver(String threadName, EventSource src, EventSink snk,
+      int batchSize) {
     Preconditions.checkNotNull(src, "Driver Source was invalid");
     Preconditions.checkNotNull(snk, "Driver Sink was invalid");
+    Preconditions.checkArgument(batchSize > 0,
+        "Driver batch size must be positive");
     thd = new PumperThread(threadName);
     this.source = src;
     this.sink = snk;
+    this.batchSize = batchSize;
   }
 
   class PumperThread extends Thread {
@@ -101,14 +114,18 @@ public class DirectDriver extends Driver {
 
       LOG.debug("Starting driver " + DirectDriver.this);
       try {
-        while (!stopped) {
-          Event e = source.next();
-          if (e == null)
-            break;
-          nextCount++;
-
-          sink.append(e);
-          appendCount++;
+        if (batchSize > 1) {
+          pumpBatches(source, sink);
+        } else {
+          while (!stopped) {
+            Event e = source.next();
+            if (e == null)
+              break;
+            nextCount++;
+
+            sink.append(e);
+            appendCount++;
+          }
         }
       } catch (Exception e1) {
         // Catches all exceptions or throwables. This is a separate thread
@@ -137,6 +154,25 @@ public class DirectDriver extends Driver {
       }
     }
 
+    /**
+     * Batch mode main loop. nextBatch blocks for the first event only, so a
+     * partial batch is handed down as soon as the source runs dry.
+     */
+    void pumpBatches(EventSource source, EventSink sink) throws IOException,
+        InterruptedException {
+      List<Event> batch = new ArrayList<Event>(batchSize);
+      while (!stopped) {
+        batch.clear();
+        int n = source.nextBatch(batch, batchSize);
+        if (n == 0)
+          break;
+        nextCount += n;
+
+        sink.appendBatch(batch);
+        appendCount += n;
+      }
+    }
+
     void ensureClosed(String nodeName) {
       try {
         getSource().close();
@@ -244,73 +280,4 @@ public class DirectDriver extends Driver {
     return source.getClass().getSimpleName() + " | " + sink.getName();
   }
 
-  /**
-   * Wait up to millis ms for driver state to reach specified state. return true
-   * if reached, return false if not.
-   */
-  @Override
-  public boolean waitForState(DriverState state, long millis)
-      throws InterruptedException {
-    long now = Clock.unixTime();
-    long deadline = now + millis;
-    synchronized (stateSignal) {
-      DriverState curState = this.state;
-      //
-      while (deadline > now) {
-        curState = this.state;
-        if (curState.equals(state)) {
-          return true;
-        }
-        // still wrong state? wait more.
-        now = Clock.unixTime();
-        long waitMs = Math.max(0, deadline - now); // guarentee non neg
-        if (waitMs == 0) {
-          LOG.warn("Expected " + state + " but timed out in state " + curState);
-          return false;
-        }
-        stateSignal.wait(waitMs);
-      }
-      // give up and return false
-      LOG.warn("Expected " + state + " but timed out in state " + curState);
-      return false;
-    }
-  }
-
-  /**
-   * Wait up to millis ms for driver state to reach at least the specified state
-   * where HELLO < OPENING < ACTIVE < CLOSING < IDLE < ERROR
-   * 
-   * return true if reached, return false if not.
-   */
-  @Override
-  public boolean waitForAtLeastState(DriverState state, long millis)
-      throws InterruptedException {
-    long now = Clock.unixTime();
-    long deadline = now + millis;
-    synchronized (stateSignal) {
-      DriverState curState = this.state;
-      while (deadline > now) {
-        curState = this.state;
-        if (state.ordinal() == curState.ordinal()) {
-          return true;
-        }
-        if (state.ordinal() <= curState.ordinal()) {
-          LOG.warn("Expected " + state + " but already in state " + curState);
-          return true;
-        }
-
-        // still wrong state? wait more.
-        now = Clock.unixTime();
-        long waitMs = Math.max(0, deadline - now); // guarentee non neg
-        if (waitMs == 0) {
-          continue;
-        }
-        stateSignal.wait(waitMs);
-      }
-      // give up and return false
-      LOG.error("Expected " + state + " but timed out in state " + curState);
-      return false;
-    }
-  }
-
 }
@@ -0,0 +1,424 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core.connector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.flume.core.Driver;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.core.ThreadSafeSink;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.ReportUtil;
+import com.cloudera.flume.reporter.Reportable;
+import com.cloudera.util.Clock;
+import com.google.common.base.Preconditions;
+
+/**
+ * This connector hooks a source to a sink like the DirectDriver, but splits the
+ * pump loop into a reader stage and one or more writer stages. The reader
+ * pulls batches from the source and puts them into a bounded queue, writers
+ * take batches from the queue and append them to the sink. When the queue is
+ * full the reader blocks, so a slow sink applies backpressure to the source.
+ * 
+ * The reader thread owns the driver life cycle. It opens the source and sink,
+ * starts the writers, and on stop or source exhaustion hands every writer an
+ * end of stream marker, waits for the queue to drain and then closes the source
+ * and sink. States transition exactly as in DirectDriver.
+ * 
+ * More than one writer is only used for sinks that implement ThreadSafeSink,
+ * since appends then happen concurrently and batches can reach the sink out of
+ * order. Any other sink gets a single writer.
+ * 
+ * This assumes that sources and sinks are closed and need to be opened.
+ */
+public class PipelinedDriver extends Driver implements Reportable {
+
+  static final Logger LOG = LoggerFactory.getLogger(PipelinedDriver.class);
+
+  public static final String A_QUEUE_CAPACITY = "queueCapacity";
+  public static final String A_QUEUE_SIZE = "queueSize";
+  public static final String A_READ_EVENTS = "readEvents";
+  public static final String A_READ_BATCHES = "readBatches";
+  public static final String A_READ_BLOCKED_MS = "readBlockedMs";
+  public static final String A_WRITE_EVENTS = "writeEvents";
+  public static final String A_WRITE_BATCHES = "writeBatches";
+  public static final String A_WRITE_IDLE_MS = "writeIdleMs";
+  public static final String A_WRITE_BUSY_MS = "writeBusyMs";
+  public static final String A_WRITERS = "writers";
+
+  // Marker handed to each writer to signal that no more batches will come.
+  static final List<Event> END_OF_STREAM = new ArrayList<Event>(0);
+
+  final String name;
+  final ReaderThread reader;
+  final WriterThread[] writers;
+  final int batchSize;
+  final BlockingQueue<List<Event>> queue;
+
+  EventSink sink;// Guarded by object lock
+  EventSource source; // Guarded by object lock
+
+  Exception lastExn = null; // Guarded by statSignal
+  DriverState state = DriverState.HELLO; // Guarded by stateSignal
+
+  // first exception seen by a writer, reported as the cause of the failure.
+  volatile Exception writerExn = null;
+
+  // metrics
+  final AtomicLong readEvents = new AtomicLong();
+  final AtomicLong readBatches = new AtomicLong();
+  final AtomicLong readBlockedNanos = new AtomicLong();
+  final AtomicLong writeEvents = new AtomicLong();
+  final AtomicLong writeBatches = new AtomicLong();
+  final AtomicLong writeIdleNanos = new AtomicLong();
+  final AtomicLong writeBusyNanos = new AtomicLong();
+
+  /**
+   * Creates a driver with a queue that holds up to queueBatches batches of up
+   * to batchSize events each, and numWriters writer threads.
+   */
+  public PipelinedDriver(String threadName, EventSource src, EventSink snk,
+      int batchSize, int queueBatches, int numWriters) {
+    Preconditions.checkNotNull(src, "Driver Source was invalid");
+    Preconditions.checkNotNull(snk, "Driver Sink was invalid");
+    Preconditions.checkArgument(batchSize > 0,
+        "Driver batch size must be positive");
+    Preconditions.checkArgument(queueBatches > 0,
+        "Driver queue size must be positive");
+    Preconditions.checkArgument(numWriters > 0,
+        "Driver must have at least one writer");
+    this.name = threadName;
+    this.source = src;
+    this.sink = snk;
+    this.batchSize = batchSize;
+    this.queue = new ArrayBlockingQueue<List<Event>>(queueBatches);
+    if (numWriters > 1 && !(snk instanceof ThreadSafeSink)) {
+      LOG.warn(snk.getName() + " is not thread safe, using one writer instead of "
+          + numWriters);
+      numWriters = 1;
+    }
+    this.reader = new ReaderThread(threadName);
+    this.writers = new WriterThread[numWriters];
+    for (int i = 0; i < numWriters; i++) {
+      writers[i] = new WriterThread(threadName, i);
+    }
+  }
+
+  public PipelinedDriver(String threadName, EventSource src, EventSink snk) {
+    this(threadName, src, snk, 100, 16, 1);
+  }
+
+  class ReaderThread extends Thread {
+    volatile boolean stopped = true;
+
+    public ReaderThread(String name) {
+      super();
+      setName(name + "-reader-" + getId());
+    }
+
+    public void run() {
+      EventSink sink = null;
+      EventSource source = null;
+      synchronized (PipelinedDriver.this) {
+        sink = PipelinedDriver.this.sink;
+        source = PipelinedDriver.this.source;
+      }
+      try {
+        synchronized (stateSignal) {
+          state = DriverState.OPENING;
+          stateSignal.notifyAll();
+        }
+        source.open();
+        sink.open();
+      } catch (Exception e) {
+        // if open is interrupted or has an exception there was a problem.
+        LOG.error("Closing down due to exception on open calls");
+        errorCleanup(e);
+        return;
+      }
+
+      synchronized (stateSignal) {
+        lastExn = null;
+        state = DriverState.ACTIVE;
+        stateSignal.notifyAll();
+      }
+
+      LOG.debug("Starting driver " + PipelinedDriver.this);
+      for (WriterThread w : writers) {
+        w.start();
+      }
+
+      try {
+        while (!stopped) {
+          List<Event> batch = new ArrayList<Event>(batchSize);
+          int n = source.nextBatch(batch, batchSize);
+          if (n == 0)
+            break;
+          readEvents.addAndGet(n);
+          readBatches.incrementAndGet();
+
+          long start = Clock.nanos();
+          queue.put(batch);
+          readBlockedNanos.addAndGet(Clock.nanos() - start);
+        }
+
+        // source is done or we were stopped, let the writers drain the queue.
+        for (int i = 0; i < writers.length; i++) {
+          queue.put(END_OF_STREAM);
+        }
+        for (WriterThread w : writers) {
+          w.join();
+        }
+        if (writerExn != null) {
+          throw writerExn;
+        }
+      } catch (Exception e1) {
+        // Catches all exceptions or throwables. This is a separate thread
+        Exception cause = (writerExn != null) ? writerExn : e1;
+        LOG.error("Closing down due to exception during append calls", cause);
+        cancelWriters();
+        errorCleanup(cause);
+        return;
+      }
+
+      try {
+        synchronized (stateSignal) {
+          state = DriverState.CLOSING;
+          stateSignal.notifyAll();
+        }
+        source.close();
+        sink.close();
+      } catch (Exception e) {
+        LOG.error("Closing down due to exception during close calls");
+        errorCleanup(e);
+        return;
+      }
+
+      synchronized (stateSignal) {
+        LOG.debug("Driver completed: " + PipelinedDriver.this);
+        stopped = true;
+        state = DriverState.IDLE;
+        stateSignal.notifyAll();
+      }
+    }
+
+    void cancelWriters() {
+      for (WriterThread w : writers) {
+        w.interrupt();
+      }
+      for (WriterThread w : writers) {
+        try {
+          w.join();
+        } catch (InterruptedException e) {
+          LOG.error("Driver interrupted waiting for writer to exit", e);
+          break;
+        }
+      }
+    }
+
+    void ensureClosed() {
+      try {
+        getSource().close();
+      } catch (IOException e) {
+        LOG.error("Error closing " + name + " source: " + e.getMessage());
+      } catch (InterruptedException e) {
+        LOG.error("Driver interrupted attempting to close source", e);
+      }
+
+      try {
+        getSink().close();
+      } catch (IOException e) {
+        LOG.error("Error closing " + name + " sink: " + e.getMessage());
+      } catch (InterruptedException e) {
+        LOG.error("Driver Interrupted attempting to close sink", e);
+      }
+    }
+
+    void errorCleanup(Exception ex) {
+      LOG.info("Connector " + name + " exited with error: " + ex.getMessage(),
+          ex);
+      ensureClosed();
+      queue.clear();
+      synchronized (stateSignal) {
+        lastExn = ex;
+        stopped = true;
+        LOG.error("Exiting driver " + name + " in error state "
+            + PipelinedDriver.this + " because " + ex.getMessage());
+        state = DriverState.ERROR;
+        stateSignal.notifyAll();
+      }
+    }
+  }
+
+  class WriterThread extends Thread {
+
+    public WriterThread(String name, int idx) {
+      super();
+      setName(name + "-writer" + idx + "-" + getId());
+    }
+
+    public void run() {
+      EventSink sink = getSink();
+      try {
+        while (true) {
+          long start = Clock.nanos();
+          List<Event> batch = queue.take();
+          long taken = Clock.nanos();
+          writeIdleNanos.addAndGet(taken - start);
+          if (batch == END_OF_STREAM) {
+            break;
+          }
+
+          sink.appendBatch(batch);
+          writeBusyNanos.addAndGet(Clock.nanos() - taken);
+          writeEvents.addAndGet(batch.size());
+          writeBatches.incrementAndGet();
+        }
+      } catch (Exception e) {
+        if (writerExn == null) {
+          writerExn = e;
+        }
+        if (!(e instanceof InterruptedException)) {
+          // wake up the reader so it can clean up.
+          LOG.error("Writer " + getName() + " failed, stopping driver", e);
+          reader.stopped = true;
+          reader.interrupt();
+        }
+      }
+    }
+  }
+
+  @Override
+  synchronized public void setSink(EventSink snk) {
+    this.sink = snk;
+  }
+
+  synchronized public EventSink getSink() {
+    return sink;
+  }
+
+  @Override
+  synchronized public void setSource(EventSource src) {
+    this.source = src;
+  }
+
+  synchronized public EventSource getSource() {
+    return source;
+  }
+
+  @Override
+  public synchronized void start() throws IOException {
+    // don't allow thread to be "started twice"
+    if (reader.stopped) {
+      reader.stopped = false;
+      reader.start();
+    }
+  }
+
+  public synchronized boolean isStopped() {
+    return reader.stopped;
+  }
+
+  /**
+   * Stops pulling from the source. Batches already in the queue are still
+   * appended to the sink before it is closed.
+   */
+  @Override
+  public synchronized void stop() throws IOException {
+    reader.stopped = true;
+  }
+
+  /**
+   * Start the mean shutdown.
+   */
+  @Override
+  public void cancel() {
+    reader.interrupt();
+    for (WriterThread w : writers) {
+      w.interrupt();
+    }
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    join(0);
+  }
+
+  @Override
+  public boolean join(long ms) throws InterruptedException {
+    final ReaderThread t = reader;
+    t.join(ms);
+    return !t.isAlive();
+  }
+
+  /**
+   * return the last exception that caused driver to exit
+   */
+  public Exception getException() {
+    return lastExn;
+  }
+
+  @Override
+  public DriverState getState() {
+    return state;
+  }
+
+  @Override
+  public String getName() {
+    return "PipelinedDriver";
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = new ReportEvent(getName());
+    rpt.setLongMetric(A_QUEUE_CAPACITY, queue.size()
+        + queue.remainingCapacity());
+    rpt.setLongMetric(A_QUEUE_SIZE, queue.size());
+    rpt.setLongMetric(A_WRITERS, writers.length);
+    rpt.setLongMetric(A_READ_EVENTS, readEvents.get());
+    rpt.setLongMetric(A_READ_BATCHES, readBatches.get());
+    rpt.setLongMetric(A_READ_BLOCKED_MS, readBlockedNanos.get() / 1000000);
+    rpt.setLongMetric(A_WRITE_EVENTS, writeEvents.get());
+    rpt.setLongMetric(A_WRITE_BATCHES, writeBatches.get());
+    rpt.setLongMetric(A_WRITE_IDLE_MS, writeIdleNanos.get() / 1000000);
+    rpt.setLongMetric(A_WRITE_BUSY_MS, writeBusyNanos.get() / 1000000);
+    return rpt;
+  }
+
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    return ReportUtil.noChildren();
+  }
+
+  @Override
+  public String toString() {
+    return source.getClass().getSimpleName() + " | " + sink.getName();
+  }
+
+}
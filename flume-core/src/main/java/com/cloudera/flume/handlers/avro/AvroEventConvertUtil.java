@@ -18,7 +18,6 @@
 package com.cloudera.flume.handlers.avro;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,8 +26,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.AttributeMap;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
-import com.cloudera.flume.core.EventImpl;
 import com.google.common.base.Preconditions;
 
 /**
@@ -50,31 +50,32 @@ public class AvroEventConvertUtil {
   public static Event toFlumeEvent(AvroFlumeEvent evt, boolean truncates) {
     Preconditions.checkArgument(evt != null, "AvorFlumeEvent is null!");
 
-    byte[] body = convertBody(evt.body, truncates);
+    ByteBuffer body = convertBody(evt.body, truncates);
     com.cloudera.flume.handlers.avro.Priority p = evt.priority;
     p = (p == null) ? com.cloudera.flume.handlers.avro.Priority.INFO : p;
     String host = (evt.host == null) ? "" : evt.host.toString();
     Map<String, byte[]> attrs = getAttrs(evt.fields);
-    return new EventImpl(body, evt.timestamp, toFlumePriority(p), evt.nanos,
-        host, attrs);
+    return new ByteBufferEvent(body, evt.timestamp, toFlumePriority(p),
+        evt.nanos, host, attrs);
   }
 
-  private static byte[] convertBody(ByteBuffer buf, boolean truncates) {
+  /**
+   * Returns a view of the body's remaining bytes, truncated if allowed.
+   */
+  private static ByteBuffer convertBody(ByteBuffer buf, boolean truncates) {
     if (buf == null) {
       LOG.warn("Avro Event had null body! returning empty body");
-      return new byte[0];
+      return ByteBuffer.allocate(0);
     }
-    byte[] bytes = buf.array();
+    ByteBuffer body = buf.duplicate();
     int maxSz = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
-    if (bytes.length > maxSz) {
+    if (body.remaining() > maxSz) {
       Preconditions.checkArgument(truncates,
           "Unexpected too long Avro Event body: max is " + maxSz
-              + " but body was buf.length");
-      byte[] trunc = Arrays.copyOf(bytes, maxSz);
-      return trunc;
+              + " but body was " + body.remaining());
+      body.limit(body.position() + maxSz);
     }
-    // normal case
-    return bytes;
+    return body;
   }
 
   private static com.cloudera.flume.core.Event.Priority toFlumePriority(
@@ -124,18 +125,17 @@ public class AvroEventConvertUtil {
 
     tempAvroEvt.timestamp = e.getTimestamp();
     tempAvroEvt.priority = toAvroPriority(e.getPriority());
-    ByteBuffer bbuf = ByteBuffer.wrap(e.getBody());
-
-    tempAvroEvt.body = bbuf;
+    tempAvroEvt.body = ByteBufferEvent.bodyBuffer(e);
     tempAvroEvt.nanos = e.getNanos();
     tempAvroEvt.host = e.getHost();
 
-    tempAvroEvt.fields = new HashMap<CharSequence, ByteBuffer>();
-    for (String s : e.getAttrs().keySet()) {
-      // wrap a ByteBuffer around e.getAttrs().get(s)
-      // also note that e.getAttrs().get(s) is immutable
-      ByteBuffer temp = ByteBuffer.wrap(e.getAttrs().get(s));
-      tempAvroEvt.fields.put(s, temp);
+    Map<String, byte[]> attrs = e.getAttrs();
+    // sized so that it never rehashes
+    tempAvroEvt.fields = new HashMap<CharSequence, ByteBuffer>(
+        attrs.size() * 4 / 3 + 1);
+    for (Map.Entry<String, byte[]> attr : attrs.entrySet()) {
+      // the attribute values are immutable, so wrap rather than copy them
+      tempAvroEvt.fields.put(attr.getKey(), ByteBuffer.wrap(attr.getValue()));
     }
     return tempAvroEvt;
   }
@@ -143,11 +143,11 @@ public class AvroEventConvertUtil {
   private static Map<String, byte[]> getAttrs(
       Map<CharSequence, ByteBuffer> fields) {
     if (fields == null) {
-      return new HashMap<String, byte[]>();
+      return new AttributeMap();
     }
-    HashMap<String, byte[]> tempMap = new HashMap<String, byte[]>();
-    for (CharSequence u : fields.keySet()) {
-      tempMap.put(u.toString(), fields.get(u).array());
+    Map<String, byte[]> tempMap = new AttributeMap();
+    for (Map.Entry<CharSequence, ByteBuffer> field : fields.entrySet()) {
+      tempMap.put(field.getKey().toString(), field.getValue().array());
     }
     return tempMap;
   }
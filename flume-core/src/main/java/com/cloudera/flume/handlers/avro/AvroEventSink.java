@@ -18,11 +18,26 @@
 package com.cloudera.flume.handlers.avro;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.avro.AvroRemoteException;
 import org.apache.avro.ipc.AccountingTransceiver;
 import org.apache.avro.ipc.HttpTransceiver;
+import org.apache.avro.ipc.NettyTransceiver;
 import org.apache.avro.ipc.Transceiver;
 import org.apache.avro.ipc.specific.SpecificRequestor;
 import org.slf4j.Logger;
@@ -34,26 +49,92 @@ import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.util.Clock;
+import com.google.common.base.Preconditions;
 
 /**
  * This is a sink that sends events to a remote host/port using Avro.
+ * 
+ * With the http transport every call is an http request. With the netty
+ * transport one connection is kept open and batches are sent with a single
+ * appendBatch call. With a window > 1, a single sender thread sends them in
+ * the order they were appended while the caller goes on with the next ones,
+ * and appendBatch blocks once window batches are in flight.
+ * 
+ * A batch only counts as appended once it has been sent. If one fails, it and
+ * the batches behind it are kept, the failure is thrown by the append or
+ * close that finds it, and the kept batches are sent again, in order, ahead
+ * of the next batch appended after that.
  */
 public class AvroEventSink extends EventSink.Base {
 
   static final Logger LOG = LoggerFactory.getLogger(AvroEventSink.class);
 
+  final static long MAX_CLOSE_SLEEP = FlumeConfiguration.get()
+      .getThriftCloseMaxSleep();
+
   final public static String A_SERVERHOST = "serverHost";
   final public static String A_SERVERPORT = "serverPort";
   final public static String A_SENTBYTES = "sentBytes";
+  final public static String A_TRANSPORT = "transport";
+  final public static String A_BATCHES = "batchesSent";
+  final public static String A_INFLIGHT = "batchesInFlight";
 
   protected FlumeEventAvroServer avroClient;
   String host;
   int port;
+  final String transportType;
+  final int window;
   AccountingTransceiver transport;
 
+  // only used by the netty transport with a window > 1
+  ExecutorService sender;
+  // batches handed to the sender and not yet counted, oldest first.
+  final Queue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+  // set when a send fails, so that the sender skips the batches behind it.
+  final AtomicBoolean sendFailed = new AtomicBoolean();
+  // set after the first call, which does the avro handshake
+  boolean handshaken = false;
+  final AtomicLong batches = new AtomicLong();
+  // bytes sent on connections that have been closed
+  long closedSentBytes = 0;
+
   public AvroEventSink(String host, int port) {
+    this(host, port, FlumeConfiguration.get().getEventAvroTransport(),
+        FlumeConfiguration.get().getEventAvroWindow());
+  }
+
+  /**
+   * @param transport
+   *          FlumeConfiguration.AVRO_TRANSPORT_HTTP or AVRO_TRANSPORT_NETTY
+   * @param window
+   *          max number of batches in flight on the netty transport
+   */
+  public AvroEventSink(String host, int port, String transport, int window) {
+    Preconditions.checkArgument(window >= 1, "window must be at least 1");
     this.host = host;
     this.port = port;
+    this.transportType = transport;
+    this.window = window;
+  }
+
+  /**
+   * A batch handed to the sender. done is null for a batch that is kept to be
+   * sent again.
+   */
+  static class Pending {
+    final List<Event> events;
+    final List<AvroFlumeEvent> afes;
+    Future<Void> done;
+
+    Pending(List<Event> events, List<AvroFlumeEvent> afes) {
+      this.events = events;
+      this.afes = afes;
+    }
+  }
+
+  boolean isNetty() {
+    return FlumeConfiguration.AVRO_TRANSPORT_NETTY.equals(transportType);
   }
 
   /**
@@ -65,6 +146,10 @@ public class AvroEventSink extends EventSink.Base {
     AvroFlumeEvent afe = AvroEventConvertUtil.toAvroEvent(e);
     // Make sure client side is initialized.
     this.ensureInitialized();
+    // keep the order with the batches in flight.
+    while (!pending.isEmpty()) {
+      reap(pending.peek(), Long.MAX_VALUE);
+    }
     try {
       avroClient.append(afe);
       super.append(e);
@@ -73,10 +158,136 @@ public class AvroEventSink extends EventSink.Base {
     }
   }
 
-  private void ensureInitialized() throws IOException {
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    this.ensureInitialized();
+    if (!isNetty()) {
+      // http peers may predate appendBatch, so keep sending single events.
+      for (Event e : events) {
+        avroClient.append(AvroEventConvertUtil.toAvroEvent(e));
+      }
+      updateAppendStats(events);
+      return;
+    }
+
+    final List<AvroFlumeEvent> afes = new ArrayList<AvroFlumeEvent>(events
+        .size());
+    for (Event e : events) {
+      afes.add(AvroEventConvertUtil.toAvroEvent(e));
+    }
+
+    if (sender == null || !handshaken) {
+      send(afes);
+      handshaken = true;
+      batches.incrementAndGet();
+      updateAppendStats(events);
+      return;
+    }
+
+    while (pending.size() >= window) {
+      reap(pending.peek(), Long.MAX_VALUE);
+    }
+    final Pending p = new Pending(events, afes);
+    p.done = sender.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        if (sendFailed.get()) {
+          throw new IOException("Not sent, an earlier batch failed");
+        }
+        try {
+          send(p.afes);
+        } catch (IOException e) {
+          sendFailed.set(true);
+          throw e;
+        }
+        return null;
+      }
+    });
+    pending.add(p);
+    // count the batches that have been sent meanwhile.
+    try {
+      while (!pending.isEmpty() && pending.peek().done.isDone()) {
+        reap(pending.peek(), Long.MAX_VALUE);
+      }
+    } catch (IOException e) {
+      // this call fails, so its own batch is not sent again.
+      pending.remove(p);
+      throw e;
+    }
+  }
+
+  private void send(List<AvroFlumeEvent> afes) throws IOException {
+    try {
+      avroClient.appendBatch(afes);
+    } catch (AvroRemoteException e1) {
+      throw new IOException("Append failed " + e1.getMessage(), e1);
+    }
+  }
+
+  /**
+   * Waits up to waitMs for the oldest pending batch p and counts it if it was
+   * sent. If it failed, it stays at the head of pending to be sent again and
+   * the failure is thrown.
+   */
+  private void reap(Pending p, long waitMs) throws IOException,
+      InterruptedException {
+    try {
+      p.done.get(waitMs, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      markForResend();
+      Throwable t = e.getCause();
+      throw new IOException("Append of a batch in flight failed "
+          + t.getMessage(), t);
+    } catch (TimeoutException e) {
+      throw new IOException("Batch still in flight after " + waitMs + "ms");
+    }
+    pending.remove();
+    batches.incrementAndGet();
+    updateAppendStats(p.events);
+  }
+
+  /**
+   * Waits for the sender to get through what it has been given, since it
+   * skips every batch after a failure, and marks all pending batches to be
+   * sent again.
+   */
+  private void markForResend() throws InterruptedException {
+    for (Pending p : pending) {
+      if (p.done != null) {
+        try {
+          p.done.get();
+        } catch (ExecutionException e) {
+          // expected, it is sent again.
+        }
+        p.done = null;
+      }
+    }
+    sendFailed.set(false);
+  }
+
+  private void ensureInitialized() throws IOException, InterruptedException {
     if (this.avroClient == null || this.transport == null) {
       throw new IOException("MasterRPC called while not connected to master");
     }
+    resendKept();
+  }
+
+  /**
+   * Sends the batches kept after a failure, in order, before anything else.
+   * Whatever is not sent is kept for the next try.
+   */
+  private void resendKept() throws IOException {
+    Pending p;
+    while ((p = pending.peek()) != null && p.done == null) {
+      send(p.afes);
+      pending.remove();
+      batches.incrementAndGet();
+      updateAppendStats(p.events);
+    }
   }
 
   /**
@@ -84,10 +295,14 @@ public class AvroEventSink extends EventSink.Base {
    */
   @Override
   public void open() throws IOException {
-
-    URL url = new URL("http", host, port, "/");
-    Transceiver http = new HttpTransceiver(url);
-    transport = new AccountingTransceiver(http);
+    Transceiver xcvr;
+    if (isNetty()) {
+      xcvr = new NettyTransceiver(new InetSocketAddress(host, port));
+    } else {
+      URL url = new URL("http", host, port, "/");
+      xcvr = new HttpTransceiver(url);
+    }
+    transport = new AccountingTransceiver(xcvr);
     try {
       this.avroClient = (FlumeEventAvroServer) SpecificRequestor.getClient(
           FlumeEventAvroServer.class, transport);
@@ -95,7 +310,12 @@ public class AvroEventSink extends EventSink.Base {
       throw new IOException("Failed to open Avro event sink at " + host + ":"
           + port + " : " + e.getMessage());
     }
-    LOG.info("AvroEventSink open on port  " + port);
+    handshaken = false;
+    if (isNetty() && window > 1) {
+      sender = Executors.newSingleThreadExecutor();
+    }
+    LOG.info("AvroEventSink open on port  " + port + " using "
+        + transportType);
   }
 
   /**
@@ -103,17 +323,50 @@ public class AvroEventSink extends EventSink.Base {
    */
   @Override
   public void close() throws IOException {
-    if (transport != null) {
-      transport.close();
-      transport = null;
-      LOG.info("AvroEventSink on port " + port + " closed");
-    } else {
+    if (transport == null) {
       LOG.warn("Trying to close AvroEventSink, which was closed already");
+      return;
+    }
+
+    IOException failed = null;
+    if (sender != null) {
+      // let the batches in flight finish before closing the connection.
+      long deadline = Clock.unixTime() + MAX_CLOSE_SLEEP;
+      try {
+        Pending p;
+        while ((p = pending.peek()) != null && p.done != null) {
+          reap(p, Math.max(0, deadline - Clock.unixTime()));
+        }
+      } catch (IOException e) {
+        failed = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failed = new IOException("Interrupted while waiting for batches "
+            + "in flight");
+      }
+      sender.shutdownNow();
+      sender = null;
+      if (!pending.isEmpty()) {
+        LOG.warn("AvroEventSink closing with " + pending.size()
+            + " batches not sent, they are sent again if it is reopened");
+        for (Pending p : pending) {
+          p.done = null;
+        }
+      }
+    }
+
+    transport.close();
+    closedSentBytes += transport.getSentBytes();
+    transport = null;
+    LOG.info("AvroEventSink on port " + port + " closed");
+    if (failed != null) {
+      throw failed;
     }
   }
 
   public long getSentBytes() {
-    return transport.getSentBytes();
+    AccountingTransceiver t = transport;
+    return closedSentBytes + (t == null ? 0 : t.getSentBytes());
   }
 
   /**
@@ -124,7 +377,10 @@ public class AvroEventSink extends EventSink.Base {
     ReportEvent rpt = super.getMetrics();
     rpt.setStringMetric(A_SERVERHOST, host);
     rpt.setLongMetric(A_SERVERPORT, port);
-    rpt.setLongMetric(A_SENTBYTES, transport.getSentBytes());
+    rpt.setLongMetric(A_SENTBYTES, getSentBytes());
+    rpt.setStringMetric(A_TRANSPORT, transportType);
+    rpt.setLongMetric(A_BATCHES, batches.get());
+    rpt.setLongMetric(A_INFLIGHT, pending.size());
     return rpt;
   }
 
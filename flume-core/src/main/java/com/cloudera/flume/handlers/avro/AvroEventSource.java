@@ -19,19 +19,22 @@
 package com.cloudera.flume.handlers.avro;
 
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.avro.AvroRemoteException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.rpc.IngestBuffer;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.util.Clock;
 import com.google.common.base.Preconditions;
@@ -65,7 +68,7 @@ public class AvroEventSource extends EventSource.Base {
   public static final String A_BYTES_IN = "bytesIn";
   final int port;
   private FlumeEventAvroServerImpl svr;
-  final BlockingQueue<Event> q;
+  final IngestBuffer q;
   final AtomicLong enqueued = new AtomicLong();
   final AtomicLong dequeued = new AtomicLong();
   final AtomicLong bytesIn = new AtomicLong();
@@ -78,7 +81,7 @@ public class AvroEventSource extends EventSource.Base {
   public AvroEventSource(int port, int qsize, boolean truncates) {
     this.port = port;
     this.svr = new FlumeEventAvroServerImpl(port);
-    this.q = new LinkedBlockingQueue<Event>(qsize);
+    this.q = new IngestBuffer(qsize);
     this.shouldTruncate = truncates;
   }
 
@@ -94,13 +97,14 @@ public class AvroEventSource extends EventSource.Base {
     rpt.setLongMetric(A_ENQUEUED, enqueued.get());
     rpt.setLongMetric(A_DEQUEUED, dequeued.get());
     rpt.setLongMetric(A_BYTES_IN, bytesIn.get());
+    rpt.merge(q.getMetrics());
     return rpt;
   }
 
   /**
-   * This constructor allows the for an arbitrary blocking queue implementation.
+   * This constructor allows for an arbitrarily sized ingest buffer.
    */
-  public AvroEventSource(int port, BlockingQueue<Event> q, boolean truncates) {
+  public AvroEventSource(int port, IngestBuffer q, boolean truncates) {
     Preconditions.checkNotNull(q);
     this.port = port;
     this.q = q;
@@ -118,7 +122,20 @@ public class AvroEventSource extends EventSource.Base {
     try {
       q.put(e);
       enqueued.getAndIncrement();
-      bytesIn.getAndAdd(e.getBody().length);
+      bytesIn.getAndAdd(ByteBufferEvent.bodyLength(e));
+    } catch (InterruptedException e1) {
+      LOG.error("blocked append was interrupted", e1);
+      throw new IOException(e1);
+    }
+  }
+
+  void enqueueAll(List<Event> events) throws IOException {
+    try {
+      q.putAll(events);
+      enqueued.getAndAdd(events.size());
+      for (Event e : events) {
+        bytesIn.getAndAdd(ByteBufferEvent.bodyLength(e));
+      }
     } catch (InterruptedException e1) {
       LOG.error("blocked append was interrupted", e1);
       throw new IOException(e1);
@@ -143,6 +160,25 @@ public class AvroEventSource extends EventSource.Base {
         }
         super.append(evt);
       }
+
+      /**
+       * Unlike append, the sender waits for this to return, so a failure to
+       * queue the events is reported back to it.
+       */
+      @Override
+      public Void appendBatch(List<AvroFlumeEvent> evts)
+          throws AvroRemoteException {
+        List<Event> events = new ArrayList<Event>(evts.size());
+        for (AvroFlumeEvent evt : evts) {
+          events.add(AvroEventConvertUtil.toFlumeEvent(evt, shouldTruncate));
+        }
+        try {
+          enqueueAll(events);
+        } catch (IOException ioe) {
+          throw new AvroRemoteException(ioe);
+        }
+        return null;
+      }
     };
     LOG.info(String.format("Avro listening server on port %d...", port));
     this.svr.start();
@@ -165,7 +201,7 @@ public class AvroEventSource extends EventSource.Base {
     // TODO (jon) parameterize queue drain max sleep is one minute
     long maxSleep = MAX_CLOSE_SLEEP;
     long start = Clock.unixTime();
-    while (q.peek() != null) {
+    while (!q.isEmpty()) {
       if (Clock.unixTime() - start > maxSleep) {
         if (sz == q.size()) {
           // no progress made, timeout and close it.
@@ -208,17 +244,38 @@ public class AvroEventSource extends EventSource.Base {
         }
       }
       // return the event
-      synchronized (this) {
-        dequeued.getAndIncrement();
-        updateEventProcessingStats(e);
-        return e;
-      }
+      dequeued.getAndIncrement();
+      updateEventProcessingStats(e);
+      return e;
     } catch (InterruptedException e) {
       throw new IOException("Waiting for queue element was interrupted! "
           + e.getMessage(), e);
     }
   }
 
+  /**
+   * Blocks for the first event and then drains up to max - 1 more events that
+   * are already enqueued.
+   */
+  @Override
+  public int nextBatch(List<Event> events, int max) throws IOException {
+    Preconditions.checkArgument(max > 0, "batch max must be positive");
+    Event first = next();
+    if (first == null) {
+      return 0;
+    }
+    events.add(first);
+    int start = events.size();
+    int drained = q.drainTo(events, max - 1);
+    synchronized (this) {
+      dequeued.getAndAdd(drained);
+      for (int i = start; i < start + drained; i++) {
+        updateEventProcessingStats(events.get(i));
+      }
+    }
+    return drained + 1;
+  }
+
   public static SourceBuilder builder() {
     return new SourceBuilder() {
       @Override
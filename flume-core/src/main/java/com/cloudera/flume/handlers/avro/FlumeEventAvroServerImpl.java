@@ -18,22 +18,39 @@
 package com.cloudera.flume.handlers.avro;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
 
 import org.apache.avro.AvroRemoteException;
 import org.apache.avro.ipc.HttpServer;
+import org.apache.avro.ipc.NettyServer;
+import org.apache.avro.ipc.Server;
 import org.apache.avro.ipc.specific.SpecificResponder;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+
 /**
  * This implements the AvroEventServer.
  */
 public class FlumeEventAvroServerImpl implements FlumeEventAvroServer {
-  private HttpServer http;
+  private Server server;
   private final int port;
+  private final String transport;
 
   /**
    * This just sets the port for this AvroServer
    */
   public FlumeEventAvroServerImpl(int port) {
+    this(port, FlumeConfiguration.get().getEventAvroTransport());
+  }
+
+  /**
+   * @param transport
+   *          FlumeConfiguration.AVRO_TRANSPORT_HTTP or AVRO_TRANSPORT_NETTY
+   */
+  public FlumeEventAvroServerImpl(int port, String transport) {
     this.port = port;
+    this.transport = transport;
   }
 
   /**
@@ -42,18 +59,34 @@ public class FlumeEventAvroServerImpl implements FlumeEventAvroServer {
   public void start() throws IOException {
     SpecificResponder res = new SpecificResponder(FlumeEventAvroServer.class,
         this);
-    this.http = new HttpServer(res, port);
-    this.http.start();
+    if (FlumeConfiguration.AVRO_TRANSPORT_NETTY.equals(transport)) {
+      // binds in the constructor. Calls on a connection are handled in the
+      // order they arrive, which is only the order they were appended if the
+      // client sends them from one thread, as AvroEventSink does.
+      this.server = new NettyServer(res, new InetSocketAddress(port));
+    } else {
+      this.server = new HttpServer(res, port);
+    }
+    this.server.start();
   }
 
   @Override
   public void append(AvroFlumeEvent evt) {
   }
 
+  @Override
+  public Void appendBatch(List<AvroFlumeEvent> evts)
+      throws AvroRemoteException {
+    for (AvroFlumeEvent evt : evts) {
+      append(evt);
+    }
+    return null;
+  }
+
   /**
    * Stops the FlumeEventAvroServer, called only from the server.
    */
   public void close() throws AvroRemoteException {
-    http.close();
+    server.close();
   }
 }
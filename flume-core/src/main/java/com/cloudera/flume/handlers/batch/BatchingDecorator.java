@@ -58,6 +58,9 @@ public class BatchingDecorator<S extends EventSink> extends
   public static final String BATCH_SIZE = "batchSize";
   public static final String BATCH_DATA = "batchData";
 
+  // Don't keep a buffer bigger than this around between batches.
+  static final int MAX_POOLED_BUFFER = 8 * 1024 * 1024;
+
   // timeoutBatches + filledBatches + (emptyBatches) = triggeredBatches
   public static final String R_TIMEOUTS = "timeoutBatches";
   public static final String R_FILLED = "filledBatches";
@@ -75,6 +78,19 @@ public class BatchingDecorator<S extends EventSink> extends
   List<Event> events;
   protected long lastBatchTime = 0;
 
+  // reused for every batch, only touched while holding the lock on this.
+  BatchBuffer buf = new BatchBuffer();
+
+  /**
+   * A ByteArrayOutputStream that exposes its capacity, so that an oversized
+   * buffer can be dropped between batches.
+   */
+  static class BatchBuffer extends ByteArrayOutputStream {
+    int capacity() {
+      return buf.length;
+    }
+  }
+
   public BatchingDecorator(S s, int maxSize, int maxLatency) {
     super(s);
     this.maxSize = maxSize;
@@ -83,18 +99,21 @@ public class BatchingDecorator<S extends EventSink> extends
   }
 
   Event batchevent(List<Event> evts) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream(2 >> 15);
-    DataOutput out = new DataOutputStream(baos);
-    for (Event evt : events) {
-      WriteableEvent we = new WriteableEvent(evt);
-      we.write(out);
+    buf.reset();
+    DataOutput out = new DataOutputStream(buf);
+    for (Event evt : evts) {
+      WriteableEvent.writeEvent(out, evt);
     }
 
     Event be = new EventImpl(new byte[0]);
     ByteBuffer b = ByteBuffer.allocate(4);
-    b.putInt(events.size());
+    b.putInt(evts.size());
     be.set(BATCH_SIZE, b.array());
-    be.set(BATCH_DATA, baos.toByteArray());
+    be.set(BATCH_DATA, buf.toByteArray());
+
+    if (buf.capacity() > MAX_POOLED_BUFFER) {
+      buf = new BatchBuffer();
+    }
     return be;
   }
 
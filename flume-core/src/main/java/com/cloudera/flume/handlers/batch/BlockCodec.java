@@ -0,0 +1,93 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compresses and decompresses whole blocks of bytes, e.g. a serialized batch.
+ * Each codec stores its compressed blocks in an event attribute of its own, so
+ * a receiver can tell which codec to use by looking at the attributes.
+ * 
+ * Codecs keep their (de)compression state and scratch buffers between calls
+ * so that they can be reused for every block. They are not thread safe.
+ */
+public abstract class BlockCodec {
+  // Refuse to inflate blocks that claim to be larger than this.
+  public static final int MAX_RAW_SIZE = 256 * 1024 * 1024;
+
+  public static final String GZIP = "gzip";
+  public static final String LZ = "lz";
+
+  /**
+   * The name used to select this codec in specs.
+   */
+  public abstract String getName();
+
+  /**
+   * The event attribute that holds blocks compressed by this codec.
+   */
+  public abstract String getAttr();
+
+  /**
+   * Returns the compressed form of src[off, off + len).
+   */
+  public abstract byte[] compress(byte[] src, int off, int len)
+      throws IOException;
+
+  /**
+   * Returns the bytes that were compressed into data.
+   */
+  public abstract byte[] decompress(byte[] data) throws IOException;
+
+  /**
+   * Creates a codec by name. The level only applies to gzip, where it is the
+   * deflate level 1-9, or -1 for the default.
+   */
+  public static BlockCodec create(String name, int level) {
+    Preconditions.checkNotNull(name);
+    if (GZIP.equalsIgnoreCase(name)) {
+      return new GzipBlockCodec(level);
+    }
+    if (LZ.equalsIgnoreCase(name)) {
+      return new LzBlockCodec();
+    }
+    throw new IllegalArgumentException("Unknown compression codec '" + name
+        + "', expected " + GZIP + " or " + LZ);
+  }
+
+  /**
+   * Creates one of each codec, for receivers that accept all of them.
+   */
+  public static BlockCodec[] createAll() {
+    return new BlockCodec[] { new GzipBlockCodec(-1), new LzBlockCodec() };
+  }
+
+  /**
+   * Checks the raw size a compressed block claims to have.
+   */
+  static int checkRawSize(long size) throws IOException {
+    if (size < 0 || size > MAX_RAW_SIZE) {
+      throw new IOException("Compressed block claims a raw size of " + size
+          + " bytes, expected 0 to " + MAX_RAW_SIZE);
+    }
+    return (int) size;
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloudera.flume.conf.Context;
+import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.EventSinkDecorator;
+import com.cloudera.flume.handlers.hdfs.WriteableEvent;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.google.common.base.Preconditions;
+
+/**
+ * This compresses each event (usually a batch) as it passes through the
+ * decorator, replacing it with an event that holds the compressed event in
+ * the codec's attribute. One codec and serialization buffer are reused for
+ * every event. DecompressDecorator reverses this.
+ */
+public class CompressDecorator<S extends EventSink> extends
+    EventSinkDecorator<S> {
+
+  public static final String R_CODEC = "codec";
+  public static final String R_EVENTCOUNT = "eventsCount";
+  public static final String R_EVENTSIZE = "eventsSize";
+  public static final String R_COMPRESSEDSIZE = "compressedSize";
+  public static final String R_COMPRESSNANOS = "compressNanos";
+  // compressed size / event size, lower is better
+  public static final String R_RATIO = "compressionRatio";
+
+  AtomicLong eventCount = new AtomicLong(0);
+  AtomicLong eventSize = new AtomicLong(0);
+  AtomicLong compressedSize = new AtomicLong(0);
+  AtomicLong compressNanos = new AtomicLong(0);
+
+  final BlockCodec codec;
+  // reused for every event, only touched while holding the lock on codec.
+  BatchingDecorator.BatchBuffer buf = new BatchingDecorator.BatchBuffer();
+
+  public CompressDecorator(S s, BlockCodec codec) {
+    super(s);
+    this.codec = Preconditions.checkNotNull(codec);
+  }
+
+  @Override
+  public void append(Event e) throws IOException, InterruptedException {
+    byte[] compressed;
+    int rawSize;
+    synchronized (codec) {
+      buf.reset();
+      WriteableEvent.writeEvent(new DataOutputStream(buf), e);
+      rawSize = buf.size();
+      long start = System.nanoTime();
+      compressed = codec.compress(buf.array(), 0, rawSize);
+      compressNanos.addAndGet(System.nanoTime() - start);
+      if (buf.capacity() > BatchingDecorator.MAX_POOLED_BUFFER) {
+        buf = new BatchingDecorator.BatchBuffer();
+      }
+    }
+
+    Event ce = new EventImpl(new byte[0]);
+    ce.set(codec.getAttr(), compressed);
+    super.append(ce);
+    eventSize.addAndGet(rawSize);
+    compressedSize.addAndGet(compressed.length);
+    eventCount.incrementAndGet();
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = super.getMetrics();
+    rpt.setStringMetric(R_CODEC, codec.getName());
+    rpt.setLongMetric(R_EVENTCOUNT, eventCount.get());
+    rpt.setLongMetric(R_EVENTSIZE, eventSize.get());
+    rpt.setLongMetric(R_COMPRESSEDSIZE, compressedSize.get());
+    rpt.setLongMetric(R_COMPRESSNANOS, compressNanos.get());
+    long raw = eventSize.get();
+    if (raw > 0) {
+      rpt.setDoubleMetric(R_RATIO, (double) compressedSize.get() / raw);
+    }
+    return rpt;
+  }
+
+  public static SinkDecoBuilder builder() {
+    return new SinkDecoBuilder() {
+      @Override
+      public EventSinkDecorator<EventSink> build(Context context,
+          String... argv) {
+        Preconditions.checkArgument(argv.length >= 1 && argv.length <= 2,
+            "usage: compress(\"gzip\"|\"lz\"[, level])");
+        int level = -1;
+        if (argv.length > 1) {
+          level = Integer.parseInt(argv[1]);
+        }
+        return new CompressDecorator<EventSink>(null, BlockCodec.create(
+            argv[0], level));
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloudera.flume.conf.Context;
+import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.EventSinkDecorator;
+import com.cloudera.flume.handlers.hdfs.EventArrayReader;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.google.common.base.Preconditions;
+
+/**
+ * This decompresses any event compressed by one of its codecs, otherwise
+ * events just pass through. By default it accepts every codec, so it can sit
+ * on a collector in front of agents that use different ones.
+ */
+public class DecompressDecorator<S extends EventSink> extends
+    EventSinkDecorator<S> {
+
+  public static final String R_PASSTHROUGH = "passthroughCount";
+  public static final String R_COMPRESSEDCOUNT = "compressedCount";
+  public static final String R_COMPRESSEDSIZE = "compressedSize";
+  public static final String R_DECOMPRESSEDSIZE = "decompressedSize";
+  public static final String R_DECOMPRESSNANOS = "decompressNanos";
+
+  AtomicLong passthrough = new AtomicLong(0);
+  AtomicLong compressedCnt = new AtomicLong(0);
+  AtomicLong compressedSize = new AtomicLong(0);
+  AtomicLong decompressedSize = new AtomicLong(0);
+  AtomicLong decompressNanos = new AtomicLong(0);
+
+  final BlockCodec[] codecs;
+
+  public DecompressDecorator(S s) {
+    this(s, BlockCodec.createAll());
+  }
+
+  protected DecompressDecorator(S s, BlockCodec... codecs) {
+    super(s);
+    this.codecs = codecs;
+  }
+
+  @Override
+  public void append(Event e) throws IOException, InterruptedException {
+    for (BlockCodec codec : codecs) {
+      byte[] bs = e.get(codec.getAttr());
+      if (bs == null) {
+        continue;
+      }
+
+      byte[] raw;
+      synchronized (codec) {
+        long start = System.nanoTime();
+        raw = codec.decompress(bs);
+        decompressNanos.addAndGet(System.nanoTime() - start);
+      }
+      // bodies in the original format are sliced out of raw, not copied
+      Event out = new EventArrayReader(raw).next();
+      super.append(out);
+      compressedCnt.incrementAndGet();
+      compressedSize.addAndGet(bs.length);
+      decompressedSize.addAndGet(raw.length);
+      return;
+    }
+
+    super.append(e);
+    passthrough.incrementAndGet();
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = super.getMetrics();
+    rpt.setLongMetric(R_PASSTHROUGH, passthrough.get());
+    rpt.setLongMetric(R_COMPRESSEDCOUNT, compressedCnt.get());
+    rpt.setLongMetric(R_COMPRESSEDSIZE, compressedSize.get());
+    rpt.setLongMetric(R_DECOMPRESSEDSIZE, decompressedSize.get());
+    rpt.setLongMetric(R_DECOMPRESSNANOS, decompressNanos.get());
+    return rpt;
+  }
+
+  public static SinkDecoBuilder builder() {
+    return new SinkDecoBuilder() {
+      @Override
+      public EventSinkDecorator<EventSink> build(Context context,
+          String... argv) {
+        Preconditions.checkArgument(argv.length == 0, "usage: decompress");
+        return new DecompressDecorator<EventSink>(null);
+      }
+    };
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes blocks as single gzip members, the same format GZIPOutputStream
+ * produces, but with one Deflater and Inflater that are reset and reused for
+ * every block instead of being allocated (and their native memory freed by
+ * the finalizer) per block.
+ */
+public class GzipBlockCodec extends BlockCodec {
+  static final int HEADER_SIZE = 10;
+  static final int TRAILER_SIZE = 8;
+
+  // header flags, see RFC 1952
+  static final int FHCRC = 2;
+  static final int FEXTRA = 4;
+  static final int FNAME = 8;
+  static final int FCOMMENT = 16;
+
+  private static final byte[] HEADER = { (byte) 0x1f, (byte) 0x8b,
+      Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private final Deflater deflater;
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] probe = new byte[1];
+  private byte[] out = new byte[4096];
+
+  public GzipBlockCodec(int level) {
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < 1 || level > 9)) {
+      throw new IllegalArgumentException("gzip level must be 1-9, not "
+          + level);
+    }
+    this.deflater = new Deflater(level, true);
+  }
+
+  @Override
+  public String getName() {
+    return GZIP;
+  }
+
+  @Override
+  public String getAttr() {
+    return GunzipDecorator.GZDOC;
+  }
+
+  @Override
+  public byte[] compress(byte[] src, int off, int len) throws IOException {
+    deflater.reset();
+    deflater.setInput(src, off, len);
+    deflater.finish();
+    crc.reset();
+    crc.update(src, off, len);
+
+    System.arraycopy(HEADER, 0, out, 0, HEADER_SIZE);
+    int pos = HEADER_SIZE;
+    while (!deflater.finished()) {
+      if (pos == out.length) {
+        out = Arrays.copyOf(out, out.length * 2);
+      }
+      pos += deflater.deflate(out, pos, out.length - pos);
+    }
+
+    byte[] gz = new byte[pos + TRAILER_SIZE];
+    System.arraycopy(out, 0, gz, 0, pos);
+    writeIntLE(gz, pos, (int) crc.getValue());
+    writeIntLE(gz, pos + 4, len);
+    if (out.length > BatchingDecorator.MAX_POOLED_BUFFER) {
+      out = new byte[4096];
+    }
+    return gz;
+  }
+
+  @Override
+  public byte[] decompress(byte[] data) throws IOException {
+    int pos = skipHeader(data);
+    if (data.length - pos < TRAILER_SIZE) {
+      throw new EOFException("gzip block is truncated");
+    }
+    byte[] raw = new byte[checkRawSize(readIntLE(data, data.length - 4)
+        & 0xffffffffL)];
+
+    inflater.reset();
+    inflater.setInput(data, pos, data.length - pos);
+    int n = 0;
+    try {
+      while (!inflater.finished()) {
+        int k;
+        if (n < raw.length) {
+          k = inflater.inflate(raw, n, raw.length - n);
+        } else {
+          k = inflater.inflate(probe);
+          if (k > 0) {
+            throw new IOException("gzip block inflates to more than the "
+                + raw.length + " bytes in its trailer");
+          }
+        }
+        if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new EOFException("gzip block is truncated");
+        }
+        n += k;
+      }
+    } catch (DataFormatException dfe) {
+      throw new IOException("Corrupt gzip block", dfe);
+    }
+
+    if (n != raw.length) {
+      throw new IOException("gzip block inflated to " + n
+          + " bytes but its trailer says " + raw.length);
+    }
+    if (inflater.getRemaining() != TRAILER_SIZE) {
+      throw new IOException("Unexpected data after the gzip member");
+    }
+    crc.reset();
+    crc.update(raw, 0, raw.length);
+    if ((int) crc.getValue() != readIntLE(data, data.length - 8)) {
+      throw new IOException("gzip block failed its crc check");
+    }
+    return raw;
+  }
+
+  /**
+   * Returns the offset of the deflate data, after the header and any optional
+   * header fields.
+   */
+  static int skipHeader(byte[] data) throws IOException {
+    if (data.length < HEADER_SIZE + TRAILER_SIZE) {
+      throw new EOFException("gzip block is truncated");
+    }
+    if (data[0] != HEADER[0] || data[1] != HEADER[1]
+        || data[2] != Deflater.DEFLATED) {
+      throw new IOException("Not a gzip block");
+    }
+    int flags = data[3] & 0xff;
+    int pos = HEADER_SIZE;
+    if ((flags & FEXTRA) != 0) {
+      pos += 2 + ((data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8);
+    }
+    if ((flags & FNAME) != 0) {
+      pos = skipZeroTerminated(data, pos);
+    }
+    if ((flags & FCOMMENT) != 0) {
+      pos = skipZeroTerminated(data, pos);
+    }
+    if ((flags & FHCRC) != 0) {
+      pos += 2;
+    }
+    if (pos > data.length) {
+      throw new EOFException("gzip block is truncated");
+    }
+    return pos;
+  }
+
+  static int skipZeroTerminated(byte[] data, int pos) throws EOFException {
+    while (pos < data.length) {
+      if (data[pos++] == 0) {
+        return pos;
+      }
+    }
+    throw new EOFException("gzip block is truncated");
+  }
+
+  static void writeIntLE(byte[] b, int off, int v) {
+    b[off] = (byte) v;
+    b[off + 1] = (byte) (v >>> 8);
+    b[off + 2] = (byte) (v >>> 16);
+    b[off + 3] = (byte) (v >>> 24);
+  }
+
+  static int readIntLE(byte[] b, int off) {
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8
+        | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+  }
+}
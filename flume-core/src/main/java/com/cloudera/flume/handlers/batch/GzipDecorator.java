@@ -17,63 +17,37 @@
  */
 package com.cloudera.flume.handlers.batch;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.GZIPOutputStream;
-
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
-import com.cloudera.flume.core.Event;
-import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
-import com.cloudera.flume.handlers.hdfs.WriteableEvent;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.google.common.base.Preconditions;
 
 /**
- * This gzips each event as it passes through the decorator.
+ * This gzips each event as it passes through the decorator. The output can be
+ * read by GunzipDecorator and DecompressDecorator.
  */
-public class GzipDecorator<S extends EventSink> extends EventSinkDecorator<S> {
+public class GzipDecorator<S extends EventSink> extends CompressDecorator<S> {
 
-  public static final String R_EVENTCOUNT = "eventsCount";
-  public static final String R_EVENTSIZE = "eventsSize";
   public static final String R_GZIPSIZE = "gzippedSize";
 
-  AtomicLong eventCount = new AtomicLong(0);
-  AtomicLong eventSize = new AtomicLong(0);
-  AtomicLong gzipSize = new AtomicLong(0);
-
   public GzipDecorator(S s) {
-    super(s);
+    this(s, -1);
   }
 
-  @Override
-  public void append(Event e) throws IOException, InterruptedException {
-    WriteableEvent we = new WriteableEvent(e);
-    byte[] bs = we.toBytes();
-    eventSize.addAndGet(bs.length);
-
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    GZIPOutputStream gzos = new GZIPOutputStream(baos);
-    gzos.write(bs);
-    gzos.close();
-
-    Event gze = new EventImpl(new byte[0]);
-    byte[] compressed = baos.toByteArray();
-    gze.set(GunzipDecorator.GZDOC, compressed);
-    super.append(gze);
-    gzipSize.addAndGet(compressed.length);
-    eventCount.incrementAndGet();
+  /**
+   * @param level
+   *          the deflate level 1-9, or -1 for the default.
+   */
+  public GzipDecorator(S s, int level) {
+    super(s, new GzipBlockCodec(level));
   }
 
   @Override
   public ReportEvent getMetrics() {
     ReportEvent rpt = super.getMetrics();
-    rpt.setLongMetric(R_EVENTCOUNT, eventCount.get());
-    rpt.setLongMetric(R_EVENTSIZE, eventSize.get());
-    rpt.setLongMetric(R_GZIPSIZE, gzipSize.get());
+    rpt.setLongMetric(R_GZIPSIZE, compressedSize.get());
     return rpt;
   }
 
@@ -82,8 +56,12 @@ public class GzipDecorator<S extends EventSink> extends EventSinkDecorator<S> {
       @Override
       public EventSinkDecorator<EventSink> build(Context context,
           String... argv) {
-        Preconditions.checkArgument(argv.length == 0, "usage: gzip");
-        return new GzipDecorator<EventSink>(null);
+        Preconditions.checkArgument(argv.length <= 1, "usage: gzip[(level)]");
+        int level = -1;
+        if (argv.length == 1) {
+          level = Integer.parseInt(argv[0]);
+        }
+        return new GzipDecorator<EventSink>(null, level);
       }
     };
   }
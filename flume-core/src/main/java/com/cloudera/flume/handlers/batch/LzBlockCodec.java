@@ -0,0 +1,217 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast pure Java LZ77 codec in the style of LZ4 and Snappy: greedy matching
+ * through a small hash table, no entropy coding. It compresses log data less
+ * than gzip but costs a fraction of the cpu, which is the better trade when
+ * agents are cpu bound rather than bandwidth bound.
+ * 
+ * A block is the raw length as a 4 byte int followed by sequences laid out as
+ * in the LZ4 block format: a token byte with the literal length in the high
+ * nibble and the match length - 4 in the low nibble (15 means more length
+ * bytes follow, each adding up to 255), the literals, then the match offset as
+ * a 2 byte little endian int. The last sequence only has literals.
+ */
+public class LzBlockCodec extends BlockCodec {
+  static final int MIN_MATCH = 4;
+  static final int MAX_OFFSET = 0xffff;
+  // the last match has to start this far from the end of the input ...
+  static final int MATCH_LIMIT = 12;
+  // ... and the last bytes are always literals.
+  static final int LAST_LITERALS = 5;
+
+  static final int HASH_BITS = 14;
+  // how quickly to give up on finding matches in incompressible data
+  static final int SKIP_SHIFT = 6;
+
+  private final int[] table = new int[1 << HASH_BITS];
+  private byte[] out = new byte[4096];
+
+  @Override
+  public String getName() {
+    return LZ;
+  }
+
+  @Override
+  public String getAttr() {
+    return "compressLz";
+  }
+
+  static int readInt(byte[] b, int off) {
+    return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16
+        | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+  }
+
+  static int hash(int v) {
+    return (v * -1640531535) >>> (32 - HASH_BITS);
+  }
+
+  @Override
+  public byte[] compress(byte[] src, int off, int len) throws IOException {
+    int bound = 4 + len + len / 255 + 16;
+    if (out.length < bound) {
+      out = new byte[bound];
+    }
+    out[0] = (byte) (len >>> 24);
+    out[1] = (byte) (len >>> 16);
+    out[2] = (byte) (len >>> 8);
+    out[3] = (byte) len;
+    int op = 4;
+
+    int end = off + len;
+    int anchor = off;
+    if (len > MATCH_LIMIT) {
+      Arrays.fill(table, -1);
+      int limit = end - MATCH_LIMIT;
+      int matchEnd = end - LAST_LITERALS;
+      int ip = off;
+      while (ip < limit) {
+        int seq = readInt(src, ip);
+        int h = hash(seq);
+        int ref = table[h];
+        table[h] = ip;
+        if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+          ip += 1 + ((ip - anchor) >>> SKIP_SHIFT);
+          continue;
+        }
+
+        // extend the match back into the pending literals, then forward
+        while (ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int ml = MIN_MATCH;
+        while (ip + ml < matchEnd && src[ip + ml] == src[ref + ml]) {
+          ml++;
+        }
+
+        int token = op++;
+        op = writeLiterals(src, anchor, ip - anchor, token, op);
+        out[op++] = (byte) (ip - ref);
+        out[op++] = (byte) ((ip - ref) >>> 8);
+        int mlc = ml - MIN_MATCH;
+        if (mlc >= 15) {
+          out[token] |= 15;
+          op = writeLength(mlc - 15, op);
+        } else {
+          out[token] |= mlc;
+        }
+
+        ip += ml;
+        anchor = ip;
+      }
+    }
+    int token = op++;
+    op = writeLiterals(src, anchor, end - anchor, token, op);
+
+    byte[] lz = Arrays.copyOf(out, op);
+    if (out.length > BatchingDecorator.MAX_POOLED_BUFFER) {
+      out = new byte[4096];
+    }
+    return lz;
+  }
+
+  private int writeLiterals(byte[] src, int from, int n, int token, int op) {
+    if (n >= 15) {
+      out[token] = (byte) 0xf0;
+      op = writeLength(n - 15, op);
+    } else {
+      out[token] = (byte) (n << 4);
+    }
+    System.arraycopy(src, from, out, op, n);
+    return op + n;
+  }
+
+  private int writeLength(int n, int op) {
+    while (n >= 255) {
+      out[op++] = (byte) 255;
+      n -= 255;
+    }
+    out[op++] = (byte) n;
+    return op;
+  }
+
+  @Override
+  public byte[] decompress(byte[] data) throws IOException {
+    if (data.length < 5) {
+      throw new IOException("lz block is truncated");
+    }
+    byte[] raw = new byte[checkRawSize(readInt(data, 0))];
+    int ip = 4;
+    int op = 0;
+    try {
+      while (true) {
+        int token = data[ip++] & 0xff;
+        int lit = token >>> 4;
+        if (lit == 15) {
+          int b;
+          do {
+            b = data[ip++] & 0xff;
+            lit += b;
+          } while (b == 255);
+        }
+        System.arraycopy(data, ip, raw, op, lit);
+        ip += lit;
+        op += lit;
+        if (ip == data.length) {
+          break;
+        }
+
+        int offset = (data[ip] & 0xff) | (data[ip + 1] & 0xff) << 8;
+        ip += 2;
+        if (offset == 0 || offset > op) {
+          throw new IOException("Corrupt lz block, match offset " + offset
+              + " at output offset " + op);
+        }
+        int ml = token & 15;
+        if (ml == 15) {
+          int b;
+          do {
+            b = data[ip++] & 0xff;
+            ml += b;
+          } while (b == 255);
+        }
+        ml += MIN_MATCH;
+        int from = op - offset;
+        if (offset >= ml) {
+          System.arraycopy(raw, from, raw, op, ml);
+        } else {
+          // overlapping match, repeats the last offset bytes
+          for (int i = 0; i < ml; i++) {
+            raw[op + i] = raw[from + i];
+          }
+        }
+        op += ml;
+      }
+    } catch (IndexOutOfBoundsException ioobe) {
+      throw new IOException("Corrupt lz block, it overruns its input or "
+          + "its raw size of " + raw.length, ioobe);
+    }
+
+    if (op != raw.length) {
+      throw new IOException("lz block decompressed to " + op
+          + " bytes but claims " + raw.length);
+    }
+    return raw;
+  }
+}
@@ -17,11 +17,10 @@
  */
 package com.cloudera.flume.handlers.batch;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.cloudera.flume.conf.Context;
@@ -29,7 +28,7 @@ import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
-import com.cloudera.flume.handlers.hdfs.WriteableEvent;
+import com.cloudera.flume.handlers.hdfs.EventArrayReader;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.google.common.base.Preconditions;
 
@@ -64,16 +63,46 @@ public class UnbatchingDecorator<S extends EventSink> extends
       return;
     }
 
-    int sz = ByteBuffer.wrap(e.get(BatchingDecorator.BATCH_SIZE)).getInt();
+    byte[] size = e.get(BatchingDecorator.BATCH_SIZE);
+    if (size.length != 4) {
+      throw new IOException("Corrupt batch size of " + size.length + " bytes");
+    }
+    int sz = ByteBuffer.wrap(size).getInt();
     byte[] data = e.get(BatchingDecorator.BATCH_DATA);
-    DataInput in = new DataInputStream(new ByteArrayInputStream(data));
     batchCnt.incrementAndGet();
+    List<Event> evts = unbatch(sz, data);
+
+    Preconditions.checkNotNull(sink);
+    Preconditions.checkState(isOpen.get(), "EventSink " + this.getName()
+        + " not open");
+    sink.appendBatch(evts);
+    updateAppendStats(evts);
+    unbatchedCnt.addAndGet(sz);
+  }
+
+  /**
+   * Returns the sz events of a batch. Events are slices of data, not copies.
+   * 
+   * Everything is decoded up front so that a corrupt batch is reported here,
+   * as an IOException, instead of from inside the downstream sink.
+   */
+  static List<Event> unbatch(int sz, byte[] data) throws IOException {
+    // every event takes at least a byte, so a bigger count is corrupt and must
+    // not size the list.
+    if (sz < 0 || sz > data.length) {
+      throw new IOException("Corrupt batch size " + sz + " for "
+          + data.length + " bytes of data");
+    }
+    EventArrayReader reader = new EventArrayReader(data);
+    List<Event> evts = new ArrayList<Event>(sz);
     for (int i = 0; i < sz; i++) {
-      WriteableEvent we = new WriteableEvent();
-      we.readFields(in);
-      super.append(we);
-      unbatchedCnt.incrementAndGet();
+      evts.add(reader.next());
+    }
+    if (reader.hasNext()) {
+      throw new IOException("Corrupt batch, " + (data.length - reader.offset())
+          + " bytes left after " + sz + " events");
     }
+    return evts;
   }
 
   @Override
@@ -22,6 +22,7 @@ import java.io.IOException;
 import com.cloudera.flume.agent.FlumeNode;
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
@@ -52,7 +53,7 @@ public class ChokeDecorator<S extends EventSink> extends EventSinkDecorator<S> {
    */
   @Override
   public void append(Event e) throws IOException, InterruptedException {
-    chokeMan.spendTokens(chokeId, e.getBody().length);
+    chokeMan.spendTokens(chokeId, ByteBufferEvent.bodyLength(e));
     super.append(e);
   }
 
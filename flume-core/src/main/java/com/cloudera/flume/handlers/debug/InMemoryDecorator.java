@@ -24,6 +24,7 @@ import java.util.List;
 
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSinkDecorator;
@@ -47,7 +48,7 @@ public class InMemoryDecorator<S extends EventSink> extends
 
   @Override
   public void append(Event e) throws IOException {
-    evts.add(e);
+    evts.add(ByteBufferEvent.retain(e)); // don't pin the source's buffers
   }
 
   public List<Event> getEvents() {
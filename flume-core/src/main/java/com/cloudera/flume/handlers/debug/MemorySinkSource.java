@@ -24,6 +24,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSink;
@@ -48,7 +49,7 @@ public class MemorySinkSource extends EventSink.Base implements EventSource {
 
   @Override
   public void append(Event e) throws IOException, InterruptedException {
-    evts.add(e);
+    evts.add(ByteBufferEvent.retain(e)); // don't pin the source's buffers
     super.append(e);
   }
 
@@ -75,6 +76,14 @@ public class MemorySinkSource extends EventSink.Base implements EventSource {
     return e;
   }
 
+  @Override
+  public int nextBatch(List<Event> events, int max) throws IOException {
+    int n = Math.min(max, evts.size() - idx);
+    events.addAll(evts.subList(idx, idx + n));
+    idx += n;
+    return n;
+  }
+
   /**
    * Create a memory based source of count events. Each event has s with count
    * appended as its body.
@@ -20,12 +20,13 @@ package com.cloudera.flume.handlers.debug;
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
 import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.ThreadSafeSink;
 import com.google.common.base.Preconditions;
 
 /**
  * This acts as /dev/null for performance tests.
  */
-public class NullSink extends EventSink.Base {
+public class NullSink extends EventSink.Base implements ThreadSafeSink {
 
   public static SinkBuilder builder() {
     return new SinkBuilder() {
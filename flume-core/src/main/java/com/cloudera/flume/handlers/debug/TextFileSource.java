@@ -19,6 +19,7 @@ package com.cloudera.flume.handlers.debug;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,7 @@ import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.text.LineSplitter;
 import com.google.common.base.Preconditions;
 
 /**
@@ -37,8 +39,8 @@ import com.google.common.base.Preconditions;
  * 
  * This is great for direct comparison to 'grep | wc'
  * 
- * TODO (jon) Make this test faster -- i takes about 90s. The readline method on
- * RandomAccessFile uses readline and StringBuffer - these take 60% of cpu time!
+ * The file is read in large blocks and split on '\n' without decoding, so the
+ * bodies are the bytes of the lines. A '\r' before the '\n' is dropped.
  */
 public class TextFileSource extends EventSource.Base {
   static final Logger LOG = LoggerFactory.getLogger(TextFileSource.class);
@@ -47,6 +49,10 @@ public class TextFileSource extends EventSource.Base {
   RandomAccessFile raf;
   long len;
   long cur;
+  ByteBuffer buf; // in read mode, lazily allocated
+  boolean eof;
+
+  static final int BUF_SIZE = 1024 * 1024;
 
   public TextFileSource(String fname) {
     this.fname = fname;
@@ -55,15 +61,56 @@ public class TextFileSource extends EventSource.Base {
   public Event next() throws IOException {
     Preconditions.checkState(raf != null,
         "Need to open source before reading from it");
-    String s = raf.readLine();
-    if (s == null)
+    byte[] body = readLine();
+    if (body == null)
       return null;
 
-    Event e = new EventImpl(s.getBytes());
+    Event e = new EventImpl(body);
     updateEventProcessingStats(e);
     return e;
   }
 
+  /**
+   * Returns the next line of the file, or null at the end of the file. The
+   * last line is returned even if it does not end with a '\n'.
+   */
+  byte[] readLine() throws IOException {
+    if (buf == null) {
+      buf = ByteBuffer.allocate(BUF_SIZE);
+      buf.flip();
+    }
+    while (true) {
+      int start = buf.position();
+      int nl = LineSplitter.indexOfNewline(buf, start, buf.limit());
+      if (nl >= 0) {
+        byte[] body = new byte[LineSplitter.lineEnd(buf, start, nl) - start];
+        buf.get(body);
+        buf.position(nl + 1);
+        return body;
+      }
+
+      if (eof) {
+        if (!buf.hasRemaining()) {
+          return null;
+        }
+        byte[] body = new byte[buf.remaining()];
+        buf.get(body);
+        return body;
+      }
+
+      buf.compact();
+      if (!buf.hasRemaining()) {
+        // a line longer than the buffer, grow it.
+        ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+      }
+      eof = raf.getChannel().read(buf) < 0;
+      buf.flip();
+    }
+  }
+
   @Override
   public void close() throws IOException {
     raf.close();
@@ -75,6 +122,8 @@ public class TextFileSource extends EventSource.Base {
     this.raf = new RandomAccessFile(fname, "r");
     this.len = raf.length();
     this.cur = 0;
+    this.buf = null;
+    this.eof = false;
     LOG.info("File " + fname + " opened");
   }
 
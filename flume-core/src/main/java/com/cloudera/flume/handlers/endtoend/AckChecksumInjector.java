@@ -19,6 +19,7 @@ package com.cloudera.flume.handlers.endtoend;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.zip.CRC32;
 
 import com.cloudera.flume.agent.FlumeNode;
@@ -142,6 +143,25 @@ public class AckChecksumInjector<S extends EventSink> extends
     super.append(e);
   }
 
+  /**
+   * Tags every event in the batch and then forwards the batch as a whole.
+   */
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    for (Event e : events) {
+      chk.reset();
+      chk.update(e.getBody());
+      long curchk = chk.getValue();
+      checksum ^= curchk; // update but do not send.
+
+      e.set(ATTR_ACK_TYPE, CHECKSUM_MSG);
+      e.set(ATTR_ACK_TAG, tag);
+      e.set(ATTR_ACK_HASH, ByteBuffer.allocate(8).putLong(curchk).array());
+    }
+    super.appendBatch(events);
+  }
+
   public static SinkDecoBuilder builder() {
     return new SinkDecoBuilder() {
       @Override
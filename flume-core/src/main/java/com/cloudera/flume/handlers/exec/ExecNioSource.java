@@ -35,9 +35,11 @@ import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Attributes;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.text.LineSplitter;
 import com.cloudera.util.Clock;
 import com.cloudera.util.InputStreamPipe;
 import com.google.common.base.Preconditions;
@@ -120,12 +122,25 @@ public class ExecNioSource extends EventSource.Base {
     return e;
   }
 
+  /**
+   * Create an event whose body is a view of the remaining bytes of body.
+   */
+  static Event buildExecEvent(ByteBuffer body, String tag, String command)
+      throws InterruptedException {
+    Event e = new ByteBufferEvent(body);
+    Attributes.setString(e, A_PROC_SOURCE, tag);
+    Attributes.setString(e, A_EXEC_CMD, command);
+    Attributes.setString(e, Event.A_SERVICE, "exec");
+    return e;
+  }
+
   /**
    * Makes events from the supplied byte buffer and puts them into the specified
    * BlockingQueue. If it doesn't end with \n, then compact to shift the
    * leftover bytes to be beginning of the buffer. When this function exits, the
    * buffer is in write mode, still contains any leftovers and leaves position
-   * pointing to the end of the incomplete line.
+   * pointing to the end of the incomplete line. A '\r' before a '\n' is not
+   * part of the event.
    * 
    * @param buf
    *          ByteBuffer in write mode. If this method exits normally, there are
@@ -135,47 +150,98 @@ public class ExecNioSource extends EventSource.Base {
   static boolean extractLines(ByteBuffer buf, String command, String tag,
       BlockingQueue<Event> sync) throws InterruptedException {
     buf.flip();
+    int maxEventSz = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
     boolean madeProgress = false;
     int start = buf.position();
-    buf.mark();
-    while (buf.hasRemaining()) {
-      byte b = buf.get();
-      // TODO windows: ('\r\n') line separators
-      if (b == '\n') {
-        int end = buf.position();
-        int sz = end - start - 1; // exclude '\n'
-        int maxEventSz = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
-        if (sz > maxEventSz) {
-          // Truncating path.
-          byte[] body = new byte[(int) maxEventSz];
-          buf.reset(); // go back to mark
-          buf.get(body, 0, maxEventSz); // read data
-          buf.position(end);
-          buf.mark(); // new mark.
-          start = buf.position();
-
-          sync.put(buildExecEvent(body, tag, command));
-          madeProgress = true;
-        } else {
-          byte[] body = new byte[sz];
-          buf.reset(); // go back to mark
-          buf.get(body, 0, sz); // read data
-          buf.get(); // read '\n'
-          buf.mark(); // new mark.
-          start = buf.position();
-
-          sync.put(buildExecEvent(body, tag, command));
-          madeProgress = true;
-        }
-      }
+    int limit = buf.limit();
+    int nl;
+    while ((nl = LineSplitter.indexOfNewline(buf, start, limit)) >= 0) {
+      int end = LineSplitter.lineEnd(buf, start, nl);
+      byte[] body = new byte[Math.min(end - start, maxEventSz)]; // truncates
+      buf.position(start);
+      buf.get(body);
+      sync.put(buildExecEvent(body, tag, command));
+      start = nl + 1;
+      madeProgress = true;
     }
 
-    // rewind for any left overs
-    buf.reset();
-    buf.compact(); // shift leftovers to front.
+    // shift left overs to front.
+    buf.position(start);
+    buf.compact();
     return madeProgress;
   }
 
+  /**
+   * Size of the buffer lines are read into, big enough for several max sized
+   * events.
+   */
+  static int readBufferSize() {
+    int maxEventSize = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
+    return Math.max(Short.MAX_VALUE, maxEventSize * 4);
+  }
+
+  /**
+   * Like extractLines, but if the buffer is well filled the events view
+   * slices of it instead of copies of their lines. Those events then own the
+   * front of the buffer, so reading continues into the rest of the same array
+   * and the leftovers only move to a new buffer once little room is left.
+   * Returns the buffer to keep reading into, in write mode.
+   */
+  static ByteBuffer extractLineSlices(ByteBuffer buf, String command,
+      String tag, BlockingQueue<Event> sync) throws InterruptedException {
+    int bufSize = readBufferSize();
+    if (!buf.hasArray() || buf.position() < buf.capacity() / 4) {
+      extractLines(buf, command, tag, sync);
+      return ensureRoom(buf, bufSize);
+    }
+
+    buf.flip();
+    int maxEventSz = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
+    boolean madeProgress = false;
+    int start = buf.position();
+    int limit = buf.limit();
+    int nl;
+    while ((nl = LineSplitter.indexOfNewline(buf, start, limit)) >= 0) {
+      int end = LineSplitter.lineEnd(buf, start, nl);
+      ByteBuffer body = buf.duplicate();
+      body.position(start);
+      body.limit(Math.min(end, start + maxEventSz)); // truncates long lines
+      sync.put(buildExecEvent(body, tag, command));
+      start = nl + 1;
+      madeProgress = true;
+    }
+
+    buf.position(start);
+    if (!madeProgress) {
+      buf.compact(); // back to write mode, nothing moved.
+      return ensureRoom(buf, bufSize);
+    }
+    ByteBuffer next;
+    if (buf.capacity() - start >= bufSize / 4) {
+      buf.limit(buf.capacity());
+      next = buf.slice();
+      next.position(limit - start);
+    } else {
+      next = ByteBuffer.allocate(bufSize);
+      next.put(buf);
+    }
+    return ensureRoom(next, bufSize);
+  }
+
+  /**
+   * If a line does not fit in what is left of a reused buffer, move it to a
+   * full sized one.
+   */
+  static ByteBuffer ensureRoom(ByteBuffer buf, int bufSize) {
+    if (buf.hasRemaining() || buf.capacity() >= bufSize) {
+      return buf;
+    }
+    buf.flip();
+    ByteBuffer bigger = ByteBuffer.allocate(bufSize);
+    bigger.put(buf);
+    return bigger;
+  }
+
   /**
    * @param in
    *          byte buffer in write mode
@@ -185,11 +251,11 @@ public class ExecNioSource extends EventSource.Base {
   static boolean dropUntilNewLine(ByteBuffer in) {
     in.flip();
 
-    while (in.hasRemaining()) {
-      if (in.get() == '\n') {
-        in.compact(); // get rid of everything and flip back into normal mode
-        return false;
-      }
+    int nl = LineSplitter.indexOfNewline(in, in.position(), in.limit());
+    if (nl >= 0) {
+      in.position(nl + 1);
+      in.compact(); // get rid of everything and flip back into normal mode
+      return false;
     }
     // wipe out the data and stay in drop mode.
     in.clear();
@@ -238,9 +304,8 @@ public class ExecNioSource extends EventSource.Base {
     void doLineMode() {
       // make sure we have a buffer big enough to get relevant data.
       int maxEventSize = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
-      int bufSize = Math.max(Short.MAX_VALUE, maxEventSize * 4);
       try {
-        ByteBuffer in = ByteBuffer.allocate(bufSize);
+        ByteBuffer in = ByteBuffer.allocate(readBufferSize());
         boolean dropMode = false; // for truncations of extremely long lines
 
         while (!shutdown) {
@@ -272,7 +337,7 @@ public class ExecNioSource extends EventSource.Base {
           }
 
           // exits with 'in' in write mode
-          extractLines(in, command, tag, eventQueue);
+          in = extractLineSlices(in, command, tag, eventQueue);
 
           // the leftovers bytes ideally should always be smaller than
           // maxEventSize, and has the invariant of not having a '\n' in it.
@@ -0,0 +1,370 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.cloudera.flume.core.AttributeMap;
+import com.cloudera.flume.core.ByteBufferEvent;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.util.CharEncUtils;
+
+/**
+ * A compact binary encoding for events. Compared to the original
+ * WriteableEvent format, which uses fixed size ints and longs and writeUTF for
+ * every string, this uses variable length ints, writes well known attribute
+ * keys as a single byte index, and groups all the non-body fields into one
+ * length prefixed block so that decoding does a single read for them.
+ * 
+ * Format version 1:
+ * 
+ * <pre>
+ * 0x81 (version)
+ * vint metaLen, meta[metaLen]
+ *   zigzag vlong timestamp, byte priority, zigzag vlong nanos,
+ *   vint hostLen, host (utf8),
+ *   vint attrCount, attrCount * (vint keyIdx [, vint keyLen, key (utf8)],
+ *                                vint valLen, val)
+ * vint bodyLen, body[bodyLen]
+ * </pre>
+ * 
+ * A keyIdx of 0 means the key is written out, otherwise it is an index into
+ * KEYS offset by one.
+ * 
+ * The first byte of a record in the original format is the high byte of a
+ * non-negative body length and never has its high bit set, so the version
+ * byte tells the two formats apart and readers handle both.
+ */
+public class CompactEventCodec {
+  public static final byte VERSION_1 = (byte) 0x81;
+
+  /**
+   * Attribute keys that are written as an index. This table is part of the
+   * format, entries must never be removed or reordered.
+   */
+  static final String[] KEYS = { "AckType", "AckTag", "AckChecksum",
+      "rolltag", "tailSrcFile", "syslogfacility", "syslogseverity",
+      "batchSize", "batchData", "compressGzip" };
+
+  static final Map<String, Integer> KEY_IDX = new HashMap<String, Integer>();
+  static {
+    for (int i = 0; i < KEYS.length; i++) {
+      KEY_IDX.put(KEYS[i], i + 1);
+    }
+  }
+
+  static final Priority[] PRIORITIES = Priority.values();
+
+  // per thread scratch space for encoding the meta block.
+  private static final ThreadLocal<Output> scratch = new ThreadLocal<Output>() {
+    @Override
+    protected Output initialValue() {
+      return new Output(256);
+    }
+  };
+
+  /**
+   * True if b is the first byte of a compact record.
+   */
+  public static boolean isCompact(byte b) {
+    return b == VERSION_1;
+  }
+
+  public static void write(DataOutput out, Event e) throws IOException {
+    Output meta = scratch.get();
+    meta.reset();
+    meta.writeVLong(zigzag(e.getTimestamp()));
+    meta.writeByte(e.getPriority().ordinal());
+    meta.writeVLong(zigzag(e.getNanos()));
+    meta.writeString(e.getHost());
+
+    Map<String, byte[]> attrs = e.getAttrs();
+    meta.writeVInt(attrs.size());
+    for (Entry<String, byte[]> a : attrs.entrySet()) {
+      Integer idx = KEY_IDX.get(a.getKey());
+      if (idx != null) {
+        meta.writeVInt(idx);
+      } else {
+        meta.writeVInt(0);
+        meta.writeString(a.getKey());
+      }
+      byte[] v = a.getValue();
+      meta.writeVInt(v.length);
+      meta.write(v, 0, v.length);
+    }
+
+    ByteBuffer body = ByteBufferEvent.bodyBuffer(e);
+    out.writeByte(VERSION_1);
+    writeVInt(out, meta.len);
+    out.write(meta.buf, 0, meta.len);
+    writeVInt(out, body.remaining());
+    writeBody(out, body);
+  }
+
+  /**
+   * Writes the remaining bytes of body, straight from its backing array if it
+   * has one.
+   */
+  static void writeBody(DataOutput out, ByteBuffer body) throws IOException {
+    if (body.hasArray()) {
+      out.write(body.array(), body.arrayOffset() + body.position(), body
+          .remaining());
+      return;
+    }
+    byte[] arr = new byte[body.remaining()];
+    body.duplicate().get(arr);
+    out.write(arr);
+  }
+
+  /**
+   * Reads a compact record including its version byte.
+   */
+  public static Event read(DataInput in, long maxBodySize) throws IOException {
+    byte version = in.readByte();
+    if (!isCompact(version)) {
+      throw new IOException("Unknown compact event version " + version);
+    }
+    return readAfterVersion(in, maxBodySize);
+  }
+
+  /**
+   * Reads the rest of a compact record whose version byte has already been
+   * consumed. Corrupt lengths, indexes and truncated data are all reported as
+   * IOExceptions.
+   */
+  static Event readAfterVersion(DataInput in, long maxBodySize)
+      throws IOException {
+    int metaLen = readVInt(in);
+    if (metaLen < 0) {
+      throw new IOException("Bad compact event meta length " + metaLen);
+    }
+    Input m = new Input(readMeta(in, metaLen, maxBodySize));
+
+    long time = unzigzag(m.readVLong());
+    int prioidx = m.readByte();
+    if (prioidx < 0 || prioidx >= PRIORITIES.length) {
+      throw new IOException("Bad compact event priority " + prioidx);
+    }
+    long nanos = unzigzag(m.readVLong());
+    String host = m.readString();
+
+    int sz = m.readVInt();
+    Map<String, byte[]> fields = new AttributeMap();
+    for (int i = 0; i < sz; i++) {
+      int idx = m.readVInt();
+      String k;
+      if (idx == 0) {
+        k = m.readString();
+      } else if (idx <= KEYS.length) {
+        k = KEYS[idx - 1];
+      } else {
+        throw new IOException("Bad compact event key index " + idx);
+      }
+      fields.put(k, m.readBytes(m.readVInt()));
+    }
+
+    int len = readVInt(in);
+    if (len < 0 || len > maxBodySize) {
+      throw new IOException("Compact event body length is " + len
+          + " which is not <= " + maxBodySize + " and >= 0");
+    }
+    byte[] body = new byte[len];
+    in.readFully(body);
+    return new EventImpl(body, time, PRIORITIES[prioidx], nanos, host, fields);
+  }
+
+  /**
+   * Reads a meta block of metaLen bytes. The block holds the attributes, and
+   * batched events carry whole bodies there, so it may legitimately be larger
+   * than maxBodySize. Only that much is allocated up front though; past it the
+   * buffer grows as data actually arrives, so a corrupt length ends in an
+   * EOFException rather than a huge allocation.
+   */
+  static byte[] readMeta(DataInput in, int metaLen, long maxBodySize)
+      throws IOException {
+    int chunk = (int) Math.max(1, Math.min(maxBodySize, Integer.MAX_VALUE));
+    if (metaLen <= chunk) {
+      byte[] meta = new byte[metaLen];
+      in.readFully(meta);
+      return meta;
+    }
+
+    byte[] meta = new byte[chunk];
+    int read = 0;
+    while (read < metaLen) {
+      if (read == meta.length) {
+        int nlen = (int) Math.min(metaLen, 2L * meta.length);
+        meta = Arrays.copyOf(meta, nlen);
+      }
+      int l = Math.min(meta.length, metaLen) - read;
+      in.readFully(meta, read, l);
+      read += l;
+    }
+    return meta;
+  }
+
+  static long zigzag(long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  static long unzigzag(long v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  static void writeVInt(DataOutput out, int v) throws IOException {
+    while ((v & ~0x7F) != 0) {
+      out.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  static int readVInt(DataInput in) throws IOException {
+    int v = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      v |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return v;
+      }
+    }
+    throw new IOException("Malformed variable length int");
+  }
+
+  /**
+   * Growable byte buffer with variable length int encoding.
+   */
+  static class Output {
+    byte[] buf;
+    int len;
+
+    Output(int sz) {
+      buf = new byte[sz];
+    }
+
+    void reset() {
+      len = 0;
+    }
+
+    void ensure(int extra) {
+      if (len + extra > buf.length) {
+        byte[] nbuf = new byte[Math.max(buf.length * 2, len + extra)];
+        System.arraycopy(buf, 0, nbuf, 0, len);
+        buf = nbuf;
+      }
+    }
+
+    void writeByte(int b) {
+      ensure(1);
+      buf[len++] = (byte) b;
+    }
+
+    void write(byte[] b, int off, int l) {
+      ensure(l);
+      System.arraycopy(b, off, buf, len, l);
+      len += l;
+    }
+
+    void writeVInt(int v) {
+      writeVLong(v & 0xFFFFFFFFL);
+    }
+
+    void writeVLong(long v) {
+      ensure(10);
+      while ((v & ~0x7FL) != 0) {
+        buf[len++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[len++] = (byte) v;
+    }
+
+    void writeString(String s) {
+      byte[] b = s.getBytes(CharEncUtils.UTF8);
+      writeVInt(b.length);
+      write(b, 0, b.length);
+    }
+  }
+
+  /**
+   * Cursor over an encoded meta block.
+   */
+  static class Input {
+    final byte[] buf;
+    int pos = 0;
+
+    Input(byte[] buf) {
+      this.buf = buf;
+    }
+
+    int readByte() throws IOException {
+      if (pos >= buf.length) {
+        throw new IOException("Truncated compact event");
+      }
+      return buf[pos++];
+    }
+
+    long readVLong() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return v;
+        }
+      }
+      throw new IOException("Malformed variable length long");
+    }
+
+    int readVInt() throws IOException {
+      long v = readVLong();
+      if (v < 0 || v > Integer.MAX_VALUE) {
+        throw new IOException("Malformed variable length int " + v);
+      }
+      return (int) v;
+    }
+
+    byte[] readBytes(int l) throws IOException {
+      if (l > buf.length - pos) {
+        throw new IOException("Truncated compact event");
+      }
+      byte[] b = new byte[l];
+      System.arraycopy(buf, pos, b, 0, l);
+      pos += l;
+      return b;
+    }
+
+    String readString() throws IOException {
+      int l = readVInt();
+      if (l > buf.length - pos) {
+        throw new IOException("Truncated compact event");
+      }
+      String s = new String(buf, pos, l, CharEncUtils.UTF8);
+      pos += l;
+      return s;
+    }
+  }
+}
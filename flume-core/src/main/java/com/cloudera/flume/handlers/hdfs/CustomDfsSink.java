@@ -82,6 +82,20 @@ public class CustomDfsSink extends EventSink.Base {
     super.append(e);
   }
 
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    if (writer == null) {
+      throw new IOException("Append failed, did you open the writer?");
+    }
+
+    for (Event e : events) {
+      format.format(writer, e);
+    }
+    count.getAndAdd(events.size());
+    updateAppendStats(events);
+  }
+
   @Override
   public void close() throws IOException {
     LOG.info("Closing HDFS file: " + pathManager.getOpenPath());
@@ -18,9 +18,7 @@
 package com.cloudera.flume.handlers.hdfs;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
@@ -32,11 +30,14 @@ import com.cloudera.flume.conf.FlumeBuilder;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
 import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
+import com.cloudera.flume.core.EscapeTemplate;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.handlers.text.FormatFactory;
 import com.cloudera.flume.handlers.text.output.OutputFormat;
 import com.cloudera.flume.handlers.text.output.RawOutputFormat;
+import com.cloudera.flume.reporter.ReportUtil;
+import com.cloudera.flume.reporter.Reportable;
 import com.google.common.base.Preconditions;
 
 /**
@@ -58,17 +59,17 @@ public class EscapedCustomDfsSink extends EventSink.Base {
 
   CustomDfsSink writer = null;
 
-  // We keep a - potentially unbounded - set of writers around to deal with
-  // different tags on events. Therefore this feature should be used with some
-  // care (where the set of possible paths is small) until we do something
-  // more sensible with resource management.
-  final Map<String, CustomDfsSink> sfWriters = new HashMap<String, CustomDfsSink>();
+  // We keep a set of writers around to deal with different tags on events.
+  // It is bounded, and closes the least recently used or idle writers.
+  final WriterCache<CustomDfsSink> sfWriters;
 
   // Used to short-circuit around doing regex matches when we know there are
   // no templates to be replaced.
   boolean shouldSub = false;
   private String filename = "";
   protected String absolutePath = "";
+  // absolutePath, compiled once instead of parsed per event.
+  private final EscapeTemplate pathTemplate;
 
   public EscapedCustomDfsSink(String path, String filename, OutputFormat o) {
     this.path = path;
@@ -82,6 +83,15 @@ public class EscapedCustomDfsSink extends EventSink.Base {
       }
       absolutePath += this.filename;
     }
+    pathTemplate = EscapeTemplate.compile(absolutePath);
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    sfWriters = new WriterCache<CustomDfsSink>(conf
+        .getCollectorDfsMaxOpenFiles(), conf.getCollectorDfsIdleTimeout()) {
+      @Override
+      CustomDfsSink openWriter(String p) throws IOException {
+        return EscapedCustomDfsSink.this.openWriter(p);
+      }
+    };
   }
 
   static protected OutputFormat getDefaultOutputFormat() {
@@ -113,24 +123,16 @@ public class EscapedCustomDfsSink extends EventSink.Base {
   public void append(Event e) throws IOException, InterruptedException {
     CustomDfsSink w = writer;
     if (shouldSub) {
-      String realPath = e.escapeString(absolutePath);
-      w = sfWriters.get(realPath);
-      if (w == null) {
-        w = openWriter(realPath);
-        sfWriters.put(realPath, w);
-      }
+      w = sfWriters.get(pathTemplate.expand(e));
     }
     w.append(e);
     super.append(e);
   }
 
   @Override
-  public void close() throws IOException {
+  public void close() throws IOException, InterruptedException {
     if (shouldSub) {
-      for (Entry<String, CustomDfsSink> e : sfWriters.entrySet()) {
-        LOG.info("Closing " + e.getKey());
-        e.getValue().close();
-      }
+      sfWriters.closeAll();
     } else {
       LOG.info("Closing " + absolutePath);
       if (writer == null) {
@@ -151,6 +153,14 @@ public class EscapedCustomDfsSink extends EventSink.Base {
     }
   }
 
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    if (!shouldSub) {
+      return ReportUtil.noChildren();
+    }
+    return ReportUtil.subReports(sfWriters);
+  }
+
   public static SinkBuilder builder() {
     return new SinkBuilder() {
       @Override
@@ -0,0 +1,102 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.cloudera.flume.core.ByteBufferEvent;
+import com.cloudera.flume.core.Event;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads events written by WriteableEvent back out of a single array. Unlike
+ * WriteableEvent.readFields, bodies in the original format are not copied:
+ * the events view slices of the array, which must not be modified afterwards.
+ * 
+ * Events are read from the current offset, which can be moved with seek() to
+ * read events in any order. Not thread safe.
+ */
+public class EventArrayReader {
+  private final byte[] data;
+  private final Input in;
+  private final DataInputStream din;
+
+  /**
+   * A ByteArrayInputStream whose position can be read and set.
+   */
+  static class Input extends ByteArrayInputStream {
+    Input(byte[] data) {
+      super(data);
+    }
+
+    int position() {
+      return pos;
+    }
+
+    void seek(int offset) {
+      pos = offset;
+    }
+  }
+
+  public EventArrayReader(byte[] data) {
+    Preconditions.checkNotNull(data);
+    this.data = data;
+    this.in = new Input(data);
+    this.din = new DataInputStream(in);
+  }
+
+  public int offset() {
+    return in.position();
+  }
+
+  public void seek(int offset) {
+    Preconditions.checkArgument(offset >= 0 && offset <= data.length,
+        "offset %s is out of bounds [0, %s]", offset, data.length);
+    in.seek(offset);
+  }
+
+  public boolean hasNext() {
+    return in.position() < data.length;
+  }
+
+  /**
+   * Reads the event at the current offset and moves past it.
+   */
+  public Event next() throws IOException {
+    byte first = din.readByte();
+    if (CompactEventCodec.isCompact(first)) {
+      return CompactEventCodec.readAfterVersion(din,
+          WriteableEvent.MAX_BODY_SIZE);
+    }
+
+    int len = WriteableEvent.readLegacyLength(first, din);
+    int start = in.position();
+    if (data.length - start < len) {
+      throw new EOFException("Event body of " + len + " bytes at offset "
+          + start + " runs past the end of the data");
+    }
+    ByteBuffer body = ByteBuffer.wrap(data, start, len);
+    in.seek(start + len);
+    WriteableEvent.LegacyTail t = new WriteableEvent.LegacyTail(din);
+    return new ByteBufferEvent(body, t.time, t.prio, t.nanos, t.host, t.fields);
+  }
+}
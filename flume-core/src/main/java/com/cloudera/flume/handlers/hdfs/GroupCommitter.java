@@ -0,0 +1,219 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.ReportUtil;
+import com.cloudera.flume.reporter.Reportable;
+import com.cloudera.util.Clock;
+import com.google.common.base.Preconditions;
+
+/**
+ * Group commit policy and statistics for write ahead log files. Instead of
+ * forcing every append to disk, a group committing writer hands each append to
+ * the kernel and forces them out together once maxBytes have accumulated or the
+ * oldest uncommitted append is maxMillis old, whichever comes first. A file is
+ * always committed when it is closed.
+ * 
+ * One instance is shared by all the files a WAL manager writes so the
+ * statistics are cumulative across rolls, and a single daemon thread enforces
+ * the time bound for every open file. Histograms use power of two buckets; the bucket
+ * named "le<n>" counts the commits with a value of at most n that did not fit
+ * in the previous bucket.
+ */
+public class GroupCommitter implements Reportable {
+  static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+  public static final String A_FSYNCS = "fsyncs";
+  public static final String A_FSYNC_BYTES = "fsyncBytes";
+  public static final String A_FSYNC_MICROS = "fsyncMicros";
+  public static final String A_MAX_BYTES = "maxBytes";
+  public static final String A_MAX_MILLIS = "maxMillis";
+  public static final String A_BYTES_HIST = "bytesPerFsync.";
+  public static final String A_LATENCY_HIST = "commitLatencyUs.";
+
+  // 1B .. 64MB and 1us .. ~1s, anything bigger lands in the last bucket
+  static final int BYTES_BUCKETS = 27;
+  static final int LATENCY_BUCKETS = 21;
+
+  final long maxBytes;
+  final long maxMillis;
+
+  private long fsyncs = 0;
+  private long fsyncBytes = 0;
+  private long fsyncMicros = 0;
+  private final long[] bytesHist = new long[BYTES_BUCKETS];
+  private final long[] latencyHist = new long[LATENCY_BUCKETS];
+
+  /**
+   * An open file whose uncommitted appends the commit thread forces out once
+   * they have waited out the time bound.
+   */
+  public interface Committable {
+    void commitIfDue(long now) throws IOException;
+  }
+
+  // open files and the thread committing them, guarded by this
+  private final Set<Committable> open = new LinkedHashSet<Committable>();
+  private Thread commitThread = null;
+
+  public GroupCommitter(long maxBytes, long maxMillis) {
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be > 0");
+    Preconditions.checkArgument(maxMillis > 0, "maxMillis must be > 0");
+    this.maxBytes = maxBytes;
+    this.maxMillis = maxMillis;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getMaxMillis() {
+    return maxMillis;
+  }
+
+  /**
+   * True if a writer with pendingBytes uncommitted bytes, the oldest of which
+   * were appended at pendingSince, should commit now.
+   */
+  public boolean isDue(long pendingBytes, long pendingSince, long now) {
+    return pendingBytes >= maxBytes
+        || (pendingBytes > 0 && now - pendingSince >= maxMillis);
+  }
+
+  /**
+   * Start enforcing the time bound on c. The commit thread is started with the
+   * first open file and exits once the last one is unregistered.
+   */
+  synchronized public void register(Committable c) {
+    open.add(c);
+    if (commitThread == null) {
+      commitThread = new Thread("GroupCommitter") {
+        public void run() {
+          commitLoop();
+        }
+      };
+      commitThread.setDaemon(true);
+      commitThread.start();
+    }
+  }
+
+  synchronized public void unregister(Committable c) {
+    open.remove(c);
+  }
+
+  /**
+   * Gives every open file a chance to commit, waking up often enough that no
+   * append waits much longer than maxMillis.
+   */
+  private void commitLoop() {
+    long wait = Math.max(1, maxMillis / 2);
+    try {
+      while (true) {
+        List<Committable> files;
+        synchronized (this) {
+          if (open.isEmpty()) {
+            commitThread = null;
+            return;
+          }
+          files = new ArrayList<Committable>(open);
+        }
+        long now = Clock.unixTime();
+        for (Committable c : files) {
+          try {
+            c.commitIfDue(now);
+          } catch (IOException ioe) {
+            // the file keeps the failure and reports it on its next append
+            LOG.error("Group commit failed", ioe);
+          }
+        }
+        Clock.sleep(wait);
+      }
+    } catch (InterruptedException ie) {
+      LOG.debug("Group commit thread interrupted");
+      synchronized (this) {
+        commitThread = null;
+      }
+    }
+  }
+
+  /**
+   * Record a commit that forced bytes to disk and took nanos to do so.
+   */
+  synchronized public void recordCommit(long bytes, long nanos) {
+    long micros = nanos / 1000;
+    fsyncs++;
+    fsyncBytes += bytes;
+    fsyncMicros += micros;
+    bytesHist[bucket(bytes, BYTES_BUCKETS)]++;
+    latencyHist[bucket(micros, LATENCY_BUCKETS)]++;
+  }
+
+  synchronized public long getFsyncCount() {
+    return fsyncs;
+  }
+
+  synchronized public long getFsyncBytes() {
+    return fsyncBytes;
+  }
+
+  /**
+   * Index of the smallest power of two that is >= v, capped at buckets - 1.
+   */
+  static int bucket(long v, int buckets) {
+    int b = (v <= 1) ? 0 : 64 - Long.numberOfLeadingZeros(v - 1);
+    return Math.min(b, buckets - 1);
+  }
+
+  @Override
+  public String getName() {
+    return "groupCommit";
+  }
+
+  @Override
+  synchronized public ReportEvent getMetrics() {
+    ReportEvent rpt = new ReportEvent(getName());
+    rpt.setLongMetric(A_MAX_BYTES, maxBytes);
+    rpt.setLongMetric(A_MAX_MILLIS, maxMillis);
+    rpt.setLongMetric(A_FSYNCS, fsyncs);
+    rpt.setLongMetric(A_FSYNC_BYTES, fsyncBytes);
+    rpt.setLongMetric(A_FSYNC_MICROS, fsyncMicros);
+    for (int i = 0; i < BYTES_BUCKETS; i++) {
+      rpt.setLongMetric(A_BYTES_HIST + "le" + (1L << i), bytesHist[i]);
+    }
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      rpt.setLongMetric(A_LATENCY_HIST + "le" + (1L << i), latencyHist[i]);
+    }
+    return rpt;
+  }
+
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    return ReportUtil.noChildren();
+  }
+}
@@ -20,6 +20,7 @@ package com.cloudera.flume.handlers.hdfs;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -35,14 +36,23 @@ import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
+import com.cloudera.util.Clock;
 import com.cloudera.util.FileUtil;
 import com.google.common.base.Preconditions;
 
 /**
  * This is an event sink that dumps to a hadoop sequence file on the local file
  * system..
+ * 
+ * When constructed with a GroupCommitter, every append is still handed to the
+ * kernel before it returns, so a crash of the process loses nothing, but the
+ * fsync is deferred and shared by all the appends made until the committer's
+ * size or time bound is reached, and once more when the sink is closed. The
+ * committer's thread commits appends that would otherwise wait longer than the
+ * time bound.
  */
-public class SeqfileEventSink extends EventSink.Base {
+public class SeqfileEventSink extends EventSink.Base implements
+    GroupCommitter.Committable {
   static final Logger LOG = LoggerFactory.getLogger(SeqfileEventSink.class);
 
   private SequenceFile.Writer writer;
@@ -51,9 +61,21 @@ public class SeqfileEventSink extends EventSink.Base {
   private String tag;
   private File f;
 
+  // group commit state, all guarded by this.
+  private final GroupCommitter committer; // null if not group committing
+  private FlushingSequenceFileWriter gcWriter;
+  private long committedLength = 0;
+  private long pendingSince = 0; // time of oldest uncommitted append
+  private IOException commitExn = null; // failure in the commit thread
+
   public SeqfileEventSink(File f) throws IOException {
+    this(f, null);
+  }
+
+  public SeqfileEventSink(File f, GroupCommitter committer) throws IOException {
     this.f = f;
     this.tag = f.getName();
+    this.committer = committer;
     LOG.info("constructed new seqfile event sink: file=" + f);
   }
 
@@ -75,7 +97,9 @@ public class SeqfileEventSink extends EventSink.Base {
 
     try {
 
-      if (conf.getWALOutputBuffering()) {
+      if (committer != null) {
+        openGroupCommit(conf);
+      } else if (conf.getWALOutputBuffering()) {
         writer = RawSequenceFileWriter.createWriter(fs, conf,
             new Path(f.getAbsolutePath()), WriteableEventKey.class,
             WriteableEvent.class, CompressionType.NONE);
@@ -92,36 +116,150 @@ public class SeqfileEventSink extends EventSink.Base {
     }
   }
 
+  synchronized private void openGroupCommit(FlumeConfiguration conf)
+      throws IOException {
+    gcWriter = FlushingSequenceFileWriter.createWriter(conf, f,
+        WriteableEventKey.class, WriteableEvent.class,
+        conf.getInt("io.file.buffer.size", 65536));
+    writer = gcWriter;
+    committedLength = 0;
+    pendingSince = 0;
+    commitExn = null;
+    committer.register(this);
+  }
+
+  /**
+   * Called by the committer's thread. Commits appends that have waited out the
+   * time bound.
+   */
+  @Override
+  synchronized public void commitIfDue(long now) throws IOException {
+    if (gcWriter == null || commitExn != null) {
+      return;
+    }
+    if (committer.isDue(gcWriter.getLength() - committedLength, pendingSince,
+        now)) {
+      try {
+        commit();
+      } catch (IOException ioe) {
+        commitExn = ioe;
+        throw ioe;
+      }
+    }
+  }
+
+  /**
+   * Forces everything appended since the last commit to disk. Caller must hold
+   * the lock on this.
+   */
+  private void commit() throws IOException {
+    long pending = gcWriter.getLength() - committedLength;
+    if (pending <= 0) {
+      pendingSince = 0;
+      return;
+    }
+    long start = System.nanoTime();
+    gcWriter.fsync();
+    committer.recordCommit(pending, System.nanoTime() - start);
+    committedLength = gcWriter.getLength();
+    pendingSince = 0;
+  }
+
+  /**
+   * Called after appending in group commit mode. Hands the appends to the
+   * kernel, commits if the size or time bound has been reached and surfaces
+   * errors from the commit thread.
+   */
+  private void afterGroupAppend() throws IOException {
+    if (commitExn != null) {
+      throw new IOException("Group commit failed on " + f, commitExn);
+    }
+    gcWriter.flush();
+    long now = Clock.unixTime();
+    if (pendingSince == 0) {
+      pendingSince = now;
+    }
+    if (committer.isDue(gcWriter.getLength() - committedLength, pendingSince,
+        now)) {
+      commit();
+    }
+  }
+
   /**
    * @throws IOException
    *
    */
   public void close() throws IOException {
     LOG.debug("closing " + f);
-    if (writer == null) {
-      // allow closing twice.
-      return;
+    synchronized (this) {
+      if (writer == null) {
+        // allow closing twice.
+        return;
+      }
+      SequenceFile.Writer w = writer;
+      try {
+        if (gcWriter != null) {
+          commit();
+        }
+      } finally {
+        writer = null;
+        if (gcWriter != null) {
+          committer.unregister(this);
+          gcWriter = null;
+        }
+        w.close();
+      }
     }
-    writer.close();
-    writer = null;
     LOG.info("closed " + f);
   }
 
   public void append(Event e) throws IOException, InterruptedException  {
-    Preconditions.checkNotNull(writer,
-        "Attempt to append to a sink that is closed!");
+    synchronized (this) {
+      Preconditions.checkNotNull(writer,
+          "Attempt to append to a sink that is closed!");
 
-    WriteableEvent we = new WriteableEvent(e);
-    writer.append(we.getEventKey(), we);
+      WriteableEvent we = new WriteableEvent(e);
+      writer.append(we.getEventKey(), we);
 
-    // flush if we are not buffering
-    if (!bufferedIO)
-      writer.sync(); // this isn't flushing or sync'ing on local file system :(
+      if (gcWriter != null) {
+        afterGroupAppend();
+      } else if (!bufferedIO) {
+        // flush if we are not buffering
+        writer.sync(); // this isn't flushing or sync'ing on local file system :(
+      }
 
-    count++;
+      count++;
+    }
     super.append(e);
   }
 
+  /**
+   * Writes the whole batch and only syncs once at the end of it.
+   */
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    synchronized (this) {
+      Preconditions.checkNotNull(writer,
+          "Attempt to append to a sink that is closed!");
+
+      for (Event e : events) {
+        WriteableEvent we = new WriteableEvent(e);
+        writer.append(we.getEventKey(), we);
+      }
+
+      if (gcWriter != null) {
+        afterGroupAppend();
+      } else if (!bufferedIO) {
+        // flush if we are not buffering
+        writer.sync();
+      }
+
+      count += events.size();
+    }
+    updateAppendStats(events);
+  }
+
   public void setBufferIO(boolean bufferedIO) {
     this.bufferedIO = bufferedIO;
   }
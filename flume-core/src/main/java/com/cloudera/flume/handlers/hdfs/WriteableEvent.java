@@ -24,9 +24,9 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -34,6 +34,8 @@ import java.util.Map.Entry;
 import org.apache.hadoop.io.Writable;
 
 import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.AttributeMap;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventBaseImpl;
 import com.cloudera.flume.core.EventImpl;
@@ -46,6 +48,8 @@ import com.google.common.base.Preconditions;
  */
 public class WriteableEvent extends EventBaseImpl implements Writable {
   final static long MAX_BODY_SIZE = FlumeConfiguration.get().getEventMaxSizeBytes();
+  final static boolean WRITE_COMPACT = FlumeConfiguration.get()
+      .getEventCompactFormat();
 
   private Event e;
 
@@ -103,43 +107,101 @@ public class WriteableEvent extends EventBaseImpl implements Writable {
     return new WriteableEventKey(e);
   }
 
+  /**
+   * Reads an event in either the compact or the original format.
+   */
   public void readFields(DataInput in) throws IOException {
+    byte first = in.readByte();
+    if (CompactEventCodec.isCompact(first)) {
+      e = CompactEventCodec.readAfterVersion(in, MAX_BODY_SIZE);
+      return;
+    }
+
+    int len = readLegacyLength(first, in);
+    // TODO (jon) Compare to java.nio implementation
+    byte[] body = new byte[len];
+    in.readFully(body);
+    LegacyTail t = new LegacyTail(in);
+
+    // this should be the only instance where constructor with fields is used.
+    e = new EventImpl(body, t.time, t.prio, t.nanos, t.host, t.fields);
+  }
+
+  /**
+   * Reads the body length of an event in the original format, given its first
+   * byte.
+   */
+  static int readLegacyLength(byte first, DataInput in) throws IOException {
     // NOTE: NOT using read UTF8 because it is limited to 2^16 bytes (not
     // characters). Char encoding will likely cause problems in edge cases.
 
     // String s = in.readUTF();
-    int len = in.readInt();
+    int len = ((first & 0xFF) << 24) | (in.readUnsignedByte() << 16)
+        | in.readUnsignedShort();
 
     Preconditions.checkArgument((len >= 0) && (len <= MAX_BODY_SIZE), "byte length is %s which is not <= %s and >= 0", len, MAX_BODY_SIZE);
+    return len;
+  }
 
-    // TODO (jon) Compare to java.nio implementation
-    byte[] body = new byte[len];
-    in.readFully(body);
-    
-    long time = in.readLong();
-    
-    int prioidx = in.readInt();
-    assert (Priority.values().length > prioidx);
-    Priority prio = Priority.values()[prioidx];
+  /**
+   * The fields that follow the body of an event in the original format.
+   */
+  static class LegacyTail {
+    final long time;
+    final Priority prio;
+    final long nanos;
+    final String host;
+    final Map<String, byte[]> fields;
 
-    long nanos = in.readLong();
-    
-    String host = in.readUTF();
+    LegacyTail(DataInput in) throws IOException {
+      time = in.readLong();
 
-    Map<String, byte[]> fields = unserializeMap(in);
+      int prioidx = in.readInt();
+      assert (Priority.values().length > prioidx);
+      prio = Priority.values()[prioidx];
 
-    // this should be the only instance where constructor with fields is used.
-    e = new EventImpl(body, time, prio, nanos, host, fields);
+      nanos = in.readLong();
+
+      host = in.readUTF();
+
+      fields = unserializeMap(in);
+    }
   }
 
+  /**
+   * Writes the event in the compact format if flume.event.format.compact is
+   * set, otherwise in the original format.
+   */
   public void write(DataOutput out) throws IOException {
-    byte[] utf8 = getBody(); // .getBytes();
-    out.writeInt(utf8.length);
-    out.write(utf8);
-    out.writeLong(getTimestamp());
-    out.writeInt(getPriority().ordinal());
-    out.writeLong(getNanos());
-    out.writeUTF(getHost());
+    writeEvent(out, e);
+  }
+
+  /**
+   * Writes e the same way as write(), without wrapping it in a WriteableEvent.
+   */
+  public static void writeEvent(DataOutput out, Event e) throws IOException {
+    if (WRITE_COMPACT) {
+      CompactEventCodec.write(out, e);
+      return;
+    }
+    writeLegacy(out, e);
+  }
+
+  /**
+   * Writes the event in the original format that all versions can read.
+   */
+  void writeLegacy(DataOutput out) throws IOException {
+    writeLegacy(out, e);
+  }
+
+  static void writeLegacy(DataOutput out, Event e) throws IOException {
+    ByteBuffer body = ByteBufferEvent.bodyBuffer(e);
+    out.writeInt(body.remaining());
+    CompactEventCodec.writeBody(out, body);
+    out.writeLong(e.getTimestamp());
+    out.writeInt(e.getPriority().ordinal());
+    out.writeLong(e.getNanos());
+    out.writeUTF(e.getHost());
 
     // # of extensible entries
     serializeMap(out, e.getAttrs());
@@ -156,8 +218,8 @@ public class WriteableEvent extends EventBaseImpl implements Writable {
 
   public byte[] toBytes() {
     try {
-      // set buffer initially to 32k
-      ByteArrayOutputStream baos = new ByteArrayOutputStream(2 >> 15);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(
+          estimateSize(e));
       DataOutput out = new DataOutputStream(baos);
       write(out);
       return baos.toByteArray();
@@ -168,6 +230,14 @@ public class WriteableEvent extends EventBaseImpl implements Writable {
 
   }
 
+  /**
+   * A guess at the serialized size of e, used to size buffers.
+   */
+  public static int estimateSize(Event e) {
+    return ByteBufferEvent.bodyBuffer(e).remaining() + 32
+        + e.getAttrs().size() * 24;
+  }
+
   @Override
   public byte[] get(String attr) {
     return e.get(attr);
@@ -190,7 +260,7 @@ public class WriteableEvent extends EventBaseImpl implements Writable {
       throws IOException {
     // # of extensible entries
     int sz = in.readInt();
-    Map<String, byte[]> fields = new HashMap<String, byte[]>();
+    Map<String, byte[]> fields = new AttributeMap();
     for (int i = 0; i < sz; i++) {
       String f = in.readUTF();
       int l = in.readInt();
@@ -0,0 +1,257 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.Reportable;
+import com.cloudera.util.Clock;
+import com.google.common.base.Preconditions;
+
+/**
+ * The open writers of a sink that writes each event to a path escaped from
+ * the event, one writer per distinct path.
+ * 
+ * At most maxOpen writers are kept open. Opening one more closes the least
+ * recently written one. Writers that have not been written to for idleMillis
+ * are closed too, so that old buckets (last hour's directory, say) are closed
+ * as they go quiet instead of all at once when the sink is closed. Idle
+ * writers are looked for on get(), so a sink that gets no events keeps its
+ * writers until it is closed.
+ * 
+ * A path that is needed again after its writer was closed gets a new file,
+ * named path + "-" + n for the n-th reopen, so that the closed file is not
+ * overwritten.
+ */
+abstract class WriterCache<W extends EventSink> implements Reportable {
+  static final Logger LOG = LoggerFactory.getLogger(WriterCache.class);
+
+  public static final String A_OPEN_FILES = "openFiles";
+  public static final String A_MAX_OPEN = "maxOpenFiles";
+  public static final String A_OPENS = "opens";
+  public static final String A_CLOSES = "closes";
+  public static final String A_EVICTIONS = "evictions";
+  public static final String A_IDLE_CLOSES = "idleCloses";
+  public static final String A_REOPENS = "reopens";
+  public static final String A_CLOSE_ERRORS = "closeErrors";
+
+  final int maxOpen;
+  final long idleMillis; // 0 means never close idle writers
+
+  static class Slot<W> {
+    final W writer;
+    final int gen; // number of earlier writers for the same path
+    long lastUsed;
+
+    Slot(W writer, int gen, long lastUsed) {
+      this.writer = writer;
+      this.gen = gen;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  // access ordered, so the least recently written writer comes first.
+  private final LinkedHashMap<String, Slot<W>> open = new LinkedHashMap<String, Slot<W>>(
+      16, 0.75f, true);
+  // number of writers so far of each path that has been closed early and not
+  // reopened since. An open path keeps its count in its slot instead.
+  private final Map<String, Integer> generations = new HashMap<String, Integer>();
+  private long nextIdleCheck = 0;
+
+  private long opens = 0;
+  private long closes = 0;
+  private long evictions = 0;
+  private long idleCloses = 0;
+  private long reopens = 0;
+  private long closeErrors = 0;
+
+  WriterCache(int maxOpen, long idleMillis) {
+    Preconditions.checkArgument(maxOpen > 0, "maxOpen must be > 0");
+    Preconditions.checkArgument(idleMillis >= 0, "idleMillis must be >= 0");
+    this.maxOpen = maxOpen;
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * Creates and opens a writer for path.
+   */
+  abstract W openWriter(String path) throws IOException, InterruptedException;
+
+  /**
+   * Returns the open writer for path, opening it if needed.
+   */
+  synchronized W get(String path) throws IOException, InterruptedException {
+    long now = Clock.unixTime();
+    closeIdle(now);
+
+    Slot<W> s = open.get(path);
+    if (s != null) {
+      s.lastUsed = now;
+      return s.writer;
+    }
+
+    while (open.size() >= maxOpen) {
+      Iterator<Entry<String, Slot<W>>> it = open.entrySet().iterator();
+      Entry<String, Slot<W>> eldest = it.next();
+      it.remove();
+      evictions++;
+      closeEarly(eldest.getKey(), eldest.getValue());
+    }
+
+    String realPath = path;
+    Integer gen = generations.get(path);
+    if (gen != null) {
+      realPath = path + "-" + gen;
+    }
+    W w = openWriter(realPath);
+    opens++;
+    if (gen != null) {
+      generations.remove(path);
+      reopens++;
+    }
+    open.put(path, new Slot<W>(w, (gen == null) ? 0 : gen, now));
+    return w;
+  }
+
+  /**
+   * Closes the writers that have been idle too long. These are at the front of
+   * the access order, so this stops at the first writer that is still in use.
+   */
+  private void closeIdle(long now) {
+    if (idleMillis == 0 || now < nextIdleCheck) {
+      return;
+    }
+    // no need to look more often than a fraction of the timeout.
+    nextIdleCheck = now + Math.max(1, idleMillis / 10);
+
+    Iterator<Entry<String, Slot<W>>> it = open.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<String, Slot<W>> e = it.next();
+      if (now - e.getValue().lastUsed < idleMillis) {
+        break;
+      }
+      it.remove();
+      idleCloses++;
+      closeEarly(e.getKey(), e.getValue());
+    }
+  }
+
+  /**
+   * Closes a writer before the sink closes. Failures are logged rather than
+   * thrown since they do not concern the event being appended.
+   */
+  private void closeEarly(String path, Slot<W> s) {
+    W w = s.writer;
+    generations.put(path, s.gen + 1);
+    try {
+      LOG.info("Closing " + path + " early");
+      w.close();
+      closes++;
+    } catch (IOException e) {
+      closeErrors++;
+      LOG.error("Failed to close " + path, e);
+    } catch (InterruptedException e) {
+      closeErrors++;
+      LOG.error("Interrupted closing " + path, e);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Closes all writers. All of them are attempted, and the first failure is
+   * rethrown afterwards.
+   */
+  synchronized void closeAll() throws IOException, InterruptedException {
+    IOException ioe = null;
+    InterruptedException ie = null;
+    for (Entry<String, Slot<W>> e : open.entrySet()) {
+      LOG.info("Closing " + e.getKey());
+      try {
+        e.getValue().writer.close();
+        closes++;
+      } catch (IOException ex) {
+        closeErrors++;
+        LOG.error("Failed to close " + e.getKey(), ex);
+        ioe = (ioe == null) ? ex : ioe;
+      } catch (InterruptedException ex) {
+        closeErrors++;
+        ie = (ie == null) ? ex : ie;
+      }
+    }
+    open.clear();
+    generations.clear();
+    if (ie != null) {
+      throw ie;
+    }
+    if (ioe != null) {
+      throw ioe;
+    }
+  }
+
+  synchronized int size() {
+    return open.size();
+  }
+
+  /**
+   * Number of paths that have been closed early and not reopened since.
+   */
+  synchronized int closedSize() {
+    return generations.size();
+  }
+
+  @Override
+  public String getName() {
+    return "writers";
+  }
+
+  @Override
+  synchronized public ReportEvent getMetrics() {
+    ReportEvent rpt = new ReportEvent(getName());
+    rpt.setLongMetric(A_OPEN_FILES, open.size());
+    rpt.setLongMetric(A_MAX_OPEN, maxOpen);
+    rpt.setLongMetric(A_OPENS, opens);
+    rpt.setLongMetric(A_CLOSES, closes);
+    rpt.setLongMetric(A_EVICTIONS, evictions);
+    rpt.setLongMetric(A_IDLE_CLOSES, idleCloses);
+    rpt.setLongMetric(A_REOPENS, reopens);
+    rpt.setLongMetric(A_CLOSE_ERRORS, closeErrors);
+    return rpt;
+  }
+
+  /**
+   * The open writers, by path.
+   */
+  @Override
+  synchronized public Map<String, Reportable> getSubMetrics() {
+    Map<String, Reportable> map = new HashMap<String, Reportable>();
+    for (Entry<String, Slot<W>> e : open.entrySet()) {
+      map.put(e.getKey(), e.getValue().writer);
+    }
+    return map;
+  }
+}
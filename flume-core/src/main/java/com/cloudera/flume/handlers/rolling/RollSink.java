@@ -18,14 +18,9 @@
 package com.cloudera.flume.handlers.rolling;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -63,7 +58,7 @@ public class RollSink extends EventSink.Base {
   final RollTrigger trigger;
   protected TriggerThread triggerThread = null;
 
-  protected ExecutorService executor = null;
+  protected boolean opened = false; // Guarded by lock
 
   private static int threadInitNumber = 0;
   final long checkLatencyMs; // default 4x a second
@@ -171,51 +166,55 @@ public class RollSink extends EventSink.Base {
     }
   };
 
-  // currently it is assumed that there is only one thread handling appends, but
+  // Currently it is assumed that there is only one thread handling appends, but
   // this has to be thread safe with respect to open and close (rotate) calls.
-  Future<Void> future;
+  // appendThread is the thread currently blocked in the sub sink's append, if
+  // any. It is guarded by appendGuard so that rotate only ever interrupts a
+  // thread that is still inside that append.
+  private final Object appendGuard = new Object();
+  private Thread appendThread = null; // Guarded by appendGuard
+  private boolean appendInterrupted = false; // Guarded by appendGuard
 
-  // This is a large synchronized section. Won't fix until it becomes a problem.
+  /**
+   * Appends on the caller's thread while holding the read lock. If a rotation
+   * cannot get the write lock because the sub sink is wedged, it interrupts
+   * the appending thread.
+   */
   @Override
-  public void append(final Event e) throws IOException, InterruptedException {
-    Callable<Void> task = new Callable<Void>() {
-      public Void call() throws Exception {
-        synchronousAppend(e);
-        return null;
-      }
-    };
+  public void append(Event e) throws IOException, InterruptedException {
+    Preconditions.checkState(curSink != null,
+        "Attempted to append when rollsink not open");
 
-    // keep track of the last future.
-    future = executor.submit(task);
+    if (trigger.isTriggered()) {
+      trigger.reset();
+      LOG.debug("Rotate started by append... ");
+      rotate();
+      LOG.debug("... rotate completed by append.");
+    }
+    String tag = trigger.getTagger().getTag();
+
+    e.set(A_ROLL_TAG, tag.getBytes());
+    lock.readLock().lockInterruptibly();
     try {
-      future.get();
-    } catch (ExecutionException e1) {
-      Throwable cause = e1.getCause();
-      if (cause instanceof IOException) {
-        throw (IOException) cause;
-      } else if (cause instanceof InterruptedException) {
-        throw (InterruptedException) cause;
-      } else if (cause instanceof RuntimeException) {
-        throw (RuntimeException) cause;
-      } else {
-        // we have a throwable that is not an exception. (such as a
-        // NoClassDefFoundError)
-        LOG.error("Got a throwable that is not an exception! Bailing out!",
-            e1.getCause());
-        throw new RuntimeException(e1.getCause());
+      enterAppend();
+      try {
+        curSink.append(e);
+      } finally {
+        exitAppend();
       }
-    } catch (CancellationException ce) {
-      Thread.currentThread().interrupt();
-      throw new InterruptedException(
-          "Blocked append interrupted by rotation event");
-    } catch (InterruptedException ex) {
-      LOG.warn("Unexpected Exception " + ex.getMessage(), ex);
-      Thread.currentThread().interrupt();
-      throw (InterruptedException) ex;
+      trigger.append(e);
+      super.append(e);
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
-  public void synchronousAppend(Event e) throws IOException,
+  /**
+   * Appends the whole batch to the current sub sink under a single read lock
+   * acquisition. The whole batch gets the current roll tag.
+   */
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
       InterruptedException {
     Preconditions.checkState(curSink != null,
         "Attempted to append when rollsink not open");
@@ -226,19 +225,74 @@ public class RollSink extends EventSink.Base {
       rotate();
       LOG.debug("... rotate completed by append.");
     }
-    String tag = trigger.getTagger().getTag();
+    byte[] tag = trigger.getTagger().getTag().getBytes();
 
-    e.set(A_ROLL_TAG, tag.getBytes());
-    lock.readLock().lock();
+    for (Event e : events) {
+      e.set(A_ROLL_TAG, tag);
+    }
+    lock.readLock().lockInterruptibly();
     try {
-      curSink.append(e);
-      trigger.append(e);
-      super.append(e);
+      enterAppend();
+      try {
+        curSink.appendBatch(events);
+      } finally {
+        exitAppend();
+      }
+      for (Event e : events) {
+        trigger.append(e);
+      }
+      updateAppendStats(events);
     } finally {
       lock.readLock().unlock();
     }
   }
 
+  private void enterAppend() {
+    synchronized (appendGuard) {
+      appendThread = Thread.currentThread();
+      appendInterrupted = false;
+    }
+  }
+
+  private void exitAppend() throws InterruptedException {
+    synchronized (appendGuard) {
+      appendThread = null;
+      if (appendInterrupted) {
+        appendInterrupted = false;
+        // The append returned or failed after a rotation gave up waiting on
+        // it. Keep the interrupt flag set for the caller.
+        Thread.currentThread().interrupt();
+        throw new InterruptedException(
+            "Blocked append interrupted by rotation event");
+      }
+    }
+  }
+
+  /**
+   * Interrupts the thread blocked in a sub sink append, if there is one.
+   */
+  void interruptAppend() {
+    synchronized (appendGuard) {
+      if (appendThread != null && !appendInterrupted) {
+        LOG.warn("Interrupting append blocked on roll sink sub sink");
+        appendInterrupted = true;
+        appendThread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Acquires the write lock, interrupting a wedged append every second until
+   * it gives up the read lock.
+   */
+  void lockForRotate() throws InterruptedException {
+    while (!lock.writeLock().tryLock(1000, TimeUnit.MILLISECONDS)) {
+      // NOTE: there is no guarantee that the interrupted append actually
+      // returns.
+      interruptAppend();
+    }
+  }
+
   /**
    * This method assumes it will be guarded by locks
    */
@@ -264,14 +318,7 @@ public class RollSink extends EventSink.Base {
   }
 
   public boolean rotate() throws InterruptedException {
-    while (!lock.writeLock().tryLock(1000, TimeUnit.MILLISECONDS)) {
-      // interrupt the future on the other.
-      if (future != null) {
-        future.cancel(true);
-      }
-
-      // NOTE: there is no guarantee that this cancel actually succeeds.
-    }
+    lockForRotate();
     // interrupted, lets go.
     try {
       synchronousRotate();
@@ -292,20 +339,12 @@ public class RollSink extends EventSink.Base {
   public void close() throws IOException, InterruptedException {
     LOG.info("closing RollSink '" + fspec + "'");
 
-    // attempt to get the lock, and if we cannot, issue a cancel
-    while (!lock.writeLock().tryLock(1000, TimeUnit.MILLISECONDS)) {
-      // interrupt the future on the other.
-      if (future != null) {
-        future.cancel(true);
-      }
-    }
+    // attempt to get the lock, and if we cannot, interrupt the append
+    lockForRotate();
 
     // we have the write lock now.
     try {
-      if (executor != null) {
-        executor.shutdown();
-        executor = null;
-      }
+      opened = false;
     } finally {
       lock.writeLock().unlock();
     }
@@ -339,11 +378,11 @@ public class RollSink extends EventSink.Base {
   public void open() throws IOException, InterruptedException {
     lock.writeLock().lock();
     try {
-      if (executor != null) {
+      if (opened) {
         throw new IllegalStateException(
             "Attempting to open already open roll sink");
       }
-      executor = Executors.newFixedThreadPool(1);
+      opened = true;
 
       Preconditions.checkState(curSink == null,
           "Attempting to open already open RollSink '" + fspec + "'");
@@ -357,8 +396,7 @@ public class RollSink extends EventSink.Base {
         curSink.open();
       } catch (IOException e1) {
         LOG.warn("Failure when attempting to open initial sink", e1);
-        executor.shutdown();
-        executor = null;
+        opened = false;
       }
     } finally {
       lock.writeLock().unlock();
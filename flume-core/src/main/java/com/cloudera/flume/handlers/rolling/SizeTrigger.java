@@ -17,6 +17,7 @@
  */
 package com.cloudera.flume.handlers.rolling;
 
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 
 /**
@@ -35,7 +36,7 @@ public class SizeTrigger implements RollTrigger {
 
   @Override
   public void append(Event e) {
-    size += e.getBody().length;
+    size += ByteBufferEvent.bodyLength(e);
   }
 
   @Override
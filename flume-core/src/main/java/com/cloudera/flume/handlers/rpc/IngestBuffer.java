@@ -0,0 +1,393 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.rpc;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.ByteBufferEvent;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.google.common.base.Preconditions;
+
+/**
+ * The buffer between the threads that receive events in a network source and
+ * the driver thread that pulls them out with next().
+ * 
+ * Instead of a single queue with one lock, events are put in one of several
+ * stripes, each with its own lock. The stripe is picked by a key the producer
+ * passes, or by the producing thread if it passes none. The consumer drains
+ * the stripes round robin, taking as many events as it can from a stripe per
+ * lock acquisition. Events put with the same key stay in order; events put
+ * with different keys may be interleaved differently than they arrived.
+ * Servers that run one client's requests on whichever thread is free, like the
+ * nio thrift server, must pass a per client key to keep that client's events
+ * in order.
+ * 
+ * The buffer is bounded by a number of events and by the total size of the
+ * event bodies. Producers block while it is full, or use offerAll to be
+ * turned away instead. These bounds are checked
+ * without a lock, so concurrent producers may overshoot them by a batch each.
+ * An empty buffer always accepts, so a batch larger than the bounds still goes
+ * through.
+ */
+public class IngestBuffer {
+  public static final String R_SIZE = "ingestSize";
+  public static final String R_SIZE_BYTES = "ingestSizeBytes";
+  public static final String R_CAPACITY = "ingestCapacity";
+  public static final String R_CAPACITY_BYTES = "ingestCapacityBytes";
+  public static final String R_STRIPES = "ingestStripes";
+  public static final String R_CONTENDED = "ingestContended";
+  public static final String R_FULL_WAITS = "ingestFullWaits";
+  public static final String R_EMPTY_WAITS = "ingestEmptyWaits";
+
+  // Waits are rechecked at this period in case a wakeup is missed.
+  static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  static class Stripe {
+    final ReentrantLock lock = new ReentrantLock();
+    final ArrayDeque<Event> events = new ArrayDeque<Event>();
+  }
+
+  final Stripe[] stripes;
+  final int maxEvents;
+  final long maxBytes;
+
+  // reserved by producers, released by consumers
+  final AtomicInteger count = new AtomicInteger();
+  final AtomicLong bytes = new AtomicLong();
+  final AtomicInteger drainFrom = new AtomicInteger();
+
+  final ReentrantLock waitLock = new ReentrantLock();
+  final Condition notFull = waitLock.newCondition();
+  final Condition notEmpty = waitLock.newCondition();
+  final AtomicInteger fullWaiters = new AtomicInteger();
+  final AtomicInteger emptyWaiters = new AtomicInteger();
+
+  final AtomicLong contended = new AtomicLong();
+  final AtomicLong fullWaits = new AtomicLong();
+  final AtomicLong emptyWaits = new AtomicLong();
+
+  public IngestBuffer(int stripes, int maxEvents, long maxBytes) {
+    Preconditions.checkArgument(stripes > 0, "stripes must be positive");
+    Preconditions.checkArgument(maxEvents > 0, "maxEvents must be positive");
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.maxEvents = maxEvents;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * A buffer of at most maxEvents events, with the number of stripes and the
+   * byte bound taken from the configuration.
+   */
+  public IngestBuffer(int maxEvents) {
+    this(FlumeConfiguration.get().getIngestStripes(), maxEvents,
+        FlumeConfiguration.get().getIngestMaxBytes());
+  }
+
+  /**
+   * Adds an event, keyed by the calling thread, blocking while the buffer is
+   * full.
+   */
+  public void put(Event e) throws InterruptedException {
+    put(Thread.currentThread(), e);
+  }
+
+  /**
+   * Adds an event to the stripe of key, blocking while the buffer is full.
+   */
+  public void put(Object key, Event e) throws InterruptedException {
+    reserve(1, ByteBufferEvent.bodyLength(e));
+    Stripe s = lockStripe(key);
+    try {
+      s.events.add(e);
+    } finally {
+      s.lock.unlock();
+    }
+    signalNotEmpty();
+  }
+
+  /**
+   * Adds a batch of events, keyed by the calling thread, with a single lock
+   * acquisition, blocking while the buffer is full.
+   */
+  public void putAll(List<Event> es) throws InterruptedException {
+    putAll(Thread.currentThread(), es);
+  }
+
+  /**
+   * Adds a batch of events to the stripe of key with a single lock
+   * acquisition, blocking while the buffer is full.
+   */
+  public void putAll(Object key, List<Event> es) throws InterruptedException {
+    if (es.isEmpty()) {
+      return;
+    }
+    long sz = 0;
+    for (Event e : es) {
+      sz += ByteBufferEvent.bodyLength(e);
+    }
+    reserve(es.size(), sz);
+    Stripe s = lockStripe(key);
+    try {
+      s.events.addAll(es);
+    } finally {
+      s.lock.unlock();
+    }
+    signalNotEmpty();
+  }
+
+  /**
+   * Adds a batch of events to the stripe of key like putAll, if there is room
+   * for them now. Returns false without adding any if there isn't.
+   */
+  public boolean offerAll(Object key, List<Event> es) {
+    if (es.isEmpty()) {
+      return true;
+    }
+    long sz = 0;
+    for (Event e : es) {
+      sz += ByteBufferEvent.bodyLength(e);
+    }
+    if (!hasRoom(es.size(), sz)) {
+      return false;
+    }
+    count.addAndGet(es.size());
+    bytes.addAndGet(sz);
+    Stripe s = lockStripe(key);
+    try {
+      s.events.addAll(es);
+    } finally {
+      s.lock.unlock();
+    }
+    signalNotEmpty();
+    return true;
+  }
+
+  /**
+   * Removes an event, waiting up to timeout for one to arrive. Returns null if
+   * none did.
+   */
+  public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      Event e = poll();
+      if (e != null) {
+        return e;
+      }
+      long left = deadline - System.nanoTime();
+      if (left <= 0) {
+        return null;
+      }
+      awaitNotEmpty(left);
+    }
+  }
+
+  /**
+   * Removes an event if there is one, otherwise returns null.
+   */
+  public Event poll() {
+    int from = drainFrom.get();
+    for (int i = 0; i < stripes.length; i++) {
+      Stripe s = stripes[(from + i) % stripes.length];
+      Event e;
+      s.lock.lock();
+      try {
+        e = s.events.poll();
+      } finally {
+        s.lock.unlock();
+      }
+      if (e != null) {
+        drainFrom.set((from + i + 1) % stripes.length);
+        release(1, ByteBufferEvent.bodyLength(e));
+        return e;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Moves up to max events that are already buffered into c without waiting,
+   * and returns how many were moved.
+   */
+  public int drainTo(Collection<Event> c, int max) {
+    int from = drainFrom.get();
+    int n = 0;
+    long sz = 0;
+    for (int i = 0; i < stripes.length && n < max; i++) {
+      Stripe s = stripes[(from + i) % stripes.length];
+      s.lock.lock();
+      try {
+        Event e;
+        while (n < max && (e = s.events.poll()) != null) {
+          c.add(e);
+          sz += ByteBufferEvent.bodyLength(e);
+          n++;
+        }
+      } finally {
+        s.lock.unlock();
+      }
+    }
+    drainFrom.set((from + 1) % stripes.length);
+    if (n > 0) {
+      release(n, sz);
+    }
+    return n;
+  }
+
+  public int size() {
+    return count.get();
+  }
+
+  public boolean isEmpty() {
+    return count.get() == 0;
+  }
+
+  public long sizeBytes() {
+    return bytes.get();
+  }
+
+  public int remainingCapacity() {
+    return Math.max(0, maxEvents - count.get());
+  }
+
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = new ReportEvent("ingestBuffer");
+    rpt.setLongMetric(R_SIZE, count.get());
+    rpt.setLongMetric(R_SIZE_BYTES, bytes.get());
+    rpt.setLongMetric(R_CAPACITY, maxEvents);
+    rpt.setLongMetric(R_CAPACITY_BYTES, maxBytes);
+    rpt.setLongMetric(R_STRIPES, stripes.length);
+    rpt.setLongMetric(R_CONTENDED, contended.get());
+    rpt.setLongMetric(R_FULL_WAITS, fullWaits.get());
+    rpt.setLongMetric(R_EMPTY_WAITS, emptyWaits.get());
+    return rpt;
+  }
+
+  /**
+   * Locks the stripe of key, counting the times it was held by another thread.
+   */
+  Stripe lockStripe(Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    Stripe s = stripes[(h & Integer.MAX_VALUE) % stripes.length];
+    if (!s.lock.tryLock()) {
+      contended.incrementAndGet();
+      s.lock.lock();
+    }
+    return s;
+  }
+
+  boolean hasRoom(int n, long sz) {
+    int c = count.get();
+    return c == 0 || (c + n <= maxEvents && bytes.get() + sz <= maxBytes);
+  }
+
+  void reserve(int n, long sz) throws InterruptedException {
+    if (!hasRoom(n, sz)) {
+      fullWaits.incrementAndGet();
+      // Waiters register before rechecking so a release that happens after
+      // the recheck sees them and signals.
+      fullWaiters.incrementAndGet();
+      try {
+        waitLock.lockInterruptibly();
+        try {
+          while (!hasRoom(n, sz)) {
+            notFull.awaitNanos(MAX_WAIT_NANOS);
+          }
+        } finally {
+          waitLock.unlock();
+        }
+      } finally {
+        fullWaiters.decrementAndGet();
+      }
+    }
+    count.addAndGet(n);
+    bytes.addAndGet(sz);
+  }
+
+  void release(int n, long sz) {
+    count.addAndGet(-n);
+    bytes.addAndGet(-sz);
+    if (fullWaiters.get() > 0) {
+      waitLock.lock();
+      try {
+        notFull.signalAll();
+      } finally {
+        waitLock.unlock();
+      }
+    }
+  }
+
+  void signalNotEmpty() {
+    if (emptyWaiters.get() > 0) {
+      waitLock.lock();
+      try {
+        notEmpty.signalAll();
+      } finally {
+        waitLock.unlock();
+      }
+    }
+  }
+
+  void awaitNotEmpty(long nanos) throws InterruptedException {
+    emptyWaits.incrementAndGet();
+    emptyWaiters.incrementAndGet();
+    try {
+      waitLock.lockInterruptibly();
+      try {
+        if (!hasEvents()) {
+          notEmpty.awaitNanos(Math.min(nanos, MAX_WAIT_NANOS));
+        }
+      } finally {
+        waitLock.unlock();
+      }
+    } finally {
+      emptyWaiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * True if an event has been added to a stripe. Unlike size() this does not
+   * count events that producers have reserved room for but not added yet.
+   */
+  boolean hasEvents() {
+    for (Stripe s : stripes) {
+      s.lock.lock();
+      try {
+        if (!s.events.isEmpty()) {
+          return true;
+        }
+      } finally {
+        s.lock.unlock();
+      }
+    }
+    return false;
+  }
+}
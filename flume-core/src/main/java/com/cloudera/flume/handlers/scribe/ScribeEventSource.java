@@ -19,16 +19,13 @@
 package com.cloudera.flume.handlers.scribe;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.thrift.TException;
-import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TSaneServerSocket;
-import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +37,7 @@ import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.rpc.IngestBuffer;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.ReportUtil;
 import com.cloudera.flume.reporter.Reportable;
@@ -55,14 +53,15 @@ public class ScribeEventSource extends ThriftServer implements EventSource,
   static final Logger LOG = LoggerFactory.getLogger(ScribeEventSource.class);
   public static final String A_SERVERPORT = "serverPort";
 
-  final BlockingQueue<Event> pendingQueue = new LinkedBlockingQueue<Event>();
+  final IngestBuffer pendingQueue = new IngestBuffer(FlumeConfiguration.get()
+      .getThriftQueueSize());
 
   final static public String SCRIBE_CATEGORY = "scribe.category";
   final AtomicBoolean running = new AtomicBoolean(false);
   long startedTime = 0;
   int port = 0;
 
-  final static Event DONE_EVENT = new EventImpl(new byte[0]);
+  volatile boolean closed = false;
 
   /**
    * Construct a scribe event source.
@@ -90,18 +89,21 @@ public class ScribeEventSource extends ThriftServer implements EventSource,
   public synchronized void close() throws IOException {
     running.set(false);
     this.stop();
-    pendingQueue.add(DONE_EVENT);
+    closed = true;
   }
 
   /**
-   * Blocks until a new event is available.
+   * Blocks until a new event is available. Returns null once the source has
+   * been closed and all pending events have been returned.
    */
   @Override
   public Event next() throws IOException {
     try {
-      Event e = pendingQueue.take();
-      if (e == DONE_EVENT) {
-        return null;
+      Event e;
+      while ((e = pendingQueue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+        if (closed) {
+          return null;
+        }
       }
       return e;
     } catch (InterruptedException e) {
@@ -111,6 +113,20 @@ public class ScribeEventSource extends ThriftServer implements EventSource,
     }
   }
 
+  /**
+   * Blocks until a new event is available, and then drains whatever else is
+   * already pending.
+   */
+  @Override
+  public int nextBatch(List<Event> events, int max) throws IOException {
+    Event e = next();
+    if (e == null) {
+      return 0;
+    }
+    events.add(e);
+    return 1 + pendingQueue.drainTo(events, max - 1);
+  }
+
   /**
    * Starts a Thrift server and waits for it to come up.
    */
@@ -119,15 +135,8 @@ public class ScribeEventSource extends ThriftServer implements EventSource,
     try {
       // Start the thrift server with a framed transport - suitable for
       // scribe clients
-      this.start(new scribe.Processor(this), "ScribeEventSource",
-          new TSaneServerSocket(port) {
-            // we are providing the transport to ThriftServer -- the sole
-            // job of this sane server subclass is to wrap the socket
-            // with a framed transport
-            protected TTransport acceptImpl() throws TTransportException {
-              return new TFramedTransport(super.acceptImpl());
-            }
-          });
+      this.start(new scribe.Processor(this), port, "ScribeEventSource", true);
+      closed = false;
       running.set(true);
       startedTime = Clock.unixTime();
     } catch (TTransportException e) {
@@ -146,10 +155,17 @@ public class ScribeEventSource extends ThriftServer implements EventSource,
     if (!running.get()) {
       return ResultCode.TRY_LATER;
     }
+    List<Event> events = new ArrayList<Event>(messages.size());
     for (LogEntry l : messages) {
       EventImpl e = new EventImpl(l.message.getBytes());
       e.set(SCRIBE_CATEGORY, l.category.getBytes());
-      pendingQueue.add(e);
+      events.add(e);
+    }
+    // Scribe clients hold on to messages and retry them later, so push back
+    // instead of blocking the server thread when the queue is out of events or
+    // bytes.
+    if (!pendingQueue.offerAll(clientKey(), events)) {
+      return ResultCode.TRY_LATER;
     }
     return ResultCode.OK;
   }
@@ -247,6 +263,7 @@ public class ScribeEventSource extends ThriftServer implements EventSource,
     // TODO missing EventSource stats
     ReportEvent rpt = new ReportEvent("scribe-source");
     rpt.setLongMetric(A_SERVERPORT, port);
+    rpt.merge(pendingQueue.getMetrics());
     return rpt;
   }
 
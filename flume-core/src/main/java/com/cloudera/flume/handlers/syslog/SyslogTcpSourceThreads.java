@@ -24,7 +24,6 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -35,7 +34,9 @@ import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.rpc.IngestBuffer;
 import com.cloudera.flume.handlers.text.EventExtractException;
+import com.cloudera.flume.reporter.ReportEvent;
 
 /**
  * This source listens for multiple tcp-based syslog data streams. This works
@@ -47,10 +48,7 @@ import com.cloudera.flume.handlers.text.EventExtractException;
  * TODO (jon) setup a limit on the number of threads, find out how to modify
  * filehandle/socket limits on windows/linux
  * 
- * TODO(jon) Either do an nio/asynchronous version,
- * 
- * TODO (jon) or make separate queues for each thread -- this may cause lock
- * contention
+ * TODO(jon) Do an nio/asynchronous version.
  */
 public class SyslogTcpSourceThreads extends EventSource.Base {
   static final Logger LOG = LoggerFactory
@@ -58,7 +56,7 @@ public class SyslogTcpSourceThreads extends EventSource.Base {
 
   final public static int SYSLOG_TCP_PORT = 514;
   final int port;
-  final LinkedBlockingQueue<Event> eventsQ = new LinkedBlockingQueue<Event>(100000);
+  final IngestBuffer eventsQ = new IngestBuffer(100000);
   final List<ReaderThread> readers = Collections
       .synchronizedList(new ArrayList<ReaderThread>());
   final AtomicLong rejects = new AtomicLong();
@@ -206,6 +204,32 @@ public class SyslogTcpSourceThreads extends EventSource.Base {
     return e;
   }
 
+  /**
+   * Blocks for the first event and then drains up to max - 1 more events that
+   * are already enqueued.
+   */
+  @Override
+  public int nextBatch(List<Event> events, int max) throws IOException {
+    Event first = next();
+    if (first == null) {
+      return 0;
+    }
+    events.add(first);
+    int start = events.size();
+    int drained = eventsQ.drainTo(events, max - 1);
+    for (int i = start; i < start + drained; i++) {
+      updateEventProcessingStats(events.get(i));
+    }
+    return drained + 1;
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = super.getMetrics();
+    rpt.merge(eventsQ.getMetrics());
+    return rpt;
+  }
+
   @Override
   public void open() throws IOException {
     LOG.info("Opening " + this);
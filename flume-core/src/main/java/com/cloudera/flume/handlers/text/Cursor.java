@@ -23,13 +23,18 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.ReportUtil;
+import com.cloudera.flume.reporter.Reportable;
 
 /**
  * To support multiple tail readers, we have a Cursor for each file name
@@ -42,15 +47,28 @@ import com.cloudera.flume.core.EventImpl;
  * 
  * If a file rotate is detected, the previous RAF is closed, and the File with
  * the specified name is opened.
+ * 
+ * A single call to tailBody reads at most TURN_BYTES, so that a file that is
+ * written to quickly does not hold up the other files tailed by the same
+ * thread.
  */
-public class Cursor {
+public class Cursor implements Reportable {
   private static final Logger LOG = LoggerFactory.getLogger(Cursor.class);
 
+  public static final String A_LAG = "lagBytes";
+  public static final String A_POSITION = "position";
+  public static final String A_SIZE = "fileSize";
+
+  static final int BUF_SIZE = 64 * 1024;
+  static final int TURN_BYTES = 256 * 1024;
+
   final BlockingQueue<Event> sync;
   // For following a file name
   final File file;
-  // For buffering reads
-  final ByteBuffer buf = ByteBuffer.allocateDirect(Short.MAX_VALUE);
+  // For buffering reads. Once lines in it have been handed out as slices, this
+  // is a view of the rest of the same array, replaced by a new buffer when too
+  // little of it is left.
+  ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
   // For closing file handles and getting FileChannels
   RandomAccessFile raf = null;
   // For reading data
@@ -61,6 +79,22 @@ public class Cursor {
   long lastChannelSize;
   int readFailures;
 
+  // Where to save the read position, null if checkpointing is disabled.
+  TailCheckpoints checkpoints = TailCheckpoints.get();
+  // File offset just past the last line handed to sync.
+  volatile long deliveredPos;
+  // Whether the first file opened has been checked for a checkpoint.
+  boolean restored = false;
+
+  // Set when a notification says the file changed, so that it is checked on
+  // the next pass even if it is backing off.
+  volatile boolean dirty = false;
+  // Whether notifications for the file are delivered to this cursor.
+  boolean watched = false;
+  // Current wait between checks of this idle file, and when it is due next.
+  long idleWait = 0;
+  long nextCheck = 0;
+
   Cursor(BlockingQueue<Event> sync, File f) {
     this(sync, f, 0, 0, 0);
   }
@@ -73,6 +107,7 @@ public class Cursor {
     this.lastChannelSize = lastFileLen;
     this.lastFileMod = lastMod;
     this.readFailures = 0;
+    this.deliveredPos = lastReadOffset;
   }
 
   /**
@@ -82,8 +117,10 @@ public class Cursor {
     try {
       LOG.debug("initCursorPos " + file);
       raf = new RandomAccessFile(file, "r");
-      raf.seek(lastChannelPos);
       in = raf.getChannel();
+      lastChannelPos = restorePosition(lastChannelPos);
+      in.position(lastChannelPos);
+      deliveredPos = lastChannelPos;
     } catch (FileNotFoundException e) {
       resetRAF();
     } catch (IOException e) {
@@ -91,6 +128,80 @@ public class Cursor {
     }
   }
 
+  /**
+   * Returns the offset to start reading the first file this cursor opens at.
+   * If it was checkpointed this is where the last run left off, otherwise it
+   * is dflt. Files opened after a rotation are always read from the start.
+   */
+  long restorePosition(long dflt) throws IOException {
+    if (restored) {
+      return dflt;
+    }
+    restored = true;
+    if (checkpoints == null) {
+      return dflt;
+    }
+    return checkpoints.resume(file, in, dflt);
+  }
+
+  /**
+   * Number of bytes read from the file that have not been handed out in
+   * events yet.
+   */
+  int pendingBytes() {
+    return buf.position();
+  }
+
+  /**
+   * Records how far lines of the current file have been handed out.
+   */
+  void checkpoint() throws IOException {
+    TailCheckpoints.Checkpoint c = mark();
+    if (c != null) {
+      checkpoints.update(file, c);
+    }
+  }
+
+  /**
+   * Returns a checkpoint of how far lines of the current file have been put
+   * into sync, or null if there is nothing to checkpoint.
+   */
+  TailCheckpoints.Checkpoint mark() throws IOException {
+    if (checkpoints == null || in == null) {
+      return null;
+    }
+    return TailCheckpoints.mark(in, deliveredPos);
+  }
+
+  /**
+   * Returns true if this cursor should be checked on a pass at time now.
+   */
+  boolean due(long now) {
+    return dirty || now >= nextCheck;
+  }
+
+  /**
+   * Called after a check that found nothing new: the longer the file stays
+   * idle, the longer the wait before the next check, doubling from minWait up
+   * to maxWait.
+   */
+  void idle(long now, long minWait, long maxWait) {
+    if (maxWait <= minWait) {
+      nextCheck = 0;
+      return;
+    }
+    idleWait = Math.min(Math.max(idleWait * 2, minWait), maxWait);
+    nextCheck = now + idleWait;
+  }
+
+  /**
+   * Called after a check that made progress.
+   */
+  void active() {
+    idleWait = 0;
+    nextCheck = 0;
+  }
+
   /**
    * Flush any buffering the cursor has done. If the buffer does not end with
    * '\n', the remainder will get turned into a new event.
@@ -124,6 +235,7 @@ public class Cursor {
     }
     in = null;
     buf.clear();
+    deliveredPos = lastChannelPos;
   }
 
   /**
@@ -156,6 +268,7 @@ public class Cursor {
     LOG.debug("reseting cursor");
     flush();
     lastChannelPos = 0;
+    deliveredPos = 0;
     lastFileMod = 0;
     readFailures = 0;
   }
@@ -193,7 +306,11 @@ public class Cursor {
       raf = new RandomAccessFile(file, "r");
       lastFileMod = file.lastModified();
       in = raf.getChannel();
+      if (!restored) {
+        in.position(restorePosition(0));
+      }
       lastChannelPos = in.position();
+      deliveredPos = lastChannelPos;
       lastChannelSize = in.size();
 
       LOG.debug("Tail '" + file + "': opened last mod=" + lastFileMod
@@ -208,33 +325,67 @@ public class Cursor {
     }
   }
 
+  /**
+   * Makes an event of every complete line in buf (read mode) and puts it into
+   * sync. A '\r' before the '\n' is not part of the line. Leaves any
+   * incomplete last line at the front of buf, in write mode.
+   */
   boolean extractLines(ByteBuffer buf) throws IOException, InterruptedException {
+    // Only worth giving the buffer away to slices if a good part of it is
+    // used, otherwise copy the lines out and keep reusing it.
+    boolean slice = buf.hasArray() && buf.remaining() >= buf.capacity() / 4;
     boolean madeProgress = false;
+    byte[] fname = file.getName().getBytes();
     int start = buf.position();
-    buf.mark();
-    while (buf.hasRemaining()) {
-      byte b = buf.get();
-      // TODO windows: ('\r\n') line separators
-      if (b == '\n') {
-        int end = buf.position();
-        int sz = end - start;
-        byte[] body = new byte[sz - 1];
-        buf.reset(); // go back to mark
-        buf.get(body, 0, sz - 1); // read data
-        buf.get(); // read '\n'
-        buf.mark(); // new mark.
-        start = buf.position();
-
-        Event e = new EventImpl(body);
-        e.set(TailSource.A_TAILSRCFILE, file.getName().getBytes());
-        sync.put(e);
-        madeProgress = true;
+    int limit = buf.limit();
+    int nl;
+    while ((nl = LineSplitter.indexOfNewline(buf, start, limit)) >= 0) {
+      int end = LineSplitter.lineEnd(buf, start, nl);
+      Event e;
+      if (slice) {
+        ByteBuffer body = buf.duplicate();
+        body.position(start);
+        body.limit(end);
+        e = new ByteBufferEvent(body);
+      } else {
+        byte[] body = new byte[end - start];
+        buf.position(start);
+        buf.get(body);
+        e = new EventImpl(body);
       }
+      start = nl + 1;
+
+      e.set(TailSource.A_TAILSRCFILE, fname);
+      sync.put(e);
+      madeProgress = true;
     }
 
     // rewind for any left overs
-    buf.reset();
-    buf.compact(); // shift leftovers to front.
+    buf.limit(limit);
+    buf.position(start);
+    ByteBuffer next = buf;
+    if (slice && madeProgress) {
+      // events now own the front of this buffer. Keep reading into the rest of
+      // it and only move the leftovers to a new one once little room is left.
+      if (buf.capacity() - start >= BUF_SIZE / 4) {
+        buf.limit(buf.capacity());
+        next = buf.slice();
+        next.position(limit - start);
+      } else {
+        next = ByteBuffer.allocate(BUF_SIZE);
+        next.put(buf);
+      }
+    } else {
+      buf.compact(); // shift leftovers to front.
+    }
+    if (!next.hasRemaining() && next.capacity() < BUF_SIZE) {
+      // a line does not fit in what is left, give it a full sized buffer.
+      next.flip();
+      ByteBuffer bigger = ByteBuffer.allocate(BUF_SIZE);
+      bigger.put(next);
+      next = bigger;
+    }
+    this.buf = next;
     return madeProgress;
   }
 
@@ -308,6 +459,7 @@ public class Cursor {
             + "aborting file rotation handling");
         lastChannelSize = chlen;
         lastChannelPos = chlen;
+        deliveredPos = chlen;
         lastFileMod = file.lastModified();
         in.position(chlen); // setting cursor to the last position of
         // truncated file
@@ -347,8 +499,10 @@ public class Cursor {
     boolean madeProgress = false;
 
     int rd;
-    while ((rd = in.read(buf)) > 0) {
+    long turn = 0;
+    while (turn < TURN_BYTES && (rd = in.read(buf)) > 0) {
       madeProgress = true;
+      turn += rd;
 
       // need char encoder to find line breaks in buf.
       lastChannelPos += (rd < 0 ? 0 : rd); // rd == -1 if at end of
@@ -366,6 +520,7 @@ public class Cursor {
 
         // extract lines
         extractLines(buf);
+        deliveredPos = lastChannelPos - pendingBytes();
 
         lastRd = rd;
       } while (progress); // / potential race
@@ -381,4 +536,32 @@ public class Cursor {
 
     return madeProgress;
   }
+
+  /**
+   * How many bytes of the file have not been handed out yet.
+   */
+  long getLag() {
+    return Math.max(0, file.length() - deliveredPos);
+  }
+
+  @Override
+  public String getName() {
+    return file.getPath();
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = new ReportEvent(getName());
+    long pos = deliveredPos;
+    long len = file.length();
+    rpt.setLongMetric(A_POSITION, pos);
+    rpt.setLongMetric(A_SIZE, len);
+    rpt.setLongMetric(A_LAG, Math.max(0, len - pos));
+    return rpt;
+  }
+
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    return ReportUtil.noChildren();
+  }
 }
@@ -36,6 +36,8 @@ public class CustomDelimCursor extends Cursor {
   final String regexDelim;
   final DelimMode delimMode;
   final Pattern pat;
+  // the delimiter if it is a fixed string, otherwise null
+  final byte[] literal;
   byte[] prefix = null; // only for include delimiter in next mode
 
   /**
@@ -51,6 +53,7 @@ public class CustomDelimCursor extends Cursor {
     super(sync, f, lastReadOffset, lastFileLen, lastMod);
     this.regexDelim = regex;
     this.pat = Pattern.compile(regex);
+    this.literal = literal(regex);
     this.delimMode = h;
 
   }
@@ -59,6 +62,7 @@ public class CustomDelimCursor extends Cursor {
     super(sync, f);
     this.regexDelim = regex;
     this.pat = Pattern.compile(regex);
+    this.literal = literal(regex);
     this.delimMode = h;
   }
 
@@ -100,93 +104,134 @@ public class CustomDelimCursor extends Cursor {
   }
 
   /**
-   * Note, these version is less efficient than then default '\n' searching
-   * version because it calls the compact call more often and also relies on
-   * regexes instead of a simple char matches.
+   * Returns the bytes a delimiter regex matches if it only ever matches a
+   * single fixed ascii string (e.g. "\\n\\n" or "--"), or null if it really
+   * is a pattern.
+   */
+  static byte[] literal(String regex) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (++i == regex.length()) {
+          return null;
+        }
+        c = regex.charAt(i);
+        switch (c) {
+        case 'n':
+          c = '\n';
+          break;
+        case 'r':
+          c = '\r';
+          break;
+        case 't':
+          c = '\t';
+          break;
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            return null; // a class like \d or a back reference
+          }
+        }
+      } else if ("^$.|?*+()[]{}".indexOf(c) >= 0) {
+        return null;
+      }
+      if (c >= 128) {
+        return null;
+      }
+      sb.append(c);
+    }
+    if (sb.length() == 0) {
+      return null;
+    }
+    return sb.toString().getBytes();
+  }
+
+  /**
+   * Splits buf (read mode) at the delimiters and puts an event per record
+   * into sync. Leaves any incomplete last record at the front of buf, in write
+   * mode.
+   * 
+   * Fixed string delimiters are found with the {@link LineSplitter}, others
+   * with a single regex matcher over the buffer.
    */
   boolean extractLines(ByteBuffer buf) throws IOException, InterruptedException {
     boolean madeProgress = false;
-    int start = buf.position();
-    byte[] nextPrefix = null;
-    buf.mark();
-
-    while (buf.hasRemaining()) {
-      CharSequence cs = new ByteBufferAsCharSequence(buf);
-      Matcher m = pat.matcher(cs);
-
-      if (!m.find()) {
-        // if not found, eat it all and go into drop mode.
-        buf.reset();
-        buf.compact(); // shift leftovers to front.
-        return madeProgress;
-      }
+    ByteBuffer view = buf.slice(); // indexes relative to buf's position
+    ByteBuffer data = view.duplicate(); // for copying records out
+    int limit = view.limit();
+    Matcher m = null;
+    if (literal == null) {
+      m = pat.matcher(new ByteBufferAsCharSequence(view));
+    }
 
-      int beg = m.start();
-      int end = m.end();
+    int start = 0;
+    while (start < limit) {
+      int beg, end;
+      if (literal != null) {
+        beg = LineSplitter.indexOf(view, start, limit, literal);
+        if (beg < 0) {
+          break;
+        }
+        end = beg + literal.length;
+      } else {
+        m.region(start, limit);
+        if (!m.find() || m.end() == start) {
+          break; // no delimiter, or one that matches nothing.
+        }
+        beg = m.start();
+        end = m.end();
+      }
 
+      byte[] nextPrefix = null;
       byte[] body = null;
       switch (delimMode) {
       case INCLUDE_PREV:
-        body = new byte[end];
-        buf.reset();
-        buf.get(body);
-        buf.mark();
-        buf.compact();
-        buf.flip();
-        buf.mark();
+        body = new byte[end - start];
         break;
       case EXCLUDE:
-        body = new byte[beg];
-        buf.reset();
-        buf.get(body);
-        buf.get(new byte[end - beg]); // toss bytes
-        buf.mark();
-        buf.compact();
-        buf.flip();
-        buf.mark();
-
+        body = new byte[beg - start];
         break;
       case INCLUDE_NEXT:
         // special case
-        body = new byte[beg];
-        buf.get(body);
+        body = new byte[beg - start];
         nextPrefix = new byte[end - beg]; // keep prefix
-        buf.get(nextPrefix);
-        buf.mark();
-        buf.compact();
-        buf.flip();
-        buf.mark();
+        data.position(beg);
+        data.get(nextPrefix);
         break;
-
       }
+      data.position(start);
+      data.get(body);
+      start = end;
 
       if (prefix != null) {
         byte[] body2 = new byte[prefix.length + body.length];
-        int i = 0;
-        for (; i < prefix.length; i++) {
-          body2[i] = prefix[i];
-        }
-        for (int j = 0; j < body.length; j++, i++) {
-          body2[i] = body[j];
-        }
+        System.arraycopy(prefix, 0, body2, 0, prefix.length);
+        System.arraycopy(body, 0, body2, prefix.length, body.length);
         body = body2;
       }
       prefix = nextPrefix;
-      nextPrefix = null;
 
       Event e = new EventImpl(body);
       e.set(TailSource.A_TAILSRCFILE, file.getName().getBytes());
       sync.put(e);
       madeProgress = true;
-
     }
 
     // rewind for any left overs
-    buf.reset();
+    buf.position(buf.position() + start);
     buf.compact(); // shift leftovers to front.
     return madeProgress;
   }
 
+  /**
+   * The delimiter kept to prefix the next event has not been handed out yet
+   * either.
+   */
+  @Override
+  int pendingBytes() {
+    return super.pendingBytes() + (prefix == null ? 0 : prefix.length);
+  }
+
   /**
    * Flush any buffering the cursor has done. If the buffer does not end with
    * the proper delimiter, the remainder will get turned into a new event.
@@ -236,5 +281,6 @@ public class CustomDelimCursor extends Cursor {
     }
     in = null;
     buf.clear();
+    deliveredPos = lastChannelPos;
   }
 }
@@ -0,0 +1,280 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.text;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.flume.agent.FlumeNode;
+import com.cloudera.flume.conf.FlumeConfiguration;
+
+/**
+ * Keeps the read offsets of tailed files on disk so that tail sources resume
+ * where they left off when the node restarts.
+ * 
+ * The offset saved for a file is the end of the last line handed out by its
+ * cursor, so on a crash some lines may be sent again but none are skipped.
+ * 
+ * Java gives us no inode numbers, so with each offset a checksum of the first
+ * bytes of the file is kept. On restart, a file whose first bytes no longer
+ * match, or that is shorter than the offset, is taken to be a new file and is
+ * read from the start. Files that start with identical content, like a fixed
+ * header longer than FINGERPRINT_BYTES, can't be told apart this way.
+ * 
+ * Checkpoints are written to a temporary file which is synced and then
+ * renamed over the previous one, so a crash leaves either the old or the new
+ * checkpoints.
+ */
+public class TailCheckpoints {
+  static final Logger LOG = LoggerFactory.getLogger(TailCheckpoints.class);
+
+  static final String FILENAME = "tailcheckpoints";
+  static final String HEADER = "# flume tail checkpoints: offset fingerprintLength fingerprint path";
+  static final int FINGERPRINT_BYTES = 1024;
+
+  private static TailCheckpoints instance = null;
+
+  /**
+   * Where a file was read up to, and a fingerprint of its first bytes.
+   */
+  static class Checkpoint {
+    final long offset;
+    final int fpLen;
+    final long fp;
+
+    Checkpoint(long offset, int fpLen, long fp) {
+      this.offset = offset;
+      this.fpLen = fpLen;
+      this.fp = fp;
+    }
+  }
+
+  final File file;
+  final Map<String, Checkpoint> checkpoints = new HashMap<String, Checkpoint>();
+  boolean dirty = false;
+
+  public TailCheckpoints(File file) {
+    this.file = file;
+    load();
+  }
+
+  /**
+   * Returns the checkpoints of this node, or null if tail checkpointing is
+   * disabled.
+   */
+  public static synchronized TailCheckpoints get() {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    if (!conf.getTailCheckpoint()) {
+      return null;
+    }
+    File dir = new File(conf.getAgentLogsDir());
+    FlumeNode node = FlumeNode.getInstance();
+    if (node != null) {
+      dir = new File(dir, node.getPhysicalNodeName());
+    }
+    File f = new File(dir, FILENAME);
+    if (instance == null || !instance.file.equals(f)) {
+      instance = new TailCheckpoints(f);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the offset to start reading the open file at path from: the
+   * checkpointed offset if the file is the one that was checkpointed, 0 if it
+   * has been replaced, or dflt if there is no checkpoint for it.
+   */
+  synchronized long resume(File path, FileChannel ch, long dflt)
+      throws IOException {
+    Checkpoint c = checkpoints.get(key(path));
+    if (c == null) {
+      return dflt;
+    }
+    long sz = ch.size();
+    if (c.offset > sz) {
+      LOG.info("Tail '" + path + "' is shorter than its checkpoint at "
+          + c.offset + ", reading it from the start");
+      return 0;
+    }
+    if (sz < c.fpLen || fingerprint(ch, c.fpLen) != c.fp) {
+      LOG.info("Tail '" + path + "' was replaced since its checkpoint, "
+          + "reading it from the start");
+      return 0;
+    }
+    LOG.info("Tail '" + path + "' resuming at checkpointed offset " + c.offset);
+    return c.offset;
+  }
+
+  /**
+   * Records that the open file at path has been read up to offset.
+   */
+  void update(File path, FileChannel ch, long offset) throws IOException {
+    update(path, mark(ch, offset));
+  }
+
+  /**
+   * Records a checkpoint taken earlier with {@link #mark}.
+   */
+  synchronized void update(File path, Checkpoint c) {
+    String k = key(path);
+    Checkpoint old = checkpoints.get(k);
+    if (old != null && old.offset == c.offset && old.fpLen == c.fpLen
+        && old.fp == c.fp) {
+      return;
+    }
+    checkpoints.put(k, c);
+    dirty = true;
+  }
+
+  /**
+   * Returns a checkpoint of the open file ch read up to offset, to be
+   * recorded once everything before offset has really been handed out.
+   */
+  static Checkpoint mark(FileChannel ch, long offset) throws IOException {
+    int fpLen = (int) Math.min(ch.size(), FINGERPRINT_BYTES);
+    return new Checkpoint(offset, fpLen, fingerprint(ch, fpLen));
+  }
+
+  synchronized void remove(File path) {
+    if (checkpoints.remove(key(path)) != null) {
+      dirty = true;
+    }
+  }
+
+  synchronized Checkpoint lookup(File path) {
+    return checkpoints.get(key(path));
+  }
+
+  /**
+   * Writes the checkpoints out if they have changed since the last save.
+   */
+  public synchronized void save() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    File dir = file.getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create checkpoint dir " + dir);
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream fos = new FileOutputStream(tmp);
+    try {
+      PrintWriter out = new PrintWriter(new OutputStreamWriter(fos, "UTF-8"));
+      out.println(HEADER);
+      for (Entry<String, Checkpoint> e : checkpoints.entrySet()) {
+        Checkpoint c = e.getValue();
+        out.println(c.offset + " " + c.fpLen + " " + c.fp + " " + e.getKey());
+      }
+      out.flush();
+      if (out.checkError()) {
+        throw new IOException("Unable to write " + tmp);
+      }
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+
+    if (!tmp.renameTo(file)) {
+      // Some platforms won't rename over an existing file. Keep the old one
+      // as a backup until the new one is in place.
+      File bak = backup();
+      bak.delete();
+      if (!file.renameTo(bak) || !tmp.renameTo(file)) {
+        throw new IOException("Unable to rename " + tmp + " to " + file);
+      }
+      bak.delete();
+    }
+    dirty = false;
+  }
+
+  File backup() {
+    return new File(file.getPath() + "~");
+  }
+
+  void load() {
+    File f = file.exists() ? file : backup();
+    if (!f.exists()) {
+      return;
+    }
+    try {
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+          new FileInputStream(f), "UTF-8"));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.startsWith("#") || line.length() == 0) {
+            continue;
+          }
+          String[] parts = line.split(" ", 4);
+          if (parts.length != 4) {
+            LOG.warn("Ignoring malformed tail checkpoint: " + line);
+            continue;
+          }
+          try {
+            checkpoints.put(parts[3], new Checkpoint(Long.parseLong(parts[0]),
+                Integer.parseInt(parts[1]), Long.parseLong(parts[2])));
+          } catch (NumberFormatException nfe) {
+            LOG.warn("Ignoring malformed tail checkpoint: " + line);
+          }
+        }
+      } finally {
+        in.close();
+      }
+      LOG.info("Loaded " + checkpoints.size() + " tail checkpoints from " + f);
+    } catch (IOException e) {
+      LOG.warn("Unable to read tail checkpoints from " + f
+          + ", tailed files will be read from their default offsets", e);
+    }
+  }
+
+  static String key(File path) {
+    return path.getAbsolutePath();
+  }
+
+  /**
+   * Checksum of the first len bytes of the file. Reads at absolute positions,
+   * so the channel's position is not changed.
+   */
+  static long fingerprint(FileChannel ch, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(len);
+    while (buf.hasRemaining()) {
+      if (ch.read(buf, buf.position()) < 0) {
+        break;
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 0, buf.position());
+    return crc.getValue();
+  }
+}
@@ -34,6 +34,7 @@ import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.handlers.text.CustomDelimCursor.DelimMode;
 import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.Reportable;
 import com.cloudera.util.Pair;
 import com.cloudera.util.dirwatcher.DirChangeHandler;
 import com.cloudera.util.dirwatcher.DirWatcher;
@@ -261,9 +262,18 @@ public class TailDirSource extends EventSource.Base {
     rpt.setLongMetric(A_SUBDIRSADDED, subdirsAdded.get());
     rpt.setLongMetric(A_SUBDIRSDELETED, subdirsDeleted.get());
     rpt.setLongMetric(A_FILESPRESENT, tail.cursors.size());
+    tail.addLagMetrics(rpt);
     return rpt;
   }
 
+  /**
+   * The position and lag of each file being tailed, by path.
+   */
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    return tail.getSubMetrics();
+  }
+
   @Override
   public Event next() throws IOException, InterruptedException {
     // this cannot be in synchronized because it has a
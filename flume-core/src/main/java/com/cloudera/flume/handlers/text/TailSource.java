@@ -20,9 +20,16 @@ package com.cloudera.flume.handlers.text;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,8 +40,11 @@ import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.handlers.text.CustomDelimCursor.DelimMode;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.Reportable;
 import com.cloudera.util.Clock;
 import com.cloudera.util.Pair;
+import com.cloudera.util.dirwatcher.FileNotifier;
 import com.google.common.base.Preconditions;
 
 /**
@@ -78,22 +88,91 @@ import com.google.common.base.Preconditions;
  * 
  * Ideally this would use the inode number of file handle number but didn't find
  * java api to get these, or Java 7's WatchService file watcher API.
+ * 
+ * If flume.tail.checkpoint is set, the offsets read up to are periodically
+ * saved and a restarted tail resumes from them instead of from the offset or
+ * end of file it was built with (see {@link TailCheckpoints}). A position is
+ * only saved once the driver has come back for more events after being handed
+ * the lines before it, which with the direct driver means its sink accepted
+ * them, so lines are delivered at least once across restarts. The pipelined
+ * driver comes back as soon as a batch is queued for its writers, so with it
+ * lines still queued when the node dies are lost.
+ * 
+ * Files that stay idle are rechecked less and less often, up to
+ * flume.tail.idle.max millis. If flume.watch.notify is set and the platform
+ * supports it, the directories of the tailed files are watched (see
+ * {@link FileNotifier}) and a changed file is checked right away; files
+ * watched this way back off to flume.watch.recheck.
+ * 
+ * The files are spread over flume.tail.threads reader threads, each reading
+ * at most a turn's worth of a file before moving on to its next file. Lines
+ * are handed out through a buffer of flume.tail.buffer events.
  */
 public class TailSource extends EventSource.Base {
   private static final Logger LOG = LoggerFactory.getLogger(TailSource.class);
   public static final String A_TAILSRCFILE = "tailSrcFile";
 
+  public static final String A_LAG = "lagBytes";
+  public static final String A_MAX_LAG = "maxLagBytes";
+  public static final String A_FILES = "files";
+  public static final String A_BUFFERED = "bufferedEvents";
+  public static final String A_THREADS = "tailThreads";
+
   private static int thdCount = 0;
   private volatile boolean done = false;
 
   private final long sleepTime; // millis
-  final List<Cursor> cursors = new ArrayList<Cursor>();
-  private final List<Cursor> newCursors = new ArrayList<Cursor>();
-  private final List<Cursor> rmCursors = new ArrayList<Cursor>();
-
-  // We "queue" only allowing a single Event.
-  final SynchronousQueue<Event> sync = new SynchronousQueue<Event>();
-  private TailThread thd = null;
+  // All the files of this source. Each is read by exactly one tail thread.
+  final List<Cursor> cursors = new CopyOnWriteArrayList<Cursor>();
+  // Which tail thread reads a cursor, while open.
+  private final Map<Cursor, TailThread> owners = new ConcurrentHashMap<Cursor, TailThread>();
+
+  // Number of events put into sync, counted before they go in, so that it is
+  // never behind what a checkpoint has to wait for.
+  private final AtomicLong offered = new AtomicLong();
+  // Lines wait here to be handed out by next(). If flume.tail.buffer is 0
+  // this is a rendezvous that only lets a single Event through at a time.
+  final BlockingQueue<Event> sync = newBuffer(FlumeConfiguration.get()
+      .getTailBuffer(), offered);
+  private final int threadCount = Math.max(1, FlumeConfiguration.get()
+      .getTailThreads());
+  private List<TailThread> thds = null;
+  // Number of events taken out of sync.
+  private final AtomicLong taken = new AtomicLong();
+  // Number of events taken before the driver last came back for more. The
+  // driver only asks again once its sink has accepted what it was handed, so
+  // checkpoints wait for this rather than for taken.
+  private final AtomicLong released = new AtomicLong();
+
+  // null if checkpointing is disabled
+  final TailCheckpoints checkpoints = TailCheckpoints.get();
+  private final long checkpointPeriod = FlumeConfiguration.get()
+      .getTailCheckpointPeriod();
+
+  private final long idleMax = FlumeConfiguration.get().getTailIdleMax();
+  // null if the tailed files are only polled.
+  private final FileNotifier notifier = FileNotifier.get();
+  private final long recheck = FlumeConfiguration.get().getWatchRecheck();
+  // Absolute dir -> cursors of files in it, for routing notifications.
+  private final Map<File, List<Cursor>> watched = new ConcurrentHashMap<File, List<Cursor>>();
+  private final FileNotifier.Listener listener = new FileNotifier.Listener() {
+    @Override
+    public void changed(File dir, File f) {
+      List<Cursor> cs = watched.get(dir);
+      if (cs == null) {
+        return;
+      }
+      for (Cursor c : cs) {
+        if (f == null || f.getName().equals(c.file.getName())) {
+          c.dirty = true;
+          TailThread t = owners.get(c);
+          if (t != null) {
+            t.wakeUp();
+          }
+        }
+      }
+    }
+  };
 
   /**
    * Constructor for backwards compatibility.
@@ -154,10 +233,60 @@ public class TailSource extends EventSource.Base {
   }
 
   /**
-   * This is the main driver thread that runs through the file cursor list
-   * checking for updates and sleeping if there are none.
+   * The buffer between the tail threads and next(). Every put counts the event
+   * in offered first, and uncounts it if the put is interrupted.
+   */
+  static BlockingQueue<Event> newBuffer(int size, final AtomicLong offered) {
+    if (size <= 0) {
+      return new SynchronousQueue<Event>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void put(Event e) throws InterruptedException {
+          offered.incrementAndGet();
+          try {
+            super.put(e);
+          } catch (InterruptedException ie) {
+            offered.decrementAndGet();
+            throw ie;
+          }
+        }
+      };
+    }
+    return new ArrayBlockingQueue<Event>(size) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void put(Event e) throws InterruptedException {
+        offered.incrementAndGet();
+        try {
+          super.put(e);
+        } catch (InterruptedException ie) {
+          offered.decrementAndGet();
+          throw ie;
+        }
+      }
+    };
+  }
+
+  /**
+   * This is a driver thread that runs through its share of the file cursor
+   * list checking for updates and sleeping if there are none.
    */
   class TailThread extends Thread {
+    final List<Cursor> shard = new ArrayList<Cursor>();
+    private final List<Cursor> newCursors = new ArrayList<Cursor>();
+    private final List<Cursor> rmCursors = new ArrayList<Cursor>();
+    int load = 0; // cursors assigned to this thread, guarded by TailSource.this
+
+    private final Object wake = new Object();
+    private boolean changed = false; // guarded by wake
+
+    // Checkpoints taken but not yet recorded, and the number of events that
+    // must have been released before they can be.
+    private Map<Cursor, TailCheckpoints.Checkpoint> marks = null;
+    private long marksTaken = 0;
+    private long lastCheckpoint = 0;
 
     TailThread() {
       super("TailThread-" + thdCount++);
@@ -167,64 +296,229 @@ public class TailSource extends EventSource.Base {
     public void run() {
       try {
         // initialize based on initial settings.
-        for (Cursor c : cursors) {
+        for (Cursor c : shard) {
           c.initCursorPos();
+          watch(c);
         }
 
         while (!done) {
           synchronized (newCursors) {
-            cursors.addAll(newCursors);
+            for (Cursor c : newCursors) {
+              watch(c);
+            }
+            shard.addAll(newCursors);
             newCursors.clear();
           }
 
           synchronized (rmCursors) {
-            cursors.removeAll(rmCursors);
+            shard.removeAll(rmCursors);
             for (Cursor c : rmCursors) {
+              unwatch(c);
               c.flush();
+              if (checkpoints != null) {
+                if (marks != null) {
+                  marks.remove(c);
+                }
+                checkpoints.remove(c.file);
+              }
             }
             rmCursors.clear();
           }
 
+          // Each cursor reads at most a turn's worth of data, so busy files
+          // take turns with the others.
           boolean madeProgress = false;
-          for (Cursor c : cursors) {
+          long now = Clock.unixTime();
+          for (Cursor c : shard) {
+            if (!c.due(now)) {
+              continue;
+            }
             LOG.debug("Progress loop: " + c.file);
+            c.dirty = false;
             if (c.tailBody()) {
               madeProgress = true;
+              c.active();
+            } else {
+              c.idle(now, sleepTime, c.watched ? Math.max(recheck, idleMax)
+                  : idleMax);
+            }
+          }
+
+          if (checkpoints != null) {
+            if (marks != null && released.get() >= marksTaken) {
+              record();
+            }
+            if (marks == null
+                && Clock.unixTime() - lastCheckpoint >= checkpointPeriod) {
+              mark();
             }
           }
 
           if (!madeProgress) {
-            Clock.sleep(sleepTime);
+            waitForChange();
           }
         }
         LOG.debug("Tail got done flag");
       } catch (InterruptedException e) {
         LOG.error("Tail thread nterrupted: " + e.getMessage(), e);
       } finally {
+        for (Cursor c : shard) {
+          unwatch(c);
+        }
+        if (checkpoints != null) {
+          // lines still in the buffer, or handed out but never accepted by
+          // the sink, are dropped on close, so only record positions that
+          // everything read before has been released for.
+          if (marks != null && released.get() >= marksTaken) {
+            record();
+          }
+          mark();
+          if (released.get() >= marksTaken) {
+            record();
+          }
+        }
         LOG.info("TailThread has exited");
       }
+    }
 
+    /**
+     * Takes checkpoints of how far the cursors have put lines into sync.
+     * They are recorded once all of those lines have been released.
+     */
+    void mark() {
+      marks = new HashMap<Cursor, TailCheckpoints.Checkpoint>();
+      for (Cursor c : shard) {
+        try {
+          TailCheckpoints.Checkpoint cp = c.mark();
+          if (cp != null) {
+            marks.put(c, cp);
+          }
+        } catch (IOException e) {
+          LOG.warn("Unable to checkpoint tail of " + c.file, e);
+        }
+      }
+      // sync is FIFO and every event ahead of the marked lines was counted
+      // before it went in, so once this many events have been released all
+      // the lines before the marks have been.
+      marksTaken = offered.get();
+      lastCheckpoint = Clock.unixTime();
+    }
+
+    /**
+     * Records the marks taken and saves the checkpoints.
+     */
+    void record() {
+      for (Map.Entry<Cursor, TailCheckpoints.Checkpoint> e : marks.entrySet()) {
+        checkpoints.update(e.getKey().file, e.getValue());
+      }
+      marks = null;
+      try {
+        checkpoints.save();
+      } catch (IOException e) {
+        LOG.warn("Unable to save tail checkpoints", e);
+      }
+    }
+
+    void wakeUp() {
+      synchronized (wake) {
+        changed = true;
+        wake.notifyAll();
+      }
+    }
+
+    /**
+     * Sleeps for the poll period, or less if a watched file changed.
+     */
+    void waitForChange() throws InterruptedException {
+      if (watched.isEmpty()) {
+        Clock.sleep(sleepTime);
+        return;
+      }
+      synchronized (wake) {
+        if (!changed && !done) {
+          wake.wait(sleepTime);
+        }
+        changed = false;
+      }
     }
   }
 
+  static File parentDir(Cursor c) {
+    return c.file.getAbsoluteFile().getParentFile();
+  }
+
+  /**
+   * Starts routing change notifications of the cursor's file to it. Called
+   * from the tail thread that owns the cursor.
+   */
+  void watch(Cursor c) {
+    if (notifier == null) {
+      return;
+    }
+    File dir = parentDir(c);
+    synchronized (watched) {
+      List<Cursor> cs = watched.get(dir);
+      if (cs == null) {
+        if (!notifier.register(dir, listener)) {
+          return; // polled instead
+        }
+        cs = new CopyOnWriteArrayList<Cursor>();
+        watched.put(dir, cs);
+      }
+      cs.add(c);
+    }
+    c.watched = true;
+  }
+
   /**
-   * Add another file Cursor to tail concurrently.
+   * Stops routing change notifications to the cursor. Called from the tail
+   * thread that owns the cursor.
+   */
+  void unwatch(Cursor c) {
+    if (!c.watched) {
+      return;
+    }
+    c.watched = false;
+    File dir = parentDir(c);
+    synchronized (watched) {
+      List<Cursor> cs = watched.get(dir);
+      if (cs == null) {
+        return;
+      }
+      cs.remove(c);
+      if (cs.isEmpty()) {
+        watched.remove(dir);
+        notifier.unregister(dir, listener);
+      }
+    }
+  }
+
+  /**
+   * Add another file Cursor to tail concurrently. Once open, it goes to the
+   * tail thread with the fewest files.
    */
   synchronized void addCursor(Cursor cursor) {
     Preconditions.checkArgument(cursor != null);
+    cursors.add(cursor);
 
-    if (thd == null) {
-      cursors.add(cursor);
+    if (thds == null) {
       LOG.debug("Unstarted Tail has added cursor: " + cursor.file.getName());
+      return;
+    }
 
-    } else {
-      synchronized (newCursors) {
-        newCursors.add(cursor);
+    TailThread t = thds.get(0);
+    for (TailThread other : thds) {
+      if (other.load < t.load) {
+        t = other;
       }
-      LOG.debug("Tail added new cursor to new cursor list: "
-          + cursor.file.getName());
     }
-
+    t.load++;
+    owners.put(cursor, t);
+    synchronized (t.newCursors) {
+      t.newCursors.add(cursor);
+    }
+    LOG.debug("Tail added new cursor to new cursor list of " + t.getName()
+        + ": " + cursor.file.getName());
   }
 
   /**
@@ -232,30 +526,50 @@ public class TailSource extends EventSource.Base {
    */
   synchronized public void removeCursor(Cursor cursor) {
     Preconditions.checkArgument(cursor != null);
-    if (thd == null) {
-      cursors.remove(cursor);
-    } else {
-
-      synchronized (rmCursors) {
-        rmCursors.add(cursor);
-      }
+    cursors.remove(cursor);
+    if (thds == null) {
+      return;
     }
 
+    TailThread t = owners.remove(cursor);
+    if (t == null) {
+      return;
+    }
+    t.load--;
+    synchronized (t.rmCursors) {
+      t.rmCursors.add(cursor);
+    }
   }
 
   @Override
   public void close() throws IOException, InterruptedException {
     synchronized (this) {
       done = true;
-      if (thd == null) {
+      if (thds == null) {
         LOG.warn("TailSource double closed");
         return;
       }
-      while (thd.isAlive() ){
-        thd.join(100L);
-        thd.interrupt();
+      for (TailThread thd : thds) {
+        thd.wakeUp();
+      }
+      // The tail threads save their checkpoints on the way out, which an
+      // interrupt would abort, so they are only interrupted once the close
+      // timeout is up. Lines left in the buffer are dropped to unblock them.
+      long deadline = Clock.unixTime()
+          + FlumeConfiguration.get().getNodeCloseTimeout();
+      for (TailThread thd : thds) {
+        while (thd.isAlive() && Clock.unixTime() < deadline) {
+          while (sync.poll() != null) {
+          }
+          thd.join(100L);
+        }
+        while (thd.isAlive()) {
+          thd.interrupt();
+          thd.join(100L);
+        }
       }
-      thd = null;
+      thds = null;
+      owners.clear();
     }
   }
 
@@ -265,12 +579,16 @@ public class TailSource extends EventSource.Base {
    */
   @Override
   public Event next() throws IOException, InterruptedException {
+    // the driver is back, so the events it was handed before have been
+    // accepted by its sink.
+    released.set(taken.get());
     try {
       while (!done) {
-        // This blocks on the synchronized queue until a new event arrives.
+        // This blocks on the buffer until a new event arrives.
         Event e = sync.poll(100, TimeUnit.MILLISECONDS);
         if (e == null)
           continue; // nothing there, retry.
+        taken.incrementAndGet();
         updateEventProcessingStats(e);
         return e;
       }
@@ -281,13 +599,84 @@ public class TailSource extends EventSource.Base {
     }
   }
 
+  /**
+   * Hands out everything that is buffered, up to max events, blocking only
+   * for the first.
+   */
+  @Override
+  public int nextBatch(List<Event> events, int max) throws IOException,
+      InterruptedException {
+    Event first = next();
+    if (first == null) {
+      return 0;
+    }
+    events.add(first);
+    int start = events.size();
+    int drained = sync.drainTo(events, max - 1);
+    taken.addAndGet(drained);
+    for (int i = start; i < start + drained; i++) {
+      updateEventProcessingStats(events.get(i));
+    }
+    return drained + 1;
+  }
+
   @Override
   synchronized public void open() throws IOException {
-    if (thd != null) {
+    if (thds != null) {
       throw new IllegalStateException("Attempted to open tail source twice!");
     }
-    thd = new TailThread();
-    thd.start();
+    thds = new ArrayList<TailThread>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      thds.add(new TailThread());
+    }
+    // deal the files out to the threads.
+    int i = 0;
+    for (Cursor c : cursors) {
+      TailThread t = thds.get(i++ % threadCount);
+      t.shard.add(c);
+      t.load++;
+      owners.put(c, t);
+    }
+    for (TailThread t : thds) {
+      t.start();
+    }
+  }
+
+  /**
+   * Adds how far behind the ends of the tailed files this source is.
+   */
+  void addLagMetrics(ReportEvent rpt) {
+    long total = 0;
+    long max = 0;
+    for (Cursor c : cursors) {
+      long lag = c.getLag();
+      total += lag;
+      max = Math.max(max, lag);
+    }
+    rpt.setLongMetric(A_LAG, total);
+    rpt.setLongMetric(A_MAX_LAG, max);
+    rpt.setLongMetric(A_FILES, cursors.size());
+    rpt.setLongMetric(A_BUFFERED, sync.size());
+    rpt.setLongMetric(A_THREADS, threadCount);
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    ReportEvent rpt = super.getMetrics();
+    addLagMetrics(rpt);
+    return rpt;
+  }
+
+  /**
+   * The position and lag of each file, by path.
+   */
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    Map<String, Reportable> map = new HashMap<String, Reportable>();
+    for (Cursor c : cursors) {
+      map.put(c.getName(), c);
+    }
+    return map;
   }
 
   /**
@@ -25,8 +25,7 @@ import java.util.concurrent.PriorityBlockingQueue;
 
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TBinaryProtocol.Factory;
-import org.apache.thrift.server.TSaneThreadPoolServer;
-import org.apache.thrift.transport.TSaneServerSocket;
+import org.apache.thrift.server.TSaneServer;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +36,7 @@ import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.util.ThriftServer;
 import com.google.common.base.Preconditions;
 
 /**
@@ -58,7 +58,7 @@ public class PrioritizedThriftEventSource extends EventSource.Base {
       .getLogger(PrioritizedThriftEventSource.class);
   int port;
   ThriftFlumeEventServer svr;
-  TSaneThreadPoolServer server;
+  TSaneServer server;
 
   public static class EventQueue extends PriorityBlockingQueue<Event> {
 
@@ -126,11 +126,9 @@ public class PrioritizedThriftEventSource extends EventSource.Base {
           }, false));
       Factory protFactory = new TBinaryProtocol.Factory(true, true);
 
-      TSaneServerSocket serverTransport = new TSaneServerSocket(port);
-      server = new TSaneThreadPoolServer(processor, serverTransport,
-          protFactory);
-      LOG.info(String.format(
-          "Starting blocking thread pool server on port %d...", port));
+      server = ThriftServer.newEventServer(processor, port, protFactory, false);
+      LOG.info(String.format("Starting thrift event server on port %d...",
+          port));
 
       server.start();
 
@@ -18,7 +18,6 @@
 package com.cloudera.flume.handlers.thrift;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,9 +26,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.AttributeMap;
+import com.cloudera.flume.core.ByteBufferEvent;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.Event.Priority;
-import com.cloudera.flume.core.EventImpl;
 import com.google.common.base.Preconditions;
 
 /**
@@ -53,30 +53,32 @@ class ThriftEventConvertUtil {
   public static Event toFlumeEvent(ThriftFlumeEvent evt, boolean truncates) {
     Preconditions.checkArgument(evt != null, "ThriftFlumeEvent is null!");
 
-    byte[] body = convertBody(evt.getBody(), truncates);
+    ByteBuffer body = convertBody(evt.body, truncates);
     com.cloudera.flume.handlers.thrift.Priority p = evt.getPriority();
     p = (p == null) ? com.cloudera.flume.handlers.thrift.Priority.INFO : p;
     Map<String, byte[]> attrs = getAttrs(evt);
-    return new EventImpl(body, evt.getTimestamp(), toFlumePriority(p),
+    return new ByteBufferEvent(body, evt.getTimestamp(), toFlumePriority(p),
         evt.getNanos(), evt.getHost(), attrs);
   }
 
-  private static byte[] convertBody(byte[] buf, boolean truncates) {
+  /**
+   * Returns a view of the body's remaining bytes, truncated if allowed.
+   */
+  private static ByteBuffer convertBody(ByteBuffer buf, boolean truncates) {
     if (buf == null) {
       LOG.warn("Thrift Event had null body! returning empty body");
-      return new byte[0];
+      return ByteBuffer.allocate(0);
     }
 
+    ByteBuffer body = buf.duplicate();
     int maxSz = (int) FlumeConfiguration.get().getEventMaxSizeBytes();
-    if (buf.length > maxSz) {
+    if (body.remaining() > maxSz) {
       Preconditions.checkArgument(truncates,
           "Unexpected too long Thrift Event body: max is " + maxSz
-              + " but body was buf.length");
-      byte[] trunc = Arrays.copyOf(buf, maxSz);
-      return trunc;
+              + " but body was " + body.remaining());
+      body.limit(body.position() + maxSz);
     }
-    // normal case
-    return buf;
+    return body;
   }
 
   private static com.cloudera.flume.core.Event.Priority toFlumePriority(
@@ -131,17 +133,14 @@ class ThriftEventConvertUtil {
     ThriftFlumeEvent evt = new ThriftFlumeEvent();
     evt.timestamp = e.getTimestamp();
     evt.priority = toThriftPriority(e.getPriority());
-    ByteBuffer buf = ByteBuffer.wrap(e.getBody());
-    evt.body = buf;
+    evt.body = ByteBufferEvent.bodyBuffer(e);
     evt.nanos = e.getNanos();
     evt.host = e.getHost();
 
     Map<String, byte[]> tempMap = e.getAttrs();
     Map<String, ByteBuffer> returnMap = new HashMap<String, ByteBuffer>();
     for (String key : tempMap.keySet()) {
-      buf.clear();
-      buf = ByteBuffer.wrap(tempMap.get(key));
-      returnMap.put(key, buf);
+      returnMap.put(key, ByteBuffer.wrap(tempMap.get(key)));
     }
 
     evt.fields = returnMap;
@@ -150,15 +149,28 @@ class ThriftEventConvertUtil {
 
   private static Map<String, byte[]> getAttrs(ThriftFlumeEvent evt) {
     if (evt.fields == null) {
-      return new HashMap<String, byte[]>();
+      return new AttributeMap();
     }
     Map<String, ByteBuffer> tempMap = Collections.unmodifiableMap(evt.fields);
-    Map<String, byte[]> returnMap = new HashMap<String, byte[]>();
+    Map<String, byte[]> returnMap = new AttributeMap();
     for (String key : tempMap.keySet()) {
-      ByteBuffer buf = tempMap.get(key);
-      returnMap.put(key, buf.array());
+      returnMap.put(key, toBytes(tempMap.get(key)));
     }
     return returnMap;
   }
 
+  /**
+   * Returns the remaining bytes of buf, its backing array if that holds
+   * exactly those bytes and a copy otherwise.
+   */
+  static byte[] toBytes(ByteBuffer buf) {
+    if (buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0
+        && buf.remaining() == buf.array().length) {
+      return buf.array();
+    }
+    byte[] b = new byte[buf.remaining()];
+    buf.duplicate().get(b);
+    return b;
+  }
+
 }
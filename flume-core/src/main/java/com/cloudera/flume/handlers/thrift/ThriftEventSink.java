@@ -18,10 +18,16 @@
 package com.cloudera.flume.handlers.thrift;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
@@ -40,6 +46,20 @@ import com.cloudera.flume.reporter.ReportEvent;
 
 /**
  * This is a sink that sends events to a remote host/port using Thrift.
+ * 
+ * Batches are sent with appendBatch calls, which the server acknowledges.
+ * Up to window calls are outstanding at once: their requests are written
+ * back to back on the connection and the acks are read in order once the
+ * window is full, or on close. The first batch on a connection waits for its
+ * ack, and if the server doesn't know appendBatch, batches are sent as oneway
+ * appends like before.
+ * 
+ * A batch only counts as appended once it is acked, and a failure is thrown
+ * by the append or close that finds it. A batch the server refuses is
+ * dropped, as the server rejected its contents. Batches whose acks are lost
+ * with the connection are kept and sent again, in order, ahead of the next
+ * batch appended after that, also once the sink has been reopened. The batch
+ * of the call that throws is never kept, so the caller can retry it.
  */
 public class ThriftEventSink extends EventSink.Base {
 
@@ -48,20 +68,59 @@ public class ThriftEventSink extends EventSink.Base {
   final public static String A_SERVERHOST = "serverHost";
   final public static String A_SERVERPORT = "serverPort";
   final public static String A_SENTBYTES = "sentBytes";
+  final public static String A_BATCHES_ACKED = "batchesAcked";
+  final public static String A_BATCHES_OUTSTANDING = "batchesOutstanding";
 
   String host;
   int port;
   Client client;
   TTransport transport;
   TStatsTransport stats;
+  TProtocol protocol;
   boolean nonblocking;
+  final int window;
+
+  /**
+   * A batch and the seqid of the appendBatch call it was last sent with.
+   */
+  static class Batch {
+    final List<Event> events;
+    final List<ThriftFlumeEvent> tfes;
+    int seqid;
+
+    Batch(List<Event> events, List<ThriftFlumeEvent> tfes) {
+      this.events = events;
+      this.tfes = tfes;
+    }
+  }
+
+  // batches whose acks haven't been read yet, oldest first.
+  final LinkedList<Batch> outstanding = new LinkedList<Batch>();
+  // batches whose acks were lost, to be sent again in order.
+  final LinkedList<Batch> lost = new LinkedList<Batch>();
+  int seqid = 0;
+  // whether the first batch on this connection has been acked
+  boolean probed = false;
+  boolean batchSupported = true;
 
   AtomicLong sentBytes = new AtomicLong();
+  AtomicLong batchesAcked = new AtomicLong();
 
   public ThriftEventSink(String host, int port, boolean nonblocking) {
+    this(host, port, nonblocking, FlumeConfiguration.get()
+        .getThriftBatchWindow());
+  }
+
+  /**
+   * @param window
+   *          max outstanding appendBatch calls, 0 to only use oneway appends
+   */
+  public ThriftEventSink(String host, int port, boolean nonblocking,
+      int window) {
     this.host = host;
     this.port = port;
     this.nonblocking = nonblocking;
+    this.window = window;
   }
 
   public ThriftEventSink(String host, int port) {
@@ -72,6 +131,7 @@ public class ThriftEventSink extends EventSink.Base {
   public void append(Event e) throws IOException, InterruptedException {
     ThriftFlumeEvent tfe = ThriftEventConvertUtil.toThriftEvent(e);
     try {
+      resendLost();
       client.append(tfe);
       sentBytes.set(stats.getBytesWritten());
       super.append(e);
@@ -80,12 +140,199 @@ public class ThriftEventSink extends EventSink.Base {
     }
   }
 
+  /**
+   * Sends the batch and only samples the transport byte count once.
+   */
+  @Override
+  public void appendBatch(List<Event> events) throws IOException,
+      InterruptedException {
+    if (window <= 0 || !batchSupported) {
+      resendLost();
+      appendEach(events);
+      return;
+    }
+
+    List<ThriftFlumeEvent> tfes = new ArrayList<ThriftFlumeEvent>(events
+        .size());
+    for (Event e : events) {
+      tfes.add(ThriftEventConvertUtil.toThriftEvent(e));
+    }
+    Batch b = new Batch(events, tfes);
+    try {
+      resendLost();
+      if (!batchSupported) {
+        appendEach(events);
+        return;
+      }
+      while (outstanding.size() >= window) {
+        recvAck();
+      }
+      sendBatch(b);
+      outstanding.addLast(b);
+      if (!probed && !probe()) {
+        appendEach(events);
+      }
+      sentBytes.set(stats.getBytesWritten());
+    } catch (TException e1) {
+      connectionFailed();
+      lost.remove(b);
+      throw new IOException("Append failed " + e1.getMessage(), e1);
+    }
+  }
+
+  /**
+   * Sends each event of the batch as a oneway append.
+   */
+  void appendEach(List<Event> events) throws IOException {
+    try {
+      for (Event e : events) {
+        client.append(ThriftEventConvertUtil.toThriftEvent(e));
+      }
+      sentBytes.set(stats.getBytesWritten());
+      updateAppendStats(events);
+    } catch (TException e1) {
+      throw new IOException("Append failed " + e1.getMessage(), e1);
+    }
+  }
+
+  /**
+   * Sends the batches kept after a lost connection again, in order. A batch
+   * that can't be sent stays kept.
+   */
+  void resendLost() throws IOException {
+    try {
+      while (!lost.isEmpty()) {
+        Batch b = lost.getFirst();
+        if (window <= 0 || !batchSupported) {
+          appendEach(b.events);
+          lost.removeFirst();
+          continue;
+        }
+        while (outstanding.size() >= window) {
+          recvAck();
+        }
+        sendBatch(b);
+        lost.removeFirst();
+        outstanding.addLast(b);
+        if (!probed && !probe()) {
+          appendEach(b.events);
+        }
+      }
+    } catch (TException e1) {
+      connectionFailed();
+      throw new IOException("Append failed " + e1.getMessage(), e1);
+    }
+  }
+
+  /**
+   * Waits for the ack of the first batch on this connection, which is the only
+   * one outstanding. Returns false if the server doesn't know appendBatch, in
+   * which case the batch has not been appended.
+   */
+  boolean probe() throws TException, IOException {
+    try {
+      recvAck();
+    } catch (IOException e) {
+      if (!(e.getCause() instanceof TApplicationException)) {
+        throw e;
+      }
+      TApplicationException tae = (TApplicationException) e.getCause();
+      if (tae.getType() != TApplicationException.UNKNOWN_METHOD) {
+        throw e;
+      }
+      LOG.warn("Thrift server at {}:{} doesn't support appendBatch, "
+          + "sending single events instead", host, port);
+      batchSupported = false;
+      return false;
+    }
+    probed = true;
+    return true;
+  }
+
+  /**
+   * Writes an appendBatch call without waiting for its ack. The generated
+   * client can't be used for this, since it only accepts the reply to the
+   * last call it sent.
+   */
+  void sendBatch(Batch b) throws TException {
+    b.seqid = ++seqid;
+    protocol.writeMessageBegin(new TMessage("appendBatch", TMessageType.CALL,
+        b.seqid));
+    new ThriftFlumeEventServer.appendBatch_args(b.tfes).write(protocol);
+    protocol.writeMessageEnd();
+    protocol.getTransport().flush();
+  }
+
+  /**
+   * Reads the ack of the oldest outstanding appendBatch call and counts its
+   * batch. If the server refused the batch, the refusal is thrown as an
+   * IOException and the connection is still good. A TException means the
+   * connection is not, and the batch is still outstanding.
+   */
+  void recvAck() throws TException, IOException {
+    Batch b = outstanding.getFirst();
+    TMessage msg = protocol.readMessageBegin();
+    if (msg.type == TMessageType.EXCEPTION) {
+      TApplicationException x = TApplicationException.read(protocol);
+      protocol.readMessageEnd();
+      outstanding.removeFirst();
+      throw new IOException("Thrift server at " + host + ":" + port
+          + " failed a batch of " + b.events.size() + " events: "
+          + x.getMessage(), x);
+    }
+    if (msg.seqid != b.seqid) {
+      throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID,
+          "appendBatch ack " + msg.seqid + " doesn't match call " + b.seqid);
+    }
+    ThriftFlumeEventServer.appendBatch_result result =
+        new ThriftFlumeEventServer.appendBatch_result();
+    result.read(protocol);
+    protocol.readMessageEnd();
+    outstanding.removeFirst();
+    if (!result.isSetSuccess() || result.success != EventStatus.ACK) {
+      throw new IOException("Thrift server at " + host + ":" + port
+          + " failed to accept a batch of " + b.events.size() + " events: "
+          + (result.isSetSuccess() ? result.success : "unknown result"));
+    }
+    batchesAcked.incrementAndGet();
+    updateAppendStats(b.events);
+  }
+
+  /**
+   * The acks of the outstanding batches are lost with the connection, so they
+   * are all kept to be sent again, ahead of the batches already kept.
+   */
+  void connectionFailed() {
+    lost.addAll(0, outstanding);
+    outstanding.clear();
+  }
+
   @Override
   public void close() throws IOException {
     if (transport != null) {
+      IOException err = null;
+      // wait for the acks of the outstanding batches
+      while (!outstanding.isEmpty()) {
+        try {
+          recvAck();
+        } catch (TException e) {
+          connectionFailed();
+          err = (err == null) ? new IOException("Append failed "
+              + e.getMessage(), e) : err;
+        } catch (IOException e) {
+          err = (err == null) ? e : err;
+        }
+      }
+      if (!lost.isEmpty()) {
+        LOG.warn("ThriftEventSink closing with " + lost.size()
+            + " batches not acked, they are sent again if it is reopened");
+      }
       transport.close();
       transport = null;
       LOG.info("ThriftEventSink on port " + port + " closed");
+      if (err != null) {
+        throw err;
+      }
     }
   }
 
@@ -105,9 +352,12 @@ public class ThriftEventSink extends EventSink.Base {
         transport = stats;
       }
 
-      TProtocol protocol = new TBinaryProtocol(transport);
+      protocol = new TBinaryProtocol(transport);
       transport.open();
       client = new Client(protocol);
+      connectionFailed();
+      probed = false;
+      batchSupported = true;
       LOG.info("ThriftEventSink to {}:{} opened", host, port);
 
     } catch (TTransportException e) {
@@ -126,6 +376,9 @@ public class ThriftEventSink extends EventSink.Base {
     rpt.setStringMetric(A_SERVERHOST, host);
     rpt.setLongMetric(A_SERVERPORT, port);
     rpt.setLongMetric(A_SENTBYTES, sentBytes.get());
+    rpt.setLongMetric(A_BATCHES_ACKED, batchesAcked.get());
+    rpt.setLongMetric(A_BATCHES_OUTSTANDING, outstanding.size()
+        + lost.size());
     return rpt;
   }
 
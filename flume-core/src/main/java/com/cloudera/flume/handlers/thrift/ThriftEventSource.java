@@ -19,15 +19,13 @@
 package com.cloudera.flume.handlers.thrift;
 
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TBinaryProtocol.Factory;
-import org.apache.thrift.server.TSaneThreadPoolServer;
-import org.apache.thrift.transport.TSaneServerSocket;
+import org.apache.thrift.server.TSaneServer;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +36,9 @@ import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.rpc.IngestBuffer;
 import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.util.ThriftServer;
 import com.cloudera.util.Clock;
 import com.google.common.base.Preconditions;
 
@@ -64,9 +64,9 @@ public class ThriftEventSource extends EventSource.Base {
 
   final int port;
   final ThriftFlumeEventServer svr;
-  TSaneThreadPoolServer server;
+  TSaneServer server;
 
-  final BlockingQueue<Event> q;
+  final IngestBuffer q;
   final AtomicLong enqueued = new AtomicLong();
   final AtomicLong dequeued = new AtomicLong();
   final AtomicLong bytesIn = new AtomicLong();
@@ -80,7 +80,7 @@ public class ThriftEventSource extends EventSource.Base {
   public ThriftEventSource(int port, int qsize, boolean truncated) {
     this.port = port;
     this.svr = new ThriftFlumeEventServer();
-    this.q = new LinkedBlockingQueue<Event>(qsize);
+    this.q = new IngestBuffer(qsize);
     this.shouldTruncate = truncated;
   }
 
@@ -97,13 +97,14 @@ public class ThriftEventSource extends EventSource.Base {
     rpt.setLongMetric(A_ENQUEUED, enqueued.get());
     rpt.setLongMetric(A_DEQUEUED, dequeued.get());
     rpt.setLongMetric(A_BYTES_IN, server.getBytesReceived());
+    rpt.merge(q.getMetrics());
     return rpt;
   }
 
   /**
-   * This constructor allows the for an arbitrary blocking queue implementation.
+   * This constructor allows for an arbitrarily sized ingest buffer.
    */
-  public ThriftEventSource(int port, BlockingQueue<Event> q, boolean truncated) {
+  public ThriftEventSource(int port, IngestBuffer q, boolean truncated) {
     Preconditions.checkNotNull(q);
     this.port = port;
     this.svr = new ThriftFlumeEventServer();
@@ -120,7 +121,7 @@ public class ThriftEventSource extends EventSource.Base {
    */
   void enqueue(Event e) throws IOException {
     try {
-      q.put(e);
+      q.put(ThriftServer.clientKey(), e);
       enqueued.getAndIncrement();
     } catch (InterruptedException e1) {
       LOG.error("blocked append was interrupted", e1);
@@ -128,6 +129,16 @@ public class ThriftEventSource extends EventSource.Base {
     }
   }
 
+  void enqueueAll(List<Event> events) throws IOException {
+    try {
+      q.putAll(ThriftServer.clientKey(), events);
+      enqueued.getAndAdd(events.size());
+    } catch (InterruptedException e1) {
+      LOG.error("blocked append was interrupted", e1);
+      throw new IOException(e1);
+    }
+  }
+
   @Override
   synchronized public void open() throws IOException {
     try {
@@ -139,14 +150,19 @@ public class ThriftEventSource extends EventSource.Base {
               enqueue(e);
               super.append(e);
             }
+
+            @Override
+            public void appendBatch(List<Event> events) throws IOException,
+                InterruptedException {
+              enqueueAll(events);
+              updateAppendStats(events);
+            }
           }, shouldTruncate));
       Factory protFactory = new TBinaryProtocol.Factory(true, true);
 
-      TSaneServerSocket serverTransport = new TSaneServerSocket(port);
-      server = new TSaneThreadPoolServer(processor, serverTransport,
-          protFactory);
-      LOG.info(String.format(
-          "Starting blocking thread pool server on port %d...", port));
+      server = ThriftServer.newEventServer(processor, port, protFactory, false);
+      LOG.info(String.format("Starting thrift event server on port %d...",
+          port));
 
       server.start();
       this.closed = false;
@@ -175,7 +191,7 @@ public class ThriftEventSource extends EventSource.Base {
     // TODO (jon) parameterize queue drain max sleep is one minute
     long maxSleep = MAX_CLOSE_SLEEP;
     long start = Clock.unixTime();
-    while (q.peek() != null) {
+    while (!q.isEmpty()) {
       if (Clock.unixTime() - start > maxSleep) {
         if (sz == q.size()) {
           // no progress made, timeout and close it.
@@ -213,17 +229,38 @@ public class ThriftEventSource extends EventSource.Base {
         }
       }
       // return the event
-      synchronized (this) {
-        dequeued.getAndIncrement();
-        updateEventProcessingStats(e);
-        return e;
-      }
+      dequeued.getAndIncrement();
+      updateEventProcessingStats(e);
+      return e;
     } catch (InterruptedException e) {
       throw new IOException("Waiting for queue element was interrupted! "
           + e.getMessage(), e);
     }
   }
 
+  /**
+   * Blocks for the first event and then drains up to max - 1 more events that
+   * are already enqueued.
+   */
+  @Override
+  public int nextBatch(List<Event> events, int max) throws IOException {
+    Preconditions.checkArgument(max > 0, "batch max must be positive");
+    Event first = next();
+    if (first == null) {
+      return 0;
+    }
+    events.add(first);
+    int start = events.size();
+    int drained = q.drainTo(events, max - 1);
+    synchronized (this) {
+      dequeued.getAndAdd(drained);
+      for (int i = start; i < start + drained; i++) {
+        updateEventProcessingStats(events.get(i));
+      }
+    }
+    return drained + 1;
+  }
+
   public static SourceBuilder builder() {
     return new SourceBuilder() {
       @Override
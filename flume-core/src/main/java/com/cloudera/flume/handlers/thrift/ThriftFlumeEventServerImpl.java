@@ -18,11 +18,14 @@
 package com.cloudera.flume.handlers.thrift;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.handlers.hdfs.WriteableEvent;
 import com.cloudera.flume.handlers.thrift.ThriftFlumeEventServer.Iface;
@@ -53,6 +56,35 @@ class ThriftFlumeEventServerImpl implements Iface {
     }
   }
 
+  /**
+   * Converts the whole batch and hands it to the sink in one call. The status
+   * tells the client whether the sink accepted it.
+   */
+  @Override
+  public EventStatus appendBatch(List<ThriftFlumeEvent> evts)
+      throws TException {
+    Preconditions.checkState(sink != null);
+    Preconditions.checkNotNull(evts);
+    try {
+      List<Event> events = new ArrayList<Event>(evts.size());
+      for (ThriftFlumeEvent evt : evts) {
+        events.add(ThriftEventConvertUtil.toFlumeEvent(evt, truncates));
+      }
+      sink.appendBatch(events);
+      return EventStatus.ACK;
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Rejected batch of " + evts.size() + " events: "
+          + e.getMessage());
+      return EventStatus.ERR;
+    } catch (IOException e) {
+      LOG.warn("Failed to append batch of " + evts.size() + " events", e);
+      return EventStatus.ERR;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return EventStatus.ERR;
+    }
+  }
+
   @Override
   public void close() throws TException {
     try {
@@ -275,6 +275,7 @@ public class FlumeMaster implements Reportable {
         .getReportServerPort());
 
     ReportManager.get().add(this);
+    ReportManager.get().add(ackman);
     try {
       controlServer.serve();
       configServer.serve();
@@ -302,6 +303,7 @@ public class FlumeMaster implements Reportable {
           while (true) {
             Thread.sleep(FlumeConfiguration.get().getConfigHeartbeatPeriod());
             statman.checkup();
+            ackman.expire();
           }
         } catch (InterruptedException e) {
           LOG.error("Reaper thread unexpectedly interrupted:" + e.getMessage());
@@ -17,7 +17,13 @@
  */
 package com.cloudera.flume.master;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -33,7 +39,9 @@ import com.cloudera.util.Pair;
 
 /**
  * An implementation of an AckManager that uses Gossip to send acknowledgements
- * to other servers.
+ * to other servers. Acks are collected and sent as one gossip message per
+ * gossip round (or every MAX_BATCH acks), so the number of messages and
+ * digests gossiped grows with time rather than with the number of acks.
  */
 public class GossipedMasterAckManager extends MasterAckManager implements
     MessageReceiver<GossipMulticast.GossipMessage> {
@@ -43,6 +51,13 @@ public class GossipedMasterAckManager extends MasterAckManager implements
   final Group group;
   final int port;
 
+  static final int MAX_BATCH = 1000;
+  // acks acknowledged here that have not been gossiped yet. This has its own
+  // lock so the gossip thread never waits on the ack manager, which is held
+  // while stop() joins that thread.
+  final Object batchLock = new Object();
+  List<String> batch = new ArrayList<String>();
+
   GossipedMasterAckManager(FlumeConfiguration conf) {
     this(conf.getConfigMasterGossipHostsList(), conf.getMasterGossipPort(),
         conf.getMasterGossipMaxAgeMs());
@@ -58,6 +73,12 @@ public class GossipedMasterAckManager extends MasterAckManager implements
     // TODO(henry) choose the interface from config
     gossip = new GossipMulticast(group, new TCPNodeId("0.0.0.0", port),
         maxAgeMs);
+    gossip.registerRoundHook(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    });
   }
 
   /**
@@ -81,13 +102,83 @@ public class GossipedMasterAckManager extends MasterAckManager implements
 
   synchronized public void acknowledge(String ackid) {
     super.acknowledge(ackid);
-    gossip.sendToGroup(group, ackid.getBytes());
+    synchronized (batchLock) {
+      batch.add(ackid);
+      if (batch.size() >= MAX_BATCH) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Gossips all the acks acknowledged here since the last flush as a single
+   * message.
+   */
+  void flush() {
+    synchronized (batchLock) {
+      if (batch.isEmpty()) {
+        return;
+      }
+      try {
+        gossip.sendToGroup(group, encode(batch));
+      } catch (IOException e) {
+        // writing to a byte array doesn't fail
+        throw new IllegalStateException(e);
+      }
+      batch = new ArrayList<String>();
+    }
+  }
+
+  // Batched messages start with MAGIC and then VERSION. Older masters gossip
+  // each ack as the bare bytes of its tag, and tags never start with a NUL, so
+  // a message that doesn't start with MAGIC is one legacy ack.
+  static final byte MAGIC = 0;
+  static final byte VERSION = 1;
+
+  static byte[] encode(List<String> ackids) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    out.writeByte(MAGIC);
+    out.writeByte(VERSION);
+    out.writeInt(ackids.size());
+    for (String ackid : ackids) {
+      out.writeUTF(ackid);
+    }
+    out.close();
+    return baos.toByteArray();
+  }
+
+  static List<String> decode(byte[] msg) throws IOException {
+    if (msg.length == 0 || msg[0] != MAGIC) {
+      // legacy single ack message
+      return Collections.singletonList(new String(msg));
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(msg));
+    in.readByte(); // MAGIC
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unknown ack batch version " + version);
+    }
+    int sz = in.readInt();
+    List<String> ackids = new ArrayList<String>(sz);
+    for (int i = 0; i < sz; i++) {
+      ackids.add(in.readUTF());
+    }
+    return ackids;
   }
 
   @Override
   synchronized public void receiveMessage(GossipMessage msg) {
-    String ackid = new String(msg.getContents());
-    LOG.info("Received ACK at " + port + " from gossip " + ackid);
-    super.acknowledge(new String(msg.getContents()));
+    List<String> ackids;
+    try {
+      ackids = decode(msg.getContents());
+    } catch (IOException e) {
+      LOG.warn("Dropping malformed ack batch from gossip", e);
+      return;
+    }
+    LOG.info("Received " + ackids.size() + " ACKs at " + port + " from gossip");
+    for (String ackid : ackids) {
+      super.acknowledge(ackid);
+    }
   }
 }
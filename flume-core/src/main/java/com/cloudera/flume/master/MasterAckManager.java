@@ -18,55 +18,166 @@
 package com.cloudera.flume.master;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.reporter.ReportUtil;
+import com.cloudera.flume.reporter.Reportable;
+import com.cloudera.util.Clock;
+
 /**
  * This is a master side ack tag manager.
+ * 
+ * Acks are kept in a fixed number of shards picked by the hash of the ack id,
+ * each with its own lock, so collectors acknowledging and agents checking
+ * rarely contend. Each shard keeps its acks in arrival order, so acks that
+ * were never checked (the agent gave up and retransmitted, or went away) are
+ * aged off by looking only at the oldest entries.
  */
-public class MasterAckManager {
+public class MasterAckManager implements Reportable {
   static final Logger LOG = LoggerFactory.getLogger(MasterAckManager.class);
 
-  Set<String> acked = new HashSet<String>();
+  public static final String A_ACKS = "acks";
+  public static final String A_OLDEST_AGE = "oldestAckAgeMs";
+  public static final String A_ACKNOWLEDGED = "acknowledged";
+  public static final String A_CHECKED = "checkedAcked";
+  public static final String A_EXPIRED = "expired";
+
+  static final int SHARDS = 16; // power of 2
 
-  synchronized public void acknowledge(String ackid) {
-    acked.add(ackid);
+  /**
+   * Ack ids mapped to their arrival time, oldest first.
+   */
+  @SuppressWarnings("serial")
+  static class Shard extends LinkedHashMap<String, Long> {
   }
 
-  synchronized public boolean check(String ackid) {
+  final Shard[] shards = new Shard[SHARDS];
+  final long maxAge;
 
-    boolean committed = acked.contains(ackid);
-    if (committed) {
-      // For now, just keep all of them
+  final AtomicLong acknowledged = new AtomicLong();
+  final AtomicLong checked = new AtomicLong();
+  final AtomicLong expired = new AtomicLong();
 
-      acked.remove(ackid);
+  public MasterAckManager() {
+    this(FlumeConfiguration.get().getMasterAckMaxAge());
+  }
+
+  /**
+   * Acks that are not checked within maxAge ms are dropped.
+   */
+  public MasterAckManager(long maxAge) {
+    this.maxAge = maxAge;
+    for (int i = 0; i < SHARDS; i++) {
+      shards[i] = new Shard();
+    }
+  }
 
-      // TODO (jon) age off
+  Shard shard(String ackid) {
+    int h = ackid.hashCode();
+    h ^= (h >>> 16);
+    return shards[h & (SHARDS - 1)];
+  }
 
-      // LOG.debug("Master removed " + ackid + " from tracked acks");
+  public void acknowledge(String ackid) {
+    Shard s = shard(ackid);
+    long now = Clock.unixTime();
+    synchronized (s) {
+      s.remove(ackid); // a repeated ack moves to the back
+      s.put(ackid, now);
+      expire(s, now);
+    }
+    acknowledged.incrementAndGet();
+  }
 
+  public boolean check(String ackid) {
+    Shard s = shard(ackid);
+    boolean committed;
+    synchronized (s) {
       // this is destructive, but minimizes state.
       // There is a failure case here that potentially causes duplicates.
+      committed = s.remove(ackid) != null;
+    }
+    if (committed) {
+      checked.incrementAndGet();
     }
     return committed;
+  }
 
+  /**
+   * Checks a batch of ack ids, and returns the ones that have been
+   * acknowledged. Like check, this removes them.
+   */
+  public List<String> check(List<String> ackids) {
+    List<String> done = new ArrayList<String>();
+    for (String ackid : ackids) {
+      if (check(ackid)) {
+        done.add(ackid);
+      }
+    }
+    return done;
+  }
+
+  /**
+   * Drops the acks of shard s that are older than maxAge. Must be called with
+   * the shard's lock held.
+   */
+  void expire(Shard s, long now) {
+    Iterator<Entry<String, Long>> it = s.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<String, Long> e = it.next();
+      if (now - e.getValue() <= maxAge) {
+        break; // the rest are younger
+      }
+      it.remove();
+      expired.incrementAndGet();
+      LOG.debug("Ack " + e.getKey() + " expired without being checked");
+    }
+  }
+
+  /**
+   * Drops all acks that are older than the max age, also from shards that do
+   * not get new acks.
+   */
+  public void expire() {
+    long now = Clock.unixTime();
+    for (Shard s : shards) {
+      synchronized (s) {
+        expire(s, now);
+      }
+    }
   }
 
   /**
    * This method returns a copy of the current outstanding and completed ackIds
    * This method is currently only used in tests.
    */
-  synchronized public Set<String> getPending() {
-    return new HashSet<String>(acked);
+  public Set<String> getPending() {
+    Set<String> pending = new HashSet<String>();
+    for (Shard s : shards) {
+      synchronized (s) {
+        pending.addAll(s.keySet());
+      }
+    }
+    return pending;
   }
 
   public void dumpLog() {
     LOG.info("dumping ack manager state");
 
-    for (String s : acked) {
+    for (String s : getPending()) {
       LOG.info(" " + s);
     }
   }
@@ -78,4 +189,37 @@ public class MasterAckManager {
   public void stop() {
     // Does nothing
   }
+
+  @Override
+  public String getName() {
+    return "MasterAckManager";
+  }
+
+  @Override
+  public ReportEvent getMetrics() {
+    long now = Clock.unixTime();
+    long size = 0;
+    long oldest = now;
+    for (Shard s : shards) {
+      synchronized (s) {
+        size += s.size();
+        if (!s.isEmpty()) {
+          oldest = Math.min(oldest, s.values().iterator().next());
+        }
+      }
+    }
+
+    ReportEvent rpt = new ReportEvent(getName());
+    rpt.setLongMetric(A_ACKS, size);
+    rpt.setLongMetric(A_OLDEST_AGE, now - oldest);
+    rpt.setLongMetric(A_ACKNOWLEDGED, acknowledged.get());
+    rpt.setLongMetric(A_CHECKED, checked.get());
+    rpt.setLongMetric(A_EXPIRED, expired.get());
+    return rpt;
+  }
+
+  @Override
+  public Map<String, Reportable> getSubMetrics() {
+    return ReportUtil.noChildren();
+  }
 }
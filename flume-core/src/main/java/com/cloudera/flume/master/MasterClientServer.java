@@ -19,8 +19,12 @@
 package com.cloudera.flume.master;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 
 import org.slf4j.Logger;
@@ -126,6 +130,64 @@ public class MasterClientServer {
     return configChanged;
   }
 
+  /**
+   * Handles a heartbeat for all the logical nodes of a physical node in one
+   * pass. chokeMapHash is the hashCode of the choke map the node has; the
+   * choke map is only sent back if the master's one is different.
+   */
+  public MultiHeartbeat.Reply heartbeatAll(String physicalNode,
+      String clienthost, List<MultiHeartbeat.Node> nodes, int chokeMapHash) {
+    ConfigurationManager specMan = master.getSpecMan();
+
+    // sanity check with physicalnode, see heartbeat.
+    List<String> lns = specMan.getLogicalNode(physicalNode);
+    for (MultiHeartbeat.Node n : nodes) {
+      if (lns == null || !lns.contains(n.logicalNode)) {
+        if (physicalNode.equals(n.logicalNode)) {
+          specMan.addLogicalNode(physicalNode, n.logicalNode);
+          lns = specMan.getLogicalNode(physicalNode);
+        }
+        LOG.warn("Recieved heartbeat from node '" + physicalNode + "/"
+            + n.logicalNode + "' that is not be set by master ");
+      }
+    }
+    List<String> logicalNodes = (lns == null) ? new ArrayList<String>()
+        : new ArrayList<String>(lns);
+
+    Set<String> changed = master.getStatMan().updateHeartbeatStatuses(
+        clienthost, physicalNode, nodes);
+    Map<String, FlumeConfigData> configs = new HashMap<String, FlumeConfigData>();
+    Set<String> reported = new HashSet<String>();
+    for (MultiHeartbeat.Node n : nodes) {
+      reported.add(n.logicalNode);
+      FlumeConfigData cfg = specMan.getConfig(n.logicalNode);
+      if (cfg == null) {
+        continue;
+      }
+      // version sent by node is older than current, send it to force config
+      // upgrade
+      if (changed.contains(n.logicalNode) || n.version < cfg.getTimestamp()) {
+        configs.put(n.logicalNode, cfg);
+      }
+    }
+    // logical nodes the physical node does not have yet get spawned with
+    // their config
+    for (String ln : logicalNodes) {
+      if (!reported.contains(ln)) {
+        FlumeConfigData cfg = specMan.getConfig(ln);
+        if (cfg != null) {
+          configs.put(ln, cfg);
+        }
+      }
+    }
+
+    Map<String, Integer> chokeMap = specMan.getChokeMap(physicalNode);
+    if (chokeMap != null && chokeMap.hashCode() == chokeMapHash) {
+      chokeMap = null; // unchanged
+    }
+    return new MultiHeartbeat.Reply(logicalNodes, configs, chokeMap);
+  }
+
   public void acknowledge(String ackid) {
     master.getAckMan().acknowledge(ackid);
   }
@@ -134,6 +196,10 @@ public class MasterClientServer {
     return master.getAckMan().check(ackid);
   }
 
+  public List<String> checkAcks(List<String> ackids) {
+    return master.getAckMan().check(ackids);
+  }
+
   /**
    * Adds a set of reports to the singleton ReportManager, after wrapping them
    * in Reportable objects.
@@ -32,6 +32,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.avro.AvroFlumeConfigData;
+import com.cloudera.flume.conf.avro.AvroHeartbeatReply;
+import com.cloudera.flume.conf.avro.AvroLogicalNodeStatus;
 import com.cloudera.flume.conf.avro.FlumeNodeState;
 import com.cloudera.flume.reporter.server.avro.AvroFlumeReport;
 import com.cloudera.flume.conf.FlumeConfigData;
@@ -88,6 +90,18 @@ public class MasterClientServerAvro implements AvroFlumeClientServer, RPCServer
         clienthost.toString(), stateFromAvro(s), version);
   }
 
+  public AvroHeartbeatReply heartbeatAll(CharSequence physicalNode,
+      CharSequence clienthost, List<AvroLogicalNodeStatus> nodes,
+      int chokeMapHash) throws AvroRemoteException {
+    List<MultiHeartbeat.Node> ns = new ArrayList<MultiHeartbeat.Node>(nodes
+        .size());
+    for (AvroLogicalNodeStatus n : nodes) {
+      ns.add(nodeFromAvro(n));
+    }
+    return replyToAvro(delegate.heartbeatAll(physicalNode.toString(),
+        clienthost.toString(), ns, chokeMapHash));
+  }
+
   public java.lang.Void acknowledge(CharSequence ackid)
       throws AvroRemoteException {
     delegate.acknowledge(ackid.toString());
@@ -98,6 +112,15 @@ public class MasterClientServerAvro implements AvroFlumeClientServer, RPCServer
     return delegate.checkAck(ackid.toString());
   }
 
+  public List<CharSequence> checkAcks(List<CharSequence> ackids)
+      throws AvroRemoteException {
+    List<String> in = new ArrayList<String>(ackids.size());
+    for (CharSequence ackid : ackids) {
+      in.add(ackid.toString());
+    }
+    return new ArrayList<CharSequence>(delegate.checkAcks(in));
+  }
+
   public java.lang.Void putReports(Map<CharSequence, AvroFlumeReport> reports)
       throws AvroRemoteException {
     Preconditions.checkNotNull(reports,
@@ -199,6 +222,53 @@ public class MasterClientServerAvro implements AvroFlumeClientServer, RPCServer
     }
   }
 
+  public static AvroLogicalNodeStatus nodeToAvro(MultiHeartbeat.Node in) {
+    AvroLogicalNodeStatus out = new AvroLogicalNodeStatus();
+    out.logicalNode = in.logicalNode;
+    out.state = stateToAvro(in.state);
+    out.version = in.version;
+    return out;
+  }
+
+  public static MultiHeartbeat.Node nodeFromAvro(AvroLogicalNodeStatus in) {
+    return new MultiHeartbeat.Node(in.logicalNode.toString(),
+        stateFromAvro(in.state), in.version);
+  }
+
+  public static AvroHeartbeatReply replyToAvro(MultiHeartbeat.Reply in) {
+    AvroHeartbeatReply out = new AvroHeartbeatReply();
+    out.logicalNodes = new ArrayList<CharSequence>(in.logicalNodes);
+    out.configs = new HashMap<CharSequence, AvroFlumeConfigData>();
+    for (Entry<String, FlumeConfigData> e : in.configs.entrySet()) {
+      out.configs.put(e.getKey(), configToAvro(e.getValue()));
+    }
+    out.chokeMapChanged = in.chokeMap != null;
+    out.chokeMap = new HashMap<CharSequence, Integer>();
+    if (in.chokeMap != null) {
+      out.chokeMap.putAll(in.chokeMap);
+    }
+    return out;
+  }
+
+  public static MultiHeartbeat.Reply replyFromAvro(AvroHeartbeatReply in) {
+    List<String> lns = new ArrayList<String>(in.logicalNodes.size());
+    for (CharSequence ln : in.logicalNodes) {
+      lns.add(ln.toString());
+    }
+    Map<String, FlumeConfigData> configs = new HashMap<String, FlumeConfigData>();
+    for (Entry<CharSequence, AvroFlumeConfigData> e : in.configs.entrySet()) {
+      configs.put(e.getKey().toString(), configFromAvro(e.getValue()));
+    }
+    Map<String, Integer> chokeMap = null;
+    if (in.chokeMapChanged) {
+      chokeMap = new HashMap<String, Integer>();
+      for (Entry<CharSequence, Integer> e : in.chokeMap.entrySet()) {
+        chokeMap.put(e.getKey().toString(), e.getValue());
+      }
+    }
+    return new MultiHeartbeat.Reply(lns, configs, chokeMap);
+  }
+
   public static AvroFlumeConfigData configToAvro(FlumeConfigData in) {
     if (in == null) {
       return null;
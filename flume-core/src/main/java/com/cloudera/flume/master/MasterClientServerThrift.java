@@ -19,6 +19,7 @@
 package com.cloudera.flume.master;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,8 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer;
 import com.cloudera.flume.conf.thrift.ThriftFlumeConfigData;
+import com.cloudera.flume.conf.thrift.ThriftHeartbeatReply;
+import com.cloudera.flume.conf.thrift.ThriftLogicalNodeStatus;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.thrift.FlumeNodeState;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer.Iface;
@@ -76,6 +79,18 @@ public class MasterClientServerThrift extends ThriftServer implements
         stateFromThrift(s), version);
   }
 
+  public ThriftHeartbeatReply heartbeatAll(String physicalNode,
+      String clienthost, List<ThriftLogicalNodeStatus> nodes, int chokeMapHash)
+      throws TException {
+    List<MultiHeartbeat.Node> ns = new ArrayList<MultiHeartbeat.Node>(nodes
+        .size());
+    for (ThriftLogicalNodeStatus n : nodes) {
+      ns.add(nodeFromThrift(n));
+    }
+    return replyToThrift(delegate.heartbeatAll(physicalNode, clienthost, ns,
+        chokeMapHash));
+  }
+
   public void acknowledge(String ackid) throws TException {
     delegate.acknowledge(ackid);
   }
@@ -84,6 +99,10 @@ public class MasterClientServerThrift extends ThriftServer implements
     return delegate.checkAck(ackid);
   }
 
+  public List<String> checkAcks(List<String> ackids) throws TException {
+    return delegate.checkAcks(ackids);
+  }
+
   public void putReports(Map<String, ThriftFlumeReport> reports) throws TException {
     Preconditions.checkNotNull(reports,
         "putReports called with null report map");
@@ -168,6 +187,37 @@ public class MasterClientServerThrift extends ThriftServer implements
     return out;
   }
 
+  public static ThriftLogicalNodeStatus nodeToThrift(MultiHeartbeat.Node in) {
+    return new ThriftLogicalNodeStatus(in.logicalNode,
+        stateToThrift(in.state), in.version);
+  }
+
+  public static MultiHeartbeat.Node nodeFromThrift(ThriftLogicalNodeStatus in) {
+    return new MultiHeartbeat.Node(in.logicalNode, stateFromThrift(in.state),
+        in.version);
+  }
+
+  public static ThriftHeartbeatReply replyToThrift(MultiHeartbeat.Reply in) {
+    Map<String, ThriftFlumeConfigData> configs = new HashMap<String, ThriftFlumeConfigData>();
+    for (Entry<String, FlumeConfigData> e : in.configs.entrySet()) {
+      configs.put(e.getKey(), configToThrift(e.getValue()));
+    }
+    boolean chokeMapChanged = in.chokeMap != null;
+    Map<String, Integer> chokeMap = chokeMapChanged ? in.chokeMap
+        : new HashMap<String, Integer>();
+    return new ThriftHeartbeatReply(in.logicalNodes, configs,
+        chokeMapChanged, chokeMap);
+  }
+
+  public static MultiHeartbeat.Reply replyFromThrift(ThriftHeartbeatReply in) {
+    Map<String, FlumeConfigData> configs = new HashMap<String, FlumeConfigData>();
+    for (Entry<String, ThriftFlumeConfigData> e : in.configs.entrySet()) {
+      configs.put(e.getKey(), configFromThrift(e.getValue()));
+    }
+    return new MultiHeartbeat.Reply(in.logicalNodes, configs,
+        in.chokeMapChanged ? in.chokeMap : null);
+  }
+
   /**
    * Converts a flume master StatusManager NodeState enum to a thrift generated
    * NodeStatus enum value.
@@ -0,0 +1,77 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.master;
+
+import java.util.List;
+import java.util.Map;
+
+import com.cloudera.flume.conf.FlumeConfigData;
+import com.cloudera.flume.master.StatusManager.NodeState;
+
+/**
+ * The data of a heartbeat for all the logical nodes of a physical node. A
+ * node sends the state of each of its logical nodes in one rpc and gets back
+ * everything it used to ask for with separate getLogicalNodes, getConfig and
+ * getChokeMap calls.
+ */
+public class MultiHeartbeat {
+
+  /**
+   * The state and configuration version of one logical node.
+   */
+  public static class Node {
+    public final String logicalNode;
+    public final NodeState state;
+    public final long version;
+
+    public Node(String logicalNode, NodeState state, long version) {
+      this.logicalNode = logicalNode;
+      this.state = state;
+      this.version = version;
+    }
+  }
+
+  /**
+   * The master's answer to a multi node heartbeat.
+   */
+  public static class Reply {
+    /**
+     * All the logical nodes the master maps to the physical node.
+     */
+    public final List<String> logicalNodes;
+
+    /**
+     * Configurations of the heartbeating logical nodes that need a new one,
+     * and of the mapped logical nodes that were not in the heartbeat. Nodes
+     * the master has no configuration for are left out.
+     */
+    public final Map<String, FlumeConfigData> configs;
+
+    /**
+     * The choke map of the physical node, or null if it did not change.
+     */
+    public final Map<String, Integer> chokeMap;
+
+    public Reply(List<String> logicalNodes,
+        Map<String, FlumeConfigData> configs, Map<String, Integer> chokeMap) {
+      this.logicalNodes = logicalNodes;
+      this.configs = configs;
+      this.chokeMap = chokeMap;
+    }
+  }
+}
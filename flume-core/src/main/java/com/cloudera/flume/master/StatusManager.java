@@ -20,7 +20,10 @@ package com.cloudera.flume.master;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Map.Entry;
@@ -88,33 +91,58 @@ public class StatusManager implements Reportable {
 
   public boolean updateHeartbeatStatus(String host, String physicalNode,
       String logicalNode, NodeState stat, long version) {
-    LOG.debug("Heartbeat from host:" + host + " logicalnode:" + logicalNode
-        + " (" + stat + "," + new Date(version) + ")");
+    synchronized (statuses) {
+      return updateStatus(host, physicalNode, logicalNode, stat, version);
+    }
+  }
 
-    boolean configChanged = false;
+  /**
+   * Updates the status of all the logical nodes in a multi node heartbeat
+   * while holding the lock once. Returns the logical nodes that were seen for
+   * the first time, which need their configuration.
+   */
+  public Set<String> updateHeartbeatStatuses(String host, String physicalNode,
+      List<MultiHeartbeat.Node> nodes) {
+    Set<String> added = new HashSet<String>();
     synchronized (statuses) {
+      for (MultiHeartbeat.Node n : nodes) {
+        if (updateStatus(host, physicalNode, n.logicalNode, n.state,
+            n.version)) {
+          added.add(n.logicalNode);
+        }
+      }
+    }
+    return added;
+  }
 
-      String expectedPhys = FlumeMaster.getInstance().getSpecMan()
-          .getPhysicalNode(logicalNode);
+  /**
+   * Must be called with the statuses lock held.
+   */
+  private boolean updateStatus(String host, String physicalNode,
+      String logicalNode, NodeState stat, long version) {
+    LOG.debug("Heartbeat from host:" + host + " logicalnode:" + logicalNode
+        + " (" + stat + "," + new Date(version) + ")");
 
-      if (expectedPhys == null || !expectedPhys.equals(physicalNode)) {
-        stat = NodeState.DECOMMISSIONED;
-      }
+    boolean configChanged = false;
+    String expectedPhys = FlumeMaster.getInstance().getSpecMan()
+        .getPhysicalNode(logicalNode);
 
-      NodeStatus status = statuses.get(logicalNode);
-      if (status == null) {
-        status = new NodeStatus(stat, version, Clock.unixTime(), "", "");
-        configChanged = true;
-      }
+    if (expectedPhys == null || !expectedPhys.equals(physicalNode)) {
+      stat = NodeState.DECOMMISSIONED;
+    }
 
-      status.state = stat;
-      status.version = version;
-      status.lastseen = Clock.unixTime();
-      status.host = host;
-      status.physicalNode = physicalNode;
-      statuses.put(logicalNode, status);
+    NodeStatus status = statuses.get(logicalNode);
+    if (status == null) {
+      status = new NodeStatus(stat, version, Clock.unixTime(), "", "");
+      configChanged = true;
     }
 
+    status.state = stat;
+    status.version = version;
+    status.lastseen = Clock.unixTime();
+    status.host = host;
+    status.physicalNode = physicalNode;
+    statuses.put(logicalNode, status);
     return configChanged;
   }
 
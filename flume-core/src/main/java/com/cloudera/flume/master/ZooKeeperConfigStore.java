@@ -21,13 +21,18 @@ package com.cloudera.flume.master;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Type;
@@ -37,6 +42,9 @@ import org.apache.avro.generic.GenericArray;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.util.Utf8;
@@ -45,6 +53,7 @@ import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
@@ -65,6 +74,13 @@ import com.google.common.collect.Multimaps;
 
 /**
  * ZooKeeper based store for node configuration.
+ * 
+ * Each logical node's config is kept in its own znode under NODECFGS_PATH, so
+ * changing one config writes one small znode, and peers reload just the
+ * configs whose znodes changed (via a data watch on each config znode and a
+ * children watch on NODECFGS_PATH). Configs written by older masters as a
+ * single blob under CFGS_PATH are migrated until a master has finished doing
+ * so and created MIGRATED_PATH.
  */
 public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
   ZKClient client = null;
@@ -74,7 +90,12 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
   Map<String, Map<String, Integer>> chokeMap = new HashMap<String, Map<String, Integer>>();
 
   static final Logger LOG = LoggerFactory.getLogger(ZooKeeperConfigStore.class);
+  // Older layout: every config in one sequential znode per version.
   final static String CFGS_PATH = "/flume-cfgs";
+  final static String NODECFGS_PATH = "/flume-nodecfgs";
+  // Created once the CFGS_PATH configs have all been copied to NODECFGS_PATH
+  final static String MIGRATED_PATH = "/flume-nodecfgs-migrated";
+  final static String NODECFG_PREFIX = "node-";
   final static String NODEMAPS_PATH = "/flume-nodes";
   final static String CHOKEMAP_PATH = "/flume-chokemap";
 
@@ -135,7 +156,7 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
       public void success(ZKClient client) throws IOException {
         client.getZK().register(ZooKeeperConfigStore.this);
 
-        loadConfigs(CFGS_PATH);
+        loadConfigs();
         loadNodeMaps(NODEMAPS_PATH);
         loadChokeMap(CHOKEMAP_PATH);
       }
@@ -154,7 +175,8 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
   }
 
   /**
-   * Convert a configuration map into an Avro-serialized byte array
+   * Convert a configuration map into an Avro-serialized byte array, as stored
+   * under CFGS_PATH by older masters
    */
   static protected byte[] serializeConfigs(Map<String, FlumeConfigData> cfgs)
       throws IOException {
@@ -181,7 +203,8 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
   }
 
   /**
-   * Convert an Avro-serialized byte array into a configuration map
+   * Convert an Avro-serialized byte array into a configuration map, as stored
+   * under CFGS_PATH by older masters
    */
   static protected Map<String, FlumeConfigData> deserializeConfigs(byte[] cfg)
       throws IOException {
@@ -201,75 +224,245 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
   }
 
   /**
-   * Writes an Avro-serialized form of all known node configs to ZK
+   * Convert a single config into an Avro-serialized byte array
    */
-  protected synchronized void saveConfigs(String prefix) {
-    Preconditions.checkNotNull(this.client, "Client is null in saveConfigs");
+  static protected byte[] serializeConfig(FlumeConfigData cfg)
+      throws IOException {
+    AvroFlumeConfigData avroConfig = MasterClientServerAvro.configToAvro(cfg);
+    DatumWriter<AvroFlumeConfigData> datumWriter = new SpecificDatumWriter<AvroFlumeConfigData>(
+        AvroFlumeConfigData.SCHEMA$);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Encoder enc = EncoderFactory.get().binaryEncoder(baos, null);
+    datumWriter.write(avroConfig, enc);
+    enc.flush();
+    return baos.toByteArray();
+  }
 
+  /**
+   * Convert an Avro-serialized byte array into a single config
+   */
+  static protected FlumeConfigData deserializeConfig(byte[] data)
+      throws IOException {
+    DatumReader<AvroFlumeConfigData> reader = new SpecificDatumReader<AvroFlumeConfigData>(
+        AvroFlumeConfigData.SCHEMA$);
+    AvroFlumeConfigData avroConfig = reader.read(null, DecoderFactory.get()
+        .binaryDecoder(data, null));
+    return MasterClientServerAvro.configFromAvro(avroConfig);
+  }
+
+  /**
+   * Returns the path of the znode that holds a logical node's config. Node
+   * names are url encoded so that they are always valid znode names.
+   */
+  static protected String nodeConfigPath(String logicalNode) {
     try {
-      String cfgPath = String.format(prefix + "/cfg-%010d", currentVersion);
-      // Create a new
-      String znode = client.create(cfgPath, serializeConfigs(cfgs),
-          Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      return NODECFGS_PATH + "/" + NODECFG_PREFIX
+          + URLEncoder.encode(logicalNode, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 not supported", e);
+    }
+  }
 
-      LOG.info("Created new config at " + znode);
+  /**
+   * Returns the logical node whose config is kept in the znode child, or null
+   * if child is not a config znode.
+   */
+  static protected String nodeFromConfigZNode(String child) {
+    if (!child.startsWith(NODECFG_PREFIX)) {
+      return null;
+    }
+    try {
+      return URLDecoder.decode(child.substring(NODECFG_PREFIX.length()),
+          "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 not supported", e);
+    }
+  }
+
+  /**
+   * Writes an Avro-serialized form of a single node's config to its znode,
+   * creating the znode if needed, and watches it for changes made by peers.
+   */
+  protected synchronized void saveConfig(String logicalNode,
+      FlumeConfigData cfg) throws IOException {
+    Preconditions.checkNotNull(this.client, "Client is null in saveConfig");
+    String path = nodeConfigPath(logicalNode);
+    try {
+      byte[] data = serializeConfig(cfg);
+      try {
+        client.setData(path, data, -1);
+      } catch (KeeperException e) {
+        if (e.code() != Code.NONODE) {
+          throw e;
+        }
+        try {
+          client.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } catch (KeeperException e2) {
+          if (e2.code() != Code.NODEEXISTS) {
+            throw e2;
+          }
+          // a peer created it first, ours is the later write
+          client.setData(path, data, -1);
+        }
+      }
+      // we want to hear about changes from peers, not our own write. Reading
+      // the data back re-arms the data watch and catches a peer's write that
+      // landed after ours.
+      try {
+        cfgs.put(logicalNode, deserializeConfig(client.getData(path, true,
+            new Stat())));
+      } catch (KeeperException e) {
+        if (e.code() != Code.NONODE) {
+          throw e;
+        }
+        // a peer removed it already, the children watch catches that
+      }
+      LOG.debug("Saved config for " + logicalNode + " at " + path);
     } catch (KeeperException e) {
-      LOG.error("ZooKeeper exception: ", e);
+      throw new IOException("ZooKeeper exception saving config for "
+          + logicalNode, e);
     } catch (InterruptedException e) {
-      LOG.error("Interrupted while saving config", e);
-    } catch (IOException e) {
-      LOG.error("IOException when saving config", e);
+      throw new IOException("Interrupted while saving config for "
+          + logicalNode, e);
+    }
+  }
+
+  /**
+   * Removes a single node's config znode.
+   */
+  protected synchronized void deleteConfig(String logicalNode)
+      throws IOException {
+    Preconditions.checkNotNull(this.client, "Client is null in deleteConfig");
+    try {
+      client.ensureDeleted(nodeConfigPath(logicalNode), -1);
+    } catch (KeeperException e) {
+      throw new IOException("ZooKeeper exception removing config for "
+          + logicalNode, e);
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while removing config for "
+          + logicalNode, e);
     }
   }
 
   /**
    * This internal method is called at connection time to populate the cache.
+   * Watches are set on NODECFGS_PATH and every config znode, so after this
+   * only changed configs are reloaded.
    * 
    * May be called from either the main Master thread or a ZK-initiated callback
    * so is synchronized to prevent racing.
    */
-  synchronized protected void loadConfigs(String prefix) throws IOException {
+  synchronized protected void loadConfigs() throws IOException {
     try {
-      client.ensureExists(prefix, new byte[0]);
-
-      /*
-       * We can't use the counter value here because there may have been failed
-       * attempts to write a config - so the config sequence will not be
-       * continuous.
-       */
-      String latest = client.getLastSequentialChild(prefix, "cfg-", true);
-      String path = prefix + "/" + latest;
-
-      if (latest == null) {
-        LOG.debug("No configurations found");
-        return;
+      client.ensureExists(NODECFGS_PATH, new byte[0]);
+      if (client.exists(MIGRATED_PATH, false) == null) {
+        // a master that died part way through left this unmarked, so the
+        // next one to load finishes the job
+        migrateConfigs(CFGS_PATH);
+        client.ensureExists(MIGRATED_PATH, new byte[0]);
       }
 
-      long latestVersion = ZKClient.extractSuffix("cfg-", path);
-
-      if (currentVersion == latestVersion) {
-        LOG.debug("Trying to load current version, ignoring");
-        return;
+      cfgs.clear();
+      List<String> children = client.getChildren(NODECFGS_PATH, true);
+      LOG.info("Loading " + children.size() + " configs from " + NODECFGS_PATH);
+      for (String child : children) {
+        loadConfig(child);
       }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Unexpected exception in loadConfigs", e);
+    }
+  }
 
-      cfgs.clear();
+  /**
+   * Brings the cache in line with the children of NODECFGS_PATH after some
+   * were added or removed: loads configs we haven't seen and drops those that
+   * are gone. Resets the children watch.
+   */
+  synchronized protected void syncConfigs() throws IOException {
+    try {
+      List<String> children = client.getChildren(NODECFGS_PATH, true);
+      Set<String> nodes = new HashSet<String>();
+      for (String child : children) {
+        String node = nodeFromConfigZNode(child);
+        if (node == null) {
+          continue;
+        }
+        nodes.add(node);
+        if (!cfgs.containsKey(node)) {
+          loadConfig(child);
+        }
+      }
+      cfgs.keySet().retainAll(nodes);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Unexpected exception in syncConfigs", e);
+    }
+  }
 
-      Stat stat = new Stat();
-      LOG.info("Loading config from: " + path);
-      byte[] cfg = client.getData(path, false, stat);
-      if (cfg.length == 0) {
-        LOG.info("Config was empty!");
-        return;
+  /**
+   * (Re)loads one config znode into the cache and watches it for changes.
+   */
+  synchronized protected void loadConfig(String child) throws IOException,
+      KeeperException, InterruptedException {
+    String node = nodeFromConfigZNode(child);
+    if (node == null) {
+      LOG.warn("Ignoring unexpected znode " + child + " in " + NODECFGS_PATH);
+      return;
+    }
+    byte[] data;
+    try {
+      data = client.getData(NODECFGS_PATH + "/" + child, true, new Stat());
+    } catch (KeeperException e) {
+      if (e.code() != Code.NONODE) {
+        throw e;
       }
+      // removed since we listed it
+      cfgs.remove(node);
+      return;
+    }
+    cfgs.put(node, deserializeConfig(data));
+  }
 
-      cfgs.putAll(deserializeConfigs(cfg));
-    } catch (Exception e) {
-      throw new IOException("Unexpected exception in loadConfigs", e);
+  /**
+   * Copies the configs in the latest blob written under the older single-znode
+   * layout into per-node znodes. Configs that already have a znode are left
+   * alone, so a master that migrates late can't undo newer writes. The old
+   * znodes are kept so older masters can still be rolled back to.
+   */
+  synchronized protected void migrateConfigs(String prefix) throws IOException,
+      KeeperException, InterruptedException {
+    if (client.exists(prefix, false) == null) {
+      return;
+    }
+    String latest = client.getLastSequentialChild(prefix, "cfg-", false);
+    if (latest == null) {
+      return;
+    }
+    String path = prefix + "/" + latest;
+    byte[] blob = client.getData(path, false, new Stat());
+    if (blob == null || blob.length == 0) {
+      return;
+    }
+    Map<String, FlumeConfigData> old = deserializeConfigs(blob);
+    LOG.info("Migrating " + old.size() + " configs from " + path + " to "
+        + NODECFGS_PATH);
+    for (Entry<String, FlumeConfigData> e : old.entrySet()) {
+      try {
+        client.create(nodeConfigPath(e.getKey()), serializeConfig(e
+            .getValue()), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      } catch (KeeperException ke) {
+        if (ke.code() != Code.NODEEXISTS) {
+          throw ke;
+        }
+      }
     }
   }
 
   /**
-   * Updates the in-memory cache, and then writes all configs out to ZK
+   * Updates the in-memory cache, and then writes the node's config out to ZK
    */
   @Override
   public synchronized void setConfig(String host, String flowid, String source,
@@ -296,14 +489,15 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
       throw new IOException("Could not increment version counter...", e);
     }
 
-    cfgs.put(host, new FlumeConfigData(Clock.unixTime(), source, sink,
-        currentVersion, currentVersion, flowid));
-    saveConfigs(CFGS_PATH);
+    FlumeConfigData cfg = new FlumeConfigData(Clock.unixTime(), source, sink,
+        currentVersion, currentVersion, flowid);
+    cfgs.put(host, cfg);
+    saveConfig(host, cfg);
   }
 
   /**
-   * Saves a list of configuration updates with as one new configuration -
-   * avoids multiple watches getting fired.
+   * Saves a list of configuration updates under one new version. Only the
+   * znodes of the given nodes are written.
    */
   @Override
   public synchronized void bulkSetConfig(Map<String, FlumeConfigData> configs)
@@ -326,8 +520,8 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
           .getSourceConfig(), e.getValue().getSinkConfig(), currentVersion,
           currentVersion, e.getValue().getFlowID());
       cfgs.put(e.getKey(), f);
+      saveConfig(e.getKey(), f);
     }
-    saveConfigs(CFGS_PATH);
   }
 
   /**
@@ -593,11 +787,21 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
       return;
     }
     LOG.debug("Saw ZooKeeper watch event " + event);
+    if (event.getType() == Watcher.Event.EventType.NodeDataChanged
+        && event.getPath().startsWith(NODECFGS_PATH + "/")) {
+      String child = event.getPath().substring(NODECFGS_PATH.length() + 1);
+      try {
+        LOG.debug("Config " + child + " was updated - reloading");
+        loadConfig(child);
+      } catch (Exception e) {
+        LOG.error("Exception when reloading config " + child, e);
+      }
+    }
     if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
-      if (event.getPath().equals(CFGS_PATH)) {
+      if (event.getPath().equals(NODECFGS_PATH)) {
         try {
-          LOG.info("Config was updated - reloading");
-          loadConfigs(CFGS_PATH);
+          LOG.info("Configs were added or removed - reloading");
+          syncConfigs();
         } catch (IOException e) {
           LOG.error("IOException when reloading configs", e);
         }
@@ -639,7 +843,7 @@ public class ZooKeeperConfigStore extends ConfigStore implements Watcher {
       throw new IOException("Could not increment version counter...", e);
     }
     cfgs.remove(logicNode);
-    saveConfigs(CFGS_PATH);
+    deleteConfig(logicNode);
   }
 
   /**
@@ -119,6 +119,10 @@ public class FailoverChainSink extends EventSink.Base {
     snk.getReports(namePrefix + getName() + ".", reports);
   }
 
+  public EventSink getSink() {
+    return snk;
+  }
+
   public static SinkBuilder builder() {
     return new SinkBuilder() {
       @Override
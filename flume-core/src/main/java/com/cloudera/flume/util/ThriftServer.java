@@ -21,13 +21,19 @@ package com.cloudera.flume.util;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TBinaryProtocol.Factory;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.TSaneNioServer;
+import org.apache.thrift.server.TSaneServer;
 import org.apache.thrift.server.TSaneThreadPoolServer;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSaneServerSocket;
 import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.google.common.base.Preconditions;
 
 /**
@@ -40,7 +46,7 @@ public class ThriftServer {
   private static final Logger LOG = LoggerFactory.getLogger(ThriftServer.class);
 
   protected TServerTransport serverTransport = null;;
-  protected TSaneThreadPoolServer server = null;  
+  protected TSaneServer server = null;
   String description;
   protected int port;
 
@@ -65,7 +71,9 @@ public class ThriftServer {
 
   synchronized public void stop() {
     Preconditions.checkArgument(server != null);
-    serverTransport.close();
+    if (serverTransport != null) {
+      serverTransport.close();
+    }
     server.stop();
   }
 
@@ -90,4 +98,61 @@ public class ThriftServer {
     server = new TSaneThreadPoolServer(processor, serverTransport, protFactory);
     server.start();
   }
+
+  /**
+   * Blocks until Thrift server has started and can accept connections. The
+   * server is the kind configured for event sources.
+   */
+  synchronized protected void start(TProcessor processor, final int port,
+      final String description, boolean framed) throws TTransportException {
+    this.description = description;
+    Factory protFactory = new TBinaryProtocol.Factory(strictRead, strictWrite);
+    server = newEventServer(processor, port, protFactory, framed);
+    server.start();
+  }
+
+  /**
+   * Returns the key event sources should buffer the events of the request
+   * being processed under, so that one client's events stay in order. This is
+   * the client connection under the nio server, which may run a client's
+   * requests on different threads, and the thread otherwise, which serves a
+   * single client.
+   */
+  public static Object clientKey() {
+    Object c = TSaneNioServer.currentClient();
+    return (c != null) ? c : Thread.currentThread();
+  }
+
+  /**
+   * Creates, but does not start, a server for an event source of the kind
+   * set by flume.thrift.server.
+   */
+  public static TSaneServer newEventServer(TProcessor processor, int port,
+      TProtocolFactory protFactory, boolean framed)
+      throws TTransportException {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    if (FlumeConfiguration.THRIFT_SERVER_NIO.equals(conf.getThriftServer())) {
+      TSaneNioServer.Options opts = new TSaneNioServer.Options();
+      opts.selectorThreads = conf.getThriftNioSelectors();
+      opts.workerThreads = conf.getThriftNioWorkers();
+      LOG.info("Using nio thrift server with {} selector and {} worker threads"
+          + " on port {}", new Object[] { opts.selectorThreads,
+          opts.workerThreads, port });
+      return new TSaneNioServer(processor, port, protFactory, framed, opts);
+    }
+
+    TServerTransport transport;
+    if (framed) {
+      transport = new TSaneServerSocket(port) {
+        // the sole job of this sane server subclass is to wrap the socket
+        // with a framed transport
+        protected TTransport acceptImpl() throws TTransportException {
+          return new TFramedTransport(super.acceptImpl());
+        }
+      };
+    } else {
+      transport = new TSaneServerSocket(port);
+    }
+    return new TSaneThreadPoolServer(processor, transport, protFactory);
+  }
 }
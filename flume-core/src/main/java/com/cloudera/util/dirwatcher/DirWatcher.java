@@ -28,12 +28,17 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.util.Clock;
 import com.google.common.base.Preconditions;
 
 /**
  * This class watches a specified directory for deletions, creations and
  * "age off" events. It spawns a thread that periodically checks the directory.
+ * 
+ * If the platform can notify us of changes (see {@link FileNotifier}), the
+ * thread instead checks the directory when it is told something in it changed,
+ * and otherwise only every flume.watch.recheck millis as a safety net.
  */
 public class DirWatcher {
   static final Logger LOG = LoggerFactory.getLogger(DirWatcher.class);
@@ -47,6 +52,20 @@ public class DirWatcher {
   private Periodic thread;
   private FileFilter filter;
 
+  // null if this watcher polls.
+  private FileNotifier notifier;
+  private final Object wake = new Object();
+  private boolean changed = false; // guarded by wake
+  private final FileNotifier.Listener listener = new FileNotifier.Listener() {
+    @Override
+    public void changed(File d, File f) {
+      synchronized (wake) {
+        changed = true;
+        wake.notifyAll();
+      }
+    }
+  };
+
   /**
    * checkperiod is the amount of time in milliseconds between directory polls.
    */
@@ -62,14 +81,19 @@ public class DirWatcher {
 
   /**
    * Start the directory watching. This implementation uses a thread to poll
-   * periodically. If called multiple times, it will only start a single thread.
-   * This is not threadsafe
+   * periodically, or to check on notifications if they are available. If
+   * called multiple times, it will only start a single thread. This is not
+   * threadsafe
    */
   public void start() {
     if (thread != null) {
       LOG.warn("Dir watcher already started!");
       return;
     }
+    notifier = FileNotifier.get();
+    if (notifier != null && !notifier.register(dir, listener)) {
+      notifier = null;
+    }
     this.thread = new Periodic();
     this.thread.start();
     LOG.info("Started dir watcher thread");
@@ -87,6 +111,13 @@ public class DirWatcher {
     }
 
     done = true;
+    if (notifier != null) {
+      notifier.unregister(dir, listener);
+      notifier = null;
+    }
+    synchronized (wake) {
+      wake.notifyAll();
+    }
 
     try {
       thread.join();
@@ -110,7 +141,7 @@ public class DirWatcher {
         while (!done) {
           try {
             check();
-            Clock.sleep(sleep_ms);
+            waitForChange();
           } catch (NumberFormatException nfe) {
             LOG.warn("wtf ", nfe);
           }
@@ -121,6 +152,26 @@ public class DirWatcher {
     }
   }
 
+  /**
+   * Waits until the next check is due. When polling this is sleep_ms, with
+   * notifications it is the next change or the safety recheck period.
+   */
+  void waitForChange() throws InterruptedException {
+    FileNotifier n = notifier;
+    if (n == null) {
+      Clock.sleep(sleep_ms);
+      return;
+    }
+
+    long recheck = FlumeConfiguration.get().getWatchRecheck();
+    synchronized (wake) {
+      if (!changed && !done) {
+        wake.wait(recheck);
+      }
+      changed = false;
+    }
+  }
+
   /**
    * This the core check method that updates information from the previous poll
    * and fires events based on changes.
@@ -0,0 +1,366 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.util.dirwatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.google.common.base.Preconditions;
+
+/**
+ * This delivers the platform's file change notifications (inotify on Linux)
+ * for directories to listeners, so that watchers only need to look at a
+ * directory when something in it changed.
+ * 
+ * Flume builds against Java 6, which has no file notification api, so this
+ * drives Java 7's java.nio.file.WatchService through reflection. On older
+ * runtimes, or if flume.watch.notify is off, {@link #get()} returns null and
+ * callers poll as before.
+ * 
+ * Notifications can be lost (queue overflows, remote file systems, and some
+ * JDKs only emulate them by polling), so listeners should still recheck
+ * occasionally.
+ */
+public class FileNotifier {
+  static final Logger LOG = LoggerFactory.getLogger(FileNotifier.class);
+
+  /**
+   * Called from the notifier thread when something in a registered directory
+   * changed. This must not block.
+   */
+  public interface Listener {
+    /**
+     * f is the file in dir that was created, modified or deleted. f is null if
+     * changes were lost or dir itself went away, in which case everything in
+     * dir should be rechecked.
+     */
+    void changed(File dir, File f);
+  }
+
+  private static FileNotifier shared = null;
+  private static boolean unsupported = false;
+
+  final private Platform platform;
+  // watch key -> registration, and absolute dir -> registration.
+  final private Map<Object, Registration> byKey = new HashMap<Object, Registration>();
+  final private Map<File, Registration> byDir = new HashMap<File, Registration>();
+  private volatile boolean done = false;
+  private final Thread thread;
+
+  static class Registration {
+    final File dir;
+    final Object key;
+    final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    Registration(File dir, Object key) {
+      this.dir = dir;
+      this.key = key;
+    }
+  }
+
+  FileNotifier(Platform platform) {
+    this.platform = platform;
+    this.thread = new Thread("FileNotifier") {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the notifier shared by this process, or null if notifications are
+   * disabled or not supported by this runtime.
+   */
+  public static synchronized FileNotifier get() {
+    if (!FlumeConfiguration.get().getWatchNotify()) {
+      return null;
+    }
+    if (shared == null && !unsupported) {
+      shared = create();
+      unsupported = (shared == null);
+    }
+    return shared;
+  }
+
+  /**
+   * Returns a new notifier with its own thread, or null if the runtime has no
+   * file notification support.
+   */
+  static FileNotifier create() {
+    try {
+      return new FileNotifier(new Platform());
+    } catch (Exception e) {
+      LOG.info("File change notifications are not available, polling instead: "
+          + e);
+      return null;
+    }
+  }
+
+  /**
+   * Starts delivering changes of dir to l. Returns false if dir could not be
+   * watched, in which case the caller needs to poll it.
+   */
+  public boolean register(File dir, Listener l) {
+    Preconditions.checkNotNull(l);
+    File abs = dir.getAbsoluteFile();
+    synchronized (this) {
+      Registration r = byDir.get(abs);
+      if (r == null) {
+        Object key;
+        try {
+          key = platform.register(abs);
+        } catch (IOException e) {
+          LOG.warn("Unable to watch " + abs + " for changes, polling it: "
+              + e.getMessage());
+          return false;
+        }
+        r = new Registration(abs, key);
+        byDir.put(abs, r);
+        byKey.put(key, r);
+      }
+      r.listeners.add(l);
+      return true;
+    }
+  }
+
+  /**
+   * Stops delivering changes of dir to l. The dir is no longer watched once
+   * its last listener is gone.
+   */
+  public void unregister(File dir, Listener l) {
+    File abs = dir.getAbsoluteFile();
+    synchronized (this) {
+      Registration r = byDir.get(abs);
+      if (r == null) {
+        return;
+      }
+      r.listeners.remove(l);
+      if (r.listeners.isEmpty()) {
+        byDir.remove(abs);
+        byKey.remove(r.key);
+        platform.cancel(r.key);
+      }
+    }
+  }
+
+  /**
+   * Number of directories currently watched.
+   */
+  public synchronized int getWatchedCount() {
+    return byDir.size();
+  }
+
+  /**
+   * Stops the notifier thread and releases the platform watch service.
+   */
+  void shutdown() throws InterruptedException {
+    done = true;
+    thread.join();
+    platform.close();
+  }
+
+  private void dispatch() {
+    while (!done) {
+      Object key;
+      try {
+        key = platform.poll(200);
+      } catch (Exception e) {
+        // closed underneath us, or the runtime misbehaves: give up.
+        LOG.error("File notifier failed, watchers will fall back to their "
+            + "periodic rechecks", e);
+        return;
+      }
+      if (key == null) {
+        continue;
+      }
+
+      Registration r;
+      synchronized (this) {
+        r = byKey.get(key);
+      }
+      List<String> names = platform.events(key);
+      boolean valid = platform.reset(key);
+      if (r == null) {
+        continue; // unregistered while the events were pending.
+      }
+
+      for (String name : names) {
+        fire(r, name == null ? null : new File(r.dir, name));
+      }
+      if (!valid) {
+        // the dir was deleted or is no longer accessible.
+        fire(r, null);
+        synchronized (this) {
+          byKey.remove(key);
+          if (byDir.get(r.dir) == r) {
+            byDir.remove(r.dir);
+          }
+        }
+      }
+    }
+  }
+
+  private void fire(Registration r, File f) {
+    for (Listener l : r.listeners) {
+      try {
+        l.changed(r.dir, f);
+      } catch (RuntimeException e) {
+        LOG.warn("File change listener failed on " + r.dir, e);
+      }
+    }
+  }
+
+  /**
+   * The reflective calls to java.nio.file. Watch keys are passed around as
+   * plain objects.
+   */
+  static class Platform {
+    final Object service;
+    final Method toPath;
+    final Method register;
+    final Method poll;
+    final Method pollEvents;
+    final Method reset;
+    final Method cancel;
+    final Method close;
+    final Method kind;
+    final Method context;
+    final Object overflow;
+    final Object kinds;
+
+    Platform() throws Exception {
+      Class<?> fsCls = Class.forName("java.nio.file.FileSystems");
+      Class<?> fileSystemCls = Class.forName("java.nio.file.FileSystem");
+      Class<?> wsCls = Class.forName("java.nio.file.WatchService");
+      Class<?> pathCls = Class.forName("java.nio.file.Path");
+      Class<?> keyCls = Class.forName("java.nio.file.WatchKey");
+      Class<?> eventCls = Class.forName("java.nio.file.WatchEvent");
+      Class<?> kindCls = Class.forName("java.nio.file.WatchEvent$Kind");
+      Class<?> stdKinds = Class.forName("java.nio.file.StandardWatchEventKinds");
+
+      Object fs = fsCls.getMethod("getDefault").invoke(null);
+      service = fileSystemCls.getMethod("newWatchService").invoke(fs);
+      toPath = File.class.getMethod("toPath");
+      Class<?> kindArray = Array.newInstance(kindCls, 0).getClass();
+      register = pathCls.getMethod("register", wsCls, kindArray);
+      poll = wsCls.getMethod("poll", long.class, TimeUnit.class);
+      close = wsCls.getMethod("close");
+      pollEvents = keyCls.getMethod("pollEvents");
+      reset = keyCls.getMethod("reset");
+      cancel = keyCls.getMethod("cancel");
+      kind = eventCls.getMethod("kind");
+      context = eventCls.getMethod("context");
+
+      overflow = stdKinds.getField("OVERFLOW").get(null);
+      kinds = Array.newInstance(kindCls, 3);
+      Array.set(kinds, 0, stdKinds.getField("ENTRY_CREATE").get(null));
+      Array.set(kinds, 1, stdKinds.getField("ENTRY_DELETE").get(null));
+      Array.set(kinds, 2, stdKinds.getField("ENTRY_MODIFY").get(null));
+    }
+
+    Object register(File dir) throws IOException {
+      try {
+        Object path = toPath.invoke(dir);
+        return register.invoke(path, service, kinds);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Unable to watch " + dir, e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new IOException("Unable to watch " + dir, e);
+      }
+    }
+
+    /**
+     * Returns the next signalled watch key, or null if there was none within
+     * the timeout.
+     */
+    Object poll(long millis) throws Exception {
+      try {
+        return poll.invoke(service, millis, TimeUnit.MILLISECONDS);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof InterruptedException) {
+          return null;
+        }
+        throw (Exception) e.getCause();
+      }
+    }
+
+    /**
+     * Returns the names of the changed entries of a key. A null name means
+     * events were lost.
+     */
+    List<String> events(Object key) {
+      List<String> names = new ArrayList<String>();
+      try {
+        for (Object ev : (List<?>) pollEvents.invoke(key)) {
+          if (kind.invoke(ev) == overflow) {
+            names.add(null);
+          } else {
+            names.add(context.invoke(ev).toString());
+          }
+        }
+      } catch (Exception e) {
+        LOG.warn("Unable to read file change events", e);
+        names.add(null);
+      }
+      return names;
+    }
+
+    boolean reset(Object key) {
+      try {
+        return (Boolean) reset.invoke(key);
+      } catch (Exception e) {
+        return false;
+      }
+    }
+
+    void cancel(Object key) {
+      try {
+        cancel.invoke(key);
+      } catch (Exception e) {
+        LOG.warn("Unable to cancel file watch", e);
+      }
+    }
+
+    void close() {
+      try {
+        close.invoke(service);
+      } catch (Exception e) {
+        LOG.warn("Unable to close file watch service", e);
+      }
+    }
+  }
+}
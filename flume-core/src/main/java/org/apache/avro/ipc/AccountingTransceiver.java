@@ -22,8 +22,19 @@ public class AccountingTransceiver extends Transceiver {
     return xcvr.getRemoteName();
   }
 
-  // Transceive is explicitly excluded because it calls readBuffers and
-  // writeBuffers virtual funcs.
+  /**
+   * Transceive is delegated rather than inherited, because transceivers like
+   * NettyTransceiver implement it themselves instead of through readBuffers
+   * and writeBuffers, and may allow concurrent calls.
+   */
+  @Override
+  public List<ByteBuffer> transceive(List<ByteBuffer> request)
+      throws IOException {
+    long len = getLength(request); // must be done before writing them.
+    List<ByteBuffer> response = xcvr.transceive(request);
+    bytesWritten.addAndGet(len);
+    return response;
+  }
 
   @Override
   public List<ByteBuffer> readBuffers() throws IOException {
@@ -36,6 +36,7 @@
 
 package org.apache.hadoop.io;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -79,7 +80,20 @@ public class FlushingSequenceFileWriter extends SequenceFile.Writer {
   public static Writer createWriter(Configuration conf, File f,
       Class<?> keyClass, Class<?> valClass) throws IOException {
     return createWriter(conf, f.getAbsolutePath(), keyClass, valClass, false,
-        false, null, new SequenceFile.Metadata());
+        false, null, new SequenceFile.Metadata(), 0);
+  }
+
+  /**
+   * This version buffers up to bufferSize bytes in memory between flushes.
+   * Data reaches the kernel on flush() or sync() and the disk on fsync(), so
+   * callers can push every append to the kernel and group many of them into
+   * one fsync.
+   */
+  public static FlushingSequenceFileWriter createWriter(Configuration conf,
+      File f, Class<?> keyClass, Class<?> valClass, int bufferSize)
+      throws IOException {
+    return createWriter(conf, f.getAbsolutePath(), keyClass, valClass, false,
+        false, null, new SequenceFile.Metadata(), bufferSize);
   }
 
   /**
@@ -87,10 +101,10 @@ public class FlushingSequenceFileWriter extends SequenceFile.Writer {
    * 
    * Hiding this for now -- may open this up to enable compression in the future
    */
-  private static Writer createWriter(Configuration conf, String fname,
-      Class<?> keyClass, Class<?> valClass, boolean compress,
-      boolean blockCompress, CompressionCodec codec, Metadata metadata)
-      throws IOException {
+  private static FlushingSequenceFileWriter createWriter(Configuration conf,
+      String fname, Class<?> keyClass, Class<?> valClass, boolean compress,
+      boolean blockCompress, CompressionCodec codec, Metadata metadata,
+      int bufferSize) throws IOException {
     if (codec != null && (codec instanceof GzipCodec)
         && !NativeCodeLoader.isNativeCodeLoaded()
         && !ZlibFactory.isNativeZlibLoaded(conf)) {
@@ -98,10 +112,10 @@ public class FlushingSequenceFileWriter extends SequenceFile.Writer {
           + "GzipCodec without native-hadoop code!");
     }
 
-    Writer writer = null;
+    FlushingSequenceFileWriter writer = null;
     FSDataOutputStream out = new FSDataOutputStream(
         new FlushingSequenceFileWriter.LocalFSFileOutputStream(new File(fname),
-            true), null);
+            true, bufferSize), null);
     if (!compress) {
       writer = new FlushingSequenceFileWriter(conf, out, keyClass, valClass,
           metadata);
@@ -151,6 +165,23 @@ public class FlushingSequenceFileWriter extends SequenceFile.Writer {
     this.out.flush();
   }
 
+  /**
+   * Push everything appended so far out of app memory to the kernel, without
+   * writing a sync point.
+   */
+  public void flush() throws IOException {
+    this.out.flush();
+  }
+
+  /**
+   * Create a sync point, flush it and force everything written so far out to
+   * the disk.
+   */
+  public void fsync() throws IOException {
+    sync();
+    this.out.sync();
+  }
+
   // This was stolen from RawLocalFileSystem. I want a
   // FSOutputStream without a buffer in the way.
   /*****************************************************************************
@@ -158,32 +189,37 @@ public class FlushingSequenceFileWriter extends SequenceFile.Writer {
    ****************************************************************************/
   static class LocalFSFileOutputStream extends OutputStream implements Syncable {
     FileOutputStream fos;
+    OutputStream os; // fos, or a buffer in front of it
 
-    private LocalFSFileOutputStream(File f, boolean append) throws IOException {
+    private LocalFSFileOutputStream(File f, boolean append, int bufferSize)
+        throws IOException {
       this.fos = new FileOutputStream(f, append);
+      this.os = (bufferSize > 0) ? new BufferedOutputStream(fos, bufferSize)
+          : fos;
     }
 
     /*
-     * Just forward to the fos
+     * Just forward to the os
      */
     public void close() throws IOException {
-      fos.close();
+      os.close();
     }
 
     public void flush() throws IOException {
-      fos.flush();
+      os.flush();
     }
 
     public void write(byte[] b, int off, int len) throws IOException {
-      fos.write(b, off, len);
+      os.write(b, off, len);
     }
 
     public void write(int b) throws IOException {
-      fos.write(b);
+      os.write(b);
     }
 
     /** {@inheritDoc} */
     public void sync() throws IOException {
+      os.flush();
       fos.getFD().sync();
     }
   }
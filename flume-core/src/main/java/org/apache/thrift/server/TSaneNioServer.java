@@ -0,0 +1,692 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.thrift.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server that multiplexes its client connections over a few selector threads
+ * and runs the processor on a bounded pool of worker threads, so the number of
+ * threads does not grow with the number of connected clients.
+ * 
+ * Unlike thrift's TNonblockingServer this also serves unframed clients, which
+ * is what flume's thrift sinks speak by default. Bytes are buffered per
+ * connection until a whole message is available: for framed connections the
+ * frame header gives the size, for unframed ones the processor is run against
+ * the buffered bytes and rerun once more bytes arrive if it runs out. Nothing
+ * reaches the handler until a message's arguments have been completely read,
+ * so a rerun has no side effects. To keep reruns of a large message from
+ * decoding it over and over, an unframed connection is only rerun once its
+ * buffered bytes have doubled, or once the client has sent nothing for
+ * partialRetryMillis.
+ * 
+ * A connection is handed to at most one worker at a time and is not read from
+ * while a worker has it, so messages from a client are processed in order and
+ * a slow sink pushes back on the clients sending to it. Successive messages may
+ * run on different workers though, so handlers that hand events on to other
+ * threads should key them by currentClient() rather than by thread.
+ */
+public class TSaneNioServer implements TSaneServer {
+
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(TSaneNioServer.class);
+
+  // the connection a worker thread is processing
+  private static final ThreadLocal<Object> currentClient = new ThreadLocal<Object>();
+
+  // Customizable server options
+  public static class Options {
+    public int selectorThreads = 2;
+    public int workerThreads = 16;
+    public int workQueueSize = 1024;
+    public int readBufferSize = 64 * 1024;
+    public int maxMessageSize = 64 * 1024 * 1024;
+    public int partialRetryMillis = 5;
+    public int stopTimeoutVal = 1;
+    public TimeUnit stopTimeoutUnit = TimeUnit.SECONDS;
+  }
+
+  final TProcessor processor;
+  final int port;
+  final TProtocolFactory inputProtocolFactory;
+  final TProtocolFactory outputProtocolFactory;
+  final boolean framed;
+  final Options options;
+
+  // The following metrics values need to be protected by this maplock.
+  private final Object maplock = new Object();
+  private final Set<Connection> conns = new HashSet<Connection>();
+  private long doneBytesRead = 0;
+  private long doneBytesWritten = 0;
+
+  private ServerSocketChannel serverChannel;
+  private SelectThread[] selectThreads;
+  private ThreadPoolExecutor workers;
+  private volatile boolean stopped = true;
+
+  public TSaneNioServer(TProcessor processor, int port,
+      TProtocolFactory protocolFactory, boolean framed, Options options) {
+    this.processor = processor;
+    this.port = port;
+    this.inputProtocolFactory = protocolFactory;
+    this.outputProtocolFactory = protocolFactory;
+    this.framed = framed;
+    this.options = options;
+  }
+
+  public TSaneNioServer(TProcessor processor, int port,
+      TProtocolFactory protocolFactory, boolean framed) {
+    this(processor, port, protocolFactory, framed, new Options());
+  }
+
+  /**
+   * Binds the port, starts the selector and worker threads, and returns.
+   */
+  @Override
+  public synchronized void start() throws TTransportException {
+    try {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.socket().setReuseAddress(true);
+      serverChannel.socket().bind(new InetSocketAddress(port));
+    } catch (IOException e) {
+      throw new TTransportException("Could not listen on port " + port, e);
+    }
+
+    stopped = false;
+    // When the queue is full the selector thread runs the work itself, which
+    // stops it from reading more until a worker catches up.
+    workers = new ThreadPoolExecutor(options.workerThreads,
+        options.workerThreads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(options.workQueueSize),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    selectThreads = new SelectThread[options.selectorThreads];
+    for (int i = 0; i < selectThreads.length; i++) {
+      try {
+        selectThreads[i] = new SelectThread(i);
+      } catch (IOException e) {
+        stop();
+        throw new TTransportException("Could not open selector", e);
+      }
+      selectThreads[i].start();
+    }
+
+    new Thread("Thrift nio server acceptor on port " + port) {
+      public void run() {
+        int next = 0;
+        while (!stopped) {
+          try {
+            SocketChannel ch = serverChannel.accept();
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            selectThreads[next].add(ch);
+            next = (next + 1) % selectThreads.length;
+          } catch (ClosedChannelException e) {
+            // stopped
+          } catch (IOException e) {
+            if (!stopped) {
+              LOGGER.warn("Error occurred during acceptance of connection.", e);
+            }
+          }
+        }
+      }
+    }.start();
+  }
+
+  /**
+   * Stops accepting, closes all client connections and waits a short while
+   * for the workers to finish before returning.
+   */
+  @Override
+  public synchronized void stop() {
+    stopped = true;
+    try {
+      if (serverChannel != null) {
+        serverChannel.close();
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Error closing server socket on port " + port, e);
+    }
+
+    if (selectThreads != null) {
+      for (SelectThread st : selectThreads) {
+        if (st != null) {
+          st.selector.wakeup();
+        }
+      }
+    }
+
+    if (workers == null) {
+      return;
+    }
+    workers.shutdown();
+    long timeoutMS = options.stopTimeoutUnit.toMillis(options.stopTimeoutVal);
+    long now = System.currentTimeMillis();
+    while (timeoutMS >= 0) {
+      try {
+        workers.awaitTermination(timeoutMS, TimeUnit.MILLISECONDS);
+        break;
+      } catch (InterruptedException ix) {
+        long newnow = System.currentTimeMillis();
+        timeoutMS -= (newnow - now);
+        now = newnow;
+      }
+    }
+  }
+
+  /**
+   * Returns the connection the calling worker thread is processing a message
+   * from, to be used as a per client key, or null if the caller is not running
+   * a message for a TSaneNioServer.
+   */
+  public static Object currentClient() {
+    return currentClient.get();
+  }
+
+  @Override
+  public long getBytesSent() {
+    synchronized (maplock) {
+      long total = doneBytesWritten;
+      for (Connection c : conns) {
+        total += c.bytesWritten.get();
+      }
+      return total;
+    }
+  }
+
+  @Override
+  public long getBytesReceived() {
+    synchronized (maplock) {
+      long total = doneBytesRead;
+      for (Connection c : conns) {
+        total += c.bytesRead.get();
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Owns a selector and does all the socket reads and writes of the
+   * connections registered with it.
+   */
+  class SelectThread extends Thread {
+    final Selector selector;
+    final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<SocketChannel>();
+    final Queue<Connection> processed = new ConcurrentLinkedQueue<Connection>();
+    // unframed connections waiting for more of a partial message
+    final Set<Connection> deferred = new HashSet<Connection>();
+
+    SelectThread(int i) throws IOException {
+      super("Thrift nio server selector " + i + " on port " + port);
+      selector = Selector.open();
+    }
+
+    void add(SocketChannel ch) {
+      accepted.add(ch);
+      selector.wakeup();
+    }
+
+    /**
+     * Called by a worker to hand a connection back.
+     */
+    void done(Connection c) {
+      processed.add(c);
+      selector.wakeup();
+    }
+
+    public void run() {
+      try {
+        while (!stopped) {
+          selector.select(deferred.isEmpty() ? 0 : options.partialRetryMillis);
+          registerAccepted();
+          resumeProcessed();
+
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Connection c = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isReadable()) {
+                c.doRead();
+              }
+              if (key.isValid() && key.isWritable()) {
+                c.doWrite();
+              }
+            } catch (IOException e) {
+              // Assume the client died and continue silently
+              c.close();
+            }
+          }
+          retryIdle();
+        }
+      } catch (IOException e) {
+        LOGGER.error("Selector failed on port " + port, e);
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          ((Connection) key.attachment()).close();
+        }
+        SocketChannel ch;
+        while ((ch = accepted.poll()) != null) {
+          closeQuietly(ch);
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          LOGGER.warn("Error closing selector", e);
+        }
+      }
+    }
+
+    void registerAccepted() {
+      SocketChannel ch;
+      while ((ch = accepted.poll()) != null) {
+        try {
+          SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+          Connection c = new Connection(ch, key, this);
+          key.attach(c);
+          synchronized (maplock) {
+            conns.add(c);
+          }
+        } catch (ClosedChannelException e) {
+          closeQuietly(ch);
+        }
+      }
+    }
+
+    /**
+     * Reruns deferred connections whose clients have stopped sending, in case
+     * what they have sent is a complete message after all.
+     */
+    void retryIdle() {
+      if (deferred.isEmpty()) {
+        return;
+      }
+      long now = System.currentTimeMillis();
+      List<Connection> idle = new ArrayList<Connection>();
+      for (Connection c : deferred) {
+        if (now - c.lastRead >= options.partialRetryMillis) {
+          idle.add(c);
+        }
+      }
+      deferred.removeAll(idle);
+      for (Connection c : idle) {
+        c.dispatch(); // may close c
+      }
+    }
+
+    void resumeProcessed() {
+      Connection c;
+      while ((c = processed.poll()) != null) {
+        try {
+          c.resume();
+        } catch (IOException e) {
+          c.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * A client connection. Its input buffer is only used by the selector thread
+   * while no worker has the connection, and only by that worker while it does.
+   */
+  class Connection implements Runnable {
+    final SocketChannel ch;
+    final SelectionKey key;
+    final SelectThread owner;
+    final AtomicLong bytesRead = new AtomicLong();
+    final AtomicLong bytesWritten = new AtomicLong();
+    final LinkedList<ByteBuffer> out = new LinkedList<ByteBuffer>();
+
+    byte[] in = new byte[options.readBufferSize];
+    int inLen = 0;
+    boolean closed = false;
+    // unframed only: don't rerun a partial message before inLen reaches this
+    int retryLen = 0;
+    long lastRead = 0;
+
+    // results handed from the worker back to the selector thread
+    byte[] response;
+    boolean failed;
+
+    Connection(SocketChannel ch, SelectionKey key, SelectThread owner) {
+      this.ch = ch;
+      this.key = key;
+      this.owner = owner;
+    }
+
+    void doRead() throws IOException {
+      if (inLen == in.length) {
+        if (in.length >= options.maxMessageSize) {
+          throw new IOException("Message larger than "
+              + options.maxMessageSize + " bytes from " + ch);
+        }
+        byte[] bigger = new byte[Math.min(in.length * 2,
+            options.maxMessageSize)];
+        System.arraycopy(in, 0, bigger, 0, inLen);
+        in = bigger;
+      }
+
+      int n = ch.read(ByteBuffer.wrap(in, inLen, in.length - inLen));
+      if (n < 0) {
+        close();
+        return;
+      }
+      inLen += n;
+      bytesRead.addAndGet(n);
+      if (n > 0) {
+        lastRead = System.currentTimeMillis();
+        if (inLen < retryLen) {
+          // not worth decoding the partial message again yet, keep reading
+          owner.deferred.add(this);
+          return;
+        }
+        owner.deferred.remove(this);
+        dispatch();
+      }
+    }
+
+    /**
+     * Hands the buffered bytes to a worker and stops reading until it is done.
+     */
+    void dispatch() {
+      if (closed) {
+        return;
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+      try {
+        workers.execute(this);
+      } catch (RejectedExecutionException e) {
+        close(); // shutting down
+      }
+    }
+
+    void doWrite() throws IOException {
+      while (!out.isEmpty()) {
+        ByteBuffer buf = out.getFirst();
+        bytesWritten.addAndGet(ch.write(buf));
+        if (buf.hasRemaining()) {
+          break;
+        }
+        out.removeFirst();
+      }
+      if (out.isEmpty()) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      } else {
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      }
+    }
+
+    /**
+     * Queues the worker's responses and starts reading again.
+     */
+    void resume() throws IOException {
+      if (closed || !key.isValid()) {
+        return;
+      }
+      if (failed) {
+        close();
+        return;
+      }
+      if (response != null) {
+        out.add(ByteBuffer.wrap(response));
+        response = null;
+        doWrite();
+      }
+      key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    /**
+     * Processes every complete message in the input buffer and keeps the rest
+     * for when more bytes arrive.
+     */
+    public void run() {
+      ByteArrayOutputStream resp = new ByteArrayOutputStream();
+      int pos = 0;
+      retryLen = 0;
+      currentClient.set(this);
+      try {
+        while (!stopped && pos < inLen) {
+          int used = framed ? processFrame(pos, resp) : processMessage(pos,
+              resp);
+          if (used == 0) {
+            // incomplete, wait for more bytes. Unframed messages are decoded
+            // from their start again, so wait for twice as many.
+            if (!framed) {
+              retryLen = (int) Math.min(2L * (inLen - pos),
+                  options.maxMessageSize);
+            }
+            break;
+          }
+          pos += used;
+        }
+      } catch (TTransportException ttx) {
+        // Assume the client sent garbage or went away and close it
+        LOGGER.debug("Closing connection " + ch, ttx);
+        failed = true;
+      } catch (TException tx) {
+        LOGGER.error("Thrift error occurred during processing of message.", tx);
+        failed = true;
+      } catch (Exception x) {
+        LOGGER.error("Error occurred during processing of message.", x);
+        failed = true;
+      } finally {
+        currentClient.remove();
+      }
+
+      System.arraycopy(in, pos, in, 0, inLen - pos);
+      inLen -= pos;
+      if (resp.size() > 0) {
+        response = resp.toByteArray();
+      }
+      owner.done(this);
+    }
+
+    int processMessage(int pos, ByteArrayOutputStream resp) throws TException {
+      MessageTransport trans = new MessageTransport(in, pos, inLen - pos);
+      TProtocol iprot = inputProtocolFactory.getProtocol(trans);
+      TProtocol oprot = outputProtocolFactory.getProtocol(trans);
+      try {
+        if (!processor.process(iprot, oprot)) {
+          throw new TTransportException("Processor ended the connection");
+        }
+      } catch (Underflow u) {
+        return 0;
+      }
+      trans.out.copyTo(resp);
+      return trans.consumed();
+    }
+
+    int processFrame(int pos, ByteArrayOutputStream resp) throws TException {
+      if (inLen - pos < 4) {
+        return 0;
+      }
+      int sz = ByteBuffer.wrap(in, pos, 4).getInt();
+      if (sz < 0 || sz > options.maxMessageSize) {
+        throw new TTransportException("Bad frame size " + sz + " from " + ch);
+      }
+      if (inLen - pos - 4 < sz) {
+        return 0;
+      }
+
+      MessageTransport trans = new MessageTransport(in, pos + 4, sz);
+      TProtocol iprot = inputProtocolFactory.getProtocol(trans);
+      TProtocol oprot = outputProtocolFactory.getProtocol(trans);
+      try {
+        if (!processor.process(iprot, oprot)) {
+          throw new TTransportException("Processor ended the connection");
+        }
+      } catch (Underflow u) {
+        throw new TTransportException("Truncated message in frame from " + ch);
+      }
+      if (trans.out.size() > 0) {
+        resp.write(ByteBuffer.allocate(4).putInt(trans.out.size()).array(), 0,
+            4);
+        trans.out.copyTo(resp);
+      }
+      return 4 + sz;
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      owner.deferred.remove(this);
+      key.cancel();
+      closeQuietly(ch);
+      synchronized (maplock) {
+        conns.remove(this);
+        doneBytesRead += bytesRead.get();
+        doneBytesWritten += bytesWritten.get();
+      }
+    }
+  }
+
+  static void closeQuietly(SocketChannel ch) {
+    try {
+      ch.close();
+    } catch (IOException e) {
+      LOGGER.debug("Error closing " + ch, e);
+    }
+  }
+
+  /**
+   * Thrown when a message needs more bytes than have been buffered. It is
+   * thrown often and never logged, so it has no stack trace.
+   */
+  static class Underflow extends TTransportException {
+    private static final long serialVersionUID = 1L;
+
+    Underflow() {
+      super("Message is incomplete");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  static final Underflow UNDERFLOW = new Underflow();
+
+  /**
+   * A reply buffer that can be appended to another without a copy.
+   */
+  static class Output extends ByteArrayOutputStream {
+    Output() {
+      super(64);
+    }
+
+    void copyTo(ByteArrayOutputStream dst) {
+      dst.write(buf, 0, count);
+    }
+  }
+
+  /**
+   * Reads one message from a region of a connection's input buffer and
+   * collects the reply in memory.
+   * 
+   * It deliberately doesn't offer direct buffer access (getBuffer and
+   * friends). With it TBinaryProtocol returns binary fields as views of the
+   * input buffer, which is compacted and refilled as soon as the message is
+   * processed, while the event bodies and attributes read from it may still
+   * be queued.
+   */
+  static class MessageTransport extends TTransport {
+    final byte[] buf;
+    final int start;
+    final int end;
+    int pos;
+    final Output out = new Output();
+
+    MessageTransport(byte[] buf, int off, int len) {
+      this.buf = buf;
+      this.start = off;
+      this.end = off + len;
+      this.pos = off;
+    }
+
+    int consumed() {
+      return pos - start;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws TTransportException {
+      if (pos >= end) {
+        throw UNDERFLOW;
+      }
+      int n = Math.min(len, end - pos);
+      System.arraycopy(buf, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.thrift.server;
+
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * The start/stop and byte accounting interface shared by the flume thrift
+ * servers, so that sources can pick a server implementation by configuration.
+ */
+public interface TSaneServer {
+
+  /**
+   * Starts the server and returns once it is listening.
+   */
+  public void start() throws TTransportException;
+
+  /**
+   * Stops the server, closing its client connections.
+   */
+  public void stop();
+
+  public long getBytesSent();
+
+  public long getBytesReceived();
+}
@@ -67,7 +67,7 @@ import com.cloudera.flume.handlers.thrift.TStatsTransport;
  * serve()
  * 
  */
-public class TSaneThreadPoolServer {
+public class TSaneThreadPoolServer implements TSaneServer {
 
   private static final Logger LOGGER = LoggerFactory
       .getLogger(TSaneThreadPoolServer.class);
@@ -157,6 +157,7 @@ public class TSaneThreadPoolServer {
   /**
    * This version starts a server and immediately returns.
    */
+  @Override
   public void start() {
     try {
       serverTransport_.listen(); // opens, binds and listens
@@ -195,6 +196,7 @@ public class TSaneThreadPoolServer {
    * This stops the server and waits until the executor service terminates or a
    * timeoyut has been reached before returning.
    */
+  @Override
   public void stop() {
     stopped_ = true;
     serverTransport_.interrupt();
@@ -218,6 +220,7 @@ public class TSaneThreadPoolServer {
     }
   }
 
+  @Override
   public long getBytesSent() {
     synchronized (maplock) {
       long total = doneBytesWritten;
@@ -228,6 +231,7 @@ public class TSaneThreadPoolServer {
     }
   }
 
+  @Override
   public long getBytesReceived() {
     synchronized (maplock) {
       long total = doneBytesRead;
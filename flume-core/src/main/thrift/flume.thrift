@@ -23,11 +23,15 @@
 #
 # This may change more fields are likely to be added, and the actual format is subject to change.
 
-# The server has two rpc methods 
+# The server has three rpc methods 
 # -- append: which sends an event to the server,
+# -- appendBatch: which sends a list of events and returns whether the server
+#    accepted them,
 # -- close: shuts down this client's connection
 #
-# Currently append is oneway, requiring the thrift server to do flow control.  
+# append is oneway, requiring the thrift server to do flow control.  
+# appendBatch is acknowledged, so clients can bound the number of batches they
+# have outstanding.
 
 namespace java com.cloudera.flume.handlers.thrift
 
@@ -60,6 +64,8 @@ struct ThriftFlumeEvent {
 service ThriftFlumeEventServer {
   oneway void append( 1:ThriftFlumeEvent evt ),
 
+  EventStatus appendBatch( 1:list<ThriftFlumeEvent> evts ),
+
   void close(), 
 }
 
@@ -52,6 +52,23 @@ struct ThriftFlumeConfigData {
   6: string flowID
 }
 
+// The state of one logical node, as sent in a multi node heartbeat
+struct ThriftLogicalNodeStatus {
+  1: string logicalNode,
+  2: FlumeNodeState state,
+  3: i64 version
+}
+
+// What a physical node needs to know after a multi node heartbeat: its
+// logical nodes, the configs of the logical nodes that need a new one, and
+// the choke map if it is not the one the node has.
+struct ThriftHeartbeatReply {
+  1: list<string> logicalNodes,
+  2: map<string, ThriftFlumeConfigData> configs,
+  3: bool chokeMapChanged,
+  4: map<string, i32> chokeMap
+}
+
 // TODO (jon) right now sourceId is a name selected by client, 
 // likely to be some naming consistency issues.
 
@@ -59,6 +76,10 @@ service ThriftFlumeClientServer {
   // This will get removed from the service
   // returns true if the sourceId's configuration has changed												 
   bool heartbeat(1:string logicalNode, 4:string physicalNode, 5:string host, 2:FlumeNodeState s, 3:i64 timestamp),
+
+  // Heartbeats all the logical nodes of a physical node at once.
+  // chokeMapHash is the hashCode of the choke map the node currently has.
+  ThriftHeartbeatReply heartbeatAll(1:string physicalNode, 2:string host, 3:list<ThriftLogicalNodeStatus> nodes, 4:i32 chokeMapHash),
   
   // This gets the configuration from the specified sourceId/name 
   ThriftFlumeConfigData getConfig(1:string sourceId),
@@ -74,6 +95,9 @@ service ThriftFlumeClientServer {
   // This is checks to see if a batch is complete
   bool checkAck(1:string ackid),
 
+  // Checks a batch of acks, returns the ones that are complete
+  list<string> checkAcks(1:list<string> ackids),
+
   // For nodes to send reports to the master
   void putReports(1:map<string, flumereportserver.ThriftFlumeReport> reports)
 }
@@ -76,4 +76,30 @@ public class TestGossipMulticast {
       mcast.stop();      
     }
   }        
+
+  /**
+   * Check that digests of seen messages are dropped after a few max ages, so
+   * that the seen set doesn't grow forever.
+   */
+  @Test
+  public void testAgeSeen() {
+    Group group = new Group();
+    TCPNodeId node = new TCPNodeId("localhost", 24568);
+    group.addNode(node);
+    GossipMulticast mcast = new GossipMulticast(group, node, 1000);
+    mcast.sendToGroup(group, "Msg 0".getBytes());
+    mcast.sendToGroup(group, "Msg 1".getBytes());
+    // the same message again is not queued twice
+    mcast.sendToGroup(group, "Msg 0".getBytes());
+    assertEquals(2, mcast.msgQueue.size());
+    assertEquals(2, mcast.seenMsgs.size());
+
+    long now = System.currentTimeMillis();
+    mcast.ageMessages(now + 2000);
+    assertEquals(0, mcast.msgQueue.size());
+    assertEquals(2, mcast.seenMsgs.size());
+
+    mcast.ageMessages(now + 1000 * GossipMulticast.SEEN_AGE_FACTOR + 2000);
+    assertEquals(0, mcast.seenMsgs.size());
+  }
 }
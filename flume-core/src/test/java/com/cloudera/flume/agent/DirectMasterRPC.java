@@ -20,14 +20,18 @@ package com.cloudera.flume.agent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.cloudera.flume.conf.FlumeConfigData;
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.handlers.endtoend.AckListener;
 import com.cloudera.flume.handlers.endtoend.CollectorAckListener;
 import com.cloudera.flume.master.FlumeMaster;
+import com.cloudera.flume.master.MasterClientServer;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.util.NetUtils;
 
@@ -65,6 +69,11 @@ public class DirectMasterRPC implements MasterRPC {
     return master.getAckMan().check(ackid);
   }
 
+  @Override
+  public List<String> checkAcks(List<String> ackids) throws IOException {
+    return master.getAckMan().check(ackids);
+  }
+
   public void open() throws IOException {
 
   }
@@ -124,6 +133,19 @@ public class DirectMasterRPC implements MasterRPC {
 
   }
 
+  @Override
+  public MultiHeartbeat.Reply heartbeatAll(String physicalNode, String host,
+      Collection<LogicalNode> nodes, int chokeMapHash) throws IOException {
+    List<MultiHeartbeat.Node> ns = new ArrayList<MultiHeartbeat.Node>();
+    for (LogicalNode n : nodes) {
+      ns.add(new MultiHeartbeat.Node(n.getName(), n.getStatus().state, n
+          .getConfigVersion()));
+    }
+    MasterClientServer mcs = new MasterClientServer(master, FlumeConfiguration
+        .get(), null);
+    return mcs.heartbeatAll(physicalNode, host, ns, chokeMapHash);
+  }
+
   /**
    * Creates a reportable for each ReportEvent and adds it to the global
    * ReportManager
@@ -20,6 +20,7 @@ package com.cloudera.flume.agent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.handlers.endtoend.AckListener;
 import com.cloudera.flume.master.MasterAckManager;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.reporter.ReportEvent;
 
 /**
@@ -53,6 +55,13 @@ public class MockMasterRPC implements MasterRPC {
     return ret;
   }
 
+  @Override
+  public List<String> checkAcks(List<String> ackids) throws IOException {
+    List<String> ret = ackman.check(ackids);
+    LOG.info("checking " + ackids + " ... " + ret);
+    return ret;
+  }
+
   public void open() {
   }
 
@@ -75,6 +84,13 @@ public class MockMasterRPC implements MasterRPC {
     return false;
   }
 
+  @Override
+  public MultiHeartbeat.Reply heartbeatAll(String physicalNode, String host,
+      Collection<LogicalNode> nodes, int chokeMapHash) throws IOException {
+    return new MultiHeartbeat.Reply(new ArrayList<String>(),
+        new HashMap<String, FlumeConfigData>(), null);
+  }
+
   @Override
   public List<String> getLogicalNodes(String physNode) throws IOException {
     return new ArrayList<String>();
@@ -18,6 +18,8 @@
 package com.cloudera.flume.agent;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.thrift.TException;
 import org.junit.Assert;
@@ -119,5 +121,35 @@ public class TestAcks {
     Assert.assertEquals(0, aac.pending.size());
   }
 
+  // a master without checkAcks still gets its acks checked, one at a time.
+  @Test
+  public void testAckAgentOldMaster() throws IOException {
+    final AtomicInteger batchCalls = new AtomicInteger();
+    MockMasterRPC svr = new MockMasterRPC() {
+      @Override
+      public List<String> checkAcks(List<String> ackids) throws IOException {
+        batchCalls.incrementAndGet();
+        throw new UnsupportedRPCException("checkAcks", null);
+      }
+    };
+
+    WALAckManager aac = new WALAckManager(svr, new AckListener.Empty(),
+        FlumeConfiguration.get().getAgentAckedRetransmit());
+    aac.getAgentAckQueuer().end("tag1");
+    aac.getAgentAckQueuer().end("tag2");
+
+    svr.acknowledge("tag1");
+    aac.checkAcks();
+    Assert.assertEquals(1, aac.pending.size());
+    Assert.assertTrue(aac.pending.containsKey("tag2"));
+
+    svr.acknowledge("tag2");
+    aac.checkAcks();
+    Assert.assertEquals(0, aac.pending.size());
+
+    // the unsupported batch rpc is only tried once
+    Assert.assertEquals(1, batchCalls.get());
+  }
+
   // error cases. Make sure things eventually make it.
 }
@@ -101,6 +101,30 @@ public class TestAgentSink {
     FlumeBuilder.buildSink(LogicalNodeContext.testingContext(), snk5);
   }
 
+  @Test
+  public void testCompressionCodecs() throws FlumeSpecException {
+    String snk1 = "agentSink(\"localhost\", 12345, compression=\"lz\")";
+    FlumeBuilder.buildSink(LogicalNodeContext.testingContext(), snk1);
+
+    String snk2 = "agentSink(\"localhost\", 12345, batchCount=100, "
+        + "compression=\"gzip\", compressionLevel=1)";
+    FlumeBuilder.buildSink(LogicalNodeContext.testingContext(), snk2);
+
+    Assert.assertEquals("", AgentSink.compressionDeco("false", null));
+    Assert.assertEquals(" compress(\"gzip\") ", AgentSink.compressionDeco(
+        "true", null));
+    Assert.assertEquals(" compress(\"lz\") ", AgentSink.compressionDeco("LZ",
+        null));
+    Assert.assertEquals(" compress(\"gzip\", 9) ", AgentSink
+        .compressionDeco("gzip", "9"));
+  }
+
+  @Test(expected = FlumeArgException.class)
+  public void testBadCompressionCodec() throws FlumeSpecException {
+    String snk1 = "agentSink(\"localhost\", 12345, compression=\"bzip2\")";
+    FlumeBuilder.buildSink(LogicalNodeContext.testingContext(), snk1);
+  }
+
   @Test(expected = FlumeArgException.class)
   public void testBadBatchCompressBuilder() throws FlumeSpecException {
     String snk1 = "agentSink(\"localhost\", 12345, batchCount=true)";
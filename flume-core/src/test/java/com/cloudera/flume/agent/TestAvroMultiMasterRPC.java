@@ -36,6 +36,8 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.avro.AvroFlumeConfigData;
+import com.cloudera.flume.conf.avro.AvroHeartbeatReply;
+import com.cloudera.flume.conf.avro.AvroLogicalNodeStatus;
 import com.cloudera.flume.reporter.server.avro.AvroFlumeReport;
 import com.cloudera.flume.conf.avro.AvroFlumeClientServer;
 import com.cloudera.flume.conf.avro.FlumeNodeState;
@@ -88,6 +90,12 @@ public class TestAvroMultiMasterRPC {
       throw new RuntimeException("Throwing an exception");
     }
 
+    @Override
+    public List<CharSequence> checkAcks(List<CharSequence> ackids)
+        throws AvroRemoteException {
+      return null;
+    }
+
     @Override
     public AvroFlumeConfigData getConfig(CharSequence sourceId)
         throws AvroRemoteException {
@@ -107,6 +115,13 @@ public class TestAvroMultiMasterRPC {
       return true;
     }
 
+    @Override
+    public AvroHeartbeatReply heartbeatAll(CharSequence physicalNode,
+        CharSequence clienthost, List<AvroLogicalNodeStatus> nodes,
+        int chokeMapHash) throws AvroRemoteException {
+      return null;
+    }
+
     @Override
     public Void putReports(Map<CharSequence, AvroFlumeReport> reports)
         throws AvroRemoteException {
@@ -18,11 +18,14 @@
 package com.cloudera.flume.agent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -38,6 +41,7 @@ import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
 import com.cloudera.flume.conf.SinkFactoryImpl;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.master.FlumeMaster;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.util.NetUtils;
 
 /**
@@ -147,4 +151,42 @@ public class TestLivenessManager {
     assertTrue("There should be some pending configs to process", sz > 0);
 
   }
+
+  /**
+   * A master that predates heartbeatAll rejects it. The liveness manager
+   * should stop calling it and keep spawning and configuring logical nodes
+   * with the per logical node rpcs.
+   */
+  @Test
+  public void testHeartbeatAllFallback() throws IOException,
+      InterruptedException, FlumeSpecException {
+    master = new FlumeMaster(cfg);
+    final AtomicInteger allCalls = new AtomicInteger();
+    final AtomicInteger nodeCalls = new AtomicInteger();
+    MasterRPC rpc = new DirectMasterRPC(master) {
+      @Override
+      public boolean heartbeat(LogicalNode n) throws IOException {
+        nodeCalls.incrementAndGet();
+        return super.heartbeat(n);
+      }
+
+      @Override
+      public MultiHeartbeat.Reply heartbeatAll(String physicalNode,
+          String host, Collection<LogicalNode> nodes, int chokeMapHash)
+          throws IOException {
+        allCalls.incrementAndGet();
+        throw new UnsupportedRPCException("heartbeatAll", null);
+      }
+    };
+
+    FlumeNode node = new FlumeNode(rpc, false, false);
+    master.getSpecMan().addLogicalNode(NetUtils.localhost(), "fallback");
+    LivenessManager liveMan = node.getLivenessManager();
+    liveMan.heartbeatChecks();
+    liveMan.heartbeatChecks();
+
+    assertEquals(1, allCalls.get());
+    assertTrue(nodeCalls.get() > 0);
+    assertNotNull(node.getLogicalNodeManager().get("fallback"));
+  }
 }
@@ -20,9 +20,16 @@ package com.cloudera.flume.agent;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -31,16 +38,24 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.FlumeBuilder;
 import com.cloudera.flume.conf.FlumeConfigData;
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
+import com.cloudera.flume.conf.LogicalNodeContext;
 import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
+import com.cloudera.flume.conf.SinkFactory.SinkDecoBuilder;
 import com.cloudera.flume.conf.SinkFactoryImpl;
 import com.cloudera.flume.conf.SourceFactory.SourceBuilder;
 import com.cloudera.flume.conf.SourceFactoryImpl;
+import com.cloudera.flume.core.Driver;
 import com.cloudera.flume.core.Driver.DriverState;
+import com.cloudera.flume.core.DurableSink;
 import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.EventSinkDecorator;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.util.Clock;
+import com.cloudera.util.FileUtil;
 
 public class TestLogicalNode {
 
@@ -256,4 +271,272 @@ public class TestLogicalNode {
     assertEquals(DriverState.ERROR, node.getDriver().getState());
 
   }
+
+  /**
+   * Test that a config that only changes the source keeps the sink open, that
+   * one that only changes the sink keeps the driver running, and that one that
+   * changes nothing but formatting is a no-op.
+   */
+  @Test
+  public void testHotReconfigure() throws IOException, RuntimeException,
+      FlumeSpecException, InterruptedException {
+    final AtomicInteger opens = new AtomicInteger();
+    final AtomicInteger closes = new AtomicInteger();
+    SinkFactoryImpl snkfact = new SinkFactoryImpl();
+    snkfact.setSink("countOpens", new SinkBuilder() {
+      @Override
+      public EventSink build(Context context, String... argv) {
+        return new EventSink.Base() {
+          @Override
+          public void open() {
+            opens.incrementAndGet();
+          }
+
+          @Override
+          public void close() {
+            closes.incrementAndGet();
+          }
+        };
+      }
+    });
+    FlumeBuilder.setSinkFactory(snkfact);
+
+    LogicalNode node = new LogicalNode(new Context(), "test-logical-node");
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0)", "countOpens", 1,
+        1, "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    Driver driver = node.getDriver();
+    EventSink sink = node.getSink();
+
+    node.loadConfig(new FlumeConfigData(0, "asciisynth( 0 )", "countOpens", 2,
+        2, "my-test-flow"));
+    assertSame(driver, node.getDriver());
+    assertSame(sink, node.getSink());
+
+    // new source, same sink
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0, 50)", "countOpens",
+        3, 3, "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    assertNotSame(driver, node.getDriver());
+    assertSame(sink, node.getSink());
+    assertEquals(1, opens.get());
+    assertEquals(0, closes.get());
+
+    // new sink, same source
+    driver = node.getDriver();
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0, 50)", "null", 4, 4,
+        "my-test-flow"));
+    assertSame(driver, node.getDriver());
+    assertEquals(DriverState.ACTIVE, driver.getState());
+    assertEquals(1, closes.get());
+
+    long hot = node.getMetrics().getLongMetric(LogicalNode.A_HOT_RECONFIGURES);
+    assertEquals(3, hot);
+    node.close();
+  }
+
+  /**
+   * Test that a sink change below the same decorators keeps the decorators
+   * open and only swaps the sink under them.
+   */
+  @Test
+  public void testHotReconfigureKeepsDecorators() throws IOException,
+      RuntimeException, FlumeSpecException, InterruptedException {
+    final AtomicInteger decoOpens = new AtomicInteger();
+    final AtomicInteger decoCloses = new AtomicInteger();
+    final AtomicInteger opens = new AtomicInteger();
+    final AtomicInteger closes = new AtomicInteger();
+    SinkFactoryImpl snkfact = new SinkFactoryImpl();
+    snkfact.setSink("countOpens", new SinkBuilder() {
+      @Override
+      public EventSink build(Context context, String... argv) {
+        return new EventSink.Base() {
+          @Override
+          public void open() {
+            opens.incrementAndGet();
+          }
+
+          @Override
+          public void close() {
+            closes.incrementAndGet();
+          }
+        };
+      }
+    });
+    snkfact.setDeco("countDeco", new SinkDecoBuilder() {
+      @Override
+      public EventSinkDecorator<EventSink> build(Context context,
+          String... argv) {
+        return new EventSinkDecorator<EventSink>(null) {
+          @Override
+          public void open() throws IOException, InterruptedException {
+            super.open();
+            decoOpens.incrementAndGet();
+          }
+
+          @Override
+          public void close() throws IOException, InterruptedException {
+            super.close();
+            decoCloses.incrementAndGet();
+          }
+        };
+      }
+    });
+    FlumeBuilder.setSinkFactory(snkfact);
+
+    LogicalNode node = new LogicalNode(new Context(), "test-logical-node");
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0)",
+        "{ countDeco => countOpens(\"a\") }", 1, 1, "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    Driver driver = node.getDriver();
+    EventSink sink = node.getSink();
+
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0)",
+        "{ countDeco => countOpens(\"b\") }", 2, 2, "my-test-flow"));
+    assertSame(driver, node.getDriver());
+    assertSame(sink, node.getSink());
+    assertEquals(1, decoOpens.get());
+    assertEquals(0, decoCloses.get());
+    assertEquals(2, opens.get());
+    assertEquals(1, closes.get());
+
+    // a different decorator swaps the whole sink
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0)",
+        "{ countDeco(\"x\") => countOpens(\"b\") }", 3, 3, "my-test-flow"));
+    assertSame(driver, node.getDriver());
+    assertNotSame(sink, node.getSink());
+    assertEquals(2, decoOpens.get());
+    assertEquals(1, decoCloses.get());
+    assertEquals(3, opens.get());
+    assertEquals(2, closes.get());
+
+    long hot = node.getMetrics().getLongMetric(LogicalNode.A_HOT_RECONFIGURES);
+    assertEquals(2, hot);
+    node.close();
+  }
+
+  /**
+   * Test that a plugin sink marked as a DurableSink is never swapped, even
+   * below unchanged decorators.
+   */
+  @Test
+  public void testHotReconfigureDurablePlugin() throws IOException,
+      RuntimeException, FlumeSpecException, InterruptedException {
+    SinkFactoryImpl snkfact = new SinkFactoryImpl();
+    snkfact.setSink("durable", new SinkBuilder() {
+      @Override
+      public EventSink build(Context context, String... argv) {
+        return new DurableNullSink();
+      }
+    });
+    FlumeBuilder.setSinkFactory(snkfact);
+
+    LogicalNode node = new LogicalNode(new Context(), "test-logical-node");
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0)",
+        "{ nullDeco => durable(\"a\") }", 1, 1, "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    Driver driver = node.getDriver();
+
+    node.loadConfig(new FlumeConfigData(0, "asciisynth(0)",
+        "{ nullDeco => durable(\"b\") }", 2, 2, "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    assertNotSame(driver, node.getDriver());
+    assertEquals(0, node.getMetrics().getLongMetric(
+        LogicalNode.A_HOT_RECONFIGURES).longValue());
+    node.close();
+  }
+
+  static class DurableNullSink extends EventSink.Base implements DurableSink {
+  }
+
+  /**
+   * Test that changing the agentE2ESink of a running node loses no events and
+   * that the WAL keeps draining to the collector afterwards. Both sinks write
+   * to the node's WAL, so this has to be a full restart, not a sink swap.
+   */
+  @Test
+  public void testReconfigureE2ESink() throws IOException, RuntimeException,
+      FlumeSpecException, InterruptedException {
+    File tmpdir = FileUtil.mktempdir();
+    FlumeConfiguration.get().set(FlumeConfiguration.AGENT_LOG_DIR_NEW,
+        tmpdir.getAbsolutePath());
+    FlumeNode flumeNode = new FlumeNode(new MockMasterRPC(), false, false);
+
+    // numbered events, never blocks so drivers stop promptly
+    final AtomicInteger nexts = new AtomicInteger();
+    SourceFactoryImpl srcfact = new SourceFactoryImpl();
+    srcfact.setSource("numbered", new SourceBuilder() {
+      @Override
+      public EventSource build(Context ctx, String... argv) {
+        return new EventSource.Base() {
+          @Override
+          public Event next() throws InterruptedException {
+            Clock.sleep(1);
+            return new EventImpl(("event " + nexts.getAndIncrement())
+                .getBytes());
+          }
+        };
+      }
+    });
+    FlumeBuilder.setSourceFactory(srcfact);
+    FlumeBuilder.setSinkFactory(new SinkFactoryImpl());
+
+    final Set<String> received = Collections
+        .synchronizedSet(new HashSet<String>());
+    final EventSource collector = FlumeBuilder.buildSource(new Context(),
+        "collectorSource(12347)");
+    collector.open();
+    Thread drain = new Thread("collector drain") {
+      @Override
+      public void run() {
+        try {
+          Event e;
+          while ((e = collector.next()) != null) {
+            String body = new String(e.getBody());
+            if (body.startsWith("event ")) { // skip ack markers
+              received.add(body);
+            }
+          }
+        } catch (Exception e) {
+          LOG.info("collector drain exited", e);
+        }
+      }
+    };
+    drain.start();
+
+    LogicalNode node = new LogicalNode(new LogicalNodeContext(flumeNode
+        .getPhysicalNodeName(), "e2e-node"), "e2e-node");
+    node.loadConfig(new FlumeConfigData(0, "numbered",
+        "agentE2ESink(\"localhost\", 12347)", 1, 1, "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    Clock.sleep(500);
+
+    Driver driver = node.getDriver();
+    node.loadConfig(new FlumeConfigData(0, "numbered",
+        "{ nullDeco => agentE2ESink(\"localhost\", 12347) }", 2, 2,
+        "my-test-flow"));
+    assertTrue(node.getDriver().waitForState(DriverState.ACTIVE, 5000));
+    assertNotSame(driver, node.getDriver());
+    assertEquals(0, node.getMetrics().getLongMetric(
+        LogicalNode.A_HOT_RECONFIGURES).longValue());
+
+    // events made after the restart still reach the collector
+    String later = "event " + (nexts.get() + 100);
+    for (int i = 0; i < 100 && !received.contains(later); i++) {
+      Clock.sleep(100);
+    }
+    assertTrue("WAL stopped draining", received.contains(later));
+
+    // closing drains the WAL, after which every event has arrived
+    node.close();
+    int sent = nexts.get();
+    for (int i = 0; i < 100 && received.size() < sent; i++) {
+      Clock.sleep(100);
+    }
+    assertEquals(sent, received.size());
+
+    collector.close();
+    drain.join();
+    FileUtil.rmr(tmpdir);
+  }
 }
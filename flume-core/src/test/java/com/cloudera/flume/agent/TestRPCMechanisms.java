@@ -19,6 +19,7 @@ package com.cloudera.flume.agent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,14 +41,19 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.avro.AvroFlumeConfigData;
+import com.cloudera.flume.conf.avro.AvroHeartbeatReply;
+import com.cloudera.flume.conf.avro.AvroLogicalNodeStatus;
 import com.cloudera.flume.reporter.server.avro.AvroFlumeReport;
 import com.cloudera.flume.conf.avro.AvroFlumeClientServer;
 import com.cloudera.flume.conf.avro.FlumeNodeState;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer;
 import com.cloudera.flume.conf.thrift.ThriftFlumeConfigData;
+import com.cloudera.flume.conf.thrift.ThriftHeartbeatReply;
+import com.cloudera.flume.conf.thrift.ThriftLogicalNodeStatus;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer.Iface;
 import com.cloudera.flume.master.MasterClientServerAvro;
 import com.cloudera.flume.master.MasterClientServerThrift;
+import com.cloudera.flume.master.MultiHeartbeat;
 import com.cloudera.flume.master.StatusManager;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.server.thrift.ThriftFlumeReport;
@@ -97,6 +103,13 @@ public class TestRPCMechanisms {
       return true;
     }
 
+    @Override
+    public List<CharSequence> checkAcks(List<CharSequence> ackids)
+        throws AvroRemoteException {
+      Log.info("checkAcks called at server on " + this.server.getPort());
+      return new ArrayList<CharSequence>(ackids.subList(0, 1));
+    }
+
     @Override
     public AvroFlumeConfigData getConfig(CharSequence sourceId)
         throws AvroRemoteException {
@@ -131,6 +144,15 @@ public class TestRPCMechanisms {
       return true;
     }
 
+    @Override
+    public AvroHeartbeatReply heartbeatAll(CharSequence physicalNode,
+        CharSequence clienthost, List<AvroLogicalNodeStatus> nodes,
+        int chokeMapHash) throws AvroRemoteException {
+      Log.info("heartbeatAll called at server on " + this.server.getPort());
+      assertEquals(0, nodes.size());
+      return MasterClientServerAvro.replyToAvro(heartbeatReply());
+    }
+
     @Override
     public Void putReports(Map<CharSequence, AvroFlumeReport> reports)
         throws AvroRemoteException {
@@ -184,6 +206,12 @@ public class TestRPCMechanisms {
       return true;
     }
 
+    @Override
+    public List<String> checkAcks(List<String> ackids) throws TException {
+      Log.info("checkAcks called at server on " + this.port);
+      return ackids.subList(0, 1);
+    }
+
     @Override
     public ThriftFlumeConfigData getConfig(String sourceId) throws TException {
       Log.info("getConfig called at server on " + this.port);
@@ -216,6 +244,15 @@ public class TestRPCMechanisms {
       return true;
     }
 
+    @Override
+    public ThriftHeartbeatReply heartbeatAll(String physicalNode,
+        String clienthost, List<ThriftLogicalNodeStatus> nodes,
+        int chokeMapHash) throws TException {
+      Log.info("heartbeatAll called at server on " + this.port);
+      assertEquals(0, nodes.size());
+      return MasterClientServerThrift.replyToThrift(heartbeatReply());
+    }
+
     @Override
     public void putReports(Map<String, ThriftFlumeReport> reports)
         throws TException {
@@ -269,6 +306,25 @@ public class TestRPCMechanisms {
     }
   }
 
+  /**
+   * The multi node heartbeat reply the mock servers send.
+   */
+  static MultiHeartbeat.Reply heartbeatReply() {
+    FlumeConfigData cfg = new FlumeConfigData();
+    cfg.flowID = "flowID";
+    cfg.sinkConfig = "sinkConfig";
+    cfg.sinkVersion = 112233;
+    cfg.sourceConfig = "sourceConfig";
+    cfg.sourceVersion = 445566;
+    cfg.timestamp = 78901;
+    Map<String, FlumeConfigData> configs = new HashMap<String, FlumeConfigData>();
+    configs.put("one", cfg);
+    Map<String, Integer> chokeMap = new HashMap<String, Integer>();
+    chokeMap.put("choke", 100);
+    return new MultiHeartbeat.Reply(Arrays.asList("one", "two"), configs,
+        chokeMap);
+  }
+
   /**
    * Connect to stub server and make sure types are converted correctly.
    * 
@@ -297,6 +353,8 @@ public class TestRPCMechanisms {
 
   public void runTest(MultiMasterRPC masterRPC) throws IOException {
     assertEquals(true, masterRPC.checkAck("FOO"));
+    assertEquals(Arrays.asList("FOO"), masterRPC.checkAcks(Arrays.asList(
+        "FOO", "BAR")));
     List<String> logicalNodes = masterRPC.getLogicalNodes("Unused");
     assertEquals(4, logicalNodes.size());
     assertEquals("one", logicalNodes.get(0));
@@ -330,6 +388,14 @@ public class TestRPCMechanisms {
         doubleMetrics));
 
     masterRPC.putReports(reports);
+
+    MultiHeartbeat.Reply reply = masterRPC.heartbeatAll("Unused", "host",
+        new ArrayList<LogicalNode>(), 0);
+    assertEquals(Arrays.asList("one", "two"), reply.logicalNodes);
+    assertEquals(1, reply.configs.size());
+    assertEquals("sourceConfig", reply.configs.get("one").sourceConfig);
+    assertEquals(445566, reply.configs.get("one").sourceVersion);
+    assertEquals(Integer.valueOf(100), reply.chokeMap.get("choke"));
   }
 
   @Test
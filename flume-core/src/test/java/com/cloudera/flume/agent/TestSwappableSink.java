@@ -0,0 +1,172 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.ThreadSafeSink;
+import com.cloudera.flume.handlers.debug.NullSink;
+
+/**
+ * Tests the sink that lets a logical node swap its sink under a running
+ * driver.
+ */
+public class TestSwappableSink {
+
+  /**
+   * Sink that counts opens, closes and appends.
+   */
+  static class CountingSink extends EventSink.Base {
+    int opens = 0;
+    int closes = 0;
+    int appends = 0;
+
+    @Override
+    public void open() {
+      opens++;
+    }
+
+    @Override
+    public void close() {
+      closes++;
+    }
+
+    @Override
+    public void append(Event e) {
+      appends++;
+    }
+  }
+
+  @Test
+  public void testSwap() throws IOException, InterruptedException {
+    CountingSink a = new CountingSink();
+    CountingSink b = new CountingSink();
+    SwappableSink s = new SwappableSink(a);
+
+    // can't swap into a sink that isn't open
+    assertNull(s.swap(b, 1000));
+
+    s.open();
+    s.append(new EventImpl("a".getBytes()));
+    b.open();
+    assertSame(a, s.swap(b, 1000));
+    s.append(new EventImpl("b".getBytes()));
+    s.close();
+
+    assertEquals(1, a.appends);
+    assertEquals(0, a.closes);
+    assertEquals(1, b.appends);
+    assertEquals(1, b.opens);
+    assertEquals(1, b.closes);
+  }
+
+  @Test
+  public void testKeepOpen() throws IOException, InterruptedException {
+    CountingSink a = new CountingSink();
+    SwappableSink s = new SwappableSink(a);
+    s.open();
+    s.setKeepOpen(true);
+    s.close();
+    s.setKeepOpen(false);
+    // the next driver's open doesn't open it again
+    s.open();
+    assertEquals(1, a.opens);
+    assertEquals(0, a.closes);
+
+    s.close();
+    assertEquals(1, a.closes);
+    s.open();
+    assertEquals(2, a.opens);
+  }
+
+  /**
+   * Test that a swap gives up instead of waiting forever on a stuck append.
+   */
+  @Test
+  public void testSwapTimeout() throws IOException, InterruptedException {
+    final CountDownLatch appending = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    CountingSink a = new CountingSink() {
+      @Override
+      public void append(Event e) {
+        appending.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        super.append(e);
+      }
+    };
+    CountingSink b = new CountingSink();
+    final SwappableSink s = new SwappableSink(a);
+    s.open();
+
+    Thread t = new Thread("stuck append") {
+      @Override
+      public void run() {
+        try {
+          s.append(new EventImpl("a".getBytes()));
+        } catch (Exception e) {
+          // checked below by the append count
+        }
+      }
+    };
+    t.start();
+    assertTrue(appending.await(5, TimeUnit.SECONDS));
+
+    assertNull(s.swap(b, 100));
+    assertSame(a, s.current());
+
+    release.countDown();
+    t.join();
+    assertEquals(1, a.appends);
+    assertSame(a, s.swap(b, 1000));
+  }
+
+  /**
+   * Test that wrapping keeps a sink's thread safety, and that a thread safe
+   * wrapper doesn't swap in a sink that isn't.
+   */
+  @Test
+  public void testWrapThreadSafe() throws IOException, InterruptedException {
+    assertFalse(SwappableSink.wrap(new CountingSink()) instanceof ThreadSafeSink);
+
+    SwappableSink s = SwappableSink.wrap(new NullSink());
+    assertTrue(s instanceof ThreadSafeSink);
+    s.open();
+    assertNull(s.swap(new CountingSink(), 1000));
+    NullSink b = new NullSink();
+    assertNotNull(s.swap(b, 1000));
+    assertSame(b, s.current());
+  }
+}
@@ -31,6 +31,8 @@ import org.slf4j.LoggerFactory;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer;
 import com.cloudera.flume.conf.thrift.ThriftFlumeConfigData;
+import com.cloudera.flume.conf.thrift.ThriftHeartbeatReply;
+import com.cloudera.flume.conf.thrift.ThriftLogicalNodeStatus;
 import com.cloudera.flume.conf.FlumeConfigData;
 import com.cloudera.flume.conf.thrift.FlumeNodeState;
 import com.cloudera.flume.conf.thrift.ThriftFlumeClientServer.Iface;
@@ -74,6 +76,11 @@ public class TestThriftMultiMasterRPC {
       throw new TException("Throwing an exception");
     }
 
+    @Override
+    public List<String> checkAcks(List<String> ackids) throws TException {
+      return null;
+    }
+
     @Override
     public ThriftFlumeConfigData getConfig(String sourceId) throws TException {
       return MasterClientServerThrift.configToThrift(new FlumeConfigData());
@@ -91,6 +98,13 @@ public class TestThriftMultiMasterRPC {
       return true;
     }
 
+    @Override
+    public ThriftHeartbeatReply heartbeatAll(String physicalNode,
+        String clienthost, List<ThriftLogicalNodeStatus> nodes,
+        int chokeMapHash) throws TException {
+      return null;
+    }
+
     @Override
     public void putReports(Map<String, ThriftFlumeReport> reports) throws TException {
 
@@ -36,6 +36,7 @@ import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.handlers.debug.ConsoleEventSink;
 import com.cloudera.flume.handlers.endtoend.AckChecksumInjector;
 import com.cloudera.flume.handlers.hdfs.SeqfileEventSink;
+import com.cloudera.flume.handlers.hdfs.SeqfileEventSource;
 import com.cloudera.flume.handlers.rolling.ProcessTagger;
 import com.cloudera.flume.handlers.rolling.Tagger;
 import com.cloudera.util.FlumeTestHarness;
@@ -294,6 +295,58 @@ public class TestNaiveFileWALManager {
 
   }
 
+  /**
+   * Recovers several unframed logs at once and checks that every event makes
+   * it into the reframed logs.
+   */
+  @Test
+  public void testReframeManyLogs() throws IOException, InterruptedException {
+    FlumeTestHarness.setupLocalWriteDir();
+    File tmp = FlumeTestHarness.tmpdir;
+
+    NaiveFileWALManager wal = new NaiveFileWALManager(tmp);
+    wal.open(); // create dirs
+
+    int logs = 10;
+    int events = 1000;
+    for (int i = 0; i < logs; i++) {
+      File f = new File(wal.writingDir, "writing.0000000" + i
+          + ".20100204-015814F430-0800.seq");
+      SeqfileEventSink sf = new SeqfileEventSink(f);
+      sf.open();
+      for (int j = 0; j < events; j++) {
+        sf.append(new EventImpl(("test " + j).getBytes()));
+      }
+      sf.close();
+    }
+
+    // do the low level recovery
+    wal.recover();
+
+    assertEquals(0, new File(tmp, "writing").list().length);
+    assertEquals(logs, new File(tmp, "error").list().length);
+    assertEquals(logs, new File(tmp, "logged").list().length);
+    assertEquals(logs, wal.getLoggedTags().size());
+
+    for (String f : new File(tmp, "logged").list()) {
+      EventSource src = new SeqfileEventSource(new File(wal.loggedDir, f)
+          .getAbsolutePath());
+      src.open();
+      int count = 0;
+      Event e;
+      while ((e = src.next()) != null) {
+        if (Arrays.equals(AckChecksumInjector.CHECKSUM_MSG, e
+            .get(AckChecksumInjector.ATTR_ACK_TYPE))) {
+          count++;
+        }
+      }
+      src.close();
+      assertEquals(events, count);
+    }
+
+    FlumeTestHarness.cleanupLocalWriteDir();
+  }
+
   /**
    * This reframes data that has a bad ack-end checksum
    */
@@ -0,0 +1,121 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloudera.flume.handlers.debug.MemorySinkSource;
+
+/**
+ * This tests the batch append path through sinks and decorators.
+ */
+public class TestAppendBatch {
+
+  /**
+   * Sink that records how many appendBatch calls it received.
+   */
+  static class BatchCountingSink extends MemorySinkSource {
+    int batches = 0;
+
+    @Override
+    public void appendBatch(List<Event> events) throws IOException,
+        InterruptedException {
+      batches++;
+      super.appendBatch(events);
+    }
+  }
+
+  List<Event> makeBatch(int n) {
+    List<Event> batch = new ArrayList<Event>();
+    for (int i = 0; i < n; i++) {
+      batch.add(new EventImpl(("event " + i).getBytes()));
+    }
+    return batch;
+  }
+
+  /**
+   * A plain decorator forwards the batch as a single call.
+   */
+  @Test
+  public void testDecoratorForwardsBatch() throws IOException,
+      InterruptedException {
+    BatchCountingSink mem = new BatchCountingSink();
+    EventSink snk = new EventSinkDecorator<EventSink>(
+        new EventSinkDecorator<EventSink>(mem));
+    snk.open();
+    snk.appendBatch(makeBatch(10));
+    snk.close();
+
+    assertEquals(1, mem.batches);
+    assertEquals(10L, (long) mem.getReport().getLongMetric(
+        EventSink.Base.R_NUM_EVENTS));
+    assertEquals(10L, (long) snk.getReport().getLongMetric(
+        EventSink.Base.R_NUM_EVENTS));
+  }
+
+  /**
+   * A decorator that only overrides append must still see every event.
+   */
+  @Test
+  public void testAppendOnlyDecoratorUnrolls() throws IOException,
+      InterruptedException {
+    BatchCountingSink mem = new BatchCountingSink();
+    EventSink snk = new EventSinkDecorator<EventSink>(mem) {
+      @Override
+      public void append(Event e) throws IOException, InterruptedException {
+        e.set("seen", "yes".getBytes());
+        super.append(e);
+      }
+    };
+    snk.open();
+    snk.appendBatch(makeBatch(10));
+    snk.close();
+
+    assertEquals(0, mem.batches);
+    mem.open();
+    int count = 0;
+    Event e;
+    while ((e = mem.next()) != null) {
+      assertEquals("yes", new String(e.get("seen")));
+      count++;
+    }
+    assertEquals(10, count);
+  }
+
+  /**
+   * Memory source hands out up to max events per nextBatch call.
+   */
+  @Test
+  public void testMemoryNextBatch() throws IOException, InterruptedException {
+    MemorySinkSource mem = MemorySinkSource.cannedData("test", 25);
+    mem.open();
+    List<Event> batch = new ArrayList<Event>();
+    assertEquals(10, mem.nextBatch(batch, 10));
+    assertEquals(10, mem.nextBatch(batch, 10));
+    assertEquals(5, mem.nextBatch(batch, 10));
+    assertEquals(0, mem.nextBatch(batch, 10));
+    assertEquals(25, batch.size());
+    mem.close();
+  }
+}
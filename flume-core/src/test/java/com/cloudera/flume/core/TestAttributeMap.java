@@ -0,0 +1,149 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+/**
+ * Tests for the array backed event attribute map.
+ */
+public class TestAttributeMap {
+
+  @Test
+  public void testPutGetRemove() {
+    AttributeMap m = new AttributeMap();
+    byte[] a = "a".getBytes();
+    byte[] b = "b".getBytes();
+    assertNull(m.put("a", a));
+    assertNull(m.put("b", b));
+    assertEquals(2, m.size());
+    assertSame(a, m.get(new String("a"))); // not the same key instance
+    assertSame(a, m.put("a", b));
+    assertSame(b, m.get("a"));
+    assertTrue(m.containsKey("b"));
+    assertNull(m.get("c"));
+
+    assertSame(b, m.remove("a"));
+    assertEquals(1, m.size());
+    assertNull(m.get("a"));
+    assertSame(b, m.get("b"));
+  }
+
+  /**
+   * Maps compare equal to HashMaps with the same contents, and back.
+   */
+  @Test
+  public void testHashMapEquivalence() {
+    Map<String, byte[]> h = new HashMap<String, byte[]>();
+    for (int i = 0; i < 5; i++) {
+      h.put("key" + i, ("val" + i).getBytes());
+    }
+    AttributeMap m = new AttributeMap(h);
+    assertEquals(h, m);
+    assertEquals(m, h);
+    assertEquals(h.hashCode(), m.hashCode());
+    assertEquals(h.keySet(), m.keySet());
+  }
+
+  /**
+   * Maps switch to hashing past the array size and keep all their entries.
+   */
+  @Test
+  public void testGrowsPastArray() {
+    AttributeMap m = new AttributeMap();
+    int n = AttributeMap.MAX_ARRAY_SIZE * 4;
+    for (int i = 0; i < n; i++) {
+      m.put("key" + i, ("val" + i).getBytes());
+    }
+    assertEquals(n, m.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals("val" + i, new String(m.get("key" + i)));
+    }
+  }
+
+  /**
+   * A shared copy is independent from the original once either is written.
+   */
+  @Test
+  public void testCopyOnWrite() {
+    AttributeMap m = new AttributeMap();
+    m.put("a", "1".getBytes());
+    m.put("b", "2".getBytes());
+    AttributeMap c = m.share();
+    assertEquals(m, c);
+
+    c.put("c", "3".getBytes());
+    c.put("a", "x".getBytes());
+    assertEquals(2, m.size());
+    assertEquals("1", new String(m.get("a")));
+    assertNull(m.get("c"));
+
+    m.remove("b");
+    assertEquals("2", new String(c.get("b")));
+    assertEquals(3, c.size());
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    AttributeMap m = new AttributeMap();
+    m.put("a", "1".getBytes());
+    m.put("b", "2".getBytes());
+    m.put("c", "3".getBytes());
+    AttributeMap c = m.share();
+    Iterator<Entry<String, byte[]>> it = c.entrySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().getKey().equals("b")) {
+        it.remove();
+      }
+    }
+    assertEquals(2, c.size());
+    assertFalse(c.containsKey("b"));
+    assertEquals(3, m.size()); // original untouched
+  }
+
+  @Test
+  public void testCanonicalKeys() {
+    String k = AttributeMap.canonicalize(new String("someAttr"));
+    assertSame(k, AttributeMap.canonicalize(new String("someAttr")));
+  }
+
+  /**
+   * Copying an event shares its attributes until one of them is changed.
+   */
+  @Test
+  public void testEventCopy() {
+    Event e = new EventImpl("body".getBytes());
+    Attributes.setString(e, "a", "1");
+    Event e2 = new EventImpl(e);
+    Attributes.setString(e2, "b", "2");
+    assertEquals(1, e.getAttrs().size());
+    assertEquals(2, e2.getAttrs().size());
+    assertEquals("1", Attributes.readString(e2, "a"));
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.handlers.text.TailSource;
+import com.cloudera.util.FileUtil;
+
+/**
+ * Tests for events that view a slice of a ByteBuffer.
+ */
+public class TestByteBufferEvent {
+
+  @Test
+  public void testSliceBody() {
+    ByteBuffer buf = ByteBuffer.wrap("xxhello worldyy".getBytes());
+    buf.position(2);
+    buf.limit(13);
+    ByteBufferEvent e = new ByteBufferEvent(buf);
+
+    // the caller's buffer is not touched
+    assertEquals(2, buf.position());
+    assertEquals(13, buf.limit());
+
+    assertEquals("hello world", new String(e.getBody()));
+    assertSame(e.getBody(), e.getBody()); // only copied once.
+
+    ByteBuffer bb = e.getBodyBuffer();
+    assertEquals(0, bb.position());
+    assertEquals(11, bb.remaining());
+    assertEquals('h', bb.get());
+    assertEquals(0, e.getBodyBuffer().position()); // views are independent
+  }
+
+  @Test
+  public void testDirectBody() {
+    ByteBuffer buf = ByteBuffer.allocateDirect(16);
+    buf.put("direct".getBytes());
+    buf.flip();
+    Event e = new ByteBufferEvent(buf);
+    assertEquals("direct", new String(e.getBody()));
+  }
+
+  /**
+   * A body that is an entire array is not copied.
+   */
+  @Test
+  public void testWholeArrayNoCopy() {
+    byte[] arr = "whole".getBytes();
+    ByteBufferEvent e = new ByteBufferEvent(ByteBuffer.wrap(arr));
+    assertSame(arr, e.getBody());
+    assertSame(e, ByteBufferEvent.retain(e));
+  }
+
+  @Test
+  public void testRetain() {
+    ByteBuffer buf = ByteBuffer.wrap("abcdef".getBytes());
+    buf.position(1).limit(4);
+    Event e = new ByteBufferEvent(buf);
+    Attributes.setString(e, "attr", "val");
+
+    Event kept = ByteBufferEvent.retain(e);
+    assertFalse(kept instanceof ByteBufferEvent);
+    buf.array()[1] = 'X'; // source reuses its buffer
+    assertEquals("bcd", new String(kept.getBody()));
+    assertEquals("val", Attributes.readString(kept, "attr"));
+    assertEquals(e.getTimestamp(), kept.getTimestamp());
+    assertEquals(e.getNanos(), kept.getNanos());
+    assertEquals(e.getHost(), kept.getHost());
+
+    Event plain = new EventImpl("plain".getBytes());
+    assertSame(plain, ByteBufferEvent.retain(plain));
+  }
+
+  @Test
+  public void testBodyBuffer() {
+    byte[] arr = "plain".getBytes();
+    ByteBuffer bb = ByteBufferEvent.bodyBuffer(new EventImpl(arr));
+    assertTrue(bb.hasArray());
+    assertSame(arr, bb.array());
+    assertEquals(arr.length, bb.remaining());
+
+    ByteBuffer buf = ByteBuffer.wrap("xxsliceyy".getBytes());
+    buf.position(2).limit(7);
+    bb = ByteBufferEvent.bodyBuffer(new ByteBufferEvent(buf));
+    byte[] out = new byte[bb.remaining()];
+    bb.get(out);
+    assertArrayEquals("slice".getBytes(), out);
+  }
+
+  @Test
+  public void testBodyLength() {
+    ByteBuffer buf = ByteBuffer.wrap("xxsliceyy".getBytes());
+    buf.position(2).limit(7);
+    ByteBufferEvent e = new ByteBufferEvent(buf);
+    assertEquals(5, ByteBufferEvent.bodyLength(e));
+    assertFalse(e.isBodyCopied());
+    assertEquals(5, ByteBufferEvent.bodyLength(new EventImpl("plain"
+        .getBytes())));
+  }
+
+  /**
+   * Lines tailed from a file reach the sink as slices of the read buffer, and
+   * neither the source's nor the sink's statistics copy their bodies.
+   */
+  @Test
+  public void testTailNoCopy() throws IOException, InterruptedException {
+    File f = FileUtil.createTempFile("tail", ".tmp");
+    f.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(f);
+    int lines = 2000;
+    byte[] line = new byte[100];
+    Arrays.fill(line, (byte) 'x');
+    line[line.length - 1] = '\n';
+    for (int i = 0; i < lines; i++) {
+      out.write(line);
+    }
+    out.close();
+
+    TailSource src = new TailSource(f, 0, 100);
+    EventSink snk = new EventSink.Base();
+    src.open();
+    int slices = 0;
+    for (int i = 0; i < lines; i++) {
+      Event e = src.next();
+      snk.append(e);
+      if (e instanceof ByteBufferEvent) {
+        assertFalse(((ByteBufferEvent) e).isBodyCopied());
+        slices++;
+      }
+    }
+    src.close();
+    assertTrue(slices > lines / 2);
+
+    long bytes = (long) lines * (line.length - 1);
+    assertEquals(Long.valueOf(bytes), snk.getMetrics().getLongMetric(
+        "number of bytes"));
+    f.delete();
+  }
+
+  /**
+   * Test that creating a too-big event fails with the right exception.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxSize() {
+    long maxSize = FlumeConfiguration.get().getEventMaxSizeBytes();
+    new ByteBufferEvent(ByteBuffer.allocate((int) (maxSize + 1)));
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event.Priority;
+
+/**
+ * Tests for compiled escape templates.
+ */
+public class TestEscapeTemplate {
+
+  Event event(long ts) {
+    Event e = new EventImpl("body $1 \\x".getBytes(), ts, Priority.WARN, 42,
+        "host1");
+    Attributes.setString(e, "service", "svc");
+    Attributes.setString(e, "scribe.category", "cat");
+    Attributes.setString(e, "foo-bar", "fb");
+    return e;
+  }
+
+  /**
+   * Expansions must match what Event.TAG_REGEX finds.
+   */
+  @Test
+  public void testParsing() {
+    Event e = event(0);
+    assertEquals("plain", EscapeTemplate.compile("plain").expand(e));
+    assertEquals("/svc/cat/fb/", EscapeTemplate.compile(
+        "/%{service}/%{scribe.category}/%{foo-bar}/").expand(e));
+    assertEquals("host1 WARN 42", EscapeTemplate.compile(
+        "%{host} %{priority} %{nanos}").expand(e));
+    assertEquals("body $1 \\x", EscapeTemplate.compile("%{body}").expand(e));
+    assertEquals("%", EscapeTemplate.compile("%%").expand(e));
+    assertEquals("a%", EscapeTemplate.compile("a%").expand(e));
+    assertEquals("%{}%{a b}", EscapeTemplate.compile("%{}%{a b}").expand(e));
+    assertEquals("%{service", EscapeTemplate.compile("%{service").expand(e));
+    assertEquals("x%x", EscapeTemplate.compile("x%%%{missing}x").expand(e));
+    assertEquals("0-0", EscapeTemplate.compile("%s-%t").expand(e));
+
+    assertFalse(EscapeTemplate.compile("/no/tags%").hasTags());
+    assertTrue(EscapeTemplate.compile("%%").hasTags());
+    assertEquals(Event.containsTag("a%{b c}"), EscapeTemplate
+        .compile("a%{b c}").hasTags());
+  }
+
+  /**
+   * Every date shorthand must format as SimpleDateFormat does, including for
+   * timestamps that move in and out of cached buckets.
+   */
+  @Test
+  public void testDates() {
+    String[][] fmts = { { "a", "EEE" }, { "A", "EEEE" }, { "b", "MMM" },
+        { "B", "MMMM" }, { "c", "EEE MMM d HH:mm:ss yyyy" }, { "d", "dd" },
+        { "D", "MM/dd/yy" }, { "H", "HH" }, { "I", "hh" }, { "j", "DDD" },
+        { "k", "H" }, { "l", "h" }, { "m", "MM" }, { "M", "mm" },
+        { "p", "a" }, { "S", "ss" }, { "y", "yy" }, { "Y", "yyyy" },
+        { "z", "ZZZ" } };
+    long base = 1300000000000L;
+    long[] steps = { 0, 1, 999, 1000, 59999, 60000, 3599999, 3600000,
+        -3600000, 86399999, 86400000, 31L * 86400000, -1, 366L * 86400000, 7 };
+    for (String[] f : fmts) {
+      EscapeTemplate t = EscapeTemplate.compile("/%" + f[0] + "/");
+      SimpleDateFormat sdf = new SimpleDateFormat(f[1]);
+      for (long step : steps) {
+        long ts = base + step;
+        assertEquals(f[0] + " at " + ts, "/" + sdf.format(new Date(ts)) + "/",
+            t.expand(event(ts)));
+      }
+    }
+  }
+
+  /**
+   * Events that override replaceShorthand are honored, and Event's own
+   * shorthand methods use the same table as templates.
+   */
+  @Test
+  public void testShorthandHook() {
+    long ts = 1300000000000L;
+    Event e = new EventImpl("body".getBytes(), ts, Priority.INFO, 0, "host1") {
+      @Override
+      protected String replaceShorthand(char c) {
+        return (c == 'q') ? "custom" : super.replaceShorthand(c);
+      }
+    };
+    String hour = new SimpleDateFormat("HH").format(new Date(ts));
+    assertEquals("/custom/" + hour + "/", e.escapeString("/%q/%H/"));
+
+    Event plain = event(ts);
+    assertEquals(hour, plain.replaceShorthand('H'));
+    assertEquals("%", plain.replaceShorthand('%'));
+    assertEquals("", plain.replaceShorthand('q'));
+    assertEquals("hour_24_xx", plain.expandShorthand('H'));
+    assertEquals(hour, plain.getEscapeMapping("/%H/").get("hour_24_xx"));
+  }
+
+  /**
+   * A typical bucketed hdfs path.
+   */
+  @Test
+  public void testBucketedPath() {
+    long ts = 1300000000000L;
+    String tmpl = "hdfs://nn/flume/%{service}/%Y-%m-%d/%H00/";
+    String expected = "hdfs://nn/flume/svc/"
+        + new SimpleDateFormat("yyyy-MM-dd/HH").format(new Date(ts)) + "00/";
+    assertEquals(expected, EscapeTemplate.compile(tmpl).expand(event(ts)));
+    assertEquals(expected, event(ts).escapeString(tmpl));
+    assertSame(EscapeTemplate.get(tmpl), EscapeTemplate.get(tmpl));
+  }
+}
@@ -17,6 +17,7 @@
  */
 package com.cloudera.flume.core.connector;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
@@ -24,6 +25,8 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -31,6 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import com.cloudera.flume.conf.Context;
 import com.cloudera.flume.conf.ReportTestingContext;
+import com.cloudera.flume.core.Driver.DriverState;
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSink;
@@ -39,6 +43,7 @@ import com.cloudera.flume.handlers.debug.InsistentAppendDecorator;
 import com.cloudera.flume.handlers.debug.InsistentOpenDecorator;
 import com.cloudera.flume.handlers.debug.LazyOpenDecorator;
 import com.cloudera.flume.handlers.debug.LazyOpenSource;
+import com.cloudera.flume.handlers.debug.MemorySinkSource;
 import com.cloudera.flume.handlers.debug.NoNlASCIISynthSource;
 import com.cloudera.flume.handlers.debug.StubbornAppendSink;
 import com.cloudera.flume.handlers.rolling.RollSink;
@@ -234,4 +239,32 @@ public class TestDirectDriver {
     assertTrue(driver.join(1000)); // closed this time.
   }
 
+  /**
+   * Test that batch mode drains the source into batches and hands every event
+   * to the sink.
+   */
+  @Test
+  public void testBatchMode() throws IOException, InterruptedException {
+    final AtomicInteger batches = new AtomicInteger();
+    final AtomicInteger events = new AtomicInteger();
+    EventSink sink = new EventSink.Base() {
+      @Override
+      public void appendBatch(List<Event> evts) throws IOException,
+          InterruptedException {
+        batches.incrementAndGet();
+        events.addAndGet(evts.size());
+        super.appendBatch(evts);
+      }
+    };
+    EventSource source = MemorySinkSource.cannedData("batch", 100);
+
+    DirectDriver driver = new DirectDriver("batch", source, sink, 16);
+    driver.start();
+    assertTrue(driver.join(5000));
+    assertEquals(DriverState.IDLE, driver.getState());
+    assertEquals(100, events.get());
+    assertEquals(7, batches.get()); // 6 full batches and a partial one
+    assertEquals(100, driver.appendCount);
+  }
+
 }
@@ -0,0 +1,141 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Driver.DriverState;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.handlers.debug.NullSink;
+import com.cloudera.flume.handlers.debug.MemorySinkSource;
+import com.cloudera.flume.handlers.debug.NoNlASCIISynthSource;
+import com.cloudera.flume.reporter.ReportEvent;
+
+/**
+ * This tests the open, drain, close and error semantics of the pipelined
+ * driver.
+ */
+public class TestPipelinedDriver {
+
+  /**
+   * All events from a finite source make it to the sink before the driver goes
+   * idle.
+   */
+  @Test
+  public void testDrainsToIdle() throws IOException, InterruptedException {
+    final AtomicInteger events = new AtomicInteger();
+    EventSink sink = new EventSink.Base() {
+      @Override
+      public void appendBatch(List<Event> evts) throws IOException,
+          InterruptedException {
+        events.addAndGet(evts.size());
+      }
+    };
+    EventSource source = MemorySinkSource.cannedData("pipelined", 1000);
+
+    PipelinedDriver driver = new PipelinedDriver("test", source, sink, 10, 4,
+        1);
+    driver.start();
+    assertTrue(driver.join(5000));
+    assertEquals(DriverState.IDLE, driver.getState());
+    assertEquals(1000, events.get());
+
+    ReportEvent rpt = driver.getMetrics();
+    assertEquals(1000L, (long) rpt.getLongMetric(PipelinedDriver.A_READ_EVENTS));
+    assertEquals(1000L, (long) rpt
+        .getLongMetric(PipelinedDriver.A_WRITE_EVENTS));
+    assertEquals(100L, (long) rpt
+        .getLongMetric(PipelinedDriver.A_WRITE_BATCHES));
+    assertEquals(0L, (long) rpt.getLongMetric(PipelinedDriver.A_QUEUE_SIZE));
+  }
+
+  /**
+   * A failing sink puts the driver into the error state instead of hanging the
+   * reader on a full queue.
+   */
+  @Test
+  public void testWriterFailure() throws IOException, InterruptedException {
+    EventSink sink = new EventSink.Base() {
+      @Override
+      public void appendBatch(List<Event> evts) throws IOException {
+        throw new IOException("mock failure");
+      }
+    };
+    // endless stream of data
+    EventSource source = new NoNlASCIISynthSource(0, 100);
+
+    PipelinedDriver driver = new PipelinedDriver("test", source, sink, 10, 2,
+        1);
+    driver.start();
+    assertTrue(driver.waitForAtLeastState(DriverState.ERROR, 5000));
+    assertTrue(driver.join(5000));
+    assertEquals(DriverState.ERROR, driver.getState());
+    assertEquals("mock failure", driver.getException().getMessage());
+  }
+
+  /**
+   * Stopping a driver on an endless source closes it cleanly.
+   */
+  @Test
+  public void testStop() throws IOException, InterruptedException {
+    final AtomicInteger events = new AtomicInteger();
+    EventSink sink = new EventSink.Base() {
+      @Override
+      public void appendBatch(List<Event> evts) throws IOException,
+          InterruptedException {
+        events.addAndGet(evts.size());
+      }
+    };
+    EventSource source = new NoNlASCIISynthSource(0, 100);
+
+    PipelinedDriver driver = new PipelinedDriver("test", source, sink, 10, 4,
+        2);
+    driver.start();
+    assertTrue(driver.waitForState(DriverState.ACTIVE, 5000));
+    driver.stop();
+    assertTrue(driver.join(5000));
+    assertEquals(DriverState.IDLE, driver.getState());
+    assertEquals(driver.getMetrics().getLongMetric(
+        PipelinedDriver.A_READ_EVENTS).longValue(), events.get());
+  }
+
+  /**
+   * Only sinks that declare themselves thread safe get more than one writer.
+   */
+  @Test
+  public void testWritersNeedThreadSafeSink() {
+    EventSource source = new NoNlASCIISynthSource(0, 100);
+    PipelinedDriver driver = new PipelinedDriver("test", source,
+        new EventSink.Base(), 10, 4, 4);
+    assertEquals(1L, (long) driver.getMetrics().getLongMetric(
+        PipelinedDriver.A_WRITERS));
+
+    driver = new PipelinedDriver("test", source, new NullSink(), 10, 4, 4);
+    assertEquals(4L, (long) driver.getMetrics().getLongMetric(
+        PipelinedDriver.A_WRITERS));
+  }
+}
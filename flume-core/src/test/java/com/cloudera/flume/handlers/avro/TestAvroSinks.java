@@ -19,15 +19,19 @@
 package com.cloudera.flume.handlers.avro;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.avro.AvroRemoteException;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
@@ -39,6 +43,7 @@ import com.cloudera.flume.conf.FlumeBuilder;
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
 import com.cloudera.flume.conf.LogicalNodeContext;
+import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventImpl;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.core.EventUtil;
@@ -231,6 +236,113 @@ public class TestAvroSinks implements ExampleData {
         .intValue());
   }
 
+  /**
+   * Sends batches over netty with several in flight. They all arrive, in the
+   * order they were appended.
+   */
+  @Test
+  public void testNettyBatchSend() throws IOException, InterruptedException {
+    checkNettyBatchSend(-1);
+  }
+
+  /**
+   * A batch in flight that fails is thrown by a later append and sent again
+   * ahead of the next batch, so nothing is lost or reordered.
+   */
+  @Test
+  public void testNettyBatchSendFailure() throws IOException,
+      InterruptedException {
+    checkNettyBatchSend(5);
+  }
+
+  /**
+   * Appends 20 batches of 10 events through a netty avro sink with a window of
+   * 3, failing the failAt-th appendBatch sent, and checks what arrives.
+   */
+  void checkNettyBatchSend(final int failAt) throws IOException,
+      InterruptedException {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.set(FlumeConfiguration.EVENT_AVRO_TRANSPORT,
+        FlumeConfiguration.AVRO_TRANSPORT_NETTY);
+    try {
+      final int port = conf.getCollectorPort() + 1;
+      final AvroEventSource tes = new AvroEventSource(port);
+      tes.open();
+
+      final MemorySinkSource mem = new MemorySinkSource();
+      mem.open();
+      Thread t = new Thread("drain") {
+        public void run() {
+          try {
+            EventUtil.dumpAll(tes, mem);
+          } catch (Exception e) {
+          }
+        }
+      };
+      t.start(); // drain the sink.
+
+      final AtomicLong sent = new AtomicLong();
+      AvroEventSink snk = new AvroEventSink("0.0.0.0", port,
+          FlumeConfiguration.AVRO_TRANSPORT_NETTY, 3) {
+        @Override
+        public void open() throws IOException {
+          super.open();
+          final FlumeEventAvroServer client = avroClient;
+          avroClient = new FlumeEventAvroServer() {
+            @Override
+            public void append(AvroFlumeEvent evt) {
+              client.append(evt);
+            }
+
+            @Override
+            public Void appendBatch(List<AvroFlumeEvent> evts)
+                throws AvroRemoteException {
+              if (sent.incrementAndGet() == failAt) {
+                throw new AvroRemoteException("failing batch " + failAt);
+              }
+              return client.appendBatch(evts);
+            }
+          };
+        }
+      };
+      snk.open();
+      int failures = 0;
+      for (int i = 0; i < 20; i++) {
+        List<Event> batch = new ArrayList<Event>();
+        for (int j = 0; j < 10; j++) {
+          batch.add(new EventImpl(("batch " + i + " event " + j).getBytes()));
+        }
+        try {
+          snk.appendBatch(batch);
+        } catch (IOException e) {
+          // the batch of the failed call is not kept, so append it again.
+          failures++;
+          snk.appendBatch(batch);
+        }
+      }
+      snk.close(); // waits for the batches in flight
+      ReportEvent snkRpt = snk.getMetrics();
+      assertEquals(20, (long) snkRpt.getLongMetric(AvroEventSink.A_BATCHES));
+      assertEquals(0, (long) snkRpt.getLongMetric(AvroEventSink.A_INFLIGHT));
+      assertEquals(failAt > 0 ? 1 : 0, failures);
+
+      Clock.sleep(1000);
+      t.interrupt();
+      t.join();
+      tes.close();
+      for (int i = 0; i < 20; i++) {
+        for (int j = 0; j < 10; j++) {
+          assertEquals("batch " + i + " event " + j, new String(mem.next()
+              .getBody()));
+        }
+      }
+      assertNull(mem.next());
+    } finally {
+      conf.set(FlumeConfiguration.EVENT_AVRO_TRANSPORT,
+          FlumeConfiguration.AVRO_TRANSPORT_HTTP);
+    }
+  }
+
   /**
    * Checks to verify that a Avro server doesn't hang forever on closing
    */
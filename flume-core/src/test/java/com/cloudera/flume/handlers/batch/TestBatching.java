@@ -18,7 +18,9 @@
 package com.cloudera.flume.handlers.batch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 
@@ -243,4 +245,136 @@ public class TestBatching {
     assertEquals(0, (long) ugzr.getLongMetric(GunzipDecorator.R_PASSTHROUGH));
   }
 
+  /**
+   * Batches a few events with attributes and returns the batch event.
+   */
+  Event makeBatch(int total) throws IOException, InterruptedException {
+    MemorySinkSource mem = new MemorySinkSource();
+    BatchingDecorator<EventSink> b = new BatchingDecorator<EventSink>(mem,
+        total, 0);
+    b.open();
+    for (int i = 0; i < total; i++) {
+      Event e = new EventImpl(("message " + i).getBytes());
+      e.set("idx", ("" + i).getBytes());
+      b.append(e);
+    }
+    b.close();
+    return mem.next();
+  }
+
+  void checkUnbatched(MemorySinkSource mem, int total) throws IOException {
+    for (int i = 0; i < total; i++) {
+      Event e = mem.next();
+      assertEquals("message " + i, new String(e.getBody()));
+      assertEquals("" + i, new String(e.get("idx")));
+    }
+    assertNull(mem.next());
+  }
+
+  @Test
+  public void testUnbatch() throws IOException, InterruptedException {
+    Event be = makeBatch(20);
+
+    MemorySinkSource mem = new MemorySinkSource();
+    UnbatchingDecorator<EventSink> ub = new UnbatchingDecorator<EventSink>(mem);
+    ub.open();
+    ub.append(be);
+    ub.close();
+    checkUnbatched(mem, 20);
+    assertEquals(20, (long) ub.getMetrics().getLongMetric(
+        UnbatchingDecorator.R_BATCHED_OUT));
+  }
+
+  /**
+   * A batch size bigger than the data can hold is rejected before anything is
+   * allocated for it.
+   */
+  @Test(expected = IOException.class)
+  public void testCorruptBatchSize() throws IOException {
+    Event be = makeBatch(10);
+    UnbatchingDecorator.unbatch(Integer.MAX_VALUE, be
+        .get(BatchingDecorator.BATCH_DATA));
+  }
+
+  /**
+   * Data that is cut short or has bytes left after the last event fails the
+   * append of the batch instead of the downstream sink.
+   */
+  @Test
+  public void testCorruptBatchAppend() throws IOException,
+      InterruptedException {
+    Event be = makeBatch(10);
+    byte[] data = be.get(BatchingDecorator.BATCH_DATA);
+    byte[] shortData = new byte[data.length - 3];
+    System.arraycopy(data, 0, shortData, 0, shortData.length);
+    byte[] longData = new byte[data.length + 3];
+    System.arraycopy(data, 0, longData, 0, data.length);
+
+    byte[][] corrupt = { shortData, longData };
+    for (byte[] c : corrupt) {
+      Event bad = new EventImpl(new byte[0]);
+      bad.set(BatchingDecorator.BATCH_SIZE, be
+          .get(BatchingDecorator.BATCH_SIZE));
+      bad.set(BatchingDecorator.BATCH_DATA, c);
+
+      MemorySinkSource mem = new MemorySinkSource();
+      UnbatchingDecorator<EventSink> ub = new UnbatchingDecorator<EventSink>(
+          mem);
+      ub.open();
+      try {
+        ub.append(bad);
+        fail("corrupt batch should fail the append");
+      } catch (IOException ioe) {
+        // expected
+      }
+      ub.close();
+      assertNull(mem.next());
+    }
+  }
+
+  /**
+   * Batches compressed with either codec come out of decompress, and events
+   * that weren't compressed pass through.
+   */
+  @Test
+  public void testCompressDecompress() throws IOException,
+      InterruptedException {
+    MemorySinkSource mem = new MemorySinkSource();
+    DecompressDecorator<EventSink> decomp = new DecompressDecorator<EventSink>(
+        mem);
+    CompressDecorator<EventSink> lz = new CompressDecorator<EventSink>(decomp,
+        BlockCodec.create(BlockCodec.LZ, -1));
+    MemorySinkSource gzMem = new MemorySinkSource();
+    GzipDecorator<EventSink> gz = new GzipDecorator<EventSink>(gzMem, 1);
+    lz.open();
+    gz.open();
+
+    Event be = makeBatch(20);
+    lz.append(be);
+    gz.append(be);
+    decomp.append(gzMem.next());
+    decomp.append(new EventImpl("plain".getBytes()));
+
+    MemorySinkSource out = new MemorySinkSource();
+    UnbatchingDecorator<EventSink> ub = new UnbatchingDecorator<EventSink>(out);
+    ub.open();
+    ub.append(mem.next());
+    checkUnbatched(out, 20);
+    ub.append(mem.next());
+    checkUnbatched(out, 20);
+    assertEquals("plain", new String(mem.next().getBody()));
+
+    ReportEvent lzRpt = lz.getMetrics();
+    assertEquals(BlockCodec.LZ, lzRpt
+        .getStringMetric(CompressDecorator.R_CODEC));
+    assertTrue(lzRpt.getLongMetric(CompressDecorator.R_COMPRESSEDSIZE) < lzRpt
+        .getLongMetric(CompressDecorator.R_EVENTSIZE));
+    assertTrue(lzRpt.getDoubleMetric(CompressDecorator.R_RATIO) < 1.0);
+
+    ReportEvent rpt = decomp.getMetrics();
+    assertEquals(2, (long) rpt
+        .getLongMetric(DecompressDecorator.R_COMPRESSEDCOUNT));
+    assertEquals(1, (long) rpt
+        .getLongMetric(DecompressDecorator.R_PASSTHROUGH));
+  }
 }
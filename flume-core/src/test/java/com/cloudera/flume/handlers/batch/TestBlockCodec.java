@@ -0,0 +1,168 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests the block compression codecs.
+ */
+public class TestBlockCodec {
+
+  /**
+   * Inputs that exercise literal runs, long and overlapping matches and the
+   * short input edge cases.
+   */
+  static byte[][] inputs() {
+    Random rand = new Random(1234);
+    byte[] random = new byte[100000];
+    rand.nextBytes(random);
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      sb.append("Oct 18 12:00:").append(i % 60).append(" host")
+          .append(rand.nextInt(10)).append(" sshd[").append(i)
+          .append("]: Accepted publickey for user\n");
+    }
+    byte[] logs = sb.toString().getBytes();
+
+    byte[] zeros = new byte[70000];
+    byte[] mixed = new byte[5000];
+    for (int i = 0; i < mixed.length; i++) {
+      mixed[i] = (byte) (i % 7 == 0 ? rand.nextInt() : i % 3);
+    }
+    return new byte[][] { new byte[0], "a".getBytes(),
+        "abcdabcdabcdabcd".getBytes(), "0123456789abc".getBytes(), random,
+        logs, zeros, mixed };
+  }
+
+  void checkRoundTrip(BlockCodec codec) throws IOException {
+    for (byte[] in : inputs()) {
+      byte[] c = codec.compress(in, 0, in.length);
+      assertArrayEquals(in, codec.decompress(c));
+    }
+
+    // compress a slice of a bigger array
+    byte[] logs = inputs()[5];
+    byte[] c = codec.compress(logs, 100, 5000);
+    assertArrayEquals(Arrays.copyOfRange(logs, 100, 5100), codec
+        .decompress(c));
+  }
+
+  @Test
+  public void testLzRoundTrip() throws IOException {
+    checkRoundTrip(new LzBlockCodec());
+  }
+
+  @Test
+  public void testGzipRoundTrip() throws IOException {
+    checkRoundTrip(new GzipBlockCodec(-1));
+    checkRoundTrip(new GzipBlockCodec(1));
+    checkRoundTrip(new GzipBlockCodec(9));
+  }
+
+  @Test
+  public void testLzCompresses() throws IOException {
+    byte[] logs = inputs()[5];
+    byte[] c = new LzBlockCodec().compress(logs, 0, logs.length);
+    assertTrue(c.length < logs.length / 2);
+  }
+
+  /**
+   * Blocks have to stay readable by collectors that use GZIPInputStream, and
+   * blocks from agents that use GZIPOutputStream have to be readable here.
+   */
+  @Test
+  public void testGzipCompatible() throws IOException {
+    byte[] logs = inputs()[5];
+    GzipBlockCodec codec = new GzipBlockCodec(-1);
+    byte[] c = codec.compress(logs, 0, logs.length);
+    GZIPInputStream gzis = new GZIPInputStream(new ByteArrayInputStream(c));
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = gzis.read(buf)) > 0) {
+      baos.write(buf, 0, n);
+    }
+    assertArrayEquals(logs, baos.toByteArray());
+
+    baos = new ByteArrayOutputStream();
+    GZIPOutputStream gzos = new GZIPOutputStream(baos);
+    gzos.write(logs);
+    gzos.close();
+    assertArrayEquals(logs, codec.decompress(baos.toByteArray()));
+  }
+
+  void checkCorrupt(BlockCodec codec, byte[] c) {
+    try {
+      codec.decompress(c);
+      fail("expected corrupt block to fail");
+    } catch (IOException ioe) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCorruptBlocks() throws IOException {
+    byte[] logs = inputs()[5];
+    for (BlockCodec codec : BlockCodec.createAll()) {
+      byte[] c = codec.compress(logs, 0, logs.length);
+      checkCorrupt(codec, Arrays.copyOf(c, c.length / 2));
+      checkCorrupt(codec, Arrays.copyOf(c, 4));
+
+      // lz has no checksum, a flipped literal just decodes to other bytes
+      if (codec instanceof GzipBlockCodec) {
+        byte[] flipped = c.clone();
+        flipped[c.length / 2] ^= 0x55;
+        checkCorrupt(codec, flipped);
+      }
+
+      // the codec is still usable after a failure
+      assertArrayEquals(logs, codec.decompress(c));
+    }
+  }
+
+  @Test
+  public void testCreate() {
+    assertEquals(BlockCodec.LZ, BlockCodec.create("LZ", -1).getName());
+    assertEquals(BlockCodec.GZIP, BlockCodec.create("gzip", 6).getName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCreateUnknown() {
+    BlockCodec.create("bzip2", -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadGzipLevel() {
+    BlockCodec.create("gzip", 12);
+  }
+}
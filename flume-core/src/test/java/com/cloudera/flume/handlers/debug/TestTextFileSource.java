@@ -0,0 +1,78 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.cloudera.util.FileUtil;
+
+/**
+ * Tests the line splitting of the text file source.
+ */
+public class TestTextFileSource {
+
+  File createDataFile(String s) throws IOException {
+    File f = FileUtil.createTempFile("text", ".tmp");
+    f.deleteOnExit();
+    FileWriter fw = new FileWriter(f);
+    fw.write(s);
+    fw.close();
+    return f;
+  }
+
+  @Test
+  public void testLines() throws IOException {
+    File f = createDataFile("one\r\ntwo\n\nlast");
+    TextFileSource src = new TextFileSource(f.getPath());
+    src.open();
+    assertEquals("one", new String(src.next().getBody()));
+    assertEquals("two", new String(src.next().getBody()));
+    assertEquals("", new String(src.next().getBody()));
+    assertEquals("last", new String(src.next().getBody()));
+    assertNull(src.next());
+    src.close();
+  }
+
+  /**
+   * Lines longer than the read buffer are returned whole.
+   */
+  @Test
+  public void testLongLine() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < TextFileSource.BUF_SIZE + 100; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    String longLine = sb.toString();
+    File f = createDataFile("one\n" + longLine + "\nlast\n");
+
+    TextFileSource src = new TextFileSource(f.getPath());
+    src.open();
+    assertEquals("one", new String(src.readLine()));
+    assertEquals(longLine, new String(src.readLine()));
+    assertEquals("last", new String(src.readLine()));
+    assertNull(src.readLine());
+    src.close();
+  }
+}
@@ -142,6 +142,77 @@ public class TestExecNioSource {
     }
   }
 
+  /**
+   * Test that a well filled buffer is handed out as slices, and that the
+   * leftovers move to a new buffer instead of overwriting the slices.
+   */
+  @Test
+  public void testExtractLineSlices() throws InterruptedException {
+    LinkedBlockingQueue<Event> q = new LinkedBlockingQueue<Event>();
+    ByteBuffer buf = ByteBuffer.allocate(64);
+
+    // Barely filled, lines are copied and buf is reused.
+    buf.put("ab\ncd".getBytes());
+    ByteBuffer ret = ExecNioSource.extractLineSlices(buf, "cmd", "tag", q);
+    assertTrue(ret == buf);
+    assertEquals(2, ret.position());
+    assertEquals("ab", new String(q.poll().getBody()));
+
+    // Well filled, lines are slices and leftovers go to a new buffer.
+    buf.put("ef\ngh\nij".getBytes());
+    buf.put(new byte[16]);
+    buf.put((byte) '\n');
+    buf.put("kl".getBytes());
+    ret = ExecNioSource.extractLineSlices(buf, "cmd", "tag", q);
+    assertFalse(ret == buf);
+    assertEquals(2, ret.position());
+    assertEquals(3, q.size());
+    Event e1 = q.poll();
+    Event e2 = q.poll();
+    assertEquals(18, q.poll().getBody().length);
+
+    // writing to the new buffer must not change handed out events
+    ret.put("zzzzzz".getBytes());
+    assertEquals("cdef", new String(e1.getBody()));
+    assertEquals("gh", new String(e2.getBody()));
+    assertEquals("tag", new String(e2.get(ExecNioSource.A_PROC_SOURCE)));
+  }
+
+  /**
+   * Test that after handing out slices, reading continues into the rest of
+   * the same array without touching the slices, until little room is left.
+   */
+  @Test
+  public void testExtractLineSlicesReuse() throws InterruptedException {
+    LinkedBlockingQueue<Event> q = new LinkedBlockingQueue<Event>();
+    int sz = ExecNioSource.readBufferSize();
+    ByteBuffer buf = ByteBuffer.allocate(sz);
+    byte[] line = new byte[sz / 4];
+    Arrays.fill(line, (byte) 'a');
+    line[line.length - 1] = '\n';
+    buf.put(line);
+    buf.put("bc".getBytes());
+
+    ByteBuffer ret = ExecNioSource.extractLineSlices(buf, "cmd", "tag", q);
+    assertTrue(ret.array() == buf.array());
+    assertEquals(2, ret.position());
+    assertEquals(sz - line.length, ret.capacity());
+    Event e = q.poll();
+    ret.put("d\nzzzz".getBytes());
+    assertEquals(line.length - 1, e.getBody().length);
+    assertEquals('a', e.getBody()[0]);
+
+    // leftovers that fill what is left get a full sized buffer
+    ret.put(new byte[ret.remaining()]);
+    ret = ExecNioSource.extractLineSlices(ret, "cmd", "tag", q);
+    assertEquals("bcd", new String(q.poll().getBody()));
+    assertFalse(ret.array() == buf.array());
+    assertEquals(sz, ret.capacity());
+    for (int i = 0; i < line.length - 1; i++) {
+      assertEquals('a', e.getBody()[i]);
+    }
+  }
+
   /**
    * Test the dropUntilNewLineFunction
    */
@@ -0,0 +1,173 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.handlers.endtoend.AckChecksumInjector;
+import com.cloudera.util.Clock;
+import com.cloudera.util.NetUtils;
+
+/**
+ * Tests the compact event encoding and that WriteableEvent reads both it and
+ * the original format.
+ */
+public class TestCompactEventCodec {
+
+  Event makeEvent() {
+    Map<String, byte[]> fields = new HashMap<String, byte[]>();
+    fields.put("test", "data".getBytes());
+    fields.put(AckChecksumInjector.ATTR_ACK_TAG, "tag".getBytes());
+    fields.put("empty", new byte[0]);
+    return new EventImpl("this is a test string".getBytes(),
+        Clock.unixTime(), Priority.WARN, -Clock.nanos(),
+        NetUtils.localhost(), fields);
+  }
+
+  void assertSameEvent(Event e, Event e2) {
+    assertEquals(e.getTimestamp(), e2.getTimestamp());
+    assertEquals(e.getPriority(), e2.getPriority());
+    assertEquals(e.getNanos(), e2.getNanos());
+    assertEquals(e.getHost(), e2.getHost());
+    assertTrue(Arrays.equals(e.getBody(), e2.getBody()));
+    assertEquals(e.getAttrs().size(), e2.getAttrs().size());
+    for (String k : e.getAttrs().keySet()) {
+      assertTrue(Arrays.equals(e.get(k), e2.get(k)));
+    }
+  }
+
+  @Test
+  public void testCompactReversible() throws IOException {
+    Event e = makeEvent();
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bas);
+    CompactEventCodec.write(out, e);
+    out.flush();
+
+    Event e2 = CompactEventCodec.read(new DataInputStream(
+        new ByteArrayInputStream(bas.toByteArray())), 32 * 1024);
+    assertSameEvent(e, e2);
+
+    // and through the writable
+    WriteableEvent we = WriteableEvent.createWriteableEvent(bas.toByteArray());
+    assertSameEvent(e, we);
+  }
+
+  /**
+   * A stream mixing both formats reads back, and the compact one is smaller.
+   */
+  @Test
+  public void testMixedFormats() throws IOException {
+    Event e = makeEvent();
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bas);
+    new WriteableEvent(e).writeLegacy(out);
+    out.flush();
+    int legacySz = bas.size();
+    CompactEventCodec.write(out, e);
+    out.flush();
+    int compactSz = bas.size() - legacySz;
+    assertTrue(compactSz < legacySz);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bas
+        .toByteArray()));
+    WriteableEvent we = new WriteableEvent();
+    we.readFields(in);
+    assertSameEvent(e, we);
+    we.readFields(in);
+    assertSameEvent(e, we);
+    assertEquals(0, in.available());
+  }
+
+  @Test
+  public void testVarints() throws IOException {
+    long[] vals = { 0, 1, -1, 63, -64, 64, Long.MAX_VALUE, Long.MIN_VALUE };
+    for (long v : vals) {
+      assertEquals(v, CompactEventCodec.unzigzag(CompactEventCodec.zigzag(v)));
+    }
+
+    int[] ints = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE };
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bas);
+    for (int i : ints) {
+      CompactEventCodec.writeVInt(out, i);
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bas
+        .toByteArray()));
+    for (int i : ints) {
+      assertEquals(i, CompactEventCodec.readVInt(in));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncated() throws IOException {
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bas);
+    CompactEventCodec.write(out, makeEvent());
+    byte[] raw = Arrays.copyOf(bas.toByteArray(), bas.size() - 3);
+    CompactEventCodec.read(new DataInputStream(new ByteArrayInputStream(raw)),
+        32 * 1024);
+  }
+
+  /**
+   * A corrupt meta length must not allocate its claimed size, just fail.
+   */
+  @Test(expected = IOException.class)
+  public void testHugeMetaLength() throws IOException {
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bas);
+    out.writeByte(CompactEventCodec.VERSION_1);
+    CompactEventCodec.writeVInt(out, Integer.MAX_VALUE);
+    out.write(new byte[100]);
+    CompactEventCodec.read(new DataInputStream(new ByteArrayInputStream(bas
+        .toByteArray())), 32);
+  }
+
+  @Test(expected = IOException.class)
+  public void testBadPriority() throws IOException {
+    CompactEventCodec.Output meta = new CompactEventCodec.Output(16);
+    meta.writeVLong(0); // timestamp
+    meta.writeByte(100); // priority
+    meta.writeVLong(0); // nanos
+    meta.writeString("host");
+    meta.writeVInt(0); // attributes
+    ByteArrayOutputStream bas = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bas);
+    out.writeByte(CompactEventCodec.VERSION_1);
+    CompactEventCodec.writeVInt(out, meta.len);
+    out.write(meta.buf, 0, meta.len);
+    CompactEventCodec.writeVInt(out, 0);
+    CompactEventCodec.read(new DataInputStream(new ByteArrayInputStream(bas
+        .toByteArray())), 32 * 1024);
+  }
+}
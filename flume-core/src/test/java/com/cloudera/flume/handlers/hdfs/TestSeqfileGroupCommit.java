@@ -0,0 +1,186 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.util.Clock;
+import com.cloudera.util.FileUtil;
+
+/**
+ * Tests the group commit mode of the seqfile sink.
+ */
+public class TestSeqfileGroupCommit {
+
+  /**
+   * A small byte bound forces commits during appends, and close commits the
+   * rest. Everything written must be readable afterwards.
+   */
+  @Test
+  public void testCommitOnBytes() throws IOException, InterruptedException {
+    File dir = FileUtil.mktempdir();
+    File f = new File(dir, "gc.seq");
+    GroupCommitter gc = new GroupCommitter(1024, 60 * 1000);
+    SeqfileEventSink snk = new SeqfileEventSink(f, gc);
+    snk.open();
+    for (int i = 0; i < 100; i++) {
+      snk.append(new EventImpl(new byte[100]));
+    }
+    long appendCommits = gc.getFsyncCount();
+    assertTrue(appendCommits > 0);
+    snk.close();
+    assertTrue(gc.getFsyncCount() >= appendCommits);
+    // only the file header was written before the first append
+    assertTrue(gc.getFsyncBytes() < f.length());
+
+    SeqfileEventSource src = new SeqfileEventSource(f.getAbsolutePath());
+    src.open();
+    int count = 0;
+    while (src.next() != null) {
+      count++;
+    }
+    src.close();
+    assertEquals(100, count);
+    FileUtil.rmr(dir);
+  }
+
+  /**
+   * With a large byte bound, the time bound commits an idle batch without
+   * waiting for more appends.
+   */
+  @Test
+  public void testCommitOnTime() throws IOException, InterruptedException {
+    File dir = FileUtil.mktempdir();
+    GroupCommitter gc = new GroupCommitter(1024 * 1024, 10);
+    SeqfileEventSink snk = new SeqfileEventSink(new File(dir, "gc.seq"), gc);
+    snk.open();
+    List<Event> batch = new ArrayList<Event>();
+    for (int i = 0; i < 10; i++) {
+      batch.add(new EventImpl(("event " + i).getBytes()));
+    }
+    snk.appendBatch(batch);
+
+    for (int i = 0; i < 100 && gc.getFsyncCount() == 0; i++) {
+      Clock.sleep(10);
+    }
+    assertEquals(1, gc.getFsyncCount());
+    snk.close();
+    // nothing new to force out
+    assertEquals(1, gc.getFsyncCount());
+
+    ReportEvent rpt = gc.getMetrics();
+    assertEquals(Long.valueOf(1), rpt.getLongMetric(GroupCommitter.A_FSYNCS));
+    long hist = 0;
+    for (int i = 0; i < GroupCommitter.BYTES_BUCKETS; i++) {
+      hist += rpt.getLongMetric(GroupCommitter.A_BYTES_HIST + "le" + (1L << i));
+    }
+    assertEquals(1, hist);
+    FileUtil.rmr(dir);
+  }
+
+  /**
+   * Appends reach the kernel before append returns even though no commit has
+   * happened yet, so they survive a crash of the process.
+   */
+  @Test
+  public void testFlushedBeforeCommit() throws IOException,
+      InterruptedException {
+    File dir = FileUtil.mktempdir();
+    File f = new File(dir, "gc.seq");
+    GroupCommitter gc = new GroupCommitter(1024 * 1024, 60 * 1000);
+    SeqfileEventSink snk = new SeqfileEventSink(f, gc);
+    snk.open();
+    for (int i = 0; i < 10; i++) {
+      snk.append(new EventImpl(("event " + i).getBytes()));
+    }
+    assertEquals(0, gc.getFsyncCount());
+
+    // read the file while the sink still has it open
+    SeqfileEventSource src = new SeqfileEventSource(f.getAbsolutePath());
+    src.open();
+    int count = 0;
+    while (src.next() != null) {
+      count++;
+    }
+    src.close();
+    assertEquals(10, count);
+
+    snk.close();
+    assertEquals(1, gc.getFsyncCount());
+    FileUtil.rmr(dir);
+  }
+
+  /**
+   * One committer thread serves every open file of a manager.
+   */
+  @Test
+  public void testSharedCommitter() throws IOException, InterruptedException {
+    File dir = FileUtil.mktempdir();
+    GroupCommitter gc = new GroupCommitter(1024 * 1024, 10);
+    SeqfileEventSink snk1 = new SeqfileEventSink(new File(dir, "a.seq"), gc);
+    SeqfileEventSink snk2 = new SeqfileEventSink(new File(dir, "b.seq"), gc);
+    snk1.open();
+    snk2.open();
+    snk1.append(new EventImpl("a".getBytes()));
+    snk2.append(new EventImpl("b".getBytes()));
+
+    for (int i = 0; i < 100 && gc.getFsyncCount() < 2; i++) {
+      Clock.sleep(10);
+    }
+    assertEquals(2, gc.getFsyncCount());
+    int threads = 0;
+    for (Thread t : allThreads()) {
+      if ("GroupCommitter".equals(t.getName())) {
+        threads++;
+      }
+    }
+    assertEquals(1, threads);
+    snk1.close();
+    snk2.close();
+    FileUtil.rmr(dir);
+  }
+
+  static Thread[] allThreads() {
+    Thread[] ts = new Thread[Thread.activeCount() * 2 + 10];
+    int n = Thread.enumerate(ts);
+    Thread[] ret = new Thread[n];
+    System.arraycopy(ts, 0, ret, 0, n);
+    return ret;
+  }
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, GroupCommitter.bucket(0, 10));
+    assertEquals(0, GroupCommitter.bucket(1, 10));
+    assertEquals(1, GroupCommitter.bucket(2, 10));
+    assertEquals(2, GroupCommitter.bucket(3, 10));
+    assertEquals(10, GroupCommitter.bucket(1024, 11));
+    assertEquals(10, GroupCommitter.bucket(1025, 11));
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.util.MockClock;
+import com.cloudera.util.Clock;
+
+/**
+ * Tests for the bounded writer cache used by escaping dfs sinks.
+ */
+public class TestWriterCache {
+  MockClock mock = new MockClock(0);
+
+  static class PathSink extends EventSink.Base {
+    final String path;
+    boolean closed = false;
+
+    PathSink(String path) {
+      this.path = path;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /**
+   * Remembers every writer it opens.
+   */
+  static class Cache extends WriterCache<PathSink> {
+    final List<PathSink> opened = new ArrayList<PathSink>();
+
+    Cache(int maxOpen, long idleMillis) {
+      super(maxOpen, idleMillis);
+    }
+
+    @Override
+    PathSink openWriter(String path) {
+      PathSink s = new PathSink(path);
+      opened.add(s);
+      return s;
+    }
+  }
+
+  @Before
+  public void setClock() {
+    Clock.setClock(mock);
+  }
+
+  @After
+  public void resetClock() {
+    Clock.resetDefault();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException,
+      InterruptedException {
+    Cache c = new Cache(2, 0);
+    PathSink a = c.get("a");
+    PathSink b = c.get("b");
+    assertSame(a, c.get("a")); // b is now the least recently used
+    PathSink cc = c.get("c");
+    assertEquals(2, c.size());
+    assertTrue(b.closed);
+    assertFalse(a.closed);
+    assertFalse(cc.closed);
+
+    // b comes back in a new file instead of overwriting the closed one.
+    PathSink b2 = c.get("b");
+    assertEquals("b-1", b2.path);
+    assertTrue(a.closed);
+
+    ReportEvent rpt = c.getMetrics();
+    assertEquals(4, (long) rpt.getLongMetric(WriterCache.A_OPENS));
+    assertEquals(2, (long) rpt.getLongMetric(WriterCache.A_EVICTIONS));
+    assertEquals(1, (long) rpt.getLongMetric(WriterCache.A_REOPENS));
+    assertEquals(2, (long) rpt.getLongMetric(WriterCache.A_OPEN_FILES));
+    assertEquals(2, c.getSubMetrics().size());
+
+    c.closeAll();
+    assertTrue(cc.closed);
+    assertTrue(b2.closed);
+    assertEquals(0, c.size());
+  }
+
+  @Test
+  public void testClosesIdle() throws IOException, InterruptedException {
+    Cache c = new Cache(100, 1000);
+    PathSink a = c.get("a");
+    mock.forward(600);
+    PathSink b = c.get("b");
+    mock.forward(600);
+    c.get("b"); // a has been idle for 1200ms now
+    assertTrue(a.closed);
+    assertFalse(b.closed);
+    assertEquals(1, c.size());
+    assertEquals(1, (long) c.getMetrics().getLongMetric(
+        WriterCache.A_IDLE_CLOSES));
+
+    mock.forward(1500);
+    PathSink a2 = c.get("a");
+    assertEquals("a-1", a2.path);
+    assertTrue(b.closed);
+    assertEquals(1, c.size());
+  }
+
+  /**
+   * Only paths that are closed and not reopened are remembered, and a path
+   * closed several times keeps counting up.
+   */
+  @Test
+  public void testGenerationsForgetReopened() throws IOException,
+      InterruptedException {
+    Cache c = new Cache(1, 0);
+    c.get("a");
+    c.get("b"); // evicts a
+    assertEquals(1, c.closedSize());
+    assertEquals("a-1", c.get("a").path); // evicts b
+    assertEquals(1, c.closedSize());
+    assertEquals("b-1", c.get("b").path);
+    assertEquals("a-2", c.get("a").path);
+    assertEquals(1, c.closedSize());
+
+    c.closeAll();
+    assertEquals(0, c.closedSize());
+  }
+}
@@ -27,6 +27,8 @@ import static org.mockito.Mockito.mock;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -344,6 +346,41 @@ public class TestRollSink {
     assertTrue(success);
   }
 
+  /**
+   * Appends should run on the caller's thread instead of being handed off to
+   * another thread.
+   */
+  @Test
+  public void testAppendOnCallerThread() throws IOException,
+      InterruptedException {
+    final List<Thread> appenders = new ArrayList<Thread>();
+    SinkFactoryImpl sfi = new SinkFactoryImpl();
+    sfi.setSink("threadRecorder", new SinkBuilder() {
+      @Override
+      public EventSink build(Context context, String... argv) {
+        return new EventSink.Base() {
+          @Override
+          public void append(Event e) throws IOException, InterruptedException {
+            appenders.add(Thread.currentThread());
+            super.append(e);
+          }
+        };
+      }
+    });
+    FlumeBuilder.setSinkFactory(sfi);
+
+    RollSink roll = new RollSink(LogicalNodeContext.testingContext(),
+        "threadRecorder", 1000000, 1000000);
+    roll.open();
+    roll.append(new EventImpl("foo1".getBytes()));
+    roll.append(new EventImpl("foo2".getBytes()));
+    roll.close();
+
+    assertEquals(2, appenders.size());
+    assertEquals(Thread.currentThread(), appenders.get(0));
+    assertEquals(Thread.currentThread(), appenders.get(1));
+  }
+
   @Test
   public void testTriggerKWArg() throws FlumeSpecException {
     FlumeBuilder.buildSink(LogicalNodeContext.testingContext(),
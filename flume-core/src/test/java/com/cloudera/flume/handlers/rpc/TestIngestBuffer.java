@@ -0,0 +1,223 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+
+/**
+ * Tests the striped buffer used by the network sources.
+ */
+public class TestIngestBuffer {
+
+  static Event event(int producer, int seq, int sz) {
+    ByteBuffer buf = ByteBuffer.allocate(Math.max(8, sz));
+    buf.putInt(producer).putInt(seq);
+    return new EventImpl(buf.array());
+  }
+
+  @Test
+  public void testPutPoll() throws InterruptedException {
+    IngestBuffer buf = new IngestBuffer(4, 100, 1000000);
+    for (int i = 0; i < 10; i++) {
+      buf.put(event(0, i, 10));
+    }
+    assertEquals(10, buf.size());
+    assertEquals(100, buf.sizeBytes());
+    assertEquals(90, buf.remainingCapacity());
+
+    // one producer thread, so its events come back in order
+    for (int i = 0; i < 10; i++) {
+      Event e = buf.poll(10, TimeUnit.MILLISECONDS);
+      assertEquals(i, ByteBuffer.wrap(e.getBody()).getInt(4));
+    }
+    assertTrue(buf.isEmpty());
+    assertEquals(0, buf.sizeBytes());
+    assertNull(buf.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testDrainToMax() throws InterruptedException {
+    IngestBuffer buf = new IngestBuffer(2, 100, 1000000);
+    List<Event> batch = new ArrayList<Event>();
+    for (int i = 0; i < 25; i++) {
+      batch.add(event(0, i, 8));
+    }
+    buf.putAll(batch);
+
+    List<Event> out = new ArrayList<Event>();
+    assertEquals(10, buf.drainTo(out, 10));
+    assertEquals(15, buf.drainTo(out, 100));
+    assertEquals(0, buf.drainTo(out, 100));
+    for (int i = 0; i < 25; i++) {
+      assertEquals(i, ByteBuffer.wrap(out.get(i).getBody()).getInt(4));
+    }
+  }
+
+  /**
+   * A producer blocks when the byte bound is reached and continues once the
+   * consumer makes room.
+   */
+  @Test
+  public void testByteBoundBlocks() throws InterruptedException {
+    final IngestBuffer buf = new IngestBuffer(1, 1000, 100);
+    buf.put(event(0, 0, 60));
+    final CountDownLatch done = new CountDownLatch(1);
+    new Thread() {
+      public void run() {
+        try {
+          buf.put(event(0, 1, 60));
+          done.countDown();
+        } catch (InterruptedException e) {
+        }
+      }
+    }.start();
+
+    assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+    buf.poll(10, TimeUnit.MILLISECONDS);
+    assertTrue(done.await(1000, TimeUnit.MILLISECONDS));
+    assertEquals(1, buf.size());
+    assertEquals(1, (long) buf.getMetrics().getLongMetric(
+        IngestBuffer.R_FULL_WAITS));
+  }
+
+  /**
+   * offerAll turns a batch away instead of blocking once the byte bound is
+   * reached, even if there is room for more events.
+   */
+  @Test
+  public void testOfferAllByteBound() throws InterruptedException {
+    IngestBuffer buf = new IngestBuffer(1, 1000, 100);
+    assertTrue(buf.offerAll("a", Arrays.asList(event(0, 0, 60))));
+    assertFalse(buf.offerAll("a", Arrays.asList(event(0, 1, 60))));
+    assertEquals(1, buf.size());
+    assertEquals(60, buf.sizeBytes());
+    assertTrue(buf.remainingCapacity() > 1);
+
+    buf.poll(10, TimeUnit.MILLISECONDS);
+    assertTrue(buf.offerAll("a", Arrays.asList(event(0, 1, 60))));
+    assertEquals(1, buf.size());
+  }
+
+  /**
+   * A batch larger than the buffer still goes into an empty buffer.
+   */
+  @Test
+  public void testOversizedBatch() throws InterruptedException {
+    IngestBuffer buf = new IngestBuffer(2, 5, 100);
+    List<Event> batch = new ArrayList<Event>();
+    for (int i = 0; i < 20; i++) {
+      batch.add(event(0, i, 50));
+    }
+    buf.putAll(batch);
+    assertEquals(20, buf.size());
+    assertEquals(0, buf.remainingCapacity());
+  }
+
+  /**
+   * One client's batches, put one after the other by whichever pool thread is
+   * free as the nio server does, stay in order when they share a key.
+   */
+  @Test
+  public void testKeyedOrder() throws InterruptedException, ExecutionException {
+    final IngestBuffer buf = new IngestBuffer(8, 100000, 100000000);
+    final Object client = new Object();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 200; i++) {
+      final List<Event> batch = new ArrayList<Event>();
+      for (int j = 0; j < 5; j++) {
+        batch.add(event(0, i * 5 + j, 8));
+      }
+      pool.submit(new Callable<Void>() {
+        public Void call() throws InterruptedException {
+          buf.putAll(client, batch);
+          return null;
+        }
+      }).get();
+    }
+    pool.shutdown();
+
+    List<Event> out = new ArrayList<Event>();
+    assertEquals(1000, buf.drainTo(out, 2000));
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, ByteBuffer.wrap(out.get(i).getBody()).getInt(4));
+    }
+  }
+
+  /**
+   * Many producers and a consumer, checking that nothing is lost and that
+   * each producer's events stay in order.
+   */
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final int producers = 8;
+    final int count = 20000;
+    final IngestBuffer buf = new IngestBuffer(4, 500, 1000000);
+    for (int p = 0; p < producers; p++) {
+      final int id = p;
+      new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < count; i++) {
+              buf.put(event(id, i, 8));
+            }
+          } catch (InterruptedException e) {
+          }
+        }
+      }.start();
+    }
+
+    int[] next = new int[producers];
+    List<Event> out = new ArrayList<Event>();
+    int total = 0;
+    while (total < producers * count) {
+      Event e = buf.poll(5, TimeUnit.SECONDS);
+      assertTrue("timed out after " + total + " events", e != null);
+      out.add(e);
+      buf.drainTo(out, 100);
+      for (Event o : out) {
+        ByteBuffer body = ByteBuffer.wrap(o.getBody());
+        int p = body.getInt(0);
+        assertEquals(next[p], body.getInt(4));
+        next[p]++;
+      }
+      total += out.size();
+      out.clear();
+    }
+    assertTrue(buf.isEmpty());
+    assertEquals(0, buf.sizeBytes());
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.text;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.util.FileUtil;
+
+/**
+ * Tests the word at a time delimiter scan against a byte at a time scan, and
+ * the handling of '\r\n' line ends by the sources that use it.
+ */
+public class TestLineSplitter {
+
+  /**
+   * The obvious byte at a time scan the results are checked against.
+   */
+  static int slowIndexOf(ByteBuffer buf, int from, int to, byte b) {
+    for (int i = from; i < to; i++) {
+      if (buf.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Puts a delimiter at every position of buffers of every length up to 40,
+   * including bytes that differ from it by one bit or have the high bit set,
+   * and scans every from/to range in both byte orders.
+   */
+  @Test
+  public void testIndexOfAllOffsets() {
+    byte[] others = { 'm', '\n' ^ 0x01, (byte) 0x8a, (byte) 0xff, 0 };
+    for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+        ByteOrder.LITTLE_ENDIAN }) {
+      for (int len = 0; len <= 40; len++) {
+        for (int at = -1; at < len; at++) {
+          ByteBuffer buf = ByteBuffer.allocate(len).order(order);
+          for (int i = 0; i < len; i++) {
+            buf.put(i, others[i % others.length]);
+          }
+          if (at >= 0) {
+            buf.put(at, (byte) '\n');
+          }
+          for (int from = 0; from <= len; from++) {
+            for (int to = from; to <= len; to++) {
+              assertEquals(slowIndexOf(buf, from, to, (byte) '\n'),
+                  LineSplitter.indexOfNewline(buf, from, to));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Only the first of several matches is returned, also for high bytes.
+   */
+  @Test
+  public void testIndexOfFirst() {
+    byte[] b = "aa_bbbbbbbbbb_cc_".getBytes();
+    for (int i = 0; i < b.length; i++) {
+      if (b[i] == '_') {
+        b[i] = (byte) 0xff;
+      }
+    }
+    ByteBuffer buf = ByteBuffer.wrap(b);
+    assertEquals(2, LineSplitter.indexOf(buf, 0, buf.limit(), (byte) 0xff));
+    assertEquals(13, LineSplitter.indexOf(buf, 3, buf.limit(), (byte) 0xff));
+    assertEquals(-1, LineSplitter.indexOf(buf, 3, 13, (byte) 0xff));
+  }
+
+  @Test
+  public void testIndexOfDelim() {
+    ByteBuffer buf = ByteBuffer.wrap("a|b||c|||d||".getBytes());
+    byte[] delim = "||".getBytes();
+    assertEquals(3, LineSplitter.indexOf(buf, 0, buf.limit(), delim));
+    assertEquals(6, LineSplitter.indexOf(buf, 4, buf.limit(), delim));
+    assertEquals(7, LineSplitter.indexOf(buf, 7, buf.limit(), delim));
+    assertEquals(10, LineSplitter.indexOf(buf, 8, buf.limit(), delim));
+    // the delimiter has to fit before to.
+    assertEquals(-1, LineSplitter.indexOf(buf, 10, 11, delim));
+  }
+
+  @Test
+  public void testLineEnd() {
+    ByteBuffer buf = ByteBuffer.wrap("ab\r\n\r\n\nc\n".getBytes());
+    assertEquals(2, LineSplitter.lineEnd(buf, 0, 3));
+    assertEquals(4, LineSplitter.lineEnd(buf, 4, 5));
+    assertEquals(6, LineSplitter.lineEnd(buf, 6, 6));
+    assertEquals(8, LineSplitter.lineEnd(buf, 7, 8));
+  }
+
+  File createDataFile(String s) throws IOException {
+    File f = FileUtil.createTempFile("split", ".tmp");
+    f.deleteOnExit();
+    FileWriter fw = new FileWriter(f);
+    fw.write(s);
+    fw.close();
+    return f;
+  }
+
+  /**
+   * Tailed files with windows line ends have no '\r' at the end of the events.
+   */
+  @Test
+  public void testCursorCRLF() throws IOException, InterruptedException {
+    File f = createDataFile("one\r\ntwo\r\n\r\nthree\n");
+    BlockingQueue<Event> q = new ArrayBlockingQueue<Event>(10);
+    Cursor c = new Cursor(q, f);
+    c.initCursorPos();
+    while (c.tailBody()) {
+    }
+    c.close();
+
+    assertEquals(4, q.size());
+    assertEquals("one", new String(q.poll().getBody()));
+    assertEquals("two", new String(q.poll().getBody()));
+    assertEquals("", new String(q.poll().getBody()));
+    assertEquals("three", new String(q.poll().getBody()));
+  }
+}
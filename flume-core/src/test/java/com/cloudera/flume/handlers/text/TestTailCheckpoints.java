@@ -0,0 +1,270 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.util.Clock;
+import com.cloudera.util.FileUtil;
+
+/**
+ * Tests that tail cursors resume from saved checkpoints, and that files which
+ * changed underneath a checkpoint are read again from the start.
+ */
+public class TestTailCheckpoints {
+  File dir;
+  File ckpt;
+  File data;
+
+  @Before
+  public void setup() throws IOException {
+    dir = FileUtil.mktempdir();
+    ckpt = new File(dir, TailCheckpoints.FILENAME);
+    data = new File(dir, "data.log");
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    FileUtil.rmr(dir);
+  }
+
+  void write(File f, boolean append, String s) throws IOException {
+    FileWriter fw = new FileWriter(f, append);
+    fw.write(s);
+    fw.close();
+  }
+
+  String lines(int start, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = start; i < start + count; i++) {
+      sb.append("test ").append(i).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Starts a cursor on the data file the way a restarted tail does, using the
+   * checkpoints saved so far, and returns all the lines it reads.
+   */
+  BlockingQueue<Event> restart(TailCheckpoints store)
+      throws InterruptedException, IOException {
+    BlockingQueue<Event> q = new ArrayBlockingQueue<Event>(100);
+    Cursor c = new Cursor(q, data);
+    c.checkpoints = store;
+    c.initCursorPos();
+    while (c.tailBody()) {
+    }
+    c.checkpoint();
+    store.save();
+    c.close();
+    return q;
+  }
+
+  @Test
+  public void testSaveLoad() throws IOException {
+    write(data, false, lines(0, 5));
+    TailCheckpoints store = new TailCheckpoints(ckpt);
+    RandomAccessFile raf = new RandomAccessFile(data, "r");
+    store.update(data, raf.getChannel(), 21);
+    raf.close();
+    store.save();
+    assertTrue(ckpt.exists());
+    assertFalse(new File(ckpt.getPath() + ".tmp").exists());
+
+    TailCheckpoints.Checkpoint c = new TailCheckpoints(ckpt).lookup(data);
+    assertEquals(21, c.offset);
+    assertEquals(data.length(), c.fpLen);
+
+    store.remove(data);
+    store.save();
+    assertNull(new TailCheckpoints(ckpt).lookup(data));
+  }
+
+  @Test
+  public void testResumeAfterRestart() throws IOException,
+      InterruptedException {
+    write(data, false, lines(0, 5));
+    assertEquals(5, restart(new TailCheckpoints(ckpt)).size());
+
+    // data written while the node was down is picked up, nothing is repeated
+    write(data, true, lines(5, 3));
+    BlockingQueue<Event> q = restart(new TailCheckpoints(ckpt));
+    assertEquals(3, q.size());
+    assertEquals("test 5", new String(q.poll().getBody()));
+
+    assertEquals(0, restart(new TailCheckpoints(ckpt)).size());
+  }
+
+  /**
+   * A partial last line is not counted as read, so it is read whole after a
+   * restart.
+   */
+  @Test
+  public void testPartialLine() throws IOException, InterruptedException {
+    write(data, false, "first\nsec");
+    assertEquals(1, restart(new TailCheckpoints(ckpt)).size());
+    assertEquals(6, new TailCheckpoints(ckpt).lookup(data).offset);
+
+    write(data, true, "ond\n");
+    BlockingQueue<Event> q = restart(new TailCheckpoints(ckpt));
+    assertEquals(1, q.size());
+    assertEquals("second", new String(q.poll().getBody()));
+  }
+
+  /**
+   * A file rotated while the node was down is read from the start.
+   */
+  @Test
+  public void testReplacedFile() throws IOException, InterruptedException {
+    write(data, false, lines(0, 5));
+    assertEquals(5, restart(new TailCheckpoints(ckpt)).size());
+
+    assertTrue(data.delete());
+    write(data, false, "other 0\n" + lines(10, 5));
+    BlockingQueue<Event> q = restart(new TailCheckpoints(ckpt));
+    assertEquals(6, q.size());
+    assertEquals("other 0", new String(q.poll().getBody()));
+  }
+
+  /**
+   * A file truncated below its checkpoint is read from the start.
+   */
+  @Test
+  public void testTruncatedFile() throws IOException, InterruptedException {
+    write(data, false, lines(0, 5));
+    assertEquals(5, restart(new TailCheckpoints(ckpt)).size());
+
+    write(data, false, lines(0, 2));
+    assertEquals(2, restart(new TailCheckpoints(ckpt)).size());
+  }
+
+  /**
+   * Without a checkpoint the offset the cursor was built with is used.
+   */
+  @Test
+  public void testNoCheckpoint() throws IOException, InterruptedException {
+    write(data, false, lines(0, 5));
+    BlockingQueue<Event> q = new ArrayBlockingQueue<Event>(100);
+    Cursor c = new Cursor(q, data, data.length(), data.length(), data
+        .lastModified());
+    c.checkpoints = new TailCheckpoints(ckpt);
+    c.initCursorPos();
+    assertFalse(c.tailBody());
+    assertEquals(0, q.size());
+    c.close();
+  }
+
+  /**
+   * The tail buffer counts events before they go in, so checkpoints never wait
+   * for fewer events than are ahead of them, and uncounts interrupted puts.
+   */
+  @Test
+  public void testBufferCountsOffered() throws InterruptedException {
+    AtomicLong offered = new AtomicLong();
+    BlockingQueue<Event> buf = TailSource.newBuffer(10, offered);
+    buf.put(new EventImpl("a".getBytes()));
+    buf.put(new EventImpl("b".getBytes()));
+    assertEquals(2, offered.get());
+    buf.poll();
+    assertEquals(2, offered.get());
+
+    final BlockingQueue<Event> rendezvous = TailSource.newBuffer(0, offered);
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          rendezvous.put(new EventImpl("c".getBytes()));
+        } catch (InterruptedException e) {
+          // expected
+        }
+      }
+    };
+    t.start();
+    for (int i = 0; i < 100 && offered.get() < 3; i++) {
+      Clock.sleep(10);
+    }
+    assertEquals(3, offered.get()); // counted while still waiting to go in
+    t.interrupt();
+    t.join();
+    assertEquals(2, offered.get());
+  }
+
+  /**
+   * A tail source only records lines the driver came back for more after, and
+   * still saves them when it is closed.
+   */
+  @Test(timeout = 10000)
+  public void testOnlyReleasedLinesRecorded() throws IOException,
+      InterruptedException {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.setBoolean(FlumeConfiguration.TAIL_CHECKPOINT, true);
+    conf.set(FlumeConfiguration.AGENT_LOG_DIR_NEW, dir.getAbsolutePath());
+    try {
+      write(data, false, lines(0, 5));
+      TailSource src = new TailSource(data, 0, 100);
+      src.open();
+      for (int i = 0; i < 5; i++) {
+        assertNotNull(src.next());
+      }
+      src.close();
+      // the last line was handed out but never released
+      TailCheckpoints.Checkpoint cp = new TailCheckpoints(ckpt).lookup(data);
+      assertTrue(cp == null || cp.offset < data.length());
+
+      final TailSource src2 = new TailSource(data, 0, 100);
+      src2.open();
+      Event e;
+      do {
+        e = src2.next();
+      } while (!"test 4".equals(new String(e.getBody())));
+      Thread driver = new Thread() {
+        public void run() {
+          try {
+            src2.next(); // comes back for more, returns null on close
+          } catch (Exception e) {
+          }
+        }
+      };
+      driver.start();
+      Clock.sleep(200);
+      src2.close();
+      driver.join();
+      assertEquals(data.length(), new TailCheckpoints(ckpt).lookup(data).offset);
+    } finally {
+      conf.setBoolean(FlumeConfiguration.TAIL_CHECKPOINT, false);
+    }
+  }
+}
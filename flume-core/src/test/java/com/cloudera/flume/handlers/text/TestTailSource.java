@@ -26,7 +26,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,6 +40,7 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
 import com.cloudera.flume.conf.LogicalNodeContext;
 import com.cloudera.flume.conf.ReportTestingContext;
@@ -47,6 +50,7 @@ import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.core.EventSource;
 import com.cloudera.flume.core.EventUtil;
 import com.cloudera.flume.handlers.debug.MemorySinkSource;
+import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.ReportManager;
 import com.cloudera.flume.reporter.aggregator.CounterSink;
 import com.cloudera.util.Clock;
@@ -196,6 +200,41 @@ public class TestTailSource {
     assertEquals(count, ctr.getCount());
   }
 
+  /**
+   * An idle file backs off to a long recheck period, but with notifications
+   * an append is still picked up right away.
+   */
+  @Test
+  public void testTailIdleNotify() throws IOException, InterruptedException {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, true);
+    conf.setLong(FlumeConfiguration.TAIL_IDLE_MAX, 60000);
+    File f = FileUtil.createTempFile("temp", ".tmp");
+    f.deleteOnExit();
+    TailSource src = new TailSource(f, 0, 100);
+    try {
+      src.open();
+      FileWriter fw = new FileWriter(f);
+      fw.append("Line 0\n");
+      fw.flush();
+      assertEquals("Line 0", new String(src.next().getBody()));
+
+      // let the cursor back off to a few seconds between checks.
+      Clock.sleep(4000);
+      long start = Clock.unixTime();
+      fw.append("Line 1\n");
+      fw.close();
+      assertEquals("Line 1", new String(src.next().getBody()));
+      long delay = Clock.unixTime() - start;
+      LOG.info("idle file append picked up after " + delay + "ms");
+      assertTrue(delay < 1000);
+      src.close();
+    } finally {
+      conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, false);
+      conf.setLong(FlumeConfiguration.TAIL_IDLE_MAX, 0);
+    }
+  }
+
   /**
    * Create a file and write to it, move it, write another
    */
@@ -244,6 +283,67 @@ public class TestTailSource {
     assertEquals(count, ctr.getCount());
   }
 
+  /**
+   * Tail several files with a pool of threads. A file with a large backlog
+   * must not hold up the others, and all lines of all files arrive.
+   */
+  @Test
+  public void testMultiTailThreads() throws IOException, FlumeSpecException,
+      InterruptedException {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.setInt(FlumeConfiguration.TAIL_THREADS, 3);
+    try {
+      int files = 5;
+      int bigCount = 50000;
+      int count = 100;
+      String[] paths = new String[files];
+      for (int i = 0; i < files; i++) {
+        File f = FileUtil.createTempFile("multithread" + i, ".tmp");
+        f.deleteOnExit();
+        paths[i] = f.getAbsolutePath();
+        FileWriter fw = new FileWriter(f);
+        for (int j = 0; j < (i == 0 ? bigCount : count); j++) {
+          fw.append("file " + i + " line " + j + "\n");
+        }
+        fw.close();
+      }
+      TailSource src = (TailSource) TailSource.multiTailBuilder().build(
+          LogicalNodeContext.testingContext(), paths);
+      src.open();
+
+      int total = bigCount + (files - 1) * count;
+      int small = 0;
+      int smallDoneAt = -1;
+      String big = new File(paths[0]).getName();
+      List<Event> batch = new ArrayList<Event>();
+      int seen = 0;
+      while (seen < total) {
+        batch.clear();
+        assertTrue(src.nextBatch(batch, 100) > 0);
+        for (Event e : batch) {
+          seen++;
+          String name = new String(e.get(TailSource.A_TAILSRCFILE));
+          if (!name.equals(big) && ++small == (files - 1) * count) {
+            smallDoneAt = seen;
+          }
+        }
+      }
+      assertEquals(total, seen);
+      // the small files did not wait for the big one to be read out.
+      assertTrue("small files done after " + smallDoneAt,
+          smallDoneAt > 0 && smallDoneAt < bigCount);
+
+      ReportEvent rpt = src.getMetrics();
+      assertEquals(3, (long) rpt.getLongMetric(TailSource.A_THREADS));
+      assertEquals(files, (long) rpt.getLongMetric(TailSource.A_FILES));
+      assertEquals(0, (long) rpt.getLongMetric(TailSource.A_LAG));
+      assertEquals(files, src.getSubMetrics().size());
+      src.close();
+    } finally {
+      conf.setInt(FlumeConfiguration.TAIL_THREADS, 1);
+    }
+  }
+
   /**
    * Create and tail multiple files
    */
@@ -20,6 +20,7 @@ package com.cloudera.flume.handlers.thrift;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.junit.Assert;
@@ -118,4 +119,19 @@ public class TestThriftEventConvertUtil {
     Event e2 = ThriftEventConvertUtil.toFlumeEvent(tfeNull);
     e2.set("test", "data".getBytes());
   }
+
+  /**
+   * An attribute value that is a view of a bigger array, as a protocol reading
+   * straight from its buffer returns, converts to just its own bytes.
+   */
+  @Test
+  public void testAttrSlice() {
+    byte[] wire = "xxxdatayyy".getBytes();
+    Map<String, ByteBuffer> fields = new HashMap<String, ByteBuffer>();
+    fields.put("test", ByteBuffer.wrap(wire, 3, 4));
+    ThriftFlumeEvent tevt = new ThriftFlumeEvent(0L, Priority.INFO, ByteBuffer
+        .wrap(new byte[0]), 0L, "localhost", fields);
+    Event e = ThriftEventConvertUtil.toFlumeEvent(tevt);
+    Assert.assertEquals("data", new String(e.get("test")));
+  }
 }
@@ -28,6 +28,9 @@ import static org.junit.Assert.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.distributed.GossipMulticast;
+import com.cloudera.distributed.Group;
+import com.cloudera.distributed.TCPNodeId;
 import com.cloudera.util.Clock;
 import com.cloudera.util.Pair;
 
@@ -83,4 +86,63 @@ public class TestGossipedAckManager {
       LOG.info("Stopped");
     }
   }
+
+  /**
+   * Test that acks are gossiped as one message per flush
+   */
+  @Test
+  public void testBatch() throws IOException {
+    List<Pair<String, Integer>> peers = new ArrayList<Pair<String, Integer>>();
+    peers.add(new Pair<String, Integer>("localhost", 57890));
+    GossipedMasterAckManager ackman = new GossipedMasterAckManager(peers,
+        57890, 60 * 1000);
+    final List<byte[]> sent = new ArrayList<byte[]>();
+    ackman.gossip = new GossipMulticast(ackman.group, new TCPNodeId(
+        "localhost", 57890)) {
+      @Override
+      public void sendToGroup(Group to, byte[] msg) {
+        sent.add(msg);
+      }
+    };
+    List<String> acks = new ArrayList<String>();
+    for (int i = 0; i < 10; ++i) {
+      acks.add("ack " + i);
+      ackman.acknowledge("ack " + i);
+    }
+    ackman.flush();
+    ackman.flush();
+    assertEquals(1, sent.size());
+    assertEquals(acks, GossipedMasterAckManager.decode(sent.get(0)));
+
+    for (int i = 0; i < GossipedMasterAckManager.MAX_BATCH; ++i) {
+      ackman.acknowledge("more " + i);
+    }
+    assertEquals(2, sent.size());
+  }
+
+  /**
+   * Test that single ack messages from older masters are still understood and
+   * that unknown batch versions are rejected.
+   */
+  @Test
+  public void testLegacyDecode() throws IOException {
+    List<String> legacy = GossipedMasterAckManager.decode("an ack tag"
+        .getBytes());
+    assertEquals(1, legacy.size());
+    assertEquals("an ack tag", legacy.get(0));
+
+    List<String> acks = new ArrayList<String>();
+    acks.add("an ack tag");
+    byte[] msg = GossipedMasterAckManager.encode(acks);
+    assertEquals(GossipedMasterAckManager.MAGIC, msg[0]);
+    assertEquals(acks, GossipedMasterAckManager.decode(msg));
+
+    msg[1] = (byte) (GossipedMasterAckManager.VERSION + 1);
+    try {
+      GossipedMasterAckManager.decode(msg);
+      fail("unknown version should not decode");
+    } catch (IOException e) {
+      // expected
+    }
+  }
 }
@@ -0,0 +1,101 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cloudera.flume.reporter.ReportEvent;
+import com.cloudera.flume.util.MockClock;
+import com.cloudera.util.Clock;
+
+/**
+ * Tests the master side ack store: batch checks, age off and metrics.
+ */
+public class TestMasterAckManager {
+
+  @After
+  public void resetClock() {
+    Clock.resetDefault();
+  }
+
+  @Test
+  public void testCheck() {
+    MasterAckManager ackman = new MasterAckManager(1000);
+    ackman.acknowledge("foo");
+    assertTrue(ackman.check("foo"));
+    assertFalse(ackman.check("foo")); // checks are destructive
+    assertFalse(ackman.check("bar"));
+  }
+
+  @Test
+  public void testCheckBatch() {
+    MasterAckManager ackman = new MasterAckManager(1000);
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      ids.add("ack-" + i);
+      if (i % 3 == 0) {
+        ackman.acknowledge("ack-" + i);
+      }
+    }
+    List<String> done = ackman.check(ids);
+    assertEquals(34, done.size());
+    assertEquals("ack-0", done.get(0));
+    assertEquals("ack-99", done.get(33));
+    assertEquals(0, ackman.getPending().size());
+  }
+
+  @Test
+  public void testAgeOff() {
+    MockClock mclk = new MockClock(0);
+    Clock.setClock(mclk);
+    MasterAckManager ackman = new MasterAckManager(1000);
+    ackman.acknowledge("old");
+    mclk.forward(600);
+    ackman.acknowledge("young");
+    mclk.forward(600);
+
+    ReportEvent rpt = ackman.getMetrics();
+    assertEquals(2, (long) rpt.getLongMetric(MasterAckManager.A_ACKS));
+    assertEquals(1200, (long) rpt
+        .getLongMetric(MasterAckManager.A_OLDEST_AGE));
+
+    ackman.expire();
+    assertEquals(Arrays.asList("young"), new ArrayList<String>(ackman
+        .getPending()));
+    rpt = ackman.getMetrics();
+    assertEquals(1, (long) rpt.getLongMetric(MasterAckManager.A_EXPIRED));
+    assertEquals(600, (long) rpt.getLongMetric(MasterAckManager.A_OLDEST_AGE));
+
+    // a repeated ack is young again
+    ackman.acknowledge("young");
+    mclk.forward(600);
+    ackman.expire();
+    assertTrue(ackman.check("young"));
+    assertEquals(1, (long) ackman.getMetrics().getLongMetric(
+        MasterAckManager.A_CHECKED));
+  }
+}
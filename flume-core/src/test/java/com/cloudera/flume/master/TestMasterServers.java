@@ -21,11 +21,14 @@ package com.cloudera.flume.master;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.thrift.TException;
@@ -35,6 +38,7 @@ import org.junit.Test;
 
 import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.flume.conf.FlumeSpecException;
+import com.cloudera.flume.master.StatusManager.NodeState;
 import com.cloudera.flume.master.StatusManager.NodeStatus;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.flume.reporter.ReportManager;
@@ -97,6 +101,59 @@ public class TestMasterServers {
     delegate.getLogicalNodes("host");
   }
 
+  /**
+   * A multi node heartbeat only returns the configs that changed and the
+   * choke map when the node's one is out of date.
+   */
+  @Test
+  public void testHeartbeatAll() throws IOException, FlumeSpecException {
+    master = new FlumeMaster(cfg);
+    master.serve();
+    MockClock mclk = new MockClock(0);
+    Clock.setClock(mclk);
+    MasterClientServer delegate = new MasterClientServer(master, cfg);
+
+    master.getSpecMan().addLogicalNode("phys", "foo");
+    master.getSpecMan().addLogicalNode("phys", "bar");
+    master.getSpecMan().setConfig("foo", "my-test-flow", "null", "null");
+    master.getSpecMan().setConfig("bar", "my-test-flow", "null", "null");
+    master.getSpecMan().addChokeLimit("phys", "choke", 100);
+    long cfgtime = Clock.unixTime();
+    mclk.forward(250);
+
+    // first heartbeat of foo, bar is not spawned on the node yet
+    List<MultiHeartbeat.Node> nodes = new ArrayList<MultiHeartbeat.Node>();
+    nodes.add(new MultiHeartbeat.Node("phys", NodeState.HELLO, 0));
+    nodes.add(new MultiHeartbeat.Node("foo", NodeState.HELLO, cfgtime));
+    MultiHeartbeat.Reply reply = delegate.heartbeatAll("phys", NetUtils
+        .localhost(), nodes, 0);
+    assertEquals(3, reply.logicalNodes.size());
+    assertTrue(reply.logicalNodes.contains("phys"));
+    assertTrue(reply.configs.containsKey("foo"));
+    assertTrue(reply.configs.containsKey("bar"));
+    assertFalse(reply.configs.containsKey("phys")); // no config on master
+    assertEquals(Integer.valueOf(100), reply.chokeMap.get("choke"));
+    assertEquals(2, master.getStatMan().getNodeStatuses().size());
+
+    // nothing changed
+    nodes.add(new MultiHeartbeat.Node("bar", NodeState.HELLO, cfgtime));
+    delegate.heartbeatAll("phys", NetUtils.localhost(), nodes,
+        reply.chokeMap.hashCode());
+    mclk.forward(250);
+    reply = delegate.heartbeatAll("phys", NetUtils.localhost(), nodes,
+        reply.chokeMap.hashCode());
+    assertEquals(0, reply.configs.size());
+    assertNull(reply.chokeMap);
+
+    // a new config for bar, and a node that has no choke map
+    master.getSpecMan().setConfig("bar", "my-test-flow", "null", "null");
+    mclk.forward(250);
+    reply = delegate.heartbeatAll("phys", NetUtils.localhost(), nodes, 0);
+    assertEquals(1, reply.configs.size());
+    assertTrue(reply.configs.containsKey("bar"));
+    assertEquals(Integer.valueOf(100), reply.chokeMap.get("choke"));
+  }
+
   @Test
   public void testInvalidRPCSpec() {
     cfg.set(FlumeConfiguration.MASTER_HEARBEAT_RPC, "INVALID");
@@ -425,19 +425,159 @@ public class TestZKBackedConfigStore {
 
     ZKClient client = zk.createClient();
     client.init();
-    List<String> children = client.getChildren(ZooKeeperConfigStore.CFGS_PATH,
-        false);
+    List<String> children = client.getChildren(
+        ZooKeeperConfigStore.NODECFGS_PATH, false);
     assertEquals("Expected 3 configs", 3, children.size());
 
     // Note children not necessarily returned in creation order
     Collections.sort(children);
+    assertEquals(ZooKeeperConfigStore.nodeConfigPath("foo"),
+        ZooKeeperConfigStore.NODECFGS_PATH + "/" + children.get(0));
+
+    assertEquals("Expected config to be numbered 0", 0L, store
+        .getConfig("foo").getSourceVersion());
+    assertEquals("Expected config to be numbered 1", 1L, store.getConfig(
+        "foo2").getSourceVersion());
+    assertEquals("Expected config to be numbered 2", 2L, store.getConfig(
+        "foo3").getSourceVersion());
+    store.shutdown();
+    client.close();
+    zk.shutdown();
+    FileUtil.rmr(tmp);
+  }
+
+  /**
+   * Test that configs are updated and removed on peers through watches on the
+   * per-node znodes
+   */
+  @Test
+  public void testZBCSConfigWatches() throws IOException, InterruptedException {
+    FlumeConfiguration cfg = FlumeConfiguration.createTestableConfiguration();
+    cfg.set(FlumeConfiguration.MASTER_ZK_SERVERS, "localhost:2181:3181:4181");
+    File tmp = FileUtil.mktempdir();
+    cfg.set(FlumeConfiguration.MASTER_ZK_LOGDIR, tmp.getAbsolutePath());
+    cfg.setBoolean(FlumeConfiguration.MASTER_ZK_USE_EXTERNAL, false);
+    ZooKeeperService.getAndInit(cfg);
+
+    ZooKeeperConfigStore store = new ZooKeeperConfigStore();
+    store.init();
+    ZooKeeperConfigStore store2 = new ZooKeeperConfigStore();
+    store2.init();
+    String defaultFlowName = cfg.getDefaultFlowName();
+    store.setConfig("foo", defaultFlowName, "null", "console");
+    store.setConfig("foo/bar", defaultFlowName, "null", "console");
+
+    // There is no convenient way to avoid these sleeps
+    Thread.sleep(2000);
+    assertEquals("console", store2.getConfig("foo").getSinkConfig());
+    assertEquals("console", store2.getConfig("foo/bar").getSinkConfig());
+
+    // a change to a config the peer already has comes through a data watch
+    store.setConfig("foo", defaultFlowName, "null", "null");
+    Thread.sleep(2000);
+    assertEquals("null", store2.getConfig("foo").getSinkConfig());
+
+    store2.removeLogicalNode("foo/bar");
+    Thread.sleep(2000);
+    assertEquals(null, store.getConfig("foo/bar"));
+    assertEquals("null", store.getConfig("foo").getSinkConfig());
+
+    store.shutdown();
+    store2.shutdown();
+    ZooKeeperService.get().shutdown();
+    FileUtil.rmr(tmp);
+  }
+
+  /**
+   * Test that configs saved in the older single znode layout are loaded into
+   * per-node znodes
+   */
+  @Test
+  public void testMigrateConfigs() throws IOException, InterruptedException,
+      KeeperException {
+    File tmp = FileUtil.mktempdir();
+    FlumeConfiguration cfg = FlumeConfiguration.createTestableConfiguration();
+    cfg.set(FlumeConfiguration.MASTER_ZK_LOGDIR, tmp.getAbsolutePath());
+    cfg.set(FlumeConfiguration.MASTER_ZK_SERVERS, "localhost:2181:3181:4181");
+    cfg.setInt(FlumeConfiguration.MASTER_SERVER_ID, 0);
+
+    ZooKeeperService zk = new ZooKeeperService();
+    zk.init(cfg);
+
+    Map<String, FlumeConfigData> old = new HashMap<String, FlumeConfigData>();
+    old.put("old1", new FlumeConfigData(0, "s1", "sk1", 3, 3, "my-test-flow"));
+    old.put("old2", new FlumeConfigData(0, "s2", "sk2", 3, 3, "my-test-flow"));
+    ZKClient client = zk.createClient();
+    client.init();
+    client.ensureExists(ZooKeeperConfigStore.CFGS_PATH, new byte[0]);
+    client.create(ZooKeeperConfigStore.CFGS_PATH + "/cfg-0000000003",
+        ZooKeeperConfigStore.serializeConfigs(old), Ids.OPEN_ACL_UNSAFE,
+        CreateMode.PERSISTENT);
+
+    ZooKeeperConfigStore store = new ZooKeeperConfigStore(zk);
+    store.init();
+    assertEquals(2, store.getConfigs().size());
+    assertEquals("sk2", store.getConfig("old2").getSinkConfig());
+    assertEquals(3, store.getConfig("old2").getSinkVersion());
+    assertEquals(2, client.getChildren(ZooKeeperConfigStore.NODECFGS_PATH,
+        false).size());
+    assertNotNull(client.exists(ZooKeeperConfigStore.MIGRATED_PATH, false));
+
+    // after migrating, a removed config stays removed
+    store.removeLogicalNode("old2");
+    store.shutdown();
+    store = new ZooKeeperConfigStore(zk);
+    store.init();
+    assertEquals(1, store.getConfigs().size());
+    assertEquals("sk1", store.getConfig("old1").getSinkConfig());
+
+    store.shutdown();
+    client.close();
+    zk.shutdown();
+    FileUtil.rmr(tmp);
+  }
+
+  /**
+   * Test that a migration that was cut short, leaving NODECFGS_PATH without
+   * the migration marker, is finished by the next master to load, without
+   * overwriting configs already written in the per-node layout.
+   */
+  @Test
+  public void testResumeMigration() throws IOException, InterruptedException,
+      KeeperException {
+    File tmp = FileUtil.mktempdir();
+    FlumeConfiguration cfg = FlumeConfiguration.createTestableConfiguration();
+    cfg.set(FlumeConfiguration.MASTER_ZK_LOGDIR, tmp.getAbsolutePath());
+    cfg.set(FlumeConfiguration.MASTER_ZK_SERVERS, "localhost:2181:3181:4181");
+    cfg.setInt(FlumeConfiguration.MASTER_SERVER_ID, 0);
+
+    ZooKeeperService zk = new ZooKeeperService();
+    zk.init(cfg);
+
+    Map<String, FlumeConfigData> old = new HashMap<String, FlumeConfigData>();
+    old.put("old1", new FlumeConfigData(0, "s1", "sk1", 3, 3, "my-test-flow"));
+    old.put("old2", new FlumeConfigData(0, "s2", "sk2", 3, 3, "my-test-flow"));
+    ZKClient client = zk.createClient();
+    client.init();
+    client.ensureExists(ZooKeeperConfigStore.CFGS_PATH, new byte[0]);
+    client.create(ZooKeeperConfigStore.CFGS_PATH + "/cfg-0000000003",
+        ZooKeeperConfigStore.serializeConfigs(old), Ids.OPEN_ACL_UNSAFE,
+        CreateMode.PERSISTENT);
+
+    // only old1 made it over, and has been updated since
+    client.ensureExists(ZooKeeperConfigStore.NODECFGS_PATH, new byte[0]);
+    client.create(ZooKeeperConfigStore.nodeConfigPath("old1"),
+        ZooKeeperConfigStore.serializeConfig(new FlumeConfigData(0, "s1",
+            "new1", 4, 4, "my-test-flow")), Ids.OPEN_ACL_UNSAFE,
+        CreateMode.PERSISTENT);
+
+    ZooKeeperConfigStore store = new ZooKeeperConfigStore(zk);
+    store.init();
+    assertEquals(2, store.getConfigs().size());
+    assertEquals("new1", store.getConfig("old1").getSinkConfig());
+    assertEquals("sk2", store.getConfig("old2").getSinkConfig());
+    assertNotNull(client.exists(ZooKeeperConfigStore.MIGRATED_PATH, false));
 
-    assertEquals("Expected config to be numbered 0", 0L, ZKClient
-        .extractSuffix("cfg-", children.get(0)));
-    assertEquals("Expected config to be numbered 1", 1L, ZKClient
-        .extractSuffix("cfg-", children.get(1)));
-    assertEquals("Expected config to be numbered 2", 2L, ZKClient
-        .extractSuffix("cfg-", children.get(2)));
     store.shutdown();
     client.close();
     zk.shutdown();
@@ -548,6 +688,29 @@ public class TestZKBackedConfigStore {
     assertEquals(cfgmap, outmap);
   }
 
+  /**
+   * Test that Avro-based serialization of a single node config works
+   */
+  @Test
+  public void testSerializeConfig() throws IOException {
+    FlumeConfigData fcd = new FlumeConfigData(10L, "my-source", "my-sink",
+        100, 10, "my-flow");
+    FlumeConfigData out = ZooKeeperConfigStore
+        .deserializeConfig(ZooKeeperConfigStore.serializeConfig(fcd));
+    assertEquals(10L, out.getTimestamp());
+    assertEquals("my-source", out.getSourceConfig());
+    assertEquals("my-sink", out.getSinkConfig());
+    assertEquals(100, out.getSourceVersion());
+    assertEquals(10, out.getSinkVersion());
+    assertEquals("my-flow", out.getFlowID());
+
+    assertEquals("foo/bar", ZooKeeperConfigStore
+        .nodeFromConfigZNode(ZooKeeperConfigStore.nodeConfigPath("foo/bar")
+            .substring(ZooKeeperConfigStore.NODECFGS_PATH.length() + 1)));
+    assertEquals(null, ZooKeeperConfigStore
+        .nodeFromConfigZNode("cfg-0000000001"));
+  }
+
   /**
    * Test that Avro-based serialization of chokemap works
    */
@@ -24,15 +24,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.flume.conf.FlumeConfiguration;
 import com.cloudera.util.Clock;
 import com.cloudera.util.FileUtil;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * TODO(jon) Make this really use the mock clock, and make the test finish
@@ -214,4 +218,50 @@ public class TestDirWatcher {
     assertEquals("File not matching regex should not have invoked fileDeleted", 1, handler.filesRemoved.size());
     assertEquals(matchingFile, handler.filesRemoved.get(0));
   }
+
+  /**
+   * With notifications a new file is seen right away, even though the poll
+   * period is long.
+   */
+  @Test
+  public void testNotifiedWatcher() throws IOException, InterruptedException {
+    FileNotifier probe = FileNotifier.create();
+    if (probe == null) {
+      return; // runtime has no notification support
+    }
+    probe.shutdown();
+
+    final CountDownLatch created = new CountDownLatch(1);
+    final CountDownLatch deleted = new CountDownLatch(1);
+    DirChangeHandler handler = new DirChangeHandler() {
+      @Override
+      public void fileCreated(File f) {
+        created.countDown();
+      }
+
+      @Override
+      public void fileDeleted(File f) {
+        deleted.countDown();
+      }
+    };
+
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, true);
+    File tempdir = FileUtil.mktempdir();
+    try {
+      DirWatcher w = new DirWatcher(tempdir, filt, 60000);
+      w.addHandler(handler);
+      w.start();
+      Clock.sleep(100); // let the first check happen.
+
+      File f = File.createTempFile("foo", "bar", tempdir);
+      assertTrue(created.await(2, TimeUnit.SECONDS));
+      f.delete();
+      assertTrue(deleted.await(2, TimeUnit.SECONDS));
+      w.stop();
+    } finally {
+      conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, false);
+      FileUtil.rmr(tempdir);
+    }
+  }
 }
@@ -0,0 +1,174 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.util.dirwatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.util.FileUtil;
+
+/**
+ * Tests the delivery of file change notifications. These need a runtime with
+ * java.nio.file, the tests pass trivially otherwise.
+ */
+public class TestFileNotifier {
+  File dir;
+  FileNotifier notifier;
+  final BlockingQueue<File> changes = new LinkedBlockingQueue<File>();
+  final FileNotifier.Listener listener = new FileNotifier.Listener() {
+    @Override
+    public void changed(File d, File f) {
+      changes.add(f == null ? d : f);
+    }
+  };
+
+  @Before
+  public void setup() throws IOException {
+    dir = FileUtil.mktempdir();
+    notifier = FileNotifier.create();
+  }
+
+  @After
+  public void cleanup() throws IOException, InterruptedException {
+    if (notifier != null) {
+      notifier.shutdown();
+    }
+    FileUtil.rmr(dir);
+  }
+
+  void write(File f, String s) throws IOException {
+    FileWriter fw = new FileWriter(f, true);
+    fw.write(s);
+    fw.close();
+  }
+
+  /**
+   * Waits for a change of f, skipping changes of other files.
+   */
+  boolean awaitChange(File f) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    File got;
+    while ((got = changes.poll(deadline - System.currentTimeMillis(),
+        TimeUnit.MILLISECONDS)) != null) {
+      if (got.getName().equals(f.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testCreateModifyDelete() throws IOException,
+      InterruptedException {
+    if (notifier == null) {
+      return;
+    }
+    assertTrue(notifier.register(dir, listener));
+    File f = new File(dir, "foo");
+    write(f, "created\n");
+    assertTrue(awaitChange(f));
+
+    changes.clear();
+    write(f, "modified\n");
+    assertTrue(awaitChange(f));
+
+    changes.clear();
+    assertTrue(f.delete());
+    assertTrue(awaitChange(f));
+  }
+
+  @Test
+  public void testUnregister() throws IOException, InterruptedException {
+    if (notifier == null) {
+      return;
+    }
+    FileNotifier.Listener other = new FileNotifier.Listener() {
+      @Override
+      public void changed(File d, File f) {
+      }
+    };
+    assertTrue(notifier.register(dir, listener));
+    assertTrue(notifier.register(dir, other));
+    assertEquals(1, notifier.getWatchedCount());
+
+    notifier.unregister(dir, listener);
+    assertEquals(1, notifier.getWatchedCount());
+    write(new File(dir, "foo"), "data\n");
+    assertNull(changes.poll(1, TimeUnit.SECONDS));
+
+    notifier.unregister(dir, other);
+    assertEquals(0, notifier.getWatchedCount());
+  }
+
+  @Test
+  public void testMissingDir() {
+    if (notifier == null) {
+      return;
+    }
+    assertFalse(notifier.register(new File(dir, "missing"), listener));
+    assertEquals(0, notifier.getWatchedCount());
+  }
+
+  @Test
+  public void testDeletedDir() throws IOException, InterruptedException {
+    if (notifier == null) {
+      return;
+    }
+    File sub = new File(dir, "sub");
+    assertTrue(sub.mkdir());
+    assertTrue(notifier.register(sub, listener));
+    assertTrue(sub.delete());
+    // the dir itself is reported when it goes away.
+    assertTrue(awaitChange(sub));
+  }
+
+  /**
+   * The shared notifier follows flume.watch.notify.
+   */
+  @Test
+  public void testShared() {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, false);
+    assertNull(FileNotifier.get());
+    if (notifier == null) {
+      return;
+    }
+    conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, true);
+    try {
+      assertNotNull(FileNotifier.get());
+      assertTrue(FileNotifier.get() == FileNotifier.get());
+    } finally {
+      conf.setBoolean(FlumeConfiguration.WATCH_NOTIFY, false);
+    }
+  }
+}
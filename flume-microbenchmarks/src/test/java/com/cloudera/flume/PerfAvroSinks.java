@@ -18,10 +18,13 @@
 package com.cloudera.flume;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
 import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.EventUtil;
 import com.cloudera.flume.handlers.avro.AvroEventSink;
 import com.cloudera.flume.handlers.avro.AvroEventSource;
@@ -293,4 +296,64 @@ public class PerfAvroSinks {
     b.done();
   }
 
+  /**
+   * mem -> appendBatch(100) AvroEventSink (netty, window 4) -> AvroEventSource
+   * -> NullSink
+   */
+  @Test
+  public void testAvroNettyBatchSend() throws IOException,
+      InterruptedException {
+
+    Benchmark b = new Benchmark("nullsink");
+    b.mark("begin");
+    MemorySinkSource mem = FlumeBenchmarkHarness.synthInMem();
+    b.mark("disk_loaded");
+
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    conf.set(FlumeConfiguration.EVENT_AVRO_TRANSPORT,
+        FlumeConfiguration.AVRO_TRANSPORT_NETTY);
+    final AvroEventSource tes = new AvroEventSource(conf.getCollectorPort());
+    tes.open();
+    // need to drain the sink otherwise its queue will fill up with events!
+    Thread drain = new Thread("drain") {
+      public void run() {
+        try {
+          EventUtil.dumpAll(tes, new NullSink());
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    drain.start(); // drain the sink.
+    b.mark("receiver_started");
+
+    final AvroEventSink snk = new AvroEventSink("0.0.0.0", conf
+        .getCollectorPort(), FlumeConfiguration.AVRO_TRANSPORT_NETTY, 4);
+    snk.open();
+    b.mark("sink_started");
+
+    List<Event> batch = new ArrayList<Event>(100);
+    Event e;
+    while ((e = mem.next()) != null) {
+      batch.add(e);
+      if (batch.size() == 100) {
+        snk.appendBatch(batch);
+        batch = new ArrayList<Event>(100);
+      }
+    }
+    if (!batch.isEmpty()) {
+      snk.appendBatch(batch);
+    }
+    snk.close();
+    b.mark("Avro netty sink to Avro source done");
+    // MB/s = B/us
+    b.mark("MB/s", (double) snk.getSentBytes()
+        / (double) (b.getLastDelta() / 1000));
+
+    tes.close();
+    drain.interrupt();
+    conf.set(FlumeConfiguration.EVENT_AVRO_TRANSPORT,
+        FlumeConfiguration.AVRO_TRANSPORT_HTTP);
+    b.done();
+  }
 }
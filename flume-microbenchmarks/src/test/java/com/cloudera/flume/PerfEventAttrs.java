@@ -0,0 +1,76 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.core.EventSource;
+import com.cloudera.flume.core.EventUtil;
+import com.cloudera.flume.core.FanOutSink;
+import com.cloudera.flume.handlers.debug.MemorySinkSource;
+import com.cloudera.flume.handlers.debug.NullSink;
+import com.cloudera.util.Benchmark;
+
+/**
+ * Measures the memory used by events with varying numbers of attributes, and
+ * the cost of copying them in a fan out. The memory after each mark is
+ * reported by the Benchmark, so the "hashmap copies" mark gives the cost of
+ * the same events kept in HashMaps as a baseline.
+ */
+public class PerfEventAttrs {
+
+  @Test
+  public void testVariedNumAttrs() throws IOException, InterruptedException {
+    for (Map.Entry<String, EventSource> ent : FlumeBenchmarkHarness
+        .createVariedNumAttrsCases().entrySet()) {
+      Benchmark b = new Benchmark("event attrs " + ent.getKey());
+      b.mark("begin");
+      MemorySinkSource mem = MemorySinkSource.bufferize(ent.getValue());
+      b.mark("attribute maps");
+
+      List<Event> hashed = new ArrayList<Event>();
+      mem.open();
+      Event e;
+      while ((e = mem.next()) != null) {
+        hashed.add(new EventImpl(e.getBody(), e.getTimestamp(), e
+            .getPriority(), e.getNanos(), e.getHost(),
+            new HashMap<String, byte[]>(e.getAttrs())));
+      }
+      b.mark("hashmap copies", hashed.size());
+      hashed = null;
+
+      // copies made by a 3 way fan out.
+      mem.open();
+      FanOutSink<NullSink> fan = new FanOutSink<NullSink>(new NullSink(),
+          new NullSink(), new NullSink());
+      fan.open();
+      EventUtil.dumpAll(mem, fan);
+      fan.close();
+      b.mark("fanout x3");
+      b.done();
+    }
+  }
+}
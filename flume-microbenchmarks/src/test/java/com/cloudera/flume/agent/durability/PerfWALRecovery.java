@@ -0,0 +1,106 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.agent.durability;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.handlers.endtoend.AckChecksumInjector;
+import com.cloudera.flume.handlers.hdfs.SeqfileEventSink;
+import com.cloudera.util.Benchmark;
+import com.cloudera.util.FileUtil;
+
+/**
+ * This measures how long a node takes to recover the WAL logs left over from a
+ * crash. The synthetic WAL directory holds 64MB logs spread over the writing,
+ * sending and sent dirs. Half of the logs are properly ack framed and only need
+ * to be moved, the other half are missing the ack end and must be rewritten.
+ * 
+ * The total WAL size defaults to 10GB and can be changed with the
+ * perf.wal.recovery.bytes system property.
+ */
+public class PerfWALRecovery {
+
+  final static long WAL_BYTES = Long.getLong("perf.wal.recovery.bytes",
+      10L * 1024 * 1024 * 1024);
+  final static long LOG_BYTES = 64 * 1024 * 1024;
+  final static int BODY_SZ = 1000;
+
+  /**
+   * Fills the writing, sending and sent dirs of the wal.
+   */
+  void synthWAL(NaiveFileWALManager wal) throws IOException,
+      InterruptedException {
+    File[] dirs = { wal.writingDir, wal.sendingDir, wal.sentDir };
+    byte[] body = new byte[BODY_SZ];
+    long logs = WAL_BYTES / LOG_BYTES;
+    for (int i = 0; i < logs; i++) {
+      File f = new File(dirs[i % dirs.length], "log." + i + ".seq");
+      SeqfileEventSink seq = new SeqfileEventSink(f);
+      EventSink snk = new AckChecksumInjector<EventSink>(seq);
+      snk.open();
+      for (long sz = 0; sz < LOG_BYTES; sz += BODY_SZ) {
+        snk.append(new EventImpl(body));
+      }
+      if (i % 2 == 0) {
+        snk.close();
+      } else {
+        // no ack end event, forces a rewrite on recovery.
+        seq.close();
+      }
+    }
+  }
+
+  void doRecovery(String name, int threads) throws IOException,
+      InterruptedException {
+    FlumeConfiguration conf = FlumeConfiguration.get();
+    int oldThreads = conf.getWALRecoveryThreads();
+    conf.setInt(FlumeConfiguration.WAL_RECOVERY_THREADS, threads);
+    File dir = FileUtil.mktempdir();
+    try {
+      Benchmark b = new Benchmark(name);
+      b.mark("begin");
+      NaiveFileWALManager wal = new NaiveFileWALManager(dir);
+      wal.open();
+      synthWAL(wal);
+      b.mark("wal written", WAL_BYTES);
+
+      wal.recover();
+      b.mark("wal recovered", wal.getLoggedTags().size());
+      b.done();
+    } finally {
+      FileUtil.rmr(dir);
+      conf.setInt(FlumeConfiguration.WAL_RECOVERY_THREADS, oldThreads);
+    }
+  }
+
+  @Test
+  public void testSerialRecovery() throws IOException, InterruptedException {
+    doRecovery("serial wal recovery", 1);
+  }
+
+  @Test
+  public void testParallelRecovery() throws IOException, InterruptedException {
+    doRecovery("parallel wal recovery", 4);
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.core;
+
+import java.util.regex.Matcher;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.util.Benchmark;
+
+/**
+ * Compares the regex based escapeString that used to be in Event with compiled
+ * EscapeTemplates, on typical bucketed hdfs paths. Events are a minute apart,
+ * so date buckets change about as often as they would for a busy collector.
+ * Each case is run once to warm up and once measured; the ns/event for the
+ * measured run is reported.
+ */
+public class PerfEscapeTemplate {
+  final static int EVENTS = 1000000;
+  final static String[] TEMPLATES = {
+      "hdfs://namenode/flume/%Y-%m-%d/%H00/",
+      "hdfs://namenode/flume/%{host}/%Y-%m-%d/%H00/data-",
+      "hdfs://namenode/flume/%{service}/%Y/%m/%d/%H/%M/%{host}-%t" };
+
+  Event[] events() {
+    Event[] evts = new Event[1000];
+    long ts = 1300000000000L;
+    for (int i = 0; i < evts.length; i++) {
+      evts[i] = new EventImpl(("event " + i).getBytes(), ts + i * 60000L,
+          Priority.INFO, i, "host" + (i % 10));
+      Attributes.setString(evts[i], "service", "svc" + (i % 3));
+    }
+    return evts;
+  }
+
+  /**
+   * The original regex implementation of Event.escapeString.
+   */
+  static String regexEscape(Event e, String in) {
+    Matcher matcher = Event.tagPattern.matcher(in);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      String replacement = "";
+      if (matcher.group(2) != null) {
+        replacement = e.mapTagToString(matcher.group(2));
+        if (replacement == null) {
+          replacement = "";
+        }
+      } else {
+        replacement = e.replaceShorthand(matcher.group(1).charAt(0));
+      }
+      replacement = replacement.replaceAll("\\\\", "\\\\\\\\");
+      replacement = replacement.replaceAll("\\$", "\\\\\\$");
+      matcher.appendReplacement(sb, replacement);
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  long runRegex(Event[] evts, String tmpl) {
+    long start = System.nanoTime();
+    int len = 0;
+    for (int i = 0; i < EVENTS; i++) {
+      len += regexEscape(evts[i % evts.length], tmpl).length();
+    }
+    return (System.nanoTime() - start) / EVENTS + (len == 0 ? 1 : 0);
+  }
+
+  long runCompiled(Event[] evts, String tmpl) {
+    EscapeTemplate t = EscapeTemplate.compile(tmpl);
+    long start = System.nanoTime();
+    int len = 0;
+    for (int i = 0; i < EVENTS; i++) {
+      len += t.expand(evts[i % evts.length]).length();
+    }
+    return (System.nanoTime() - start) / EVENTS + (len == 0 ? 1 : 0);
+  }
+
+  @Test
+  public void testEscapeTemplates() {
+    Event[] evts = events();
+    for (String tmpl : TEMPLATES) {
+      Benchmark b = new Benchmark("escape " + tmpl);
+      b.mark("begin");
+      runRegex(evts, tmpl);
+      b.mark("regex ns/event", runRegex(evts, tmpl));
+      runCompiled(evts, tmpl);
+      b.mark("compiled ns/event", runCompiled(evts, tmpl));
+      b.done();
+    }
+  }
+}
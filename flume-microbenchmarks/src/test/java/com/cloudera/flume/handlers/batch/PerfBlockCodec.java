@@ -0,0 +1,128 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.cloudera.util.Benchmark;
+
+/**
+ * Compares a new GZIPOutputStream per block, which is what GzipDecorator used
+ * to do, against the reusable block codecs on batches of syslog-like lines.
+ * Each case is run once to warm up and once measured; MB/s of raw data and
+ * the compressed size in percent of the raw size are reported.
+ */
+public class PerfBlockCodec {
+  final static int BLOCKS = 2000;
+  final static int BLOCK_SIZE = 64 * 1024;
+
+  static byte[] logBlock(Random rand) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < BLOCK_SIZE) {
+      sb.append("Oct 18 12:").append(rand.nextInt(60)).append(':').append(
+          rand.nextInt(60)).append(" web").append(rand.nextInt(40)).append(
+          " nginx[").append(rand.nextInt(30000)).append("]: 10.0.").append(
+          rand.nextInt(256)).append('.').append(rand.nextInt(256)).append(
+          " GET /api/v1/items/").append(rand.nextInt(100000)).append(
+          " HTTP/1.1 200 ").append(rand.nextInt(5000)).append('\n');
+    }
+    return sb.toString().getBytes();
+  }
+
+  long mbPerSec(long bytes, long nanos) {
+    return bytes * 1000L / Math.max(1, nanos);
+  }
+
+  long runStream(byte[][] blocks, long[] size) throws IOException {
+    long start = System.nanoTime();
+    long raw = 0;
+    size[0] = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      byte[] b = blocks[i % blocks.length];
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      GZIPOutputStream gzos = new GZIPOutputStream(baos);
+      gzos.write(b);
+      gzos.close();
+      size[0] += baos.size();
+      raw += b.length;
+    }
+    return mbPerSec(raw, System.nanoTime() - start);
+  }
+
+  long runCompress(BlockCodec codec, byte[][] blocks, long[] size)
+      throws IOException {
+    long start = System.nanoTime();
+    long raw = 0;
+    size[0] = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      byte[] b = blocks[i % blocks.length];
+      size[0] += codec.compress(b, 0, b.length).length;
+      raw += b.length;
+    }
+    return mbPerSec(raw, System.nanoTime() - start);
+  }
+
+  long runDecompress(BlockCodec codec, byte[][] blocks) throws IOException {
+    byte[][] compressed = new byte[blocks.length][];
+    for (int i = 0; i < blocks.length; i++) {
+      compressed[i] = codec.compress(blocks[i], 0, blocks[i].length);
+    }
+    long start = System.nanoTime();
+    long raw = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      raw += codec.decompress(compressed[i % compressed.length]).length;
+    }
+    return mbPerSec(raw, System.nanoTime() - start);
+  }
+
+  @Test
+  public void testBlockCodecs() throws IOException {
+    Random rand = new Random(0);
+    byte[][] blocks = new byte[32][];
+    long raw = 0;
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = logBlock(rand);
+      raw += blocks[i].length;
+    }
+    raw = raw * BLOCKS / blocks.length;
+    long[] size = new long[1];
+
+    Benchmark b = new Benchmark("block codecs");
+    b.mark("begin");
+    runStream(blocks, size);
+    b.mark("GZIPOutputStream per block MB/s", runStream(blocks, size));
+    b.mark("GZIPOutputStream per block size %", size[0] * 100 / raw);
+
+    BlockCodec[] codecs = { new GzipBlockCodec(-1), new GzipBlockCodec(1),
+        new LzBlockCodec() };
+    String[] names = { "gzip", "gzip(1)", "lz" };
+    for (int i = 0; i < codecs.length; i++) {
+      runCompress(codecs[i], blocks, size);
+      b.mark(names[i] + " compress MB/s", runCompress(codecs[i], blocks, size));
+      b.mark(names[i] + " size %", size[0] * 100 / raw);
+      runDecompress(codecs[i], blocks);
+      b.mark(names[i] + " decompress MB/s", runDecompress(codecs[i], blocks));
+    }
+    b.done();
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.rolling;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.cloudera.flume.FlumeBenchmarkHarness;
+import com.cloudera.flume.conf.LogicalNodeContext;
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventSink;
+import com.cloudera.flume.handlers.debug.MemorySinkSource;
+import com.cloudera.flume.handlers.debug.NullSink;
+import com.cloudera.util.Benchmark;
+
+/**
+ * This measures the per event overhead of the roll sink. The roll sink used to
+ * hand every event to a single threaded executor and block on the future so
+ * that a rotation could cancel it. The executor hand off is reproduced here as
+ * a baseline against the current append which runs on the caller's thread.
+ * 
+ * All cases append 1M 100 byte events to a null sink so that only the roll
+ * overhead is measured.
+ */
+public class PerfRollSink {
+
+  final static int COUNT = 1000000;
+
+  @Test
+  public void testNullSink() throws IOException, InterruptedException {
+    MemorySinkSource mem = FlumeBenchmarkHarness.synthInMem(COUNT, 100, 1);
+    Benchmark b = new Benchmark("null sink");
+    b.mark("begin");
+
+    EventSink snk = new NullSink();
+    snk.open();
+    Event e;
+    while ((e = mem.next()) != null) {
+      snk.append(e);
+    }
+    snk.close();
+    b.mark("null sink appends", COUNT);
+    b.done();
+  }
+
+  /**
+   * Baseline: the old per event executor hand off in front of a null sink.
+   */
+  @Test
+  public void testExecutorHandoff() throws IOException, InterruptedException,
+      ExecutionException {
+    MemorySinkSource mem = FlumeBenchmarkHarness.synthInMem(COUNT, 100, 1);
+    Benchmark b = new Benchmark("executor hand off");
+    b.mark("begin");
+
+    final EventSink snk = new NullSink();
+    snk.open();
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    Event e;
+    while ((e = mem.next()) != null) {
+      final Event evt = e;
+      executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          snk.append(evt);
+          return null;
+        }
+      }).get();
+    }
+    executor.shutdown();
+    snk.close();
+    b.mark("executor hand off appends", COUNT);
+    b.done();
+  }
+
+  @Test
+  public void testRollSink() throws IOException, InterruptedException {
+    MemorySinkSource mem = FlumeBenchmarkHarness.synthInMem(COUNT, 100, 1);
+    Benchmark b = new Benchmark("roll sink");
+    b.mark("begin");
+
+    // long roll and check periods so no rotations happen during the run.
+    RollSink snk = new RollSink(LogicalNodeContext.testingContext(), "null",
+        1000000, 1000000);
+    snk.open();
+    Event e;
+    while ((e = mem.next()) != null) {
+      snk.append(e);
+    }
+    snk.close();
+    b.mark("roll sink appends", COUNT);
+    b.done();
+  }
+}
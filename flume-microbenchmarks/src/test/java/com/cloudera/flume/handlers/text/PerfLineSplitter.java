@@ -0,0 +1,132 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.handlers.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.util.Benchmark;
+
+/**
+ * Compares finding line ends a byte at a time, which is what the tail, text
+ * and exec sources used to do, against the word at a time scan of
+ * LineSplitter on buffers of access-log lines. The tail cursor's line
+ * extraction, which also builds the events, is measured as well. Each case is
+ * run once to warm up and once measured; MB/s are reported.
+ */
+public class PerfLineSplitter {
+  final static int BLOCKS = 4000;
+  final static int BLOCK_SIZE = 64 * 1024;
+
+  static ByteBuffer logBlock(Random rand) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < BLOCK_SIZE - 200) {
+      sb.append("10.0.").append(rand.nextInt(256)).append('.').append(
+          rand.nextInt(256)).append(" - - [18/Oct/2010:12:").append(
+          rand.nextInt(60)).append(':').append(rand.nextInt(60)).append(
+          " -0700] \"GET /api/v1/items/").append(rand.nextInt(100000)).append(
+          " HTTP/1.1\" 200 ").append(rand.nextInt(5000)).append('\n');
+    }
+    ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+    buf.put(sb.toString().getBytes());
+    buf.flip();
+    return buf;
+  }
+
+  long mbPerSec(long bytes, long nanos) {
+    return bytes * 1000L / Math.max(1, nanos);
+  }
+
+  long runBytes(ByteBuffer[] blocks, long[] lines) {
+    long start = System.nanoTime();
+    long raw = 0;
+    lines[0] = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      ByteBuffer buf = blocks[i % blocks.length].duplicate();
+      while (buf.hasRemaining()) {
+        if (buf.get() == '\n') {
+          lines[0]++;
+        }
+      }
+      raw += buf.limit();
+    }
+    return mbPerSec(raw, System.nanoTime() - start);
+  }
+
+  long runSplitter(ByteBuffer[] blocks, long[] lines) {
+    long start = System.nanoTime();
+    long raw = 0;
+    lines[0] = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      ByteBuffer buf = blocks[i % blocks.length];
+      int limit = buf.limit();
+      int nl = 0;
+      while ((nl = LineSplitter.indexOfNewline(buf, nl, limit)) >= 0) {
+        nl++;
+        lines[0]++;
+      }
+      raw += limit;
+    }
+    return mbPerSec(raw, System.nanoTime() - start);
+  }
+
+  long runCursor(ByteBuffer[] blocks) throws IOException,
+      InterruptedException {
+    LinkedBlockingQueue<Event> q = new LinkedBlockingQueue<Event>();
+    Cursor c = new Cursor(q, new File("access.log"));
+    long start = System.nanoTime();
+    long raw = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+      buf.put(blocks[i % blocks.length].duplicate());
+      buf.flip();
+      raw += buf.limit();
+      c.extractLines(buf);
+      q.clear();
+    }
+    return mbPerSec(raw, System.nanoTime() - start);
+  }
+
+  @Test
+  public void testLineSplitting() throws IOException, InterruptedException {
+    Random rand = new Random(0);
+    ByteBuffer[] blocks = new ByteBuffer[32];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = logBlock(rand);
+    }
+    long[] lines = new long[1];
+
+    Benchmark b = new Benchmark("line splitting");
+    b.mark("begin");
+    runBytes(blocks, lines);
+    b.mark("byte at a time MB/s", runBytes(blocks, lines));
+    b.mark("byte at a time lines", lines[0]);
+    runSplitter(blocks, lines);
+    b.mark("LineSplitter MB/s", runSplitter(blocks, lines));
+    b.mark("LineSplitter lines", lines[0]);
+    runCursor(blocks);
+    b.mark("Cursor.extractLines MB/s", runCursor(blocks));
+    b.done();
+  }
+}
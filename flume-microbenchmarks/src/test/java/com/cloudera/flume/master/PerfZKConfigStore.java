@@ -0,0 +1,86 @@
+/**
+ * Licensed to Cloudera, Inc. under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.flume.master;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloudera.flume.conf.FlumeConfigData;
+import com.cloudera.flume.conf.FlumeConfiguration;
+import com.cloudera.util.Benchmark;
+import com.cloudera.util.FileUtil;
+
+/**
+ * Measures how long a single config update takes on a ZooKeeperConfigStore
+ * holding an increasing number of logical node configs, and how long a peer
+ * store takes to load them all. Each config is a znode of its own, so update
+ * latency should stay flat as the number of nodes grows.
+ */
+public class PerfZKConfigStore {
+  final static int UPDATES = 200;
+
+  @Test
+  public void testUpdateLatency() throws IOException, InterruptedException {
+    File tmp = FileUtil.mktempdir();
+    FlumeConfiguration cfg = FlumeConfiguration.createTestableConfiguration();
+    cfg.set(FlumeConfiguration.MASTER_ZK_LOGDIR, tmp.getAbsolutePath());
+    cfg.set(FlumeConfiguration.MASTER_ZK_SERVERS, "localhost:2181:3181:4181");
+    cfg.setInt(FlumeConfiguration.MASTER_SERVER_ID, 0);
+    ZooKeeperService zk = new ZooKeeperService();
+    zk.init(cfg);
+    String flow = cfg.getDefaultFlowName();
+
+    ZooKeeperConfigStore store = new ZooKeeperConfigStore(zk);
+    store.init();
+
+    Benchmark b = new Benchmark("zk config update latency");
+    b.mark("begin");
+    int nodes = 0;
+    for (int target : new int[] { 10, 100, 1000, 5000 }) {
+      Map<String, FlumeConfigData> bulk = new HashMap<String, FlumeConfigData>();
+      for (; nodes < target; nodes++) {
+        bulk.put("node" + nodes, new FlumeConfigData(0, "null", "null", 0, 0,
+            flow));
+      }
+      store.bulkSetConfig(bulk);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < UPDATES; i++) {
+        store.setConfig("node" + (i % nodes), flow, "null", "console");
+      }
+      b.mark(nodes + " nodes, us per setConfig", (System.nanoTime() - start)
+          / UPDATES / 1000);
+
+      start = System.nanoTime();
+      ZooKeeperConfigStore peer = new ZooKeeperConfigStore(zk);
+      peer.init();
+      b.mark(nodes + " nodes, ms to load", (System.nanoTime() - start)
+          / 1000000);
+      peer.shutdown();
+    }
+    b.done();
+
+    store.shutdown();
+    zk.shutdown();
+    FileUtil.rmr(tmp);
+  }
+}